@@ -0,0 +1,660 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.api.records.reader.impl.csv;
+
+import org.datavec.api.conf.Configuration;
+import org.datavec.api.records.Record;
+import org.datavec.api.records.metadata.RecordMetaData;
+import org.datavec.api.records.metadata.RecordMetaDataLine;
+import org.datavec.api.records.reader.BaseRecordReader;
+import org.datavec.api.split.InputSplit;
+import org.datavec.api.split.InputStreamInputSplit;
+import org.datavec.api.split.StringSplit;
+import org.datavec.api.transform.ColumnType;
+import org.datavec.api.transform.metadata.CategoricalMetaData;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.*;
+import org.datavec.api.writable.batch.NDArrayRecordBatch;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Fast CSV record reader for numeric data.<br>
+ * Unlike {@link CSVRecordReader}, which creates a String per line, a String per field and a {@link Text} writable per
+ * field, this reader parses values straight from the bytes of the input (read via NIO channel into a reusable buffer),
+ * into a reusable primitive array.<br>
+ * <br>
+ * {@link #next(int)} returns minibatches as {@link NDArrayRecordBatch}, with one column vector (a view of a single
+ * [minibatch, numColumns] array) per CSV column, so RecordReaderDataSetIterator/RecordReaderMultiDataSetIterator build
+ * features and labels without any per-value Writable objects. {@link #next()} is supported as well, and returns
+ * numeric writables.<br>
+ * <br>
+ * Supported column types, when schema is provided: Integer, Long, Float, Double, Boolean (true/false or numeric), and
+ * Categorical (converted to the index of the state in the schema). Without schema, all columns are parsed as doubles,
+ * and number of columns is inferred from the first line.<br>
+ * Empty lines are skipped. Quoted values are supported, but delimiters within quotes are not.
+ */
+public class CSVNumericRecordReader extends BaseRecordReader {
+    public final static String SKIP_NUM_LINES = CSVRecordReader.SKIP_NUM_LINES;
+    public final static String DELIMITER = CSVRecordReader.DELIMITER;
+    public final static String QUOTE = CSVRecordReader.QUOTE;
+
+    protected static final int DEFAULT_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    // powers of 10 that are exactly representable as double
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1.0;
+        for (int i = 1; i < POW10.length; i++)
+            POW10[i] = POW10[i - 1] * 10;
+    }
+
+    protected int skipNumLines;
+    protected byte delimiter;
+    protected byte quote;
+    protected Schema schema;
+    protected int numColumns = -1;
+    protected ColumnType[] types;
+    protected List<Map<String, Integer>> categories;
+
+    protected Configuration conf;
+    protected InputSplit inputSplit;
+    protected URI[] locations;
+    protected int splitIndex = -1;
+    protected long lineIndex;                 // line index within the current location
+
+    protected transient ReadableByteChannel channel;
+    protected transient byte[] bytes;
+    protected transient int position;
+    protected transient int limit;
+    protected transient boolean eof = true;
+
+    // bounds of the line ready to be parsed, if any
+    protected transient int lineStart = -1;
+    protected transient int lineEnd = -1;
+
+    protected transient double[] scratch;
+    protected transient int[] fieldStart;
+    protected transient int[] fieldEnd;
+
+    public CSVNumericRecordReader() {
+        this(0, CSVRecordReader.DEFAULT_DELIMITER);
+    }
+
+    /**
+     * @param skipNumLines number of lines to skip at the beginning of each file
+     * @param delimiter    delimiter character
+     */
+    public CSVNumericRecordReader(int skipNumLines, char delimiter) {
+        this(skipNumLines, delimiter, CSVRecordReader.DEFAULT_QUOTE, null);
+    }
+
+    /**
+     * @param skipNumLines number of lines to skip at the beginning of each file
+     * @param delimiter    delimiter character
+     * @param schema       schema of the data. Determines number of columns and conversion for each column
+     */
+    public CSVNumericRecordReader(int skipNumLines, char delimiter, Schema schema) {
+        this(skipNumLines, delimiter, CSVRecordReader.DEFAULT_QUOTE, schema);
+    }
+
+    /**
+     * @param skipNumLines number of lines to skip at the beginning of each file
+     * @param delimiter    delimiter character, must be ASCII
+     * @param quote        quote character, must be ASCII
+     * @param schema       schema of the data. May be null, in which case all columns are treated as doubles
+     */
+    public CSVNumericRecordReader(int skipNumLines, char delimiter, char quote, Schema schema) {
+        if (delimiter > 127 || quote > 127)
+            throw new IllegalArgumentException("Only ASCII delimiter and quote characters are supported");
+
+        this.skipNumLines = skipNumLines;
+        this.delimiter = (byte) delimiter;
+        this.quote = (byte) quote;
+        this.schema = schema;
+        if (schema != null)
+            setColumns(schema);
+    }
+
+    protected void setColumns(Schema schema) {
+        numColumns = schema.numColumns();
+        types = new ColumnType[numColumns];
+        categories = new ArrayList<>(numColumns);
+        for (int i = 0; i < numColumns; i++) {
+            types[i] = schema.getType(i);
+            Map<String, Integer> map = null;
+            switch (types[i]) {
+                case Integer:
+                case Long:
+                case Float:
+                case Double:
+                case Boolean:
+                    break;
+                case Categorical:
+                    List<String> states = ((CategoricalMetaData) schema.getMetaData(i)).getStateNames();
+                    map = new HashMap<>();
+                    for (int s = 0; s < states.size(); s++)
+                        map.put(states.get(s), s);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Column \"" + schema.getName(i) + "\" has type "
+                                    + types[i] + ", which isn't supported by CSVNumericRecordReader. Use CSVRecordReader instead");
+            }
+            categories.add(map);
+        }
+    }
+
+    @Override
+    public void initialize(InputSplit split) throws IOException, InterruptedException {
+        close();
+        this.inputSplit = split;
+        this.locations = null;
+        this.splitIndex = -1;
+        this.lineStart = -1;
+        this.position = 0;
+        this.limit = 0;
+        this.eof = true;
+
+        if (!(split instanceof StringSplit) && !(split instanceof InputStreamInputSplit)) {
+            List<URI> uris = new ArrayList<>();
+            Iterator<URI> iterator = split.locationsIterator();
+            while (iterator.hasNext())
+                uris.add(iterator.next());
+            this.locations = uris.toArray(new URI[0]);
+        }
+    }
+
+    @Override
+    public void initialize(Configuration conf, InputSplit split) throws IOException, InterruptedException {
+        this.conf = conf;
+        this.skipNumLines = conf.getInt(SKIP_NUM_LINES, this.skipNumLines);
+        this.delimiter = (byte) conf.getChar(DELIMITER, (char) this.delimiter);
+        this.quote = (byte) conf.getChar(QUOTE, (char) this.quote);
+        initialize(split);
+    }
+
+    /**
+     * Opens the next location, if any. Returns false if all locations are depleted
+     */
+    protected boolean openNext() throws IOException {
+        close();
+
+        InputStream is = null;
+        if (inputSplit instanceof StringSplit) {
+            if (splitIndex < 0)
+                is = new ByteArrayInputStream(((StringSplit) inputSplit).getData().getBytes(StandardCharsets.UTF_8));
+        } else if (inputSplit instanceof InputStreamInputSplit) {
+            if (splitIndex < 0)
+                is = ((InputStreamInputSplit) inputSplit).getIs();
+        } else if (locations != null && splitIndex + 1 < locations.length) {
+            URI uri = locations[splitIndex + 1];
+            if ("file".equals(uri.getScheme())) {
+                channel = FileChannel.open(new File(uri).toPath());
+            } else {
+                is = uri.toURL().openStream();
+            }
+        }
+
+        if (is != null)
+            channel = Channels.newChannel(is);
+
+        if (channel == null)
+            return false;
+
+        splitIndex++;
+        lineIndex = 0;
+        if (bytes == null)
+            bytes = new byte[DEFAULT_BUFFER_SIZE];
+        position = 0;
+        limit = 0;
+        eof = false;
+
+        for (int i = 0; i < skipNumLines; i++) {
+            if (!readLine())
+                break;
+        }
+        lineStart = -1;
+        return true;
+    }
+
+    /**
+     * Finds bounds of the next line within the buffer, reading more data if necessary. Returns false on end of input
+     */
+    protected boolean readLine() throws IOException {
+        int scan = position;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    lineStart = position;
+                    lineEnd = i > position && bytes[i - 1] == '\r' ? i - 1 : i;
+                    position = i + 1;
+                    lineIndex++;
+                    return true;
+                }
+            }
+
+            if (eof) {
+                if (position < limit) {
+                    // last line without line break
+                    lineStart = position;
+                    lineEnd = bytes[limit - 1] == '\r' ? limit - 1 : limit;
+                    position = limit;
+                    lineIndex++;
+                    return true;
+                }
+                return false;
+            }
+
+            // no line break within the buffer: move remainder to the beginning and read more, growing buffer if needed
+            int remaining = limit - position;
+            if (position > 0) {
+                System.arraycopy(bytes, position, bytes, 0, remaining);
+            } else if (remaining == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            scan = remaining;
+            position = 0;
+            limit = remaining;
+
+            ByteBuffer target = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+            int read = channel.read(target);
+            while (read == 0)
+                read = channel.read(target);
+
+            if (read < 0)
+                eof = true;
+            else
+                limit += read;
+        }
+    }
+
+    /**
+     * Makes sure the next non-empty line is ready to be parsed
+     */
+    protected boolean fetch() {
+        if (lineStart >= 0)
+            return true;
+
+        try {
+            while (true) {
+                while (readLine()) {
+                    if (lineEnd > lineStart)
+                        return true;
+                }
+
+                lineStart = -1;
+                if (!openNext())
+                    return false;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading CSV data", e);
+        }
+    }
+
+    /**
+     * Splits the current line into fields, and returns number of fields
+     */
+    protected int splitLine() {
+        if (fieldStart == null) {
+            fieldStart = new int[Math.max(numColumns, 16)];
+            fieldEnd = new int[fieldStart.length];
+        }
+
+        int cnt = 0;
+        int start = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || bytes[i] == delimiter) {
+                if (cnt == fieldStart.length) {
+                    fieldStart = Arrays.copyOf(fieldStart, cnt * 2);
+                    fieldEnd = Arrays.copyOf(fieldEnd, cnt * 2);
+                }
+                fieldStart[cnt] = start;
+                fieldEnd[cnt] = i;
+                cnt++;
+                start = i + 1;
+            }
+        }
+
+        if (numColumns < 0) {
+            numColumns = cnt;
+            types = new ColumnType[cnt];
+            Arrays.fill(types, ColumnType.Double);
+        }
+
+        if (cnt != numColumns)
+            throw new IllegalStateException("Expected " + numColumns + " columns, but got " + cnt + " at line "
+                            + lineIndex + " of " + currentLocation() + ": \""
+                            + new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8) + "\"");
+
+        return cnt;
+    }
+
+    protected double parseField(int column) {
+        int from = fieldStart[column];
+        int to = fieldEnd[column];
+
+        // trim whitespaces and quotes
+        while (from < to && bytes[from] == ' ')
+            from++;
+        while (to > from && bytes[to - 1] == ' ')
+            to--;
+        if (to - from >= 2 && bytes[from] == quote && bytes[to - 1] == quote) {
+            from++;
+            to--;
+        }
+
+        switch (types[column]) {
+            case Categorical: {
+                String value = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+                Integer idx = categories.get(column).get(value);
+                if (idx == null)
+                    throw new IllegalStateException("Unknown category \"" + value + "\" for column \""
+                                    + schema.getName(column) + "\" at line " + lineIndex + " of " + currentLocation());
+                return idx;
+            }
+            case Boolean:
+                if (matches(from, to, "true"))
+                    return 1.0;
+                else if (matches(from, to, "false"))
+                    return 0.0;
+                // numeric booleans are handled below
+            default:
+                return parseDouble(from, to);
+        }
+    }
+
+    private boolean matches(int from, int to, String value) {
+        if (to - from != value.length())
+            return false;
+
+        for (int i = 0; i < value.length(); i++)
+            if (Character.toLowerCase((char) bytes[from + i]) != value.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * Parses decimal number from the bytes. Values with up to 15 significant digits and small exponent are parsed
+     * directly (the result is exact, same as {@link Double#parseDouble(String)}), everything else falls back to
+     * Double.parseDouble
+     */
+    protected double parseDouble(int from, int to) {
+        if (from == to)
+            throw new NumberFormatException("Empty value at line " + lineIndex + " of " + currentLocation());
+
+        int i = from;
+        boolean negative = false;
+        if (bytes[i] == '-' || bytes[i] == '+') {
+            negative = bytes[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenDot = false;
+        for (; i < to; i++) {
+            byte b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros don't count as significant digits
+                    if (seenDot)
+                        exponent--;
+                    continue;
+                }
+                if (digits >= 15)
+                    return slowParse(from, to);
+
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (seenDot)
+                    exponent--;
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else if ((b == 'e' || b == 'E') && seenDigit) {
+                int j = i + 1;
+                boolean negativeExp = false;
+                if (j < to && (bytes[j] == '-' || bytes[j] == '+')) {
+                    negativeExp = bytes[j] == '-';
+                    j++;
+                }
+                if (j == to || to - j > 3)
+                    return slowParse(from, to);
+
+                int exp = 0;
+                for (; j < to; j++) {
+                    if (bytes[j] < '0' || bytes[j] > '9')
+                        return slowParse(from, to);
+                    exp = exp * 10 + (bytes[j] - '0');
+                }
+                exponent += negativeExp ? -exp : exp;
+                break;
+            } else {
+                // NaN, Infinity, hex etc
+                return slowParse(from, to);
+            }
+        }
+
+        if (!seenDigit)
+            return slowParse(from, to);
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exponent == 0) {
+            value = mantissa;
+        } else if (exponent > 0 && exponent < POW10.length) {
+            value = mantissa * POW10[exponent];
+            // product might be inexact if it doesn't fit into 53 bits
+            if (value >= (double) (1L << 53))
+                return slowParse(from, to);
+        } else if (exponent < 0 && -exponent < POW10.length) {
+            value = mantissa / POW10[-exponent];
+        } else {
+            return slowParse(from, to);
+        }
+
+        return negative ? -value : value;
+    }
+
+    private double slowParse(int from, int to) {
+        String s = new String(bytes, from, to - from, StandardCharsets.UTF_8);
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new NumberFormatException("Unable to parse value \"" + s + "\" at line " + lineIndex + " of "
+                            + currentLocation());
+        }
+    }
+
+    protected String currentLocation() {
+        if (locations != null && splitIndex >= 0 && splitIndex < locations.length)
+            return String.valueOf(locations[splitIndex]);
+        return "input";
+    }
+
+    /**
+     * Parses the current line into the given array, starting at the given offset, with the given stride between columns
+     */
+    protected void parseLine(double[] target, int offset, int stride) {
+        splitLine();
+        for (int c = 0; c < numColumns; c++)
+            target[offset + c * stride] = parseField(c);
+
+        invokeListeners(lineIndex);
+        lineStart = -1;
+    }
+
+    @Override
+    public boolean batchesSupported() {
+        return true;
+    }
+
+    @Override
+    public List<List<Writable>> next(int num) {
+        if (!fetch())
+            throw new NoSuchElementException("No next element found!");
+
+        // column count might not be known before the first line is parsed
+        if (numColumns < 0)
+            splitLine();
+
+        if (scratch == null || scratch.length != num * numColumns)
+            scratch = new double[num * numColumns];
+
+        // values are stored column-major, so each column of the result is contiguous
+        int cnt = 0;
+        while (cnt < num && fetch()) {
+            parseLine(scratch, cnt, num);
+            cnt++;
+        }
+
+        double[] data = scratch;
+        if (cnt < num) {
+            // partial batch: columns have to be compacted first
+            data = new double[cnt * numColumns];
+            for (int c = 0; c < numColumns; c++)
+                System.arraycopy(scratch, c * num, data, c * cnt, cnt);
+        }
+        INDArray arr = Nd4j.create(data, new int[] {cnt, numColumns}, 'f');
+
+        List<INDArray> columns = new ArrayList<>(numColumns);
+        for (int c = 0; c < numColumns; c++)
+            columns.add(arr.getColumn(c));
+
+        return new NDArrayRecordBatch(columns);
+    }
+
+    @Override
+    public List<Writable> next() {
+        if (!fetch())
+            throw new NoSuchElementException("No next element found!");
+
+        splitLine();
+        List<Writable> ret = new ArrayList<>(numColumns);
+        for (int c = 0; c < numColumns; c++) {
+            double v = parseField(c);
+            switch (types[c]) {
+                case Integer:
+                case Categorical:
+                    ret.add(new IntWritable((int) v));
+                    break;
+                case Long:
+                    ret.add(new LongWritable((long) v));
+                    break;
+                case Float:
+                    ret.add(new FloatWritable((float) v));
+                    break;
+                case Boolean:
+                    ret.add(new BooleanWritable(v != 0.0));
+                    break;
+                default:
+                    ret.add(new DoubleWritable(v));
+            }
+        }
+
+        invokeListeners(lineIndex);
+        lineStart = -1;
+        return ret;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return fetch();
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return null;
+    }
+
+    @Override
+    public void reset() {
+        if (inputSplit == null)
+            throw new UnsupportedOperationException("Cannot reset without first initializing");
+        try {
+            inputSplit.reset();
+            initialize(inputSplit);
+        } catch (Exception e) {
+            throw new RuntimeException("Error during CSVNumericRecordReader reset", e);
+        }
+    }
+
+    @Override
+    public boolean resetSupported() {
+        if (inputSplit != null)
+            return inputSplit.resetSupported();
+        return true;
+    }
+
+    @Override
+    public List<Writable> record(URI uri, DataInputStream dataInputStream) throws IOException {
+        throw new UnsupportedOperationException("Reading CSV data from DataInputStream not yet implemented");
+    }
+
+    @Override
+    public Record nextRecord() {
+        if (!fetch())
+            throw new NoSuchElementException("No next element found!");
+
+        // line index is 1-based here, metadata uses 0-based one
+        long line = lineIndex - 1;
+        URI uri = locations == null || splitIndex < 0 || splitIndex >= locations.length ? null : locations[splitIndex];
+        List<Writable> next = next();
+        RecordMetaData meta = new RecordMetaDataLine((int) line, uri, CSVNumericRecordReader.class);
+        return new org.datavec.api.records.impl.Record(next, meta);
+    }
+
+    @Override
+    public Record loadFromMetaData(RecordMetaData recordMetaData) throws IOException {
+        throw new UnsupportedOperationException("Loading from metadata is not supported by CSVNumericRecordReader: use CSVRecordReader instead");
+    }
+
+    @Override
+    public List<Record> loadFromMetaData(List<RecordMetaData> recordMetaDatas) throws IOException {
+        throw new UnsupportedOperationException("Loading from metadata is not supported by CSVNumericRecordReader: use CSVRecordReader instead");
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+}
@@ -54,8 +54,8 @@ public class NDArrayRecordBatch extends AbstractWritableRecordBatch {
         this.arrays = arrays;
 
         //Check that dimension 0 matches:
+        size = arrays.get(0).size(0);
         if(arrays.size() > 1){
-            size = arrays.get(0).size(0);
             for( int i=1; i<arrays.size(); i++ ){
                 if(size != arrays.get(i).size(0)){
                     throw new IllegalArgumentException("Invalid input arrays: all arrays must have same size for" +
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.api.records.reader.impl;
+
+import org.apache.commons.io.FileUtils;
+import org.datavec.api.records.reader.impl.csv.CSVNumericRecordReader;
+import org.datavec.api.records.reader.impl.csv.CSVRecordReader;
+import org.datavec.api.split.FileSplit;
+import org.datavec.api.split.StringSplit;
+import org.datavec.api.transform.metadata.BooleanMetaData;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.writable.IntWritable;
+import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.batch.NDArrayRecordBatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CSVNumericRecordReaderTest {
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    private File writeRandomCsv(String name, int lines, int columns, long seed) throws Exception {
+        Random r = new Random(seed);
+        StringBuilder sb = new StringBuilder("header");
+        for (int c = 1; c < columns; c++)
+            sb.append(",col").append(c);
+        sb.append("\n");
+
+        for (int i = 0; i < lines; i++) {
+            for (int c = 0; c < columns; c++) {
+                if (c > 0)
+                    sb.append(",");
+
+                switch ((i + c) % 4) {
+                    case 0:
+                        sb.append(r.nextInt(1000) - 500);
+                        break;
+                    case 1:
+                        sb.append(r.nextGaussian());
+                        break;
+                    case 2:
+                        sb.append(r.nextFloat() * 1e-3f);
+                        break;
+                    default:
+                        sb.append(String.format(Locale.US, "%.4e", r.nextDouble() * 1e6));
+                }
+            }
+            sb.append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+
+        File f = new File(testDir.getRoot(), name);
+        FileUtils.writeStringToFile(f, sb.toString(), StandardCharsets.UTF_8);
+        return f;
+    }
+
+    @Test
+    public void testSameAsCSVRecordReader() throws Exception {
+        File f = writeRandomCsv("data.csv", 500, 7, 12345);
+
+        CSVRecordReader exp = new CSVRecordReader(1, ',');
+        exp.initialize(new FileSplit(f));
+
+        CSVNumericRecordReader act = new CSVNumericRecordReader(1, ',');
+        act.initialize(new FileSplit(f));
+
+        int cnt = 0;
+        while (exp.hasNext()) {
+            assertTrue(act.hasNext());
+            List<Writable> e = exp.next();
+            List<Writable> a = act.next();
+            assertEquals(e.size(), a.size());
+            for (int i = 0; i < e.size(); i++)
+                assertEquals("Line " + cnt + ", column " + i, Double.parseDouble(e.get(i).toString()), a.get(i).toDouble(), 0.0);
+            cnt++;
+        }
+        assertFalse(act.hasNext());
+        assertEquals(500, cnt);
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        File f = writeRandomCsv("data.csv", 250, 5, 123);
+
+        CSVRecordReader exp = new CSVRecordReader(1, ',');
+        exp.initialize(new FileSplit(f));
+
+        CSVNumericRecordReader act = new CSVNumericRecordReader(1, ',');
+        act.initialize(new FileSplit(f));
+        assertTrue(act.batchesSupported());
+
+        for (int e = 0; e < 2; e++) {
+            int cnt = 0;
+            while (act.hasNext()) {
+                List<List<Writable>> batch = act.next(64);
+                assertTrue(batch instanceof NDArrayRecordBatch);
+
+                List<INDArray> columns = ((NDArrayRecordBatch) batch).getArrays();
+                assertEquals(5, columns.size());
+
+                int size = Math.min(64, 250 - cnt);
+                assertEquals(size, batch.size());
+                for (int i = 0; i < size; i++) {
+                    List<Writable> line = exp.next();
+                    for (int c = 0; c < 5; c++)
+                        assertEquals(Double.parseDouble(line.get(c).toString()), columns.get(c).getDouble(i, 0), 1e-5 * Math.max(1.0, Math.abs(columns.get(c).getDouble(i, 0))));
+                }
+                cnt += size;
+            }
+            assertEquals(250, cnt);
+
+            exp.reset();
+            act.reset();
+        }
+    }
+
+    @Test
+    public void testSchemaAndMultipleFiles() throws Exception {
+        File dir = testDir.newFolder();
+        FileUtils.writeStringToFile(new File(dir, "a.csv"), "1.5,\"red\",true\n\n2.5,green,false\n", StandardCharsets.UTF_8);
+        FileUtils.writeStringToFile(new File(dir, "b.csv"), "-3,blue,1", StandardCharsets.UTF_8);
+
+        Schema schema = new Schema.Builder().addColumnDouble("x").addColumnCategorical("color", "red", "green", "blue")
+                        .addColumn(new BooleanMetaData("flag")).build();
+
+        CSVNumericRecordReader rr = new CSVNumericRecordReader(0, ',', schema);
+        rr.initialize(new FileSplit(dir, new String[] {"csv"}));
+
+        double[][] exp = new double[][] {{1.5, 0, 1}, {2.5, 1, 0}, {-3, 2, 1}};
+        int cnt = 0;
+        boolean sawBlue = false;
+        while (rr.hasNext()) {
+            List<Writable> next = rr.next();
+            assertTrue(next.get(1) instanceof IntWritable);
+
+            // file order isn't guaranteed
+            boolean found = false;
+            for (double[] e : exp)
+                found |= e[0] == next.get(0).toDouble() && e[1] == next.get(1).toInt() && e[2] == (next.get(2).toString().equals("true") ? 1 : 0);
+            assertTrue(next.toString(), found);
+            sawBlue |= next.get(1).toInt() == 2;
+            cnt++;
+        }
+        assertEquals(3, cnt);
+        assertTrue(sawBlue);
+    }
+
+    @Test
+    public void testNumberFormats() throws Exception {
+        String[] values = {"0", "-0.0", "007", "1.", ".5", "1e3", "1E-3", "-2.5e+2", "123456789012345678", "3.141592653589793238",
+                        "1.7976931348623157E308", "4.9e-324", "NaN", "-Infinity", " 42 ", "0.1", "0.30000000000000004"};
+        StringBuilder sb = new StringBuilder();
+        for (String v : values)
+            sb.append(v).append("\n");
+
+        CSVNumericRecordReader rr = new CSVNumericRecordReader();
+        rr.initialize(new StringSplit(sb.toString()));
+        for (String v : values) {
+            double exp = Double.parseDouble(v.trim());
+            assertEquals(v, Double.doubleToLongBits(exp), Double.doubleToLongBits(rr.next().get(0).toDouble()));
+        }
+        assertFalse(rr.hasNext());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testColumnCountMismatch() throws Exception {
+        CSVNumericRecordReader rr = new CSVNumericRecordReader();
+        rr.initialize(new StringSplit("1,2,3\n4,5\n"));
+        while (rr.hasNext())
+            rr.next();
+    }
+}
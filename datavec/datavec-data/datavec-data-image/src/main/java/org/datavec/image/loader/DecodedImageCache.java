@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.image.loader;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.Pointer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static org.bytedeco.javacpp.opencv_core.*;
+
+/**
+ * Cache of decoded 8-bit images, to avoid reading and decoding the same image files again in every epoch.<br>
+ * <br>
+ * Images are kept as compact uint8 arrays in off-heap memory, up to the given memory budget. When the budget is
+ * exceeded, least recently used images are evicted. Optionally, evicted images are spilled to a local memory-mapped
+ * file (up to its own budget), and loaded back from there instead of being decoded again.<br>
+ * <br>
+ * See {@link NativeImageLoader#setImageCache(DecodedImageCache)}: a single cache should only be used with loaders
+ * having the same configuration (height, width, channels, image transform or not), since images are cached by path.
+ * This class is thread safe.
+ */
+@Slf4j
+public class DecodedImageCache implements Closeable {
+    public static final long SPILL_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+    protected final long maxBytes;
+    protected final File spillFile;
+    protected final long maxSpillBytes;
+
+    protected final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    protected final Map<String, Entry> spilled = new HashMap<>();
+    protected long cachedBytes = 0;
+
+    protected RandomAccessFile spillRaf;
+    protected final List<MappedByteBuffer> spillSegments = new ArrayList<>();
+    protected long spillPosition = 0;
+
+    protected long hits = 0;
+    protected long spillHits = 0;
+    protected long misses = 0;
+
+    /**
+     * @param maxBytes memory budget for cached images, in bytes
+     */
+    public DecodedImageCache(long maxBytes) {
+        this(maxBytes, null, 0);
+    }
+
+    /**
+     * @param maxBytes      memory budget for cached images, in bytes
+     * @param spillFile     local file to spill evicted images to. Created or overwritten, and deleted on close
+     * @param maxSpillBytes maximal size of the spill file, in bytes
+     */
+    public DecodedImageCache(long maxBytes, File spillFile, long maxSpillBytes) {
+        if (maxBytes < 0 || maxSpillBytes < 0)
+            throw new IllegalArgumentException("Cache budgets must be >= 0: got " + maxBytes + " and " + maxSpillBytes);
+
+        this.maxBytes = maxBytes;
+        this.spillFile = spillFile;
+        this.maxSpillBytes = spillFile == null ? 0 : maxSpillBytes;
+    }
+
+    /**
+     * Returns a copy of the cached image, or null if the image is not cached. The caller owns the returned Mat.
+     */
+    public synchronized Mat get(String key) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            hits++;
+            Mat image = new Mat(e.rows, e.cols, CV_8UC(e.channels));
+            Pointer.memcpy(image.data(), e.data, e.length());
+            return image;
+        }
+
+        e = spilled.get(key);
+        if (e != null) {
+            spillHits++;
+            Mat image = new Mat(e.rows, e.cols, CV_8UC(e.channels));
+            ByteBuffer segment = spillSegments.get((int) (e.spillOffset / SPILL_SEGMENT_SIZE)).duplicate();
+            int offset = (int) (e.spillOffset % SPILL_SEGMENT_SIZE);
+            segment.limit(offset + (int) e.length()).position(offset);
+            BytePointer target = image.data().capacity(e.length());
+            target.asBuffer().put(segment);
+
+            //Bring it back to memory: it stays in the spill file as well, so eviction does not write it again
+            store(key, image, e);
+            return image;
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * Put a copy of the image into the cache. Only continuous 8-bit images are cached.
+     *
+     * @return true if the image was cached
+     */
+    public synchronized boolean put(String key, Mat image) {
+        if (image.depth() != CV_8U || !image.isContinuous())
+            return false;
+        if (entries.containsKey(key))
+            return true;
+
+        return store(key, image, spilled.get(key));
+    }
+
+    protected boolean store(String key, Mat image, Entry spilledEntry) {
+        long length = (long) image.rows() * image.cols() * image.channels();
+        if (length > maxBytes)
+            return false;
+
+        while (cachedBytes + length > maxBytes)
+            evict();
+
+        Entry e = new Entry(image.rows(), image.cols(), image.channels());
+        e.data = new BytePointer(length);
+        Pointer.memcpy(e.data, image.data(), length);
+        e.spillOffset = spilledEntry == null ? -1 : spilledEntry.spillOffset;
+        entries.put(key, e);
+        cachedBytes += length;
+        return true;
+    }
+
+    protected void evict() {
+        Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+        Map.Entry<String, Entry> eldest = iter.next();
+        iter.remove();
+
+        Entry e = eldest.getValue();
+        cachedBytes -= e.length();
+        if (e.spillOffset < 0 && maxSpillBytes > 0)
+            spill(eldest.getKey(), e);
+        e.data.deallocate();
+        e.data = null;
+    }
+
+    protected void spill(String key, Entry e) {
+        long length = e.length();
+        if (length > SPILL_SEGMENT_SIZE)
+            return;
+
+        //Images never cross segment boundaries
+        long segmentRemaining = SPILL_SEGMENT_SIZE - spillPosition % SPILL_SEGMENT_SIZE;
+        long offset = length <= segmentRemaining ? spillPosition : spillPosition + segmentRemaining;
+        if (offset + length > maxSpillBytes)
+            return;
+
+        try {
+            int segmentIdx = (int) (offset / SPILL_SEGMENT_SIZE);
+            while (spillSegments.size() <= segmentIdx) {
+                if (spillRaf == null)
+                    spillRaf = new RandomAccessFile(spillFile, "rw");
+                long position = spillSegments.size() * SPILL_SEGMENT_SIZE;
+                long size = Math.min(SPILL_SEGMENT_SIZE, maxSpillBytes - position);
+                spillSegments.add(spillRaf.getChannel().map(FileChannel.MapMode.READ_WRITE, position, size));
+            }
+
+            ByteBuffer segment = spillSegments.get(segmentIdx).duplicate();
+            segment.position((int) (offset % SPILL_SEGMENT_SIZE));
+            BytePointer source = e.data.capacity(length);
+            segment.put(source.asBuffer());
+        } catch (IOException ex) {
+            log.warn("Failed to spill decoded image to {}, spilling disabled", spillFile, ex);
+            spillPosition = maxSpillBytes;
+            return;
+        }
+
+        Entry s = new Entry(e.rows, e.cols, e.channels);
+        s.spillOffset = offset;
+        spilled.put(key, s);
+        spillPosition = offset + length;
+    }
+
+    /**
+     * @return number of images currently cached in memory
+     */
+    public synchronized int numCached() {
+        return entries.size();
+    }
+
+    /**
+     * @return number of images in the spill file
+     */
+    public synchronized int numSpilled() {
+        return spilled.size();
+    }
+
+    /**
+     * @return number of bytes used by images cached in memory
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * @return number of lookups served from memory
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of lookups served from the spill file
+     */
+    public synchronized long getSpillHits() {
+        return spillHits;
+    }
+
+    /**
+     * @return number of lookups for images not in the cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Remove all images from the cache, and release their memory
+     */
+    public synchronized void clear() {
+        for (Entry e : entries.values())
+            e.data.deallocate();
+        entries.clear();
+        spilled.clear();
+        cachedBytes = 0;
+        spillPosition = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        clear();
+        spillSegments.clear();
+        if (spillRaf != null) {
+            spillRaf.close();
+            spillRaf = null;
+            //Mapped segments are released on GC only, so deletion may fail on some platforms
+            if (!spillFile.delete())
+                spillFile.deleteOnExit();
+        }
+    }
+
+    protected static class Entry {
+        protected final int rows;
+        protected final int cols;
+        protected final int channels;
+        protected BytePointer data;
+        protected long spillOffset = -1;
+
+        protected Entry(int rows, int cols, int channels) {
+            this.rows = rows;
+            this.cols = cols;
+            this.channels = channels;
+        }
+
+        protected long length() {
+            return (long) rows * cols * channels;
+        }
+    }
+}
@@ -56,6 +56,7 @@ public class NativeImageLoader extends BaseImageLoader {
                     "PNG", "TIF", "TIFF", "EXR", "WEBP"};
 
     protected OpenCVFrameConverter.ToMat converter = new OpenCVFrameConverter.ToMat();
+    protected DecodedImageCache imageCache;
 
     boolean direct = !Loader.getPlatform().startsWith("android");
 
@@ -136,6 +137,7 @@ public class NativeImageLoader extends BaseImageLoader {
         this.centerCropIfNeeded = other.centerCropIfNeeded;
         this.imageTransform = other.imageTransform;
         this.multiPageMode = other.multiPageMode;
+        this.imageCache = other.imageCache;
     }
 
     @Override
@@ -215,8 +217,27 @@ public class NativeImageLoader extends BaseImageLoader {
     }
 
 
+    /**
+     * Set the cache of decoded images used when loading image files. Without image transform, images are cached
+     * after channel conversion, cropping and scaling. With image transform, images are cached as decoded, and the
+     * transform is applied every time they are loaded.
+     *
+     * @param imageCache cache to use, or null to disable caching
+     */
+    public void setImageCache(DecodedImageCache imageCache) {
+        this.imageCache = imageCache;
+    }
+
+    public DecodedImageCache getImageCache() {
+        return imageCache;
+    }
+
     @Override
     public INDArray asMatrix(File f) throws IOException {
+        if (imageCache != null && multiPageMode == null) {
+            INDArray ret = asMatrixCached(f, null);
+            return ret.reshape(ArrayUtil.combine(new long[] {1}, ret.shape()));
+        }
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             return asMatrix(bis);
         }
@@ -492,6 +513,10 @@ public class NativeImageLoader extends BaseImageLoader {
     }
 
     public void asMatrixView(File f, INDArray view) throws IOException {
+        if (imageCache != null) {
+            asMatrixCached(f, view);
+            return;
+        }
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             asMatrixView(bis, view);
         }
@@ -501,6 +526,48 @@ public class NativeImageLoader extends BaseImageLoader {
         transformImage(image, view);
     }
 
+    protected INDArray asMatrixCached(File f, INDArray ret) throws IOException {
+        String key = f.getAbsolutePath();
+        Mat image = imageCache.get(key);
+        if (image == null) {
+            Mat decoded;
+            try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+                Mat mat = streamToMat(bis);
+                decoded = imdecode(mat, CV_LOAD_IMAGE_ANYDEPTH | CV_LOAD_IMAGE_ANYCOLOR);
+                if (decoded == null || decoded.empty()) {
+                    PIX pix = pixReadMem(mat.data(), mat.cols());
+                    if (pix == null) {
+                        throw new IOException("Could not decode image from input stream");
+                    }
+                    decoded = convert(pix);
+                    pixDestroy(pix);
+                }
+            }
+
+            if (imageTransform != null) {
+                //Random transforms should be applied to the full image in every epoch: only decoding is cached
+                image = decoded;
+            } else {
+                image = prepareImage(decoded);
+                if (image != decoded) {
+                    decoded.deallocate();
+                }
+            }
+            imageCache.put(key, image);
+        }
+
+        if (imageTransform != null) {
+            ret = transformImage(image, ret);
+        } else {
+            if (ret == null) {
+                ret = Nd4j.create(image.channels(), image.rows(), image.cols());
+            }
+            fillNDArray(image, ret);
+        }
+        image.deallocate();
+        return ret;
+    }
+
     public INDArray asMatrix(Frame image) throws IOException {
         return asMatrix(converter.convert(image));
     }
@@ -514,10 +581,38 @@ public class NativeImageLoader extends BaseImageLoader {
     protected INDArray transformImage(Mat image, INDArray ret) throws IOException {
         if (imageTransform != null && converter != null) {
             ImageWritable writable = new ImageWritable(converter.convert(image));
-            writable = imageTransform.transform(writable);
-            image = converter.convert(writable.getFrame());
+            //Transforms keep per call state (random source, current image), and may be shared by copies of this loader.
+            //So transforms are serialized, and don't scale with the number of decode threads
+            synchronized (imageTransform) {
+                writable = imageTransform.transform(writable);
+                image = converter.convert(writable.getFrame());
+            }
+        }
+        Mat prepared = prepareImage(image);
+
+        if (ret == null) {
+            int rows = prepared.rows();
+            int cols = prepared.cols();
+            int channels = prepared.channels();
+            ret = Nd4j.create(channels, rows, cols);
+        }
+        fillNDArray(prepared, ret);
+
+        image.data(); // dummy call to make sure it does not get deallocated prematurely
+        if (prepared != image) {
+            prepared.deallocate();
         }
-        Mat image2 = null, image3 = null, image4 = null;
+        return ret;
+    }
+
+    /**
+     * Convert the image to the number of channels of this loader, then center crop (if needed) and scale it to the
+     * height and width of this loader
+     *
+     * @return the image itself if nothing had to be done, or a new continuous image otherwise
+     */
+    protected Mat prepareImage(Mat image) throws IOException {
+        Mat image2 = null, image3 = null;
 
         if (channels > 0 && image.channels() != channels) {
             int code = -1;
@@ -568,32 +663,21 @@ public class NativeImageLoader extends BaseImageLoader {
                 image3 = null;
             }
         }
-        image4 = scalingIfNeed(image);
+        Mat image4 = scalingIfNeed(image);
         if (image4 != image) {
             image = image4;
-        } else {
-            image4 = null;
-        }
-
-        if (ret == null) {
-            int rows = image.rows();
-            int cols = image.cols();
-            int channels = image.channels();
-            ret = Nd4j.create(channels, rows, cols);
+        } else if (image3 != null) {
+            //Cropped image is only a view of its source
+            image = image3.clone();
         }
-        fillNDArray(image, ret);
 
-        image.data(); // dummy call to make sure it does not get deallocated prematurely
-        if (image2 != null) {
-            image2.deallocate();
-        }
         if (image3 != null) {
             image3.deallocate();
         }
-        if (image4 != null) {
-            image4.deallocate();
+        if (image2 != null && image2 != image) {
+            image2.deallocate();
         }
-        return ret;
+        return image;
     }
 
     // TODO build flexibility on where to crop the image
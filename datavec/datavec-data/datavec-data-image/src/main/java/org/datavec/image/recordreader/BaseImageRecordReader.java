@@ -17,6 +17,7 @@
 package org.datavec.image.recordreader;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -38,16 +39,19 @@ import org.datavec.api.writable.NDArrayWritable;
 import org.datavec.api.writable.Writable;
 import org.datavec.api.writable.batch.NDArrayRecordBatch;
 import org.datavec.image.loader.BaseImageLoader;
+import org.datavec.image.loader.DecodedImageCache;
 import org.datavec.image.loader.ImageLoader;
 import org.datavec.image.loader.NativeImageLoader;
 import org.datavec.image.transform.ImageTransform;
 import org.nd4j.linalg.api.concurrency.AffinityManager;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.io.*;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Base class for the image record reader
@@ -77,12 +81,20 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
     protected int patternPosition = 0;
     @Getter @Setter
     protected boolean logLabelCountOnInit = true;
+    @Getter
+    protected int numDecodeThreads = 1;
+    @Getter
+    protected transient DecodedImageCache imageCache;
+    protected transient ExecutorService decodeExecutor;
+    protected transient ThreadLocal<NativeImageLoader> decodeLoaders;
+    protected transient DecodedBatch readAhead;
 
     public final static String HEIGHT = NAME_SPACE + ".height";
     public final static String WIDTH = NAME_SPACE + ".width";
     public final static String CHANNELS = NAME_SPACE + ".channels";
     public final static String CROP_IMAGE = NAME_SPACE + ".cropimage";
     public final static String IMAGE_LOADER = NAME_SPACE + ".imageloader";
+    public final static String DECODE_THREADS = NAME_SPACE + ".decodethreads";
 
     public BaseImageRecordReader() {}
 
@@ -120,9 +132,15 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
 
     @Override
     public void initialize(InputSplit split) throws IOException {
+        //Decode threads hold copies of the previous image loader
+        shutdownDecoding();
+
         if (imageLoader == null) {
             imageLoader = new NativeImageLoader(height, width, channels, imageTransform);
         }
+        if (imageCache != null && imageLoader instanceof NativeImageLoader) {
+            ((NativeImageLoader) imageLoader).setImageCache(imageCache);
+        }
 
         if(split instanceof InputStreamInputSplit) {
             this.inputSplit = split;
@@ -177,6 +195,7 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
         this.width = conf.getLong(WIDTH, width);
         this.channels = conf.getLong(CHANNELS, channels);
         this.cropImage = conf.getBoolean(CROP_IMAGE, cropImage);
+        setNumDecodeThreads(conf.getInt(DECODE_THREADS, numDecodeThreads));
         if ("imageio".equals(conf.get(IMAGE_LOADER))) {
             this.imageLoader = new ImageLoader(height, width, channels, cropImage);
         } else {
@@ -230,6 +249,8 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
             }
         }
         if (iter != null) {
+            //Files of the read ahead batch go back to the iterator, to keep the order of records
+            cancelReadAhead();
             List<Writable> ret;
             File image = iter.next();
             currentFile = image;
@@ -273,7 +294,7 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
         }
 
         if (iter != null) {
-            return iter.hasNext();
+            return readAhead != null || iter.hasNext();
         } else if (record != null) {
             return !hitImage;
         }
@@ -293,17 +314,34 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
             imageLoader = new NativeImageLoader(height, width, channels, imageTransform);
         }
 
-        List<File> currBatch = new ArrayList<>();
-
-        int cnt = 0;
+        List<File> currBatch;
+        INDArray features;
+        if (numDecodeThreads > 1) {
+            DecodedBatch batch = nextDecodedBatch(num);
+            currBatch = batch.files;
+            features = batch.features;
+        } else {
+            currBatch = nextFiles(num);
+            features = createFeatures(currBatch.size());
+            for (int i = 0; i < currBatch.size(); i++) {
+                try {
+                    ((NativeImageLoader) imageLoader).asMatrixView(currBatch.get(i),
+                            features.tensorAlongDimension(i, 1, 2, 3));
+                } catch (Exception e) {
+                    log.error("Image file failed during load: {}", currBatch.get(i).getAbsolutePath());
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        Nd4j.getAffinityManager().ensureLocation(features, AffinityManager.Location.DEVICE);
 
+        int cnt = currBatch.size();
         int numCategories = (appendLabel || writeLabel) ? labels.size() : 0;
         List<Integer> currLabels = null;
         List<Writable> currLabelsWritable = null;
         List<List<Writable>> multiGenLabels = null;
-        while (cnt < num && iter.hasNext()) {
-            currentFile = iter.next();
-            currBatch.add(currentFile);
+        for (File file : currBatch) {
+            currentFile = file;
             invokeListeners(currentFile);
             if (appendLabel || writeLabel) {
                 //Collect the label Writables from the label generators
@@ -324,22 +362,8 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
                     }
                 }
             }
-            cnt++;
         }
 
-        INDArray features = Nd4j.createUninitialized(new long[] {cnt, channels, height, width}, 'c');
-        Nd4j.getAffinityManager().tagLocation(features, AffinityManager.Location.HOST);
-        for (int i = 0; i < cnt; i++) {
-            try {
-                ((NativeImageLoader) imageLoader).asMatrixView(currBatch.get(i),
-                        features.tensorAlongDimension(i, 1, 2, 3));
-            } catch (Exception e) {
-                System.out.println("Image file failed during load: " + currBatch.get(i).getAbsolutePath());
-                throw new RuntimeException(e);
-            }
-        }
-        Nd4j.getAffinityManager().ensureLocation(features, AffinityManager.Location.DEVICE);
-
 
         List<INDArray> ret = new ArrayList<>();
         ret.add(features);
@@ -385,9 +409,139 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
         return new NDArrayRecordBatch(ret);
     }
 
+    /**
+     * Set the number of threads used to decode and transform images in {@link #next(int)}. With more than 1 thread,
+     * images are decoded directly into the batch features array, and the next batch is read ahead (decoded in the
+     * background) while the current one is being used. Default: 1, i.e., images are decoded on the calling thread.<br>
+     * Note that only decoding and conversion scale with the number of threads. A shared {@link ImageTransform} is
+     * applied by one thread at a time, so when transforms (i.e. augmentation) dominate load time, adding decode
+     * threads won't make {@link #next(int)} faster.
+     *
+     * @param numDecodeThreads number of decode threads, must be > 0
+     */
+    public void setNumDecodeThreads(int numDecodeThreads) {
+        Preconditions.checkArgument(numDecodeThreads > 0, "Number of decode threads must be > 0: got " + numDecodeThreads);
+        if (numDecodeThreads != this.numDecodeThreads)
+            shutdownDecoding();
+        this.numDecodeThreads = numDecodeThreads;
+    }
+
+    /**
+     * Set the cache of decoded images, so that image files are read and decoded only once over multiple epochs,
+     * within the memory budget of the cache. Image transforms (if any) are still applied every time an image is
+     * loaded. See {@link DecodedImageCache}.<br>
+     * Should be called before initialization. Only used with {@link NativeImageLoader}.
+     *
+     * @param imageCache cache to use, or null to disable caching
+     */
+    public void setImageCache(DecodedImageCache imageCache) {
+        shutdownDecoding();
+        this.imageCache = imageCache;
+        if (imageLoader instanceof NativeImageLoader) {
+            ((NativeImageLoader) imageLoader).setImageCache(imageCache);
+        }
+    }
+
+    protected List<File> nextFiles(int num) {
+        List<File> files = new ArrayList<>();
+        while (files.size() < num && iter.hasNext())
+            files.add(iter.next());
+        return files;
+    }
+
+    protected INDArray createFeatures(int cnt) {
+        INDArray features = Nd4j.createUninitialized(new long[] {cnt, channels, height, width}, 'c');
+        Nd4j.getAffinityManager().tagLocation(features, AffinityManager.Location.HOST);
+        return features;
+    }
+
+    /**
+     * Returns the next batch of up to num decoded images, and submits the batch after it for decoding
+     */
+    protected DecodedBatch nextDecodedBatch(int num) {
+        DecodedBatch batch = readAhead;
+        readAhead = null;
+        if (batch == null) {
+            batch = submitBatch(nextFiles(num));
+        } else if (batch.files.size() > num) {
+            //Batch size was changed since the previous call: split the read ahead batch
+            batch.await();
+            readAhead = batch.split(num);
+        } else if (batch.files.size() < num && iter.hasNext()) {
+            batch = batch.concat(submitBatch(nextFiles(num - batch.files.size())));
+        }
+
+        if (readAhead == null && iter.hasNext())
+            readAhead = submitBatch(nextFiles(num));
+
+        batch.await();
+        return batch;
+    }
+
+    protected DecodedBatch submitBatch(List<File> files) {
+        if (decodeExecutor == null) {
+            final NativeImageLoader loader = (NativeImageLoader) imageLoader;
+            final Integer deviceId = Nd4j.getAffinityManager().getDeviceForCurrentThread();
+            //Image loaders keep decoding buffers and frame converters, so each thread gets its own copy
+            decodeLoaders = new ThreadLocal<NativeImageLoader>() {
+                @Override
+                protected NativeImageLoader initialValue() {
+                    return new DecodeImageLoader(loader);
+                }
+            };
+            decodeExecutor = Executors.newFixedThreadPool(numDecodeThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BaseImageRecordReader decode thread");
+                    t.setDaemon(true);
+                    Nd4j.getAffinityManager().attachThreadToDevice(t, deviceId);
+                    return t;
+                }
+            });
+        }
+
+        final ThreadLocal<NativeImageLoader> loaders = decodeLoaders;
+        INDArray features = createFeatures(files.size());
+        List<Future<?>> futures = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            final File file = files.get(i);
+            final INDArray view = features.tensorAlongDimension(i, 1, 2, 3);
+            futures.add(decodeExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    loaders.get().asMatrixView(file, view);
+                    return null;
+                }
+            }));
+        }
+        return new DecodedBatch(files, features, futures);
+    }
+
+    /**
+     * Drops the read ahead batch, if any: its files are returned to the file iterator
+     */
+    protected void cancelReadAhead() {
+        if (readAhead == null)
+            return;
+
+        for (Future<?> f : readAhead.futures)
+            f.cancel(false);
+        iter = Iterators.concat(readAhead.files.iterator(), iter);
+        readAhead = null;
+    }
+
+    protected void shutdownDecoding() {
+        cancelReadAhead();
+        if (decodeExecutor != null) {
+            decodeExecutor.shutdownNow();
+            decodeExecutor = null;
+            decodeLoaders = null;
+        }
+    }
+
     @Override
     public void close() throws IOException {
-        //No op
+        shutdownDecoding();
     }
 
     @Override
@@ -455,6 +609,7 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
     public void reset() {
         if (inputSplit == null)
             throw new UnsupportedOperationException("Cannot reset without first initializing");
+        cancelReadAhead();
         inputSplit.reset();
         if (iter != null) {
             iter = new FileFromPathIterator(inputSplit.locationsPathIterator());
@@ -518,4 +673,73 @@ public abstract class BaseImageRecordReader extends BaseRecordReader {
         }
         return out;
     }
+
+    /**
+     * Image loader copy used by a single decode thread
+     */
+    private static class DecodeImageLoader extends NativeImageLoader {
+        private DecodeImageLoader(NativeImageLoader other) {
+            super(other);
+        }
+    }
+
+    /**
+     * Files of a batch, and their features array being filled by the decode threads
+     */
+    protected static class DecodedBatch {
+        protected final List<File> files;
+        protected INDArray features;
+        protected final List<Future<?>> futures;
+
+        protected DecodedBatch(List<File> files, INDArray features, List<Future<?>> futures) {
+            this.files = files;
+            this.features = features;
+            this.futures = futures;
+        }
+
+        /**
+         * Wait until all images of this batch are decoded
+         */
+        protected void await() {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while decoding images", e);
+                } catch (ExecutionException e) {
+                    log.error("Image file failed during load: {}", files.get(i).getAbsolutePath());
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+            futures.clear();
+        }
+
+        /**
+         * Keep the first num images in this batch, and return the remaining ones as a new batch. Both batches
+         * must be decoded already.
+         */
+        protected DecodedBatch split(int num) {
+            long n = files.size();
+            DecodedBatch rest = new DecodedBatch(new ArrayList<>(files.subList(num, files.size())),
+                    features.get(NDArrayIndex.interval(num, n), NDArrayIndex.all(), NDArrayIndex.all(),
+                            NDArrayIndex.all()).dup('c'),
+                    new ArrayList<Future<?>>());
+            files.subList(num, files.size()).clear();
+            features = features.get(NDArrayIndex.interval(0, num), NDArrayIndex.all(), NDArrayIndex.all(),
+                    NDArrayIndex.all()).dup('c');
+            return rest;
+        }
+
+        /**
+         * Append the images of the other batch to this one, after both are decoded
+         */
+        protected DecodedBatch concat(DecodedBatch other) {
+            await();
+            other.await();
+            List<File> allFiles = new ArrayList<>(files);
+            allFiles.addAll(other.files);
+            return new DecodedBatch(allFiles, Nd4j.concat(0, features, other.features), new ArrayList<Future<?>>());
+        }
+    }
 }
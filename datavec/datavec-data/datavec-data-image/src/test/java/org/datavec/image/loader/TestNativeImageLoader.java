@@ -22,8 +22,10 @@ import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.OpenCVFrameConverter;
 import org.datavec.image.data.ImageWritable;
+import org.datavec.image.transform.FlipImageTransform;
 import org.junit.Test;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.io.ClassPathResource;
 
 import java.awt.image.BufferedImage;
@@ -463,4 +465,53 @@ public class TestNativeImageLoader {
         assertEquals(img1LargeBuffer, img1ExactBuffer);
     }
 
+    @Test
+    public void testImageCache() throws Exception {
+        File f1 = new ClassPathResource("datavec-data-image/voc/2007/JPEGImages/000005.jpg").getFile();
+        File f2 = new ClassPathResource("datavec-data-image/voc/2007/JPEGImages/000007.jpg").getFile();
+
+        NativeImageLoader loader = new NativeImageLoader(28, 28, 3);
+        INDArray exp1 = loader.asMatrix(f1);
+        INDArray exp2 = loader.asMatrix(f2);
+
+        //Room for a single 28x28x3 image in memory, the other one goes to the spill file
+        File spillFile = File.createTempFile("decodedimagecache", ".bin");
+        spillFile.deleteOnExit();
+        try (DecodedImageCache cache = new DecodedImageCache(3000, spillFile, 1024 * 1024)) {
+            loader.setImageCache(cache);
+            for (int epoch = 0; epoch < 3; epoch++) {
+                assertEquals(exp1, loader.asMatrix(f1));
+                INDArray view = Nd4j.create(3, 28, 28);
+                loader.asMatrixView(f2, view);
+                assertEquals(exp2.reshape(3, 28, 28), view);
+            }
+            assertEquals(2, cache.getMisses());
+            assertEquals(4, cache.getSpillHits());
+            assertEquals(1, cache.numCached());
+            assertEquals(2, cache.numSpilled());
+            assertEquals(28 * 28 * 3, cache.getCachedBytes());
+        }
+
+        //Without spill file, evicted images are decoded again
+        try (DecodedImageCache cache = new DecodedImageCache(10000)) {
+            loader.setImageCache(cache);
+            for (int epoch = 0; epoch < 2; epoch++) {
+                assertEquals(exp1, loader.asMatrix(f1));
+                assertEquals(exp2, loader.asMatrix(f2));
+            }
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.getHits());
+        }
+
+        //With image transform, decoded images are cached, and transform is applied every time
+        NativeImageLoader flipLoader = new NativeImageLoader(28, 28, 3, new FlipImageTransform(1));
+        INDArray expFlipped = flipLoader.asMatrix(f1);
+        try (DecodedImageCache cache = new DecodedImageCache(10 * 1024 * 1024)) {
+            flipLoader.setImageCache(cache);
+            assertEquals(expFlipped, flipLoader.asMatrix(f1));
+            assertEquals(expFlipped, flipLoader.asMatrix(f1));
+            assertEquals(1, cache.getHits());
+            assertTrue(cache.getCachedBytes() > 28 * 28 * 3);
+        }
+    }
 }
@@ -38,6 +38,7 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.io.ClassPathResource;
 
 import java.io.File;
@@ -243,6 +244,49 @@ public class TestImageRecordReader {
         assertEquals(l2.get(), act2);
     }
 
+    @Test
+    public void testParallelDecoding() throws Exception {
+        File rootDir = testDir.newFolder();
+        new ClassPathResource("datavec-data-image/testimages/").copyDirectory(rootDir);
+        FileSplit fs = new FileSplit(rootDir);
+
+        ImageRecordReader rr = new ImageRecordReader(32, 32, 3, new ParentPathLabelGenerator());
+        rr.initialize(fs);
+        NDArrayRecordBatch expected = (NDArrayRecordBatch) rr.next(6);
+        assertFalse(rr.hasNext());
+
+        ImageRecordReader parallel = new ImageRecordReader(32, 32, 3, new ParentPathLabelGenerator());
+        parallel.setNumDecodeThreads(3);
+        parallel.initialize(fs);
+        for (int epoch = 0; epoch < 2; epoch++) {
+            //Batch size changes while a batch is being read ahead: order of the images should be preserved
+            List<INDArray> features = new ArrayList<>();
+            List<INDArray> labels = new ArrayList<>();
+            for (int batchSize : new int[] {2, 1, 3}) {
+                NDArrayRecordBatch b = (NDArrayRecordBatch) parallel.next(batchSize);
+                assertEquals(batchSize, b.size());
+                features.add(b.getArrays().get(0));
+                labels.add(b.getArrays().get(1));
+            }
+            assertFalse(parallel.hasNext());
+            assertEquals(expected.getArrays().get(0), Nd4j.concat(0, features.toArray(new INDArray[3])));
+            assertEquals(expected.getArrays().get(1), Nd4j.concat(0, labels.toArray(new INDArray[3])));
+            parallel.reset();
+        }
+
+        //Single record reads after a batch: read ahead files should not be skipped
+        parallel.next(2);
+        int count = 2;
+        while (parallel.hasNext()) {
+            List<Writable> l = parallel.next();
+            assertEquals(expected.getArrays().get(0).get(NDArrayIndex.interval(count, count + 1), NDArrayIndex.all(),
+                    NDArrayIndex.all(), NDArrayIndex.all()), ((NDArrayWritable) l.get(0)).get());
+            count++;
+        }
+        assertEquals(6, count);
+        parallel.close();
+    }
+
     @Test
     public void testListenerInvocationBatch() throws IOException {
         ParentPathLabelGenerator labelMaker = new ParentPathLabelGenerator();
@@ -0,0 +1,523 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.local.transforms;
+
+import lombok.extern.slf4j.Slf4j;
+import org.datavec.api.records.reader.RecordReader;
+import org.datavec.api.records.reader.SequenceRecordReader;
+import org.datavec.api.records.writer.RecordWriter;
+import org.datavec.api.records.writer.SequenceRecordWriter;
+import org.datavec.api.transform.DataAction;
+import org.datavec.api.transform.Transform;
+import org.datavec.api.transform.TransformProcess;
+import org.datavec.api.transform.filter.Filter;
+import org.datavec.api.transform.ops.IAggregableReduceOp;
+import org.datavec.api.transform.rank.CalculateSortedRank;
+import org.datavec.api.transform.reduce.IAssociativeReducer;
+import org.datavec.api.transform.schema.SequenceSchema;
+import org.datavec.api.transform.sequence.ConvertToSequence;
+import org.datavec.api.writable.Text;
+import org.datavec.api.writable.Writable;
+import org.datavec.local.transforms.rank.UnzipForCalculateSortedRankFunction;
+import org.datavec.local.transforms.reduce.MapToPairForReducerFunction;
+import org.datavec.local.transforms.sequence.ConvertToSequenceLengthOne;
+import org.datavec.local.transforms.sequence.LocalGroupToSequenceFunction;
+import org.datavec.local.transforms.sequence.LocalSequenceFilterFunction;
+import org.datavec.local.transforms.sequence.LocalSequenceTransformFunction;
+import org.datavec.local.transforms.streaming.ExternalSorter;
+import org.datavec.local.transforms.streaming.GroupingIterator;
+import org.datavec.local.transforms.streaming.ParallelMapIterator;
+import org.datavec.local.transforms.transform.LocalTransformFunction;
+import org.datavec.local.transforms.transform.SequenceSplitFunction;
+import org.datavec.local.transforms.transform.filter.LocalFilterFunction;
+import org.nd4j.linalg.primitives.Pair;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Streaming version of {@link LocalTransformExecutor}: executes a {@link TransformProcess} from a record reader
+ * straight to a record writer, without holding the data set in memory.<br>
+ * <br>
+ * Stateless steps (transforms, filters, sequence splits, conversions from sequences) are applied record by record,
+ * in batches, by a pool of worker threads. The output order is the same as with a single thread.<br>
+ * Blocking steps (sorted rank, reductions and conversions to sequences by key) use an external merge sort, spilling
+ * sorted runs to temporary files once more than maxRecordsInMemory records are buffered. Reductions are then
+ * applied group by group, without collecting the groups. Note that each sequence created by a conversion to sequences
+ * is still collected in memory, to be sorted.<br>
+ * <br>
+ * Unlike {@link LocalTransformExecutor}, the results of reductions and conversions to sequences are ordered by key.
+ */
+@Slf4j
+public class LocalStreamingTransformExecutor {
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    public static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 100000;
+
+    protected final int numWorkers;
+    protected final int batchSize;
+    protected final int maxRecordsInMemory;
+    protected final File tempDir;
+
+    protected LocalStreamingTransformExecutor(Builder builder) {
+        this.numWorkers = builder.numWorkers;
+        this.batchSize = builder.batchSize;
+        this.maxRecordsInMemory = builder.maxRecordsInMemory;
+        this.tempDir = builder.tempDir;
+    }
+
+    /**
+     * Execute the specified TransformProcess on all records of the reader, and write the results to the writer.<br>
+     * Note: this method can only be used if the TransformProcess returns non-sequence data
+     *
+     * @return number of records written
+     */
+    public long execute(RecordReader reader, TransformProcess transformProcess, RecordWriter writer)
+            throws IOException {
+        if (transformProcess.getFinalSchema() instanceof SequenceSchema) {
+            throw new IllegalStateException("Cannot return sequence data with this method");
+        }
+        return run(records(reader), false, transformProcess, o -> writer.write(asRecord(o)));
+    }
+
+    /**
+     * Execute the specified TransformProcess on all records of the reader, and write the resulting sequences to the
+     * writer.<br>
+     * Note: this method can only be used if the TransformProcess starts with non-sequential data, but returns
+     * sequence data (after grouping or converting to a sequence as one of the steps)
+     *
+     * @return number of sequences written
+     */
+    public long executeToSequence(RecordReader reader, TransformProcess transformProcess,
+                                  SequenceRecordWriter writer) throws IOException {
+        if (!(transformProcess.getFinalSchema() instanceof SequenceSchema)) {
+            throw new IllegalStateException("Cannot return non-sequence data with this method");
+        }
+        return run(records(reader), false, transformProcess, o -> writer.write(asSequence(o)));
+    }
+
+    /**
+     * Execute the specified TransformProcess on all sequences of the reader, and write the resulting records to the
+     * writer.<br>
+     * Note: this method can only be used if the TransformProcess starts with sequence data, but returns
+     * non-sequential data (after converting sequential data to individual examples)
+     *
+     * @return number of records written
+     */
+    public long executeSequenceToSeparate(SequenceRecordReader reader, TransformProcess transformProcess,
+                                          RecordWriter writer) throws IOException {
+        if (transformProcess.getFinalSchema() instanceof SequenceSchema) {
+            throw new IllegalStateException("Cannot return sequence data with this method");
+        }
+        return run(sequences(reader), true, transformProcess, o -> writer.write(asRecord(o)));
+    }
+
+    /**
+     * Execute the specified TransformProcess on all sequences of the reader, and write the resulting sequences to the
+     * writer.<br>
+     * Note: this method can only be used if the TransformProcess starts with sequence data, and also returns
+     * sequence data
+     *
+     * @return number of sequences written
+     */
+    public long executeSequenceToSequence(SequenceRecordReader reader, TransformProcess transformProcess,
+                                          SequenceRecordWriter writer) throws IOException {
+        if (!(transformProcess.getFinalSchema() instanceof SequenceSchema)) {
+            throw new IllegalStateException("Cannot return non-sequence data with this method");
+        }
+        return run(sequences(reader), true, transformProcess, o -> writer.write(asSequence(o)));
+    }
+
+    protected long run(Iterator<Object> input, boolean sequenceInput, TransformProcess transformProcess, Sink sink)
+            throws IOException {
+        ExecutorService executor = null;
+        if (numWorkers > 1) {
+            executor = Executors.newFixedThreadPool(numWorkers, r -> {
+                Thread t = new Thread(r, "LocalStreamingTransformExecutor worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        List<Closeable> resources = new ArrayList<>();
+        AtomicLong filtered = new AtomicLong();
+        try {
+            Iterator<Object> output = build(input, sequenceInput, transformProcess, executor, resources, filtered);
+            long count = 0;
+            while (output.hasNext()) {
+                sink.write(output.next());
+                count++;
+            }
+
+            if (filtered.get() > 0) {
+                log.warn("Filtered out " + filtered.get() + " values");
+            }
+            return count;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (Closeable c : resources) {
+                c.close();
+            }
+        }
+    }
+
+    protected Iterator<Object> build(Iterator<Object> input, boolean sequenceInput, TransformProcess transformProcess,
+                                     ExecutorService executor, List<Closeable> resources, AtomicLong filtered) {
+        Iterator<Object> current = input;
+        boolean sequence = sequenceInput;
+        List<Function<Object, List<Object>>> steps = new ArrayList<>();
+
+        if (!sequenceInput) {
+            //Same as LocalTransformExecutor.execute: records with an unexpected number of columns are skipped
+            final int numColumns = transformProcess.getInitialSchema().numColumns();
+            steps.add(in -> {
+                if (asRecord(in).size() == numColumns)
+                    return Collections.singletonList(in);
+                filtered.incrementAndGet();
+                return Collections.emptyList();
+            });
+        }
+
+        for (DataAction d : transformProcess.getActionList()) {
+            if (d.getTransform() != null) {
+                steps.add(transformStep(d.getTransform(), sequence));
+            } else if (d.getFilter() != null) {
+                steps.add(filterStep(d.getFilter(), sequence));
+            } else if (d.getConvertFromSequence() != null) {
+                if (!sequence) {
+                    throw new IllegalStateException(
+                            "Cannot execute ConvertFromSequence operation: current data is not sequence data");
+                }
+                steps.add(in -> new ArrayList<Object>(asSequence(in)));
+                sequence = false;
+            } else if (d.getSequenceSplit() != null) {
+                if (!sequence) {
+                    throw new IllegalStateException("Error during execution of SequenceSplit: current data is not sequence data");
+                }
+                SequenceSplitFunction sequenceSplitFunction = new SequenceSplitFunction(d.getSequenceSplit());
+                steps.add(in -> new ArrayList<Object>(sequenceSplitFunction.call(asSequence(in))));
+            } else if (d.getConvertToSequence() != null && d.getConvertToSequence().isSingleStepSequencesMode()) {
+                //Edge case: create a sequence from each example, by treating each value as a sequence of length 1
+                ConvertToSequenceLengthOne convertToSequenceLengthOne = new ConvertToSequenceLengthOne();
+                steps.add(in -> Collections.<Object>singletonList(convertToSequenceLengthOne.apply(asRecord(in))));
+                sequence = true;
+            } else {
+                //Blocking steps: all of them operate on non-sequence data
+                if (sequence) {
+                    throw new IllegalStateException("Error during execution of " + d + ": current data is sequence "
+                            + "data. Trying to execute a reduce, sort or convert to sequence operation on a sequence?");
+                }
+
+                if (d.getConvertToSequence() != null) {
+                    current = applySteps(current, steps, executor);
+                    current = convertToSequence(current, d.getConvertToSequence(), resources);
+                    sequence = true;
+                } else if (d.getReducer() != null) {
+                    //Reduction key is prepended to each record by the workers, and removed again before reduction
+                    MapToPairForReducerFunction mapToPairForReducerFunction =
+                            new MapToPairForReducerFunction(d.getReducer());
+                    steps.add(in -> {
+                        Pair<String, List<Writable>> pair = mapToPairForReducerFunction.apply(asRecord(in));
+                        List<Writable> keyed = new ArrayList<>(pair.getSecond().size() + 1);
+                        keyed.add(new Text(pair.getFirst()));
+                        keyed.addAll(pair.getSecond());
+                        return Collections.<Object>singletonList(keyed);
+                    });
+                    current = applySteps(current, steps, executor);
+                    current = reduce(current, d.getReducer(), resources);
+                } else if (d.getCalculateSortedRank() != null) {
+                    current = applySteps(current, steps, executor);
+                    current = calculateSortedRank(current, d.getCalculateSortedRank(), resources);
+                } else {
+                    throw new RuntimeException("Unknown/not implemented action: " + d);
+                }
+                steps = new ArrayList<>();
+            }
+        }
+
+        return applySteps(current, steps, executor);
+    }
+
+    protected Function<Object, List<Object>> transformStep(Transform t, boolean sequence) {
+        final boolean tryCatch = LocalTransformExecutor.isTryCatch();
+        if (sequence) {
+            LocalSequenceTransformFunction function = new LocalSequenceTransformFunction(t);
+            return in -> {
+                List<List<Writable>> out = function.apply(asSequence(in));
+                //In try catch mode, failed sequences are returned empty
+                return tryCatch && out.isEmpty() ? Collections.emptyList() : Collections.<Object>singletonList(out);
+            };
+        } else {
+            LocalTransformFunction function = new LocalTransformFunction(t);
+            return in -> {
+                List<Writable> out = function.apply(asRecord(in));
+                //In try catch mode, failed records are returned empty
+                return tryCatch && out.isEmpty() ? Collections.emptyList() : Collections.<Object>singletonList(out);
+            };
+        }
+    }
+
+    protected Function<Object, List<Object>> filterStep(Filter f, boolean sequence) {
+        if (sequence) {
+            LocalSequenceFilterFunction function = new LocalSequenceFilterFunction(f);
+            return in -> function.apply(asSequence(in)) ? Collections.singletonList(in) : Collections.emptyList();
+        } else {
+            LocalFilterFunction function = new LocalFilterFunction(f);
+            return in -> function.apply(asRecord(in)) ? Collections.singletonList(in) : Collections.emptyList();
+        }
+    }
+
+    /**
+     * Apply the stateless steps collected so far, in parallel if workers are available
+     */
+    protected Iterator<Object> applySteps(Iterator<Object> current, List<Function<Object, List<Object>>> steps,
+                                          ExecutorService executor) {
+        if (steps.isEmpty()) {
+            return current;
+        }
+
+        final List<Function<Object, List<Object>>> chain = new ArrayList<>(steps);
+        Function<Object, List<Object>> function = in -> {
+            List<Object> out = Collections.singletonList(in);
+            for (Function<Object, List<Object>> step : chain) {
+                List<Object> next = new ArrayList<>(out.size());
+                for (Object o : out) {
+                    next.addAll(step.apply(o));
+                }
+                out = next;
+                if (out.isEmpty()) {
+                    break;
+                }
+            }
+            return out;
+        };
+        return new ParallelMapIterator<>(current, function, executor, batchSize, 2 * numWorkers);
+    }
+
+    protected Iterator<Object> convertToSequence(Iterator<Object> current, ConvertToSequence cts,
+                                                 List<Closeable> resources) {
+        int[] colIdxs = cts.getInputSchema().getIndexOfColumns(cts.getKeyColumns());
+        Comparator<List<Writable>> keyComparator = keyComparator(colIdxs);
+        LocalGroupToSequenceFunction localGroupToSequenceFunction = new LocalGroupToSequenceFunction(cts.getComparator());
+
+        return new GroupingIterator<>(sort(current, keyComparator, resources), keyComparator, group -> {
+            List<List<Writable>> records = new ArrayList<>();
+            group.forEachRemaining(records::add);
+            return (Object) localGroupToSequenceFunction.apply(records);
+        });
+    }
+
+    protected Iterator<Object> reduce(Iterator<Object> current, IAssociativeReducer reducer,
+                                      List<Closeable> resources) {
+        Comparator<List<Writable>> keyComparator = keyComparator(new int[] {0});
+        return new GroupingIterator<>(sort(current, keyComparator, resources), keyComparator, group -> {
+            IAggregableReduceOp<List<Writable>, List<Writable>> op = reducer.aggregableReducer();
+            while (group.hasNext()) {
+                List<Writable> keyed = group.next();
+                op.accept(new ArrayList<>(keyed.subList(1, keyed.size())));
+            }
+            return (Object) op.get();
+        });
+    }
+
+    protected Iterator<Object> calculateSortedRank(Iterator<Object> current, CalculateSortedRank csr,
+                                                   List<Closeable> resources) {
+        final Comparator<Writable> comparator = csr.getComparator();
+        final int sortColumnIdx = csr.getInputSchema().getIndexOfColumn(csr.getSortOnColumn());
+        final boolean ascending = csr.isAscending();
+        final Iterator<List<Writable>> sorted = sort(current, (a, b) -> {
+            int result = comparator.compare(a.get(sortColumnIdx), b.get(sortColumnIdx));
+            return ascending ? result : -result;
+        }, resources);
+
+        final UnzipForCalculateSortedRankFunction unzip = new UnzipForCalculateSortedRankFunction();
+        return new Iterator<Object>() {
+            private long rank = 0;
+
+            @Override
+            public boolean hasNext() {
+                return sorted.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                List<Writable> record = sorted.next();
+                return unzip.apply(Pair.of(Pair.of(record.get(sortColumnIdx), record), rank++));
+            }
+        };
+    }
+
+    /**
+     * Returns the records of the given iterator, sorted. Sorting (and reading the source) only starts on first use.
+     */
+    protected Iterator<List<Writable>> sort(final Iterator<Object> source, Comparator<List<Writable>> comparator,
+                                            List<Closeable> resources) {
+        final ExternalSorter sorter = new ExternalSorter(comparator, maxRecordsInMemory, tempDir);
+        resources.add(sorter);
+        return new Iterator<List<Writable>>() {
+            private Iterator<List<Writable>> sorted;
+
+            private Iterator<List<Writable>> sorted() {
+                if (sorted == null) {
+                    try {
+                        while (source.hasNext()) {
+                            sorter.add(asRecord(source.next()));
+                        }
+                        if (sorter.numRuns() > 0) {
+                            log.info("Merging {} sorted runs of {} records", sorter.numRuns(), sorter.numRecords());
+                        }
+                        sorted = sorter.sortedIterator();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return sorted;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return sorted().hasNext();
+            }
+
+            @Override
+            public List<Writable> next() {
+                return sorted().next();
+            }
+        };
+    }
+
+    /**
+     * Comparator for grouping by key columns: returns 0 for records with key values of the same type and
+     * same string representation, as used for keys by {@link MapToPairForReducerFunction}
+     */
+    protected static Comparator<List<Writable>> keyComparator(final int[] columns) {
+        return (a, b) -> {
+            for (int c : columns) {
+                Writable wa = a.get(c);
+                Writable wb = b.get(c);
+                int result = wa.getClass().getName().compareTo(wb.getClass().getName());
+                if (result == 0) {
+                    result = wa.toString().compareTo(wb.toString());
+                }
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return 0;
+        };
+    }
+
+    protected static Iterator<Object> records(final RecordReader reader) {
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return reader.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return reader.next();
+            }
+        };
+    }
+
+    protected static Iterator<Object> sequences(final SequenceRecordReader reader) {
+        return new Iterator<Object>() {
+            @Override
+            public boolean hasNext() {
+                return reader.hasNext();
+            }
+
+            @Override
+            public Object next() {
+                return reader.sequenceRecord();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static List<Writable> asRecord(Object o) {
+        return (List<Writable>) o;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected static List<List<Writable>> asSequence(Object o) {
+        return (List<List<Writable>>) o;
+    }
+
+    protected interface Sink {
+        void write(Object o) throws IOException;
+    }
+
+    public static class Builder {
+        private int numWorkers = Runtime.getRuntime().availableProcessors();
+        private int batchSize = DEFAULT_BATCH_SIZE;
+        private int maxRecordsInMemory = DEFAULT_MAX_RECORDS_IN_MEMORY;
+        private File tempDir;
+
+        /**
+         * Number of threads applying stateless steps. Default: number of available processors
+         */
+        public Builder numWorkers(int numWorkers) {
+            this.numWorkers = numWorkers;
+            return this;
+        }
+
+        /**
+         * Number of records passed to a worker at once. Default: {@link #DEFAULT_BATCH_SIZE}
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Maximal number of records buffered in memory by each sort, before spilling to disk.
+         * Default: {@link #DEFAULT_MAX_RECORDS_IN_MEMORY}
+         */
+        public Builder maxRecordsInMemory(int maxRecordsInMemory) {
+            this.maxRecordsInMemory = maxRecordsInMemory;
+            return this;
+        }
+
+        /**
+         * Directory for temporary files. Default: the default temporary directory
+         */
+        public Builder tempDir(File tempDir) {
+            this.tempDir = tempDir;
+            return this;
+        }
+
+        public LocalStreamingTransformExecutor build() {
+            if (numWorkers < 1 || batchSize < 1 || maxRecordsInMemory < 1) {
+                throw new IllegalArgumentException("Number of workers, batch size and maximal number of records in "
+                        + "memory must be > 0: got " + numWorkers + ", " + batchSize + ", " + maxRecordsInMemory);
+            }
+            return new LocalStreamingTransformExecutor(this);
+        }
+    }
+}
@@ -59,6 +59,8 @@ import static java.util.stream.Collectors.toList;
 
 /**
  * Local transform executor
+ * <br>
+ * All data is held in memory: see {@link LocalStreamingTransformExecutor} for data sets that don't fit in memory
  */
 @Slf4j
 public class LocalTransformExecutor {
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.local.transforms.streaming;
+
+import lombok.extern.slf4j.Slf4j;
+import org.datavec.api.writable.Writable;
+import org.datavec.api.writable.WritableFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * External merge sort for records.<br>
+ * Records are buffered in memory up to the given limit, then sorted and spilled to a temporary file (a "run").
+ * Once all records are added, runs are merged lazily while iterating. Sorting is stable: records comparing as equal
+ * are returned in the order they were added.
+ */
+@Slf4j
+public class ExternalSorter implements Closeable {
+    /**
+     * Maximal number of runs merged at once. With more runs, intermediate merge passes are done
+     */
+    public static final int MAX_MERGE_FAN_IN = 64;
+
+    protected final Comparator<List<Writable>> comparator;
+    protected final int maxRecordsInMemory;
+    protected final File tempDir;
+
+    protected List<List<Writable>> buffer = new ArrayList<>();
+    protected final LinkedList<Run> runs = new LinkedList<>();
+    protected final List<RunReader> readers = new ArrayList<>();
+    protected long numRecords = 0;
+
+    /**
+     * @param comparator         order of the records
+     * @param maxRecordsInMemory maximal number of records buffered in memory before spilling to disk
+     * @param tempDir            directory for temporary files, or null for the default temporary directory
+     */
+    public ExternalSorter(Comparator<List<Writable>> comparator, int maxRecordsInMemory, File tempDir) {
+        if (maxRecordsInMemory < 1)
+            throw new IllegalArgumentException("Maximal number of records in memory must be > 0: got " + maxRecordsInMemory);
+
+        this.comparator = comparator;
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        this.tempDir = tempDir;
+    }
+
+    public void add(List<Writable> record) throws IOException {
+        buffer.add(record);
+        numRecords++;
+        if (buffer.size() >= maxRecordsInMemory)
+            spill();
+    }
+
+    /**
+     * @return total number of records added
+     */
+    public long numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return number of runs spilled to disk so far
+     */
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Returns all added records, sorted. No records can be added after this call.
+     */
+    public Iterator<List<Writable>> sortedIterator() throws IOException {
+        Collections.sort(buffer, comparator);
+        if (runs.isEmpty()) {
+            Iterator<List<Writable>> ret = buffer.iterator();
+            buffer = null;
+            return ret;
+        }
+
+        spill();
+        buffer = null;
+        while (runs.size() > MAX_MERGE_FAN_IN) {
+            //Single pass: consecutive groups of runs are merged, and merged runs are appended in the same order as
+            //their groups. So runs stay in order of addition (for stability), and every record is rewritten once per pass
+            int remaining = runs.size();
+            while (remaining > 0) {
+                int n = Math.min(MAX_MERGE_FAN_IN, remaining);
+                List<Run> toMerge = new ArrayList<>(n);
+                for (int i = 0; i < n; i++)
+                    toMerge.add(runs.removeFirst());
+                remaining -= n;
+                runs.addLast(n == 1 ? toMerge.get(0) : mergeToRun(toMerge));
+            }
+        }
+
+        List<Run> all = new ArrayList<>(runs);
+        runs.clear();
+        return merge(all);
+    }
+
+    protected void spill() throws IOException {
+        if (buffer.isEmpty())
+            return;
+
+        Collections.sort(buffer, comparator);
+        Run run = new Run(File.createTempFile("datavec_sort_", ".bin", tempDir), buffer.size());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file)))) {
+            for (List<Writable> record : buffer)
+                writeRecord(record, out);
+        } catch (IOException | RuntimeException e) {
+            run.file.delete();
+            throw e;
+        }
+        runs.add(run);
+        buffer.clear();
+        log.debug("Spilled run of {} records to {}", run.numRecords, run.file);
+    }
+
+    protected Run mergeToRun(List<Run> toMerge) throws IOException {
+        long count = 0;
+        for (Run r : toMerge)
+            count += r.numRecords;
+
+        Run run = new Run(File.createTempFile("datavec_sort_", ".bin", tempDir), count);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run.file)))) {
+            Iterator<List<Writable>> iter = merge(toMerge);
+            while (iter.hasNext())
+                writeRecord(iter.next(), out);
+        } catch (IOException | RuntimeException e) {
+            run.file.delete();
+            throw e;
+        }
+
+        for (RunReader r : new ArrayList<>(readers)) {
+            if (toMerge.contains(r.run)) {
+                r.close();
+                readers.remove(r);
+            }
+        }
+        return run;
+    }
+
+    protected Iterator<List<Writable>> merge(List<Run> toMerge) throws IOException {
+        //Ties are broken by run index, to keep the sort stable
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>(toMerge.size(), (a, b) -> {
+            int c = comparator.compare(a.current, b.current);
+            return c != 0 ? c : Integer.compare(a.index, b.index);
+        });
+        for (int i = 0; i < toMerge.size(); i++) {
+            RunReader r = new RunReader(toMerge.get(i), i);
+            readers.add(r);
+            if (r.advance())
+                queue.add(r);
+        }
+
+        return new Iterator<List<Writable>>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public List<Writable> next() {
+                if (queue.isEmpty())
+                    throw new NoSuchElementException();
+                RunReader r = queue.poll();
+                List<Writable> ret = r.current;
+                try {
+                    if (r.advance())
+                        queue.add(r);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return ret;
+            }
+        };
+    }
+
+    protected static void writeRecord(List<Writable> record, DataOutput out) throws IOException {
+        out.writeInt(record.size());
+        for (Writable w : record)
+            WritableFactory.getInstance().writeWithType(w, out);
+    }
+
+    protected static List<Writable> readRecord(DataInput in) throws IOException {
+        int size = in.readInt();
+        List<Writable> record = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            record.add(WritableFactory.getInstance().readWithType(in));
+        return record;
+    }
+
+    /**
+     * Delete all temporary files
+     */
+    @Override
+    public void close() throws IOException {
+        for (RunReader r : readers)
+            r.close();
+        readers.clear();
+        for (Run r : runs)
+            r.file.delete();
+        runs.clear();
+        buffer = null;
+    }
+
+    protected static class Run {
+        protected final File file;
+        protected final long numRecords;
+
+        protected Run(File file, long numRecords) {
+            this.file = file;
+            this.numRecords = numRecords;
+        }
+    }
+
+    protected static class RunReader implements Closeable {
+        protected final Run run;
+        protected final int index;
+        protected DataInputStream in;
+        protected long remaining;
+        protected List<Writable> current;
+
+        protected RunReader(Run run, int index) throws IOException {
+            this.run = run;
+            this.index = index;
+            this.remaining = run.numRecords;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)));
+        }
+
+        protected boolean advance() throws IOException {
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            current = readRecord(in);
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+                in = null;
+                run.file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.local.transforms.streaming;
+
+import org.datavec.api.writable.Writable;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Iterator over groups of consecutive records with equal keys, as returned by {@link ExternalSorter}.<br>
+ * Each group is passed to the group function as an iterator, so that groups are not required to fit in memory
+ * unless the group function collects them.
+ */
+public class GroupingIterator<R> implements Iterator<R> {
+    protected final Iterator<List<Writable>> source;
+    protected final Comparator<List<Writable>> keyComparator;
+    protected final Function<Iterator<List<Writable>>, R> groupFunction;
+
+    protected List<Writable> pending;
+
+    /**
+     * @param source        records, sorted by key
+     * @param keyComparator comparator returning 0 for records with equal keys
+     * @param groupFunction function applied to the records of each group
+     */
+    public GroupingIterator(Iterator<List<Writable>> source, Comparator<List<Writable>> keyComparator,
+                            Function<Iterator<List<Writable>>, R> groupFunction) {
+        this.source = source;
+        this.keyComparator = keyComparator;
+        this.groupFunction = groupFunction;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return pending != null || source.hasNext();
+    }
+
+    @Override
+    public R next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        final List<Writable> first = pending != null ? pending : source.next();
+        pending = null;
+        Iterator<List<Writable>> group = new Iterator<List<Writable>>() {
+            private List<Writable> next = first;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && pending == null && source.hasNext()) {
+                    List<Writable> r = source.next();
+                    if (keyComparator.compare(first, r) == 0)
+                        next = r;
+                    else
+                        pending = r;
+                }
+                return next != null;
+            }
+
+            @Override
+            public List<Writable> next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                List<Writable> ret = next;
+                next = null;
+                return ret;
+            }
+        };
+
+        R ret = groupFunction.apply(group);
+        //Skip whatever the group function did not consume
+        while (group.hasNext())
+            group.next();
+        return ret;
+    }
+}
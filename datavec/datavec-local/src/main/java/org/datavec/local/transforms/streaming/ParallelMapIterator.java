@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.local.transforms.streaming;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Iterator applying a (flat map) function to the elements of the source iterator, in order.<br>
+ * The source is read on the calling thread, in batches. Each batch is processed by the executor service, with at most
+ * maxBatchesInFlight batches queued or in progress at any time, so memory use does not depend on the source size.
+ * Without executor service, batches are processed on the calling thread.
+ */
+public class ParallelMapIterator<T, R> implements Iterator<R> {
+    protected final Iterator<T> source;
+    protected final Function<T, List<R>> function;
+    protected final ExecutorService executor;
+    protected final int batchSize;
+    protected final int maxBatchesInFlight;
+
+    protected final Deque<Future<List<R>>> inFlight = new ArrayDeque<>();
+    protected Iterator<R> current = Collections.emptyIterator();
+
+    public ParallelMapIterator(Iterator<T> source, Function<T, List<R>> function, ExecutorService executor,
+                               int batchSize, int maxBatchesInFlight) {
+        this.source = source;
+        this.function = function;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (executor == null) {
+                if (!source.hasNext())
+                    return false;
+                current = apply(nextBatch()).iterator();
+            } else {
+                while (inFlight.size() < maxBatchesInFlight && source.hasNext()) {
+                    final List<T> batch = nextBatch();
+                    inFlight.add(executor.submit(() -> apply(batch)));
+                }
+                if (inFlight.isEmpty())
+                    return false;
+                current = await(inFlight.poll()).iterator();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public R next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return current.next();
+    }
+
+    protected List<T> nextBatch() {
+        List<T> batch = new ArrayList<>(batchSize);
+        while (batch.size() < batchSize && source.hasNext())
+            batch.add(source.next());
+        return batch;
+    }
+
+    protected List<R> apply(List<T> batch) {
+        List<R> out = new ArrayList<>(batch.size());
+        for (T t : batch)
+            out.addAll(function.apply(t));
+        return out;
+    }
+
+    protected static <V> V await(Future<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for transform workers", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
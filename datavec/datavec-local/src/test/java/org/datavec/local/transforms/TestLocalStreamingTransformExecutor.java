@@ -0,0 +1,291 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.datavec.local.transforms;
+
+import org.datavec.api.conf.Configuration;
+import org.datavec.api.records.reader.impl.collection.CollectionRecordReader;
+import org.datavec.api.records.reader.impl.collection.CollectionSequenceRecordReader;
+import org.datavec.api.records.writer.RecordWriter;
+import org.datavec.api.records.writer.SequenceRecordWriter;
+import org.datavec.api.split.InputSplit;
+import org.datavec.api.split.partition.PartitionMetaData;
+import org.datavec.api.split.partition.Partitioner;
+import org.datavec.api.transform.MathOp;
+import org.datavec.api.transform.ReduceOp;
+import org.datavec.api.transform.TransformProcess;
+import org.datavec.api.transform.condition.ConditionOp;
+import org.datavec.api.transform.condition.column.LongColumnCondition;
+import org.datavec.api.transform.reduce.Reducer;
+import org.datavec.api.transform.schema.Schema;
+import org.datavec.api.transform.schema.SequenceSchema;
+import org.datavec.api.transform.sequence.comparator.NumericalColumnComparator;
+import org.datavec.api.writable.*;
+import org.datavec.api.writable.comparator.DoubleWritableComparator;
+import org.datavec.local.transforms.streaming.ExternalSorter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLocalStreamingTransformExecutor {
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    private static final Comparator<List<Writable>> BY_STRING = new Comparator<List<Writable>>() {
+        @Override
+        public int compare(List<Writable> o1, List<Writable> o2) {
+            return o1.toString().compareTo(o2.toString());
+        }
+    };
+
+    private static Schema schema() {
+        return new Schema.Builder().addColumnString("key").addColumnLong("time").addColumnDouble("value").build();
+    }
+
+    private static List<List<Writable>> data(int n) {
+        List<List<Writable>> data = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            //Values are multiples of 0.5: sums are exact, regardless of summation order
+            data.add(Arrays.<Writable>asList(new Text("key" + (i % 17)), new LongWritable((i * 31L) % n),
+                    new DoubleWritable(0.5 * i)));
+        }
+        return data;
+    }
+
+    private LocalStreamingTransformExecutor executor(File tempDir) {
+        //Small in-memory limit: forces sorts to spill to disk
+        return new LocalStreamingTransformExecutor.Builder().numWorkers(4).batchSize(7).maxRecordsInMemory(50)
+                .tempDir(tempDir).build();
+    }
+
+    @Test
+    public void testStatelessStepsKeepOrder() throws Exception {
+        TransformProcess tp = new TransformProcess.Builder(schema())
+                .doubleMathOp("value", MathOp.Multiply, 2.0)
+                .filter(new LongColumnCondition("time", ConditionOp.LessThan, 100))
+                .removeColumns("key")
+                .build();
+
+        List<List<Writable>> in = data(1000);
+        List<List<Writable>> expected = LocalTransformExecutor.execute(in, tp);
+
+        CollectingRecordWriter writer = new CollectingRecordWriter();
+        long count = executor(testDir.newFolder()).execute(new CollectionRecordReader(in), tp, writer);
+
+        assertEquals(expected.size(), count);
+        assertEquals(expected, writer.records);
+    }
+
+    @Test
+    public void testReduce() throws Exception {
+        TransformProcess tp = new TransformProcess.Builder(schema())
+                .filter(new LongColumnCondition("time", ConditionOp.LessThan, 100))
+                .reduce(new Reducer.Builder(ReduceOp.Sum).keyColumns("key").countColumns("time").build())
+                .build();
+
+        List<List<Writable>> in = data(1000);
+        List<List<Writable>> expected = new ArrayList<>(LocalTransformExecutor.execute(in, tp));
+        Collections.sort(expected, BY_STRING);
+
+        File tempDir = testDir.newFolder();
+        CollectingRecordWriter writer = new CollectingRecordWriter();
+        executor(tempDir).execute(new CollectionRecordReader(in), tp, writer);
+
+        //Streaming reduction returns groups ordered by key
+        List<List<Writable>> actual = new ArrayList<>(writer.records);
+        Collections.sort(actual, BY_STRING);
+        assertEquals(17, actual.size());
+        assertEquals(expected, actual);
+
+        //Spill files are removed at the end
+        assertEquals(0, tempDir.list().length);
+    }
+
+    @Test
+    public void testCalculateSortedRank() throws Exception {
+        TransformProcess tp = new TransformProcess.Builder(schema())
+                .calculateSortedRank("rank", "value", new DoubleWritableComparator(), false)
+                .build();
+
+        List<List<Writable>> in = data(500);
+        List<List<Writable>> expected = LocalTransformExecutor.execute(in, tp);
+
+        CollectingRecordWriter writer = new CollectingRecordWriter();
+        executor(testDir.newFolder()).execute(new CollectionRecordReader(in), tp, writer);
+
+        assertEquals(expected, writer.records);
+        assertEquals(new DoubleWritable(0.5 * 499), writer.records.get(0).get(2));
+        assertEquals(new LongWritable(0), writer.records.get(0).get(3));
+    }
+
+    @Test
+    public void testConvertToSequence() throws Exception {
+        TransformProcess tp = new TransformProcess.Builder(schema())
+                .convertToSequence("key", new NumericalColumnComparator("time"))
+                .build();
+
+        List<List<Writable>> in = data(1000);
+        List<List<List<Writable>>> expected = new ArrayList<>(LocalTransformExecutor.executeToSequence(in, tp));
+
+        CollectingSequenceRecordWriter writer = new CollectingSequenceRecordWriter();
+        long count = executor(testDir.newFolder()).executeToSequence(new CollectionRecordReader(in), tp, writer);
+        assertEquals(17, count);
+
+        Comparator<List<List<Writable>>> byKey = new Comparator<List<List<Writable>>>() {
+            @Override
+            public int compare(List<List<Writable>> o1, List<List<Writable>> o2) {
+                return o1.get(0).get(0).toString().compareTo(o2.get(0).get(0).toString());
+            }
+        };
+        Collections.sort(expected, byKey);
+        List<List<List<Writable>>> actual = new ArrayList<>(writer.sequences);
+        assertEquals(expected, actual);
+
+        for (List<List<Writable>> sequence : actual) {
+            for (int i = 1; i < sequence.size(); i++) {
+                assertTrue(sequence.get(i - 1).get(1).toLong() < sequence.get(i).get(1).toLong());
+            }
+        }
+    }
+
+    @Test
+    public void testSequenceToSequence() throws Exception {
+        Schema schema = new SequenceSchema.Builder().addColumnLong("time").addColumnDouble("value").build();
+        TransformProcess tp = new TransformProcess.Builder(schema)
+                .doubleMathOp("value", MathOp.Add, 1.0)
+                .build();
+
+        List<List<List<Writable>>> in = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            List<List<Writable>> sequence = new ArrayList<>();
+            for (int j = 0; j <= i % 5; j++) {
+                sequence.add(Arrays.<Writable>asList(new LongWritable(j), new DoubleWritable(i + j)));
+            }
+            in.add(sequence);
+        }
+        List<List<List<Writable>>> expected = LocalTransformExecutor.executeSequenceToSequence(in, tp);
+
+        CollectingSequenceRecordWriter writer = new CollectingSequenceRecordWriter();
+        executor(testDir.newFolder()).executeSequenceToSequence(new CollectionSequenceRecordReader(in), tp, writer);
+
+        assertEquals(expected, writer.sequences);
+    }
+
+    @Test
+    public void testExternalSorterManyRuns() throws Exception {
+        File tempDir = testDir.newFolder();
+        Comparator<List<Writable>> byKey = new Comparator<List<Writable>>() {
+            @Override
+            public int compare(List<Writable> o1, List<Writable> o2) {
+                return Integer.compare(o1.get(0).toInt(), o2.get(0).toInt());
+            }
+        };
+
+        //2 records per run: more runs than a single merge can take, so intermediate passes are done
+        List<List<Writable>> expected = new ArrayList<>();
+        try (ExternalSorter sorter = new ExternalSorter(byKey, 2, tempDir)) {
+            for (int i = 0; i < 300; i++) {
+                List<Writable> record = Arrays.<Writable>asList(new IntWritable((i * 7) % 5), new IntWritable(i));
+                expected.add(record);
+                sorter.add(record);
+            }
+            assertTrue(sorter.numRuns() > 2 * ExternalSorter.MAX_MERGE_FAN_IN);
+
+            //Collections.sort is stable: equal keys keep order of addition
+            Collections.sort(expected, byKey);
+            List<List<Writable>> actual = new ArrayList<>();
+            Iterator<List<Writable>> iter = sorter.sortedIterator();
+            while (iter.hasNext())
+                actual.add(iter.next());
+            assertEquals(expected, actual);
+        }
+
+        assertEquals(0, tempDir.listFiles().length);
+    }
+
+    private static class CollectingRecordWriter implements RecordWriter {
+        private final List<List<Writable>> records = new ArrayList<>();
+
+        @Override
+        public boolean supportsBatch() {
+            return true;
+        }
+
+        @Override
+        public void initialize(InputSplit inputSplit, Partitioner partitioner) {
+        }
+
+        @Override
+        public void initialize(Configuration configuration, InputSplit split, Partitioner partitioner) {
+        }
+
+        @Override
+        public PartitionMetaData write(List<Writable> record) throws IOException {
+            records.add(record);
+            return PartitionMetaData.builder().numRecordsUpdated(1).build();
+        }
+
+        @Override
+        public PartitionMetaData writeBatch(List<List<Writable>> batch) throws IOException {
+            records.addAll(batch);
+            return PartitionMetaData.builder().numRecordsUpdated(batch.size()).build();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+        }
+
+        @Override
+        public Configuration getConf() {
+            return null;
+        }
+    }
+
+    private static class CollectingSequenceRecordWriter implements SequenceRecordWriter {
+        private final List<List<List<Writable>>> sequences = new ArrayList<>();
+
+        @Override
+        public PartitionMetaData write(List<List<Writable>> sequence) throws IOException {
+            sequences.add(sequence);
+            return PartitionMetaData.builder().numRecordsUpdated(1).build();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void setConf(Configuration conf) {
+        }
+
+        @Override
+        public Configuration getConf() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.datasets.iterator.parallel.ParallelAsyncDataSetIterator;
+import org.deeplearning4j.datasets.iterator.parallel.ParallelAsyncMultiDataSetIterator;
+import org.deeplearning4j.datasets.iterator.tools.MultiDataSetGenerator;
+import org.junit.Test;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ParallelAsyncDataSetIteratorTest extends BaseDL4JTest {
+    private static final int NUM_WORKERS = 4;
+    private static final int TEST_SIZE = 103;
+
+    /**
+     * Partitions 0..TEST_SIZE-1 round-robin over workers, each DataSet holds its index as features
+     */
+    private static List<DataSetIterator> partitions() {
+        List<List<DataSet>> lists = new ArrayList<>();
+        for (int i = 0; i < NUM_WORKERS; i++)
+            lists.add(new ArrayList<DataSet>());
+
+        for (int i = 0; i < TEST_SIZE; i++)
+            lists.get(i % NUM_WORKERS).add(new DataSet(Nd4j.scalar(i), Nd4j.scalar(i)));
+
+        List<DataSetIterator> iterators = new ArrayList<>();
+        for (List<DataSet> list : lists)
+            iterators.add(new ExistingDataSetIterator(list));
+        return iterators;
+    }
+
+    @Test
+    public void testOrdered() {
+        ParallelAsyncDataSetIterator iterator = new ParallelAsyncDataSetIterator(partitions(), 8, true);
+        for (int e = 0; e < 3; e++) {
+            int cnt = 0;
+            while (iterator.hasNext()) {
+                DataSet ds = iterator.next();
+                assertEquals(cnt++, ds.getFeatures().getDouble(0), 1e-5);
+            }
+            assertEquals(TEST_SIZE, cnt);
+            iterator.reset();
+        }
+        iterator.shutdown();
+    }
+
+    @Test
+    public void testUnordered() {
+        ParallelAsyncDataSetIterator iterator = new ParallelAsyncDataSetIterator(partitions(), 8, false);
+        for (int e = 0; e < 3; e++) {
+            Set<Integer> seen = new HashSet<>();
+            while (iterator.hasNext())
+                assertTrue(seen.add(iterator.next().getFeatures().getInt(0)));
+
+            assertEquals(TEST_SIZE, seen.size());
+            iterator.reset();
+        }
+        iterator.shutdown();
+    }
+
+    @Test
+    public void testResetInTheMiddle() {
+        ParallelAsyncDataSetIterator iterator = new ParallelAsyncDataSetIterator(partitions(), 4, true);
+        try {
+            for (int i = 0; i < 10; i++)
+                iterator.next();
+
+            iterator.reset();
+            int cnt = 0;
+            while (iterator.hasNext()) {
+                assertEquals(cnt++, iterator.next().getFeatures().getInt(0));
+            }
+            assertEquals(TEST_SIZE, cnt);
+        } finally {
+            iterator.shutdown();
+        }
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testWorkerFailure() {
+        List<DataSetIterator> iterators = partitions();
+        iterators.set(2, new ExistingDataSetIterator(new Iterable<DataSet>() {
+            @Override
+            public Iterator<DataSet> iterator() {
+                return new Iterator<DataSet>() {
+                    private int cnt = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return true;
+                    }
+
+                    @Override
+                    public DataSet next() {
+                        if (++cnt > 5)
+                            throw new ArrayIndexOutOfBoundsException();
+                        return new DataSet(Nd4j.scalar(cnt), Nd4j.scalar(cnt));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        }));
+
+        ParallelAsyncDataSetIterator iterator = new ParallelAsyncDataSetIterator(iterators, 8, false);
+        try {
+            while (iterator.hasNext())
+                iterator.next();
+        } finally {
+            iterator.shutdown();
+        }
+    }
+
+    @Test
+    public void testMultiDataSet() {
+        List<MultiDataSetIterator> iterators = new ArrayList<>();
+        for (int i = 0; i < NUM_WORKERS; i++)
+            iterators.add(new MultiDataSetGenerator(25, new int[] {2, 3}, new int[] {2, 1}));
+
+        ParallelAsyncMultiDataSetIterator iterator = new ParallelAsyncMultiDataSetIterator(iterators, 8, true);
+        int cnt = 0;
+        while (iterator.hasNext()) {
+            assertNotNull(iterator.next().getFeatures());
+            cnt++;
+        }
+        assertEquals(100, cnt);
+        iterator.shutdown();
+    }
+}
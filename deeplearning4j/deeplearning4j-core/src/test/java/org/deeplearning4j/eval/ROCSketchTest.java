@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.eval;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.datasets.iterator.impl.IrisDataSetIterator;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.inference.ParallelEvaluator;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import static org.nd4j.linalg.indexing.NDArrayIndex.all;
+import static org.nd4j.linalg.indexing.NDArrayIndex.interval;
+
+public class ROCSketchTest extends BaseDL4JTest {
+
+    /**
+     * Returns [labels, predictions], with predictions loosely correlated with labels
+     */
+    private static INDArray[] getData(int n, long seed) {
+        Random r = new Random(seed);
+        double[] labels = new double[n];
+        double[] predictions = new double[n];
+        for (int i = 0; i < n; i++) {
+            labels[i] = r.nextDouble() < 0.3 ? 1.0 : 0.0;
+            double p = 1.0 / (1.0 + Math.exp(-(r.nextGaussian() + 1.5 * labels[i] - 0.7)));
+            // some ties, as produced by models with saturated outputs
+            predictions[i] = i % 10 == 0 ? Math.round(p * 10) / 10.0 : p;
+        }
+
+        return new INDArray[] {Nd4j.create(labels, new int[] {n, 1}), Nd4j.create(predictions, new int[] {n, 1})};
+    }
+
+    @Test
+    public void testCompareToExact() {
+        INDArray[] data = getData(20000, 12345);
+
+        ROC exact = new ROC(0);
+        exact.eval(data[0], data[1]);
+
+        for (int compression : new int[] {16, 128, ROCSketch.DEFAULT_COMPRESSION}) {
+            ROCSketch sketch = new ROCSketch(compression);
+            for (int i = 0; i < 20000; i += 1000)
+                sketch.eval(data[0].get(interval(i, i + 1000), all()), data[1].get(interval(i, i + 1000), all()));
+
+            assertEquals(exact.getCountActualPositive(), sketch.getCountActualPositive());
+            assertEquals(exact.getCountActualNegative(), sketch.getCountActualNegative());
+            assertTrue(sketch.getNumCentroids() <= 4 * compression + 1);
+
+            double bound = 1.0 / (2 * compression);
+            assertEquals("Compression: " + compression, exact.calculateAUC(), sketch.calculateAUC(), bound);
+            assertEquals("Compression: " + compression, exact.calculateAUCPR(), sketch.calculateAUCPR(), 4 * bound);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        INDArray[] data = getData(10000, 123);
+
+        ROCSketch single = new ROCSketch(64);
+        single.eval(data[0], data[1]);
+
+        ROCSketch merged = new ROCSketch(64);
+        for (int i = 0; i < 4; i++) {
+            ROCSketch part = new ROCSketch(64);
+            part.eval(data[0].get(interval(i * 2500, (i + 1) * 2500), all()),
+                            data[1].get(interval(i * 2500, (i + 1) * 2500), all()));
+            merged.merge(part);
+        }
+
+        assertEquals(single.getExampleCount(), merged.getExampleCount());
+        assertEquals(single.getCountActualPositive(), merged.getCountActualPositive());
+        assertEquals(single.calculateAUC(), merged.calculateAUC(), 1.0 / 64);
+        assertTrue(merged.getNumCentroids() <= 4 * 64 + 1);
+
+        ROC exact = new ROC(0);
+        exact.eval(data[0], data[1]);
+        assertEquals(exact.calculateAUC(), merged.calculateAUC(), 1.0 / 128);
+    }
+
+    @Test
+    public void testTiesAndEdgeCases() {
+        ROCSketch sketch = new ROCSketch(8);
+        assertTrue(Double.isNaN(sketch.calculateAUC()));
+
+        // all predictions are identical: nothing to separate
+        sketch.eval(Nd4j.create(new double[] {0, 1, 0, 1, 1, 0}, new int[] {6, 1}), Nd4j.valueArrayOf(new int[] {6, 1}, 0.5));
+        assertEquals(1, sketch.getNumCentroids());
+        assertEquals(0.5, sketch.calculateAUC(), 1e-10);
+
+        // perfect separation, 2 column format
+        sketch.reset();
+        INDArray labels = Nd4j.create(new double[][] {{1, 0}, {0, 1}, {1, 0}, {0, 1}});
+        INDArray predictions = Nd4j.create(new double[][] {{0.9, 0.1}, {0.2, 0.8}, {0.7, 0.3}, {0.4, 0.6}});
+        sketch.eval(labels, predictions);
+        assertEquals(1.0, sketch.calculateAUC(), 1e-10);
+        assertEquals(1.0, sketch.calculateAUCPR(), 1e-10);
+    }
+
+    @Test
+    public void testJson() {
+        INDArray[] data = getData(5000, 42);
+        ROCSketch sketch = new ROCSketch(32);
+        sketch.eval(data[0], data[1]);
+
+        ROCSketch fromJson = BaseEvaluation.fromJson(sketch.toJson(), ROCSketch.class);
+        assertEquals(sketch.getExampleCount(), fromJson.getExampleCount());
+        assertEquals(sketch.calculateAUC(), fromJson.calculateAUC(), 1e-10);
+        assertEquals(sketch.calculateAUCPR(), fromJson.calculateAUCPR(), 1e-10);
+    }
+
+    @Test
+    public void testParallelEvaluator() {
+        Nd4j.getRandom().setSeed(12345);
+        MultiLayerNetwork net = new MultiLayerNetwork(new NeuralNetConfiguration.Builder().seed(12345).list()
+                        .layer(0, new DenseLayer.Builder().nIn(4).nOut(8).activation(Activation.TANH).build())
+                        .layer(1, new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).nIn(8).nOut(3)
+                                        .activation(Activation.SOFTMAX).build())
+                        .build());
+        net.init();
+
+        DataSetIterator iter = new IrisDataSetIterator(7, 150);
+        Evaluation expEval = new Evaluation(3);
+        RegressionEvaluation expReg = new RegressionEvaluation(3);
+        net.doEvaluation(iter, expEval, expReg);
+
+        iter.reset();
+        ParallelEvaluator evaluator = new ParallelEvaluator(net, 4, 8);
+        Evaluation eval = new Evaluation(3);
+        RegressionEvaluation reg = new RegressionEvaluation(3);
+        evaluator.evaluate(iter, eval, reg);
+
+        assertEquals(expEval.getNumRowCounter(), eval.getNumRowCounter());
+        assertEquals(expEval.getConfusionMatrix(), eval.getConfusionMatrix());
+        assertEquals(expEval.accuracy(), eval.accuracy(), 1e-10);
+        assertEquals(expReg.averageMeanSquaredError(), reg.averageMeanSquaredError(), 1e-5);
+
+        // exhausted iterator is reset automatically, and results are accumulated into existing instances
+        evaluator.evaluate(iter, eval);
+        assertEquals(2 * expEval.getNumRowCounter(), eval.getNumRowCounter());
+    }
+}
@@ -786,10 +786,10 @@ public class ROCTest extends BaseDL4JTest {
             double threshold = thr_skl[i] - 1e-6; //Subtract a bit, so we get the correct point (rounded up on the get op)
             threshold = Math.max(0.0, threshold);
             PrecisionRecallCurve.Confusion c = prc.getConfusionMatrixAtThreshold(threshold);
-            int tp = c.getTpCount();
-            int fp = c.getFpCount();
-            int tn = c.getTnCount();
-            int fn = c.getFnCount();
+            long tp = c.getTpCount();
+            long fp = c.getFpCount();
+            long tn = c.getTnCount();
+            long fn = c.getFnCount();
 
             assertEquals(30, tp + fp + tn + fn);
 
@@ -893,9 +893,9 @@ public class ROCTest extends BaseDL4JTest {
                 PrecisionRecallCurve.Confusion c = prc.getConfusionMatrixAtPoint(i);
                 PrecisionRecallCurve.Point p = c.getPoint();
 
-                int tp = c.getTpCount();
-                int fp = c.getFpCount();
-                int fn = c.getFnCount();
+                long tp = c.getTpCount();
+                long fp = c.getFpCount();
+                long fn = c.getFnCount();
 
                 double prec = tp / (double) (tp + fp);
                 double rec = tp / (double) (tp + fn);
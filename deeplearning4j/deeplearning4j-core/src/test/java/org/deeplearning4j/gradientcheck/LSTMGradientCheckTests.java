@@ -287,6 +287,52 @@ public class LSTMGradientCheckTests extends BaseDL4JTest {
         }
     }
 
+    @Test
+    public void testGradientLSTMNonSigmoidGates() {
+        //Gate activations other than sigmoid: gate pre-outputs are stored during the forward pass, and used in backprop
+        int timeSeriesLength = 5;
+        int nIn = 4;
+        int layerSize = 6;
+        int nOut = 3;
+        int miniBatchSize = 3;
+
+        for (boolean graves : new boolean[] {true, false}) {
+            Nd4j.getRandom().setSeed(12345);
+            INDArray input = Nd4j.rand(new int[] {miniBatchSize, nIn, timeSeriesLength}, 'f').subi(0.5);
+
+            Random r = new Random(12345L);
+            INDArray labels = Nd4j.zeros(miniBatchSize, nOut, timeSeriesLength);
+            for (int i = 0; i < miniBatchSize; i++) {
+                for (int j = 0; j < timeSeriesLength; j++) {
+                    labels.putScalar(new int[] {i, r.nextInt(nOut), j}, 1.0f);
+                }
+            }
+
+            Layer layer;
+            if (graves) {
+                layer = new GravesLSTM.Builder().nIn(nIn).nOut(layerSize).activation(Activation.TANH)
+                                .gateActivationFunction(Activation.SOFTSIGN).build();
+            } else {
+                layer = new LSTM.Builder().nIn(nIn).nOut(layerSize).activation(Activation.TANH)
+                                .gateActivationFunction(Activation.SOFTSIGN).build();
+            }
+
+            MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(12345L)
+                            .weightInit(WeightInit.DISTRIBUTION).dist(new NormalDistribution(0, 1))
+                            .updater(new NoOp()).list().layer(0, layer)
+                            .layer(1, new RnnOutputLayer.Builder(LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                                            .nIn(layerSize).nOut(nOut).build())
+                            .build();
+            MultiLayerNetwork mln = new MultiLayerNetwork(conf);
+            mln.init();
+
+            String msg = "testGradientLSTMNonSigmoidGates(" + (graves ? "GravesLSTM" : "LSTM") + ")";
+            boolean gradOK = GradientCheckUtil.checkGradients(mln, DEFAULT_EPS, DEFAULT_MAX_REL_ERROR,
+                            DEFAULT_MIN_ABS_ERROR, PRINT_RESULTS, RETURN_ON_FIRST_FAILURE, input, labels);
+            assertTrue(msg, gradOK);
+        }
+    }
+
     @Test
     public void testGradientGravesBidirectionalLSTMFull() {
         Activation[] activFns = {Activation.TANH, Activation.SOFTSIGN};
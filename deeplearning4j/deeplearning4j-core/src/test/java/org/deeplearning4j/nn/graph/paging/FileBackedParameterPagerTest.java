@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.graph.paging;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.util.MappedModelSerializer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class FileBackedParameterPagerTest extends BaseDL4JTest {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static ComputationGraph getGraph() {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder().seed(12345)
+                        .activation(Activation.TANH).graphBuilder().addInputs("in")
+                        .addLayer("0", new DenseLayer.Builder().nIn(10).nOut(64).build(), "in")
+                        .addLayer("1", new DenseLayer.Builder().nIn(64).nOut(64).build(), "0")
+                        .addLayer("2", new DenseLayer.Builder().nIn(64).nOut(64).build(), "1")
+                        .addLayer("out", new OutputLayer.Builder().lossFunction(LossFunctions.LossFunction.MSE)
+                                        .nIn(64).nOut(3).build(), "2")
+                        .setOutputs("out").build();
+
+        ComputationGraph cg = new ComputationGraph(conf);
+        cg.init();
+        return cg;
+    }
+
+    @Test
+    public void testPagedOutput() throws Exception {
+        ComputationGraph cg = getGraph();
+        File f = tempDir.newFile();
+        MappedModelSerializer.writeModel(cg, f, false);
+
+        // large budget: everything stays resident after first pass
+        ComputationGraph paged = MappedModelSerializer.restoreComputationGraphPaged(f, Long.MAX_VALUE);
+        FileBackedParameterPager pager = (FileBackedParameterPager) paged.getParameterPager();
+        assertNull(paged.params());
+        assertEquals(0, pager.getResidentBytes());
+
+        INDArray in = Nd4j.rand(5, 10);
+        assertEquals(cg.outputSingle(in), paged.outputSingle(in));
+        assertEquals(4, pager.getPageIns());
+        assertEquals(0, pager.getEvictions());
+        assertEquals(cg.numParams() * Nd4j.sizeOfDataType(), pager.getResidentBytes());
+
+        assertEquals(cg.outputSingle(in), paged.outputSingle(in));
+        assertEquals(4, pager.getPageIns());
+        pager.close();
+    }
+
+    @Test
+    public void testPagedOutputWithEviction() throws Exception {
+        ComputationGraph cg = getGraph();
+        File f = tempDir.newFile();
+        MappedModelSerializer.writeModel(cg, f, false);
+
+        // budget fits two 64x64 layers only
+        long budget = 2 * (64 * 64 + 64) * Nd4j.sizeOfDataType();
+        ComputationGraph paged = MappedModelSerializer.restoreComputationGraphPaged(f, budget);
+        FileBackedParameterPager pager = (FileBackedParameterPager) paged.getParameterPager();
+
+        INDArray in = Nd4j.rand(5, 10);
+        INDArray exp = cg.outputSingle(in);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(exp, paged.outputSingle(in));
+            assertTrue(pager.getResidentBytes() <= budget);
+        }
+
+        assertTrue(pager.getEvictions() > 0);
+        assertTrue(pager.getPageIns() > 4);
+        assertTrue(pager.getResidentVertices().contains("out"));
+
+        pager.evictAll();
+        assertEquals(0, pager.getResidentBytes());
+        assertEquals(exp, paged.outputSingle(in));
+        pager.close();
+    }
+
+    @Test
+    public void testInitialViewsShareMemory() throws Exception {
+        ComputationGraph cg = getGraph();
+        File f = tempDir.newFile();
+        MappedModelSerializer.writeModel(cg, f, false);
+
+        try (FileBackedParameterPager pager = new FileBackedParameterPager(f, Long.MAX_VALUE)) {
+            INDArray first = pager.initialView("0", 0, 704);
+            INDArray second = pager.initialView("1", 704, 4160);
+            INDArray third = pager.initialView("out", 4864, 195);
+
+            assertArrayEquals(new long[] {1, 4160}, second.shape());
+            assertArrayEquals(new long[] {1, 195}, third.shape());
+
+            // no memory is allocated per vertex: later views reuse the placeholder of the largest one
+            assertEquals(second.data().address(), third.data().address());
+            assertNotEquals(first.data().address(), second.data().address());
+        }
+    }
+}
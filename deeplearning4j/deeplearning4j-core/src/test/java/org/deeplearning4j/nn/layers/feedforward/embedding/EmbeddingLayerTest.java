@@ -19,6 +19,7 @@ package org.deeplearning4j.nn.layers.feedforward.embedding;
 import org.deeplearning4j.BaseDL4JTest;
 import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.OptimizationAlgorithm;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.layers.*;
@@ -26,13 +27,18 @@ import org.deeplearning4j.nn.conf.layers.EmbeddingLayer;
 import org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer;
 import org.deeplearning4j.nn.conf.preprocessor.FeedForwardToRnnPreProcessor;
 import org.deeplearning4j.nn.conf.preprocessor.RnnToFeedForwardPreProcessor;
+import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.params.DefaultParamInitializer;
 import org.deeplearning4j.nn.weights.WeightInit;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodedGradientsAccumulator;
 import org.junit.Test;
 import org.nd4j.linalg.activations.Activation;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.learning.config.IUpdater;
 import org.nd4j.linalg.learning.config.Sgd;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
@@ -43,6 +49,8 @@ import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 public class EmbeddingLayerTest extends BaseDL4JTest {
 
@@ -516,4 +524,168 @@ public class EmbeddingLayerTest extends BaseDL4JTest {
         }
     }
 
+    private static MultiLayerNetwork getEmbeddingNet(boolean sequence, boolean sparse, IUpdater updater) {
+        NeuralNetConfiguration.ListBuilder builder = new NeuralNetConfiguration.Builder().seed(12345)
+                .activation(Activation.TANH).updater(updater).list();
+        if (sequence) {
+            builder.layer(new EmbeddingSequenceLayer.Builder().inputLength(4).hasBias(true).sparseGradients(sparse)
+                    .nIn(100).nOut(5).build())
+                    .layer(new RnnOutputLayer.Builder(LossFunctions.LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                            .nIn(5).nOut(3).build());
+        } else {
+            builder.layer(new EmbeddingLayer.Builder().hasBias(true).sparseGradients(sparse).nIn(100).nOut(5).build())
+                    .layer(new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT).activation(Activation.SOFTMAX)
+                            .nIn(5).nOut(3).build());
+        }
+
+        MultiLayerNetwork net = new MultiLayerNetwork(builder.build());
+        net.init();
+        return net;
+    }
+
+    private static DataSet getIndexData(boolean sequence, int[] indexes, Random r) {
+        if (sequence) {
+            INDArray in = Nd4j.create(indexes.length, 4);
+            INDArray labels = Nd4j.create(indexes.length, 3, 4);
+            for (int i = 0; i < indexes.length; i++) {
+                for (int j = 0; j < 4; j++) {
+                    in.putScalar(i, j, indexes[(i + j) % indexes.length]);
+                    labels.putScalar(new int[]{i, r.nextInt(3), j}, 1.0);
+                }
+            }
+            return new DataSet(in, labels);
+        }
+
+        INDArray in = Nd4j.create(indexes.length, 1);
+        INDArray labels = Nd4j.create(indexes.length, 3);
+        for (int i = 0; i < indexes.length; i++) {
+            in.putScalar(i, 0, indexes[i]);
+            labels.putScalar(i, r.nextInt(3), 1.0);
+        }
+        return new DataSet(in, labels);
+    }
+
+    @Test
+    public void testSparseGradientsSgd() {
+        //With plain SGD, lazy updates should be identical to dense updates
+        for (boolean sequence : new boolean[]{false, true}) {
+            MultiLayerNetwork dense = getEmbeddingNet(sequence, false, new Sgd(0.1));
+            MultiLayerNetwork sparse = getEmbeddingNet(sequence, true, new Sgd(0.1));
+            assertEquals(dense.params(), sparse.params());
+
+            Random r = new Random(12345);
+            for (int i = 0; i < 10; i++) {
+                int[] indexes = new int[6];
+                for (int j = 0; j < indexes.length; j++) {
+                    indexes[j] = r.nextInt(i % 2 == 0 ? 10 : 100);
+                }
+                DataSet ds = getIndexData(sequence, indexes, r);
+                dense.fit(ds);
+                sparse.fit(ds);
+
+                assertEquals(dense.score(), sparse.score(), 1e-6);
+                assertTrue(dense.params().equalsWithEps(sparse.params(), 1e-5));
+            }
+        }
+    }
+
+    @Test
+    public void testSparseGradientsLazyAdam() {
+        for (boolean sequence : new boolean[]{false, true}) {
+            MultiLayerNetwork dense = getEmbeddingNet(sequence, false, new Adam(0.01));
+            MultiLayerNetwork sparse = getEmbeddingNet(sequence, true, new Adam(0.01));
+
+            Random r = new Random(12345);
+            DataSet first = getIndexData(sequence, new int[]{0, 1, 1, 0}, r);
+            DataSet second = getIndexData(sequence, new int[]{2, 3, 2, 3}, r);
+
+            //First iteration: Adam state is all zeros, so lazy and dense updates are identical
+            dense.fit(first);
+            sparse.fit(first);
+            assertTrue(dense.params().equalsWithEps(sparse.params(), 1e-5));
+            INDArray denseRows = dense.getParam("0_W").getRows(0, 1).dup();
+            INDArray sparseRows = sparse.getParam("0_W").getRows(0, 1).dup();
+            INDArray untouched = sparse.getParam("0_W").getRows(4, 50, 99).dup();
+
+            //Second iteration: dense Adam keeps updating rows 0 and 1 (momentum), lazy Adam doesn't touch them
+            dense.fit(second);
+            sparse.fit(second);
+            assertNotEquals(denseRows, dense.getParam("0_W").getRows(0, 1));
+            assertEquals(sparseRows, sparse.getParam("0_W").getRows(0, 1));
+            assertEquals(untouched, sparse.getParam("0_W").getRows(4, 50, 99));
+            assertTrue(dense.getParam("0_W").getRows(2, 3).equalsWithEps(sparse.getParam("0_W").getRows(2, 3), 1e-5));
+            assertTrue(dense.getParam("0_b").equalsWithEps(sparse.getParam("0_b"), 1e-5));
+
+            //Gradient view rows from the previous iteration have been cleared
+            INDArray gradient = sparse.gradient().getGradientFor("0_W");
+            assertEquals(0.0, gradient.getRows(0, 1).norm2Number().doubleValue(), 0.0);
+            assertNotEquals(0.0, gradient.getRows(2, 3).norm2Number().doubleValue(), 0.0);
+        }
+    }
+
+    @Test
+    public void testSparseGradientsAccumulator() {
+        //Gradient sharing: decoded updates are dense, but shouldn't end up in the row-sparse gradient view
+        MultiLayerNetwork[] nets = new MultiLayerNetwork[2];
+        EncodedGradientsAccumulator[] accumulators = new EncodedGradientsAccumulator[2];
+        for (int i = 0; i < 2; i++) {
+            nets[i] = getEmbeddingNet(false, i == 1, new Sgd(0.1));
+            accumulators[i] = new EncodedGradientsAccumulator.Builder(1).encodingThreshold(1e-3)
+                    .memoryParameters(EncodedGradientsAccumulator.getOptimalBufferSize(nets[i].numParams(), 1, 4), 4)
+                    .build();
+            accumulators[i].touch();
+            nets[i].setGradientsAccumulator(accumulators[i]);
+        }
+
+        try {
+            Random r = new Random(12345);
+            for (int iter = 0; iter < 5; iter++) {
+                int[] indexes = new int[]{2 * iter, 2 * iter + 1, 2 * iter};
+                DataSet ds = getIndexData(false, indexes, r);
+                for (int i = 0; i < 2; i++) {
+                    accumulators[i].registerConsumers(1);
+                    nets[i].fit(ds);
+                }
+                assertTrue(nets[0].params().equalsWithEps(nets[1].params(), 1e-5));
+
+                //Only rows of the current minibatch are non-zero in the gradient view
+                INDArray gradient = nets[1].gradient().getGradientFor("0_W");
+                assertNotEquals(0.0, gradient.getRows(2 * iter, 2 * iter + 1).norm2Number().doubleValue(), 0.0);
+                for (int row = 0; row < 100; row++) {
+                    if (row != 2 * iter && row != 2 * iter + 1)
+                        assertEquals("Row " + row, 0.0, gradient.getRow(row).norm2Number().doubleValue(), 0.0);
+                }
+            }
+
+            //Decoded updates were applied to the params
+            assertNotEquals(getEmbeddingNet(false, true, new Sgd(0.1)).params(), nets[1].params());
+        } finally {
+            for (EncodedGradientsAccumulator accumulator : accumulators)
+                accumulator.reset();
+        }
+    }
+
+    @Test
+    public void testSparseGradientsComputationGraph() {
+        ComputationGraph[] graphs = new ComputationGraph[2];
+        for (int i = 0; i < 2; i++) {
+            ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder().seed(12345)
+                    .activation(Activation.TANH).updater(new Sgd(0.1)).graphBuilder().addInputs("in")
+                    .addLayer("embedding", new EmbeddingLayer.Builder().sparseGradients(i == 1).nIn(100).nOut(5)
+                            .build(), "in")
+                    .addLayer("out", new OutputLayer.Builder(LossFunctions.LossFunction.MCXENT)
+                            .activation(Activation.SOFTMAX).nIn(5).nOut(3).build(), "embedding")
+                    .setOutputs("out").build();
+            graphs[i] = new ComputationGraph(conf);
+            graphs[i].init();
+        }
+
+        Random r = new Random(12345);
+        for (int i = 0; i < 5; i++) {
+            DataSet ds = getIndexData(false, new int[]{r.nextInt(100), r.nextInt(100), r.nextInt(100)}, r);
+            graphs[0].fit(ds);
+            graphs[1].fit(ds);
+            assertTrue(graphs[0].params().equalsWithEps(graphs[1].params(), 1e-5));
+        }
+    }
 }
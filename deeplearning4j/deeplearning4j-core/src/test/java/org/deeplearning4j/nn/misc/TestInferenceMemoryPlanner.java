@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.misc;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.graph.MergeVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.memory.InferenceMemoryPlan;
+import org.deeplearning4j.nn.conf.memory.InferenceMemoryPlanner;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import static org.junit.Assert.*;
+
+public class TestInferenceMemoryPlanner extends BaseDL4JTest {
+
+    private static MultiLayerConfiguration getMlnConf() {
+        return new NeuralNetConfiguration.Builder().seed(12345).list()
+                        .layer(0, new DenseLayer.Builder().nIn(10).nOut(20).activation(Activation.TANH).build())
+                        .layer(1, new DenseLayer.Builder().nIn(20).nOut(30).activation(Activation.TANH).build())
+                        .layer(2, new DenseLayer.Builder().nIn(30).nOut(20).activation(Activation.TANH).build())
+                        .layer(3, new OutputLayer.Builder().nIn(20).nOut(5).activation(Activation.SOFTMAX).build())
+                        .build();
+    }
+
+    private static ComputationGraphConfiguration getGraphConf() {
+        return new NeuralNetConfiguration.Builder().seed(12345).graphBuilder().addInputs("in")
+                        .addLayer("a", new DenseLayer.Builder().nIn(10).nOut(20).build(), "in")
+                        .addLayer("b", new DenseLayer.Builder().nIn(10).nOut(40).build(), "in")
+                        .addVertex("merge", new MergeVertex(), "a", "b")
+                        .addLayer("c", new DenseLayer.Builder().nIn(60).nOut(10).build(), "merge")
+                        .addLayer("out", new OutputLayer.Builder().nIn(10).nOut(5).activation(Activation.SOFTMAX).build(), "c")
+                        .setOutputs("out").build();
+    }
+
+    @Test
+    public void testMlnPlan() {
+        InferenceMemoryPlan plan = InferenceMemoryPlanner.plan(getMlnConf(), InputType.feedForward(10), 8, DataBuffer.Type.FLOAT);
+
+        // even layers: max(8*20, 8*20) floats, odd layers: 8*30 floats, output layer is detached
+        assertEquals(8 * 20 * 4, (long) plan.getRegionBytes().get(InferenceMemoryPlan.activationsWorkspace(0)));
+        assertEquals(8 * 30 * 4, (long) plan.getRegionBytes().get(InferenceMemoryPlan.activationsWorkspace(1)));
+
+        // dense layers have no inference working memory, so only network input is there
+        assertEquals(8 * 10 * 4, (long) plan.getRegionBytes().get(InferenceMemoryPlan.WS_WORKING_MEM));
+
+        assertEquals(8 * (10 + 20 + 30) * 4, plan.getTotalBytes());
+        assertEquals(8 * (20 + 30 + 20) * 4, plan.getUnsharedActivationBytes());
+        assertEquals(2, plan.numActivationRegions());
+
+        long offset = 0;
+        for (String ws : plan.getRegionBytes().keySet()) {
+            assertEquals(offset, (long) plan.getRegionOffsets().get(ws));
+            offset += plan.getRegionBytes().get(ws);
+        }
+    }
+
+    @Test
+    public void testGraphPlan() {
+        ComputationGraph graph = new ComputationGraph(getGraphConf());
+        graph.init();
+
+        InferenceMemoryPlan plan = InferenceMemoryPlanner.plan(graph.getConfiguration(), 4, DataBuffer.Type.FLOAT,
+                        InputType.feedForward(10));
+
+        // "a" and "b" are both alive until "merge" is done, so they can't share the region
+        String regionA = plan.getActivationRegions().get("a");
+        String regionB = plan.getActivationRegions().get("b");
+        assertNotEquals(regionA, regionB);
+
+        long total = 0;
+        for (int i = 0; i < plan.numActivationRegions(); i++)
+            total += plan.getRegionBytes().get(InferenceMemoryPlan.activationsWorkspace(i));
+
+        // with reuse, arena is smaller than sum of all activations
+        assertTrue(total < plan.getUnsharedActivationBytes());
+        assertTrue(plan.numActivationRegions() < graph.getVertices().length);
+    }
+
+    @Test
+    public void testMlnOutputWithPlan() {
+        MultiLayerNetwork net = new MultiLayerNetwork(getMlnConf());
+        net.init();
+
+        INDArray in = Nd4j.rand(8, 10);
+        INDArray exp = net.output(in);
+
+        InferenceMemoryPlan plan = net.planInferenceMemory(InputType.feedForward(10), 8);
+        assertNotNull(net.getInferenceMemoryPlan());
+
+        assertEquals(exp, net.output(in));
+
+        // planned workspaces are preallocated to the planned size right away
+        String region = InferenceMemoryPlan.activationsWorkspace(1);
+        String ws = plan.getWorkspaceId(region);
+        assertTrue(Nd4j.getWorkspaceManager().checkIfWorkspaceExists(ws));
+        assertTrue(Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(ws).getCurrentSize() >= plan.getRegionBytes().get(region));
+
+        // other network with its own plan doesn't share workspaces with this one
+        MultiLayerNetwork other = new MultiLayerNetwork(getMlnConf());
+        other.init();
+        InferenceMemoryPlan otherPlan = other.planInferenceMemory(InputType.feedForward(10), 4);
+        assertNotEquals(ws, otherPlan.getWorkspaceId(region));
+        assertEquals(4, other.output(in.get(NDArrayIndex.interval(0, 4), NDArrayIndex.all()).dup()).size(0));
+        assertEquals(exp, net.output(in));
+
+        // smaller minibatch uses the same plan
+        INDArray small = in.get(NDArrayIndex.interval(0, 3), NDArrayIndex.all()).dup();
+        assertEquals(exp.get(NDArrayIndex.interval(0, 3), NDArrayIndex.all()), net.output(small));
+
+        // larger minibatch falls back to regular workspaces
+        INDArray large = Nd4j.rand(16, 10);
+        net.setInferenceMemoryPlan(null);
+        INDArray expLarge = net.output(large);
+        net.setInferenceMemoryPlan(plan);
+        assertEquals(expLarge, net.output(large));
+    }
+
+    @Test
+    public void testReplanReusesWorkspaces() {
+        MultiLayerNetwork net = new MultiLayerNetwork(getMlnConf());
+        net.init();
+
+        INDArray in = Nd4j.rand(16, 10);
+        INDArray exp = net.output(in);
+
+        InferenceMemoryPlan plan = net.planInferenceMemory(InputType.feedForward(10), 8);
+        net.output(in.get(NDArrayIndex.interval(0, 8), NDArrayIndex.all()).dup());
+        int numWorkspaces = Nd4j.getWorkspaceManager().getAllWorkspacesIdsForCurrentThread().size();
+
+        // planning again keeps workspace ids, and workspaces are resized for the new plan on the next use
+        InferenceMemoryPlan larger = net.planInferenceMemory(InputType.feedForward(10), 16);
+        String region = InferenceMemoryPlan.activationsWorkspace(1);
+        assertEquals(plan.getWorkspaceId(region), larger.getWorkspaceId(region));
+
+        assertEquals(exp, net.output(in));
+        assertEquals(numWorkspaces, Nd4j.getWorkspaceManager().getAllWorkspacesIdsForCurrentThread().size());
+        assertTrue(Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(larger.getWorkspaceId(region))
+                        .getCurrentSize() >= larger.getRegionBytes().get(region));
+    }
+
+    @Test
+    public void testGraphOutputWithPlan() {
+        ComputationGraph graph = new ComputationGraph(getGraphConf());
+        graph.init();
+
+        INDArray in = Nd4j.rand(4, 10);
+        INDArray exp = graph.outputSingle(in);
+
+        graph.planInferenceMemory(4, InputType.feedForward(10));
+        for (int i = 0; i < 3; i++)
+            assertEquals(exp, graph.outputSingle(in));
+    }
+}
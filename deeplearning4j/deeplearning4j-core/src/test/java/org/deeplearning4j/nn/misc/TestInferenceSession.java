@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.misc;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.LSTM;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.conf.layers.RnnOutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.inference.InferenceSession;
+import org.deeplearning4j.nn.inference.SharedWeightsInference;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.junit.Test;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TestInferenceSession extends BaseDL4JTest {
+
+    private static MultiLayerNetwork getMln() {
+        MultiLayerNetwork net = new MultiLayerNetwork(new NeuralNetConfiguration.Builder().seed(12345).list()
+                        .layer(0, new DenseLayer.Builder().nIn(10).nOut(32).activation(Activation.TANH).build())
+                        .layer(1, new DenseLayer.Builder().nIn(32).nOut(32).activation(Activation.TANH).build())
+                        .layer(2, new OutputLayer.Builder().nIn(32).nOut(5).activation(Activation.SOFTMAX).build())
+                        .build());
+        net.init();
+        return net;
+    }
+
+    @Test
+    public void testParamsShared() {
+        MultiLayerNetwork net = getMln();
+        InferenceSession session = new InferenceSession(net);
+
+        MultiLayerNetwork replica = (MultiLayerNetwork) session.getReplica();
+        assertNotSame(net, replica);
+        assertNotSame(net.getLayer(0), replica.getLayer(0));
+        assertSame(net.params(), replica.params());
+        assertTrue(session.isShared());
+
+        INDArray input = Nd4j.rand(4, 10);
+        assertEquals(net.output(input), session.outputSingle(input));
+
+        // in-place update of the source model is visible to the session
+        net.params().muli(0.5);
+        assertEquals(net.output(input), session.outputSingle(input));
+    }
+
+    @Test
+    public void testConcurrentOutput() throws Exception {
+        final MultiLayerNetwork net = getMln();
+        final SharedWeightsInference inference = new SharedWeightsInference(net);
+
+        final int numThreads = 4;
+        final List<INDArray> inputs = new ArrayList<>();
+        final List<INDArray> expected = new ArrayList<>();
+        for (int i = 0; i < numThreads * 5; i++) {
+            INDArray in = Nd4j.rand(1 + i % 7, 10);
+            inputs.add(in);
+            expected.add(net.output(in));
+        }
+
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<InferenceSession> sessions = new ArrayList<>();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int e = 0; e < 20; e++)
+                            for (int i = offset; i < inputs.size(); i += numThreads)
+                                assertEquals(expected.get(i), inference.outputSingle(inputs.get(i)));
+
+                        synchronized (sessions) {
+                            sessions.add(inference.getSession());
+                        }
+                    } catch (Throwable ex) {
+                        failure.set(ex);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads)
+            thread.join();
+
+        if (failure.get() != null)
+            throw new RuntimeException(failure.get());
+
+        assertEquals(numThreads, sessions.size());
+        for (int i = 0; i < numThreads; i++) {
+            assertSame(net.params(), sessions.get(i).getReplica().params());
+            for (int j = i + 1; j < numThreads; j++)
+                assertNotSame(sessions.get(i), sessions.get(j));
+        }
+    }
+
+    @Test
+    public void testComputationGraph() {
+        ComputationGraph graph = getMln().toComputationGraph();
+        InferenceSession session = new InferenceSession(graph);
+
+        assertSame(graph.params(), session.getReplica().params());
+
+        INDArray input = Nd4j.rand(3, 10);
+        assertEquals(graph.outputSingle(input), session.outputSingle(input));
+    }
+
+    @Test
+    public void testRnnStateIsolated() {
+        MultiLayerNetwork net = new MultiLayerNetwork(new NeuralNetConfiguration.Builder().seed(12345).list()
+                        .layer(0, new LSTM.Builder().nIn(3).nOut(8).activation(Activation.TANH).build())
+                        .layer(1, new RnnOutputLayer.Builder().nIn(8).nOut(2).activation(Activation.SOFTMAX).build())
+                        .build());
+        net.init();
+
+        InferenceSession s1 = new InferenceSession(net);
+        InferenceSession s2 = new InferenceSession(net);
+
+        INDArray a = Nd4j.rand(new int[] {1, 3, 4});
+        INDArray b = Nd4j.rand(new int[] {1, 3, 4});
+
+        // interleaved steps over two sequences should produce the same results as separate passes
+        INDArray expA = net.rnnTimeStep(a);
+        INDArray expA2 = net.rnnTimeStep(a);
+        net.rnnClearPreviousState();
+        INDArray expB = net.rnnTimeStep(b);
+        net.rnnClearPreviousState();
+
+        assertEquals(expA, s1.rnnTimeStep(a)[0]);
+        assertEquals(expB, s2.rnnTimeStep(b)[0]);
+        assertEquals(expA2, s1.rnnTimeStep(a)[0]);
+
+        s1.rnnClearPreviousState();
+        assertEquals(expA, s1.rnnTimeStep(a)[0]);
+    }
+}
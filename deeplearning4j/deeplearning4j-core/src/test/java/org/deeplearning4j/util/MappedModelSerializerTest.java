@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.util;
+
+import org.deeplearning4j.BaseDL4JTest;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.weights.WeightInit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.learning.config.Adam;
+import org.nd4j.linalg.lossfunctions.LossFunctions;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class MappedModelSerializerTest extends BaseDL4JTest {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static MultiLayerNetwork getMLN() {
+        MultiLayerConfiguration conf = new NeuralNetConfiguration.Builder().seed(12345).updater(new Adam(0.01))
+                        .activation(Activation.TANH).weightInit(WeightInit.XAVIER).list()
+                        .layer(0, new DenseLayer.Builder().nIn(5).nOut(20).build())
+                        .layer(1, new OutputLayer.Builder().lossFunction(LossFunctions.LossFunction.MSE).nIn(20)
+                                        .nOut(6).build())
+                        .build();
+
+        MultiLayerNetwork net = new MultiLayerNetwork(conf);
+        net.init();
+        net.fit(Nd4j.rand(10, 5), Nd4j.rand(10, 6));
+        return net;
+    }
+
+    @Test
+    public void testWriteRestoreMLN() throws Exception {
+        MultiLayerNetwork net = getMLN();
+
+        File f = tempDir.newFile();
+        MappedModelSerializer.writeModel(net, f, true);
+
+        assertTrue(MappedModelSerializer.isMappedModel(f));
+        assertTrue(f.length() >= MappedModelSerializer.ALIGNMENT + net.params().length() * Nd4j.sizeOfDataType());
+
+        MultiLayerNetwork restored = MappedModelSerializer.restoreMultiLayerNetwork(f, true);
+        assertEquals(net.getLayerWiseConfigurations(), restored.getLayerWiseConfigurations());
+        assertEquals(net.params(), restored.params());
+        assertEquals(net.getUpdater().getStateViewArray(), restored.getUpdater().getStateViewArray());
+
+        INDArray in = Nd4j.rand(3, 5);
+        assertEquals(net.output(in), restored.output(in));
+
+        // copy-on-write mapping: training the restored net must not modify the file
+        INDArray paramsBefore = restored.params().dup();
+        restored.fit(Nd4j.rand(10, 5), Nd4j.rand(10, 6));
+        assertNotEquals(paramsBefore, restored.params());
+
+        MultiLayerNetwork restored2 = MappedModelSerializer.restoreMultiLayerNetwork(f);
+        assertEquals(net.params(), restored2.params());
+    }
+
+    @Test
+    public void testWriteRestoreGraph() throws Exception {
+        ComputationGraphConfiguration conf = new NeuralNetConfiguration.Builder().seed(12345)
+                        .updater(new Adam(0.01)).activation(Activation.TANH).graphBuilder().addInputs("in")
+                        .addLayer("0", new DenseLayer.Builder().nIn(5).nOut(20).build(), "in")
+                        .addLayer("1", new OutputLayer.Builder().lossFunction(LossFunctions.LossFunction.MSE)
+                                        .nIn(20).nOut(6).build(), "0")
+                        .setOutputs("1").build();
+
+        ComputationGraph cg = new ComputationGraph(conf);
+        cg.init();
+        cg.fit(new INDArray[] {Nd4j.rand(10, 5)}, new INDArray[] {Nd4j.rand(10, 6)});
+
+        File f = tempDir.newFile();
+        MappedModelSerializer.writeModel(cg, f, true);
+
+        ComputationGraph restored = MappedModelSerializer.restoreComputationGraph(f, true);
+        assertEquals(cg.getConfiguration().toJson(), restored.getConfiguration().toJson());
+        assertEquals(cg.params(), restored.params());
+        assertEquals(cg.getUpdater().getStateViewArray(), restored.getUpdater().getStateViewArray());
+
+        // inference-only load doesn't need updater state
+        ComputationGraph inferenceOnly = MappedModelSerializer.restoreComputationGraph(f, false);
+        INDArray in = Nd4j.rand(3, 5);
+        assertEquals(cg.outputSingle(in), inferenceOnly.outputSingle(in));
+
+        try {
+            MappedModelSerializer.restoreMultiLayerNetwork(f);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("ComputationGraph"));
+        }
+    }
+
+    @Test
+    public void testNotMappedModel() throws Exception {
+        File f = tempDir.newFile();
+        ModelSerializer.writeModel(getMLN(), f, false);
+        assertFalse(MappedModelSerializer.isMappedModel(f));
+
+        try {
+            MappedModelSerializer.restoreMultiLayerNetwork(f);
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("ModelSerializer"));
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator.parallel;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.datasets.iterator.callbacks.DataSetCallback;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Base class for prefetching iterators with multiple ETL workers.<br>
+ * Each worker owns its own underlying iterator (i.e. one partition of the data), builds minibatches in its own
+ * thread, within its own cyclic workspace, and passes them to the consumer via queue.<br>
+ * <br>
+ * Two delivery modes are available:
+ * <ul>
+ *     <li>ordered: minibatches are returned round-robin over workers, so the order is deterministic: 1st batch of
+ *     worker 0, 1st batch of worker 1, ..., 2nd batch of worker 0, etc. Depleted workers are skipped.</li>
+ *     <li>unordered: minibatches are returned as soon as any worker has them ready. Slow workers (i.e. ones with larger
+ *     records) don't stall the consumer</li>
+ * </ul>
+ */
+@Slf4j
+public abstract class BaseParallelAsyncIterator<T> {
+    @Getter
+    protected final int numWorkers;
+    @Getter
+    protected final boolean ordered;
+    protected final int prefetchSize;
+    protected final boolean useWorkspace;
+    protected final DataSetCallback callback;
+    protected final Integer deviceId;
+    protected final T terminator;
+
+    // one queue per worker in ordered mode, single shared queue otherwise
+    protected final List<BlockingQueue<T>> queues = new ArrayList<>();
+    protected final List<Worker> workers = new ArrayList<>();
+    protected final String workspaceId = "PADSI_ITER-" + UUID.randomUUID().toString();
+
+    protected volatile RuntimeException throwable = null;
+    protected T nextElement;
+    protected boolean[] depleted;
+    protected int numDepleted;
+    protected int cursor;
+
+    protected BaseParallelAsyncIterator(int numWorkers, int prefetchSize, boolean ordered, boolean useWorkspace,
+                    DataSetCallback callback, Integer deviceId, @NonNull T terminator) {
+        if (numWorkers < 1)
+            throw new IllegalArgumentException("Number of workers should be positive, got " + numWorkers);
+
+        this.numWorkers = numWorkers;
+        this.prefetchSize = Math.max(prefetchSize, 2);
+        this.ordered = ordered;
+        this.useWorkspace = useWorkspace;
+        this.callback = callback;
+        this.deviceId = deviceId;
+        this.terminator = terminator;
+
+        if (ordered) {
+            int perWorker = Math.max(2, (this.prefetchSize + numWorkers - 1) / numWorkers);
+            for (int i = 0; i < numWorkers; i++)
+                queues.add(new LinkedBlockingQueue<T>(perWorker));
+        } else {
+            queues.add(new LinkedBlockingQueue<T>(this.prefetchSize));
+        }
+    }
+
+    protected abstract boolean workerHasNext(int worker);
+
+    protected abstract T workerNext(int worker);
+
+    protected abstract void workerReset(int worker);
+
+    protected abstract void workerCallback(T element);
+
+    protected void startWorkers() {
+        depleted = new boolean[numWorkers];
+        numDepleted = 0;
+        cursor = 0;
+        nextElement = null;
+        throwable = null;
+
+        workers.clear();
+        for (int i = 0; i < numWorkers; i++) {
+            Worker worker = new Worker(i, queues.get(ordered ? i : 0));
+
+            // all workers should have the same thread->device affinity as master thread
+            Nd4j.getAffinityManager().attachThreadToDevice(worker, deviceId);
+            workers.add(worker);
+        }
+
+        for (Worker worker : workers)
+            worker.start();
+    }
+
+    protected void stopWorkers() {
+        for (Worker worker : workers)
+            worker.shouldWork.set(false);
+
+        for (Worker worker : workers)
+            worker.interrupt();
+
+        // workers might be blocked on full queues, so we keep them empty until they quit
+        for (Worker worker : workers) {
+            while (worker.isAlive()) {
+                for (BlockingQueue<T> queue : queues)
+                    queue.clear();
+
+                try {
+                    worker.join(10);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+            }
+            worker.shutdown();
+        }
+
+        for (BlockingQueue<T> queue : queues)
+            queue.clear();
+
+        nextElement = null;
+    }
+
+    /**
+     * Resets all underlying iterators, and restarts all workers
+     */
+    public void reset() {
+        stopWorkers();
+        for (int i = 0; i < numWorkers; i++)
+            workerReset(i);
+        startWorkers();
+    }
+
+    /**
+     * This method will terminate all workers AND will destroy their workspaces.
+     *
+     * PLEASE NOTE: After shutdown() call, this instance can't be used anymore
+     */
+    public void shutdown() {
+        stopWorkers();
+        depleted = new boolean[numWorkers];
+        numDepleted = numWorkers;
+    }
+
+    public boolean hasNext() {
+        if (throwable != null)
+            throw throwable;
+
+        if (nextElement != null)
+            return true;
+
+        try {
+            while (numDepleted < numWorkers) {
+                int idx = 0;
+                if (ordered) {
+                    while (depleted[cursor])
+                        cursor = (cursor + 1) % numWorkers;
+                    idx = cursor;
+                }
+
+                T element = queues.get(idx).take();
+
+                // worker failure is signalled with terminator as well
+                if (throwable != null)
+                    throw throwable;
+
+                if (element == terminator) {
+                    if (ordered)
+                        depleted[idx] = true;
+                    numDepleted++;
+                    continue;
+                }
+
+                if (ordered)
+                    cursor = (cursor + 1) % numWorkers;
+
+                nextElement = element;
+                return true;
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        T temp = nextElement;
+        nextElement = null;
+        return temp;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    protected class Worker extends Thread implements Runnable {
+        private final int index;
+        private final BlockingQueue<T> queue;
+        private final AtomicBoolean shouldWork = new AtomicBoolean(true);
+        private final WorkspaceConfiguration configuration;
+        private MemoryWorkspace workspace;
+
+        protected Worker(int index, @NonNull BlockingQueue<T> queue) {
+            this.index = index;
+            this.queue = queue;
+
+            // consumer might hold up to queue capacity minibatches of this worker, plus one in use
+            this.configuration = WorkspaceConfiguration.builder().minSize(10 * 1024L * 1024L)
+                            .overallocationLimit(queue.remainingCapacity() + 1)
+                            .policyReset(ResetPolicy.ENDOFBUFFER_REACHED).policyLearning(LearningPolicy.FIRST_LOOP)
+                            .policyAllocation(AllocationPolicy.OVERALLOCATE).policySpill(SpillPolicy.REALLOCATE)
+                            .build();
+
+            this.setDaemon(true);
+            this.setName("PADSI worker thread " + index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (useWorkspace)
+                    workspace = Nd4j.getWorkspaceManager().getWorkspaceForCurrentThread(configuration,
+                                    workspaceId + "_" + index);
+
+                while (shouldWork.get() && workerHasNext(index)) {
+                    T element;
+                    if (useWorkspace) {
+                        try (MemoryWorkspace ws = workspace.notifyScopeEntered()) {
+                            element = workerNext(index);
+                            if (callback != null)
+                                workerCallback(element);
+                        }
+                    } else {
+                        element = workerNext(index);
+                        if (callback != null)
+                            workerCallback(element);
+                    }
+
+                    // we want to ensure underlying iterator finished dataset creation
+                    Nd4j.getExecutioner().commit();
+
+                    if (element != null)
+                        queue.put(element);
+                }
+
+                queue.put(terminator);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shouldWork.set(false);
+            } catch (Exception e) {
+                if (!shouldWork.get())
+                    return;
+
+                log.error("Worker {} failed", index, e);
+                throwable = e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+
+                // waking up consumer
+                try {
+                    queue.put(terminator);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        public void shutdown() {
+            if (workspace != null) {
+                log.debug("Manually destroying PADSI workspace");
+                workspace.destroyWorkspace(true);
+                workspace = null;
+            }
+        }
+    }
+}
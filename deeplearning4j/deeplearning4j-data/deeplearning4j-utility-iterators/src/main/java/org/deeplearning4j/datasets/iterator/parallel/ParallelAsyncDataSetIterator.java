@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator.parallel;
+
+import lombok.NonNull;
+import org.deeplearning4j.datasets.iterator.callbacks.DataSetCallback;
+import org.deeplearning4j.datasets.iterator.callbacks.DefaultCallback;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prefetching DataSetIterator wrapper, that builds minibatches using multiple worker threads.<br>
+ * Unlike {@link org.deeplearning4j.datasets.iterator.AsyncDataSetIterator}, which calls the underlying iterator from a
+ * single thread, this iterator takes one underlying iterator per worker - typically each of them covering a separate
+ * partition of the data (i.e. RecordReaderDataSetIterator over a separate InputSplit). So record reading, transform
+ * execution and DataSet conversion all run in parallel.<br>
+ * <br>
+ * Pre-processor set via {@link #setPreProcessor(DataSetPreProcessor)} is applied to all underlying iterators, so
+ * pre-processing runs within worker threads as well.<br>
+ * <br>
+ * See {@link BaseParallelAsyncIterator} for ordering details.
+ */
+public class ParallelAsyncDataSetIterator extends BaseParallelAsyncIterator<DataSet> implements DataSetIterator {
+    protected final List<DataSetIterator> iterators;
+
+    /**
+     * Create iterator with ordered delivery, and default queue size of 8
+     *
+     * @param iterators underlying iterators, one per worker
+     */
+    public ParallelAsyncDataSetIterator(@NonNull List<DataSetIterator> iterators) {
+        this(iterators, 8, true);
+    }
+
+    /**
+     * @param iterators    underlying iterators, one per worker
+     * @param prefetchSize total number of minibatches prefetched by all workers
+     * @param ordered      if true, minibatches are returned in deterministic round-robin order
+     */
+    public ParallelAsyncDataSetIterator(@NonNull List<DataSetIterator> iterators, int prefetchSize, boolean ordered) {
+        this(iterators, prefetchSize, ordered, true, new DefaultCallback(),
+                        Nd4j.getAffinityManager().getDeviceForCurrentThread());
+    }
+
+    /**
+     * @param iterators    underlying iterators, one per worker
+     * @param prefetchSize total number of minibatches prefetched by all workers
+     * @param ordered      if true, minibatches are returned in deterministic round-robin order
+     * @param useWorkspace if true, each worker builds minibatches within its own cyclic workspace
+     * @param callback     callback executed by worker for each minibatch
+     * @param deviceId     device workers should be attached to
+     */
+    public ParallelAsyncDataSetIterator(@NonNull List<DataSetIterator> iterators, int prefetchSize, boolean ordered,
+                    boolean useWorkspace, DataSetCallback callback, Integer deviceId) {
+        super(iterators.size(), prefetchSize, ordered, useWorkspace, callback, deviceId, new DataSet());
+        this.iterators = new ArrayList<>(iterators);
+
+        for (DataSetIterator iterator : this.iterators)
+            if (iterator.resetSupported() && !iterator.hasNext())
+                iterator.reset();
+
+        startWorkers();
+    }
+
+    @Override
+    protected boolean workerHasNext(int worker) {
+        return iterators.get(worker).hasNext();
+    }
+
+    @Override
+    protected DataSet workerNext(int worker) {
+        return iterators.get(worker).next();
+    }
+
+    @Override
+    protected void workerReset(int worker) {
+        iterators.get(worker).reset();
+    }
+
+    @Override
+    protected void workerCallback(DataSet element) {
+        callback.call(element);
+    }
+
+    @Override
+    public DataSet next(int num) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int inputColumns() {
+        return iterators.get(0).inputColumns();
+    }
+
+    @Override
+    public int totalOutcomes() {
+        return iterators.get(0).totalOutcomes();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        for (DataSetIterator iterator : iterators)
+            if (!iterator.resetSupported())
+                return false;
+
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        // already async
+        return false;
+    }
+
+    @Override
+    public int batch() {
+        return iterators.get(0).batch();
+    }
+
+    /**
+     * Set a pre processor for all underlying iterators.
+     * PLEASE NOTE: the same instance is used from all workers concurrently, so it should be thread-safe
+     *
+     * @param preProcessor a pre processor to set
+     */
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        for (DataSetIterator iterator : iterators)
+            iterator.setPreProcessor(preProcessor);
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return iterators.get(0).getPreProcessor();
+    }
+
+    @Override
+    public List<String> getLabels() {
+        return iterators.get(0).getLabels();
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.datasets.iterator.parallel;
+
+import lombok.NonNull;
+import org.deeplearning4j.datasets.iterator.callbacks.DataSetCallback;
+import org.deeplearning4j.datasets.iterator.callbacks.DefaultCallback;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Prefetching MultiDataSetIterator wrapper, that builds minibatches using multiple worker threads.<br>
+ * See {@link ParallelAsyncDataSetIterator} for details.
+ */
+public class ParallelAsyncMultiDataSetIterator extends BaseParallelAsyncIterator<MultiDataSet>
+                implements MultiDataSetIterator {
+    protected final List<MultiDataSetIterator> iterators;
+
+    /**
+     * Create iterator with ordered delivery, and default queue size of 8
+     *
+     * @param iterators underlying iterators, one per worker
+     */
+    public ParallelAsyncMultiDataSetIterator(@NonNull List<MultiDataSetIterator> iterators) {
+        this(iterators, 8, true);
+    }
+
+    /**
+     * @param iterators    underlying iterators, one per worker
+     * @param prefetchSize total number of minibatches prefetched by all workers
+     * @param ordered      if true, minibatches are returned in deterministic round-robin order
+     */
+    public ParallelAsyncMultiDataSetIterator(@NonNull List<MultiDataSetIterator> iterators, int prefetchSize,
+                    boolean ordered) {
+        this(iterators, prefetchSize, ordered, true, new DefaultCallback(),
+                        Nd4j.getAffinityManager().getDeviceForCurrentThread());
+    }
+
+    /**
+     * @param iterators    underlying iterators, one per worker
+     * @param prefetchSize total number of minibatches prefetched by all workers
+     * @param ordered      if true, minibatches are returned in deterministic round-robin order
+     * @param useWorkspace if true, each worker builds minibatches within its own cyclic workspace
+     * @param callback     callback executed by worker for each minibatch
+     * @param deviceId     device workers should be attached to
+     */
+    public ParallelAsyncMultiDataSetIterator(@NonNull List<MultiDataSetIterator> iterators, int prefetchSize,
+                    boolean ordered, boolean useWorkspace, DataSetCallback callback, Integer deviceId) {
+        super(iterators.size(), prefetchSize, ordered, useWorkspace, callback, deviceId,
+                        new org.nd4j.linalg.dataset.MultiDataSet());
+        this.iterators = new ArrayList<>(iterators);
+
+        for (MultiDataSetIterator iterator : this.iterators)
+            if (iterator.resetSupported() && !iterator.hasNext())
+                iterator.reset();
+
+        startWorkers();
+    }
+
+    @Override
+    protected boolean workerHasNext(int worker) {
+        return iterators.get(worker).hasNext();
+    }
+
+    @Override
+    protected MultiDataSet workerNext(int worker) {
+        return iterators.get(worker).next();
+    }
+
+    @Override
+    protected void workerReset(int worker) {
+        iterators.get(worker).reset();
+    }
+
+    @Override
+    protected void workerCallback(MultiDataSet element) {
+        callback.call(element);
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Set a pre processor for all underlying iterators.
+     * PLEASE NOTE: the same instance is used from all workers concurrently, so it should be thread-safe
+     *
+     * @param preProcessor a pre processor to set
+     */
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        for (MultiDataSetIterator iterator : iterators)
+            iterator.setPreProcessor(preProcessor);
+    }
+
+    @Override
+    public MultiDataSetPreProcessor getPreProcessor() {
+        return iterators.get(0).getPreProcessor();
+    }
+
+    @Override
+    public boolean resetSupported() {
+        for (MultiDataSetIterator iterator : iterators)
+            if (!iterator.resetSupported())
+                return false;
+
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        // already async
+        return false;
+    }
+}
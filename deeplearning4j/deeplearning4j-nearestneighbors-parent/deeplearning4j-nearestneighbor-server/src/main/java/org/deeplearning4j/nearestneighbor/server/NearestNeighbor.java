@@ -19,10 +19,12 @@ package org.deeplearning4j.nearestneighbor.server;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.deeplearning4j.clustering.vptree.ShardedVPTreeIndex;
 import org.deeplearning4j.clustering.vptree.VPTree;
 import org.deeplearning4j.nearestneighbor.model.NearestNeighborRequest;
 import org.deeplearning4j.nearestneighbor.model.NearestNeighborsResult;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -35,15 +37,21 @@ import java.util.List;
 public class NearestNeighbor {
     private NearestNeighborRequest record;
     private VPTree tree;
+    private ShardedVPTreeIndex index;
     private INDArray points;
 
     public List<NearestNeighborsResult> search() {
-        INDArray input = points.slice(record.getInputIndex());
+        // index holds points inserted after startup as well
+        INDArray input = index != null ? Nd4j.create(index.getPoint(record.getInputIndex()))
+                        : points.slice(record.getInputIndex());
         List<NearestNeighborsResult> results = new ArrayList<>();
         if (input.isVector()) {
             List<DataPoint> add = new ArrayList<>();
             List<Double> distances = new ArrayList<>();
-            tree.search(input, record.getK(), add, distances);
+            if (index != null)
+                index.search(input, record.getK(), add, distances);
+            else
+                tree.search(input, record.getK(), add, distances);
 
             if (add.size() != distances.size()) {
                 throw new IllegalStateException(
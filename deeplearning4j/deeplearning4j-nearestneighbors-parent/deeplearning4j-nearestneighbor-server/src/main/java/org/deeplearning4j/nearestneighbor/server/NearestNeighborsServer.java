@@ -22,6 +22,8 @@ import com.beust.jcommander.ParameterException;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.FileUtils;
 import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.deeplearning4j.clustering.vptree.FlatVPTree;
+import org.deeplearning4j.clustering.vptree.ShardedVPTreeIndex;
 import org.deeplearning4j.clustering.vptree.VPTree;
 import org.deeplearning4j.clustering.vptree.VPTreeFillSearch;
 import org.deeplearning4j.exception.DL4JInvalidInputException;
@@ -40,6 +42,9 @@ import play.server.Server;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static play.mvc.Controller.request;
 import static play.mvc.Results.*;
@@ -52,11 +57,18 @@ import static play.mvc.Results.*;
  * which (based on the input schema) will automatically
  * have their values transformed.
  *
+ * For similarity functions supported by {@link FlatVPTree}
+ * (and without inversion), {@link ShardedVPTreeIndex} is used instead:
+ * /knnbatch endpoint answers multiple queries in parallel,
+ * points can be added via /insert and removed via /delete
+ * without full rebuild, and the index can be persisted
+ * to --indexPath, so restart doesn't require rebuilding it.
+ *
  * @author Adam Gibson
  */
 @Slf4j
 public class NearestNeighborsServer {
-    @Parameter(names = {"--ndarrayPath"}, arity = 1, required = true)
+    @Parameter(names = {"--ndarrayPath"}, arity = 1, required = false)
     private String ndarrayPath = null;
     @Parameter(names = {"--labelsPath"}, arity = 1, required = false)
     private String labelsPath = null;
@@ -66,8 +78,17 @@ public class NearestNeighborsServer {
     private String similarityFunction = "euclidean";
     @Parameter(names = {"--invert"}, arity = 1)
     private boolean invert = false;
+    @Parameter(names = {"--searchWorkers"}, arity = 1)
+    private int searchWorkers = Runtime.getRuntime().availableProcessors();
+    @Parameter(names = {"--shards"}, arity = 1)
+    private int shards = 1;
+    @Parameter(names = {"--indexPath"}, arity = 1, required = false)
+    private String indexPath = null;
+    @Parameter(names = {"--rebuildThreshold"}, arity = 1)
+    private int rebuildThreshold = 100000;
 
     private Server server;
+    private ExecutorService rebuildExecutor;
 
     public void runMain(String... args) throws Exception {
         JCommander jcmdr = new JCommander(this);
@@ -100,54 +121,52 @@ public class NearestNeighborsServer {
 
     protected void runHelper() throws Exception {
 
-        String[] pathArr = ndarrayPath.split(",");
-        //INDArray[] pointsArr = new INDArray[pathArr.length];
-        // first of all we reading shapes of saved eariler files
-        int rows = 0;
-        int cols = 0;
-        for (int i = 0; i < pathArr.length; i++) {
-            DataBuffer shape = BinarySerde.readShapeFromDisk(new File(pathArr[i]));
-
-            log.info("Loading shape {} of {}; Shape: [{} x {}]", i + 1, pathArr.length, Shape.size(shape, 0),
-                            Shape.size(shape, 1));
-
-            if (Shape.rank(shape) != 2)
-                throw new DL4JInvalidInputException("NearestNeighborsServer assumes 2D chunks");
-
-            rows += Shape.size(shape, 0);
+        final boolean flat = !invert && FlatVPTree.isSupported(similarityFunction);
+        final File indexFile = indexPath == null ? null : new File(indexPath);
+        final List<String> labels = loadLabels();
+
+        final INDArray points;
+        final VPTree tree;
+        final ShardedVPTreeIndex index;
+        if (flat && indexFile != null && indexFile.exists()) {
+            log.info("Loading index from {}", indexFile.getAbsolutePath());
+            index = ShardedVPTreeIndex.load(indexFile);
+            if (!similarityFunction.equals(index.getSimilarityFunction()))
+                throw new DL4JInvalidInputException("Saved index uses " + index.getSimilarityFunction()
+                                + " similarity function, but " + similarityFunction + " was requested");
+
+            points = null;
+            tree = null;
+        } else {
+            if (ndarrayPath == null)
+                throw new DL4JInvalidInputException("Either --ndarrayPath or existing --indexPath should be specified");
 
-            if (cols == 0)
-                cols = Shape.size(shape, 1);
-            else if (cols != Shape.size(shape, 1))
-                throw new DL4JInvalidInputException(
-                                "NearestNeighborsServer requires equal 2D chunks. Got columns mismatch.");
-        }
+            points = loadPoints();
+            if (!labels.isEmpty() && labels.size() != points.rows())
+                throw new DL4JInvalidInputException(String.format("Number of labels must match number of rows in points matrix (expected %d, found %d)", points.rows(), labels.size()));
 
-        final List<String> labels = new ArrayList<>();
-        if (labelsPath != null) {
-            String[] labelsPathArr = labelsPath.split(",");
-            for (int i = 0; i < labelsPathArr.length; i++) {
-                labels.addAll(FileUtils.readLines(new File(labelsPathArr[i]), "utf-8"));
-            }
+            tree = flat ? null : new VPTree(points, similarityFunction, invert);
+            index = flat ? new ShardedVPTreeIndex(points, similarityFunction, shards) : null;
+            if (index != null && indexFile != null)
+                index.save(indexFile);
         }
-        if (!labels.isEmpty() && labels.size() != rows)
-            throw new DL4JInvalidInputException(String.format("Number of labels must match number of rows in points matrix (expected %d, found %d)", rows, labels.size()));
-
-        final INDArray points = Nd4j.createUninitialized(rows, cols);
 
-        int lastPosition = 0;
-        for (int i = 0; i < pathArr.length; i++) {
-            log.info("Loading chunk {} of {}", i + 1, pathArr.length);
-            INDArray pointsArr = BinarySerde.readFromDisk(new File(pathArr[i]));
-
-            points.get(NDArrayIndex.interval(lastPosition, lastPosition + pointsArr.rows())).assign(pointsArr);
-            lastPosition += pointsArr.rows();
-
-            // let's ensure we don't bring too much stuff in next loop
-            System.gc();
-        }
+        if (index != null)
+            index.setWorkers(searchWorkers);
 
-        VPTree tree = new VPTree(points, similarityFunction, invert);
+        rebuildExecutor = Executors.newSingleThreadExecutor();
+        final AtomicBoolean rebuildScheduled = new AtomicBoolean(false);
+        final Runnable rebuild = () -> {
+            try {
+                index.rebuild();
+                if (indexFile != null)
+                    index.save(indexFile);
+            } catch (Throwable e) {
+                log.error("Error while rebuilding index", e);
+            } finally {
+                rebuildScheduled.set(false);
+            }
+        };
 
         RoutingDsl routingDsl = new RoutingDsl();
         //return the host information for a given id
@@ -155,7 +174,8 @@ public class NearestNeighborsServer {
             try {
                 NearestNeighborRequest record = Json.fromJson(request().body().asJson(), NearestNeighborRequest.class);
                 NearestNeighbor nearestNeighbor =
-                                NearestNeighbor.builder().points(points).record(record).tree(tree).build();
+                                NearestNeighbor.builder().points(points).record(record).tree(tree)
+                                                .index(index).build();
 
                 if (record == null)
                     return badRequest(Json.toJson(Collections.singletonMap("status", "invalid json passed.")));
@@ -183,7 +203,12 @@ public class NearestNeighborsServer {
                 List<DataPoint> results;
                 List<Double> distances;
 
-                if (record.isForceFillK()) {
+                if (index != null) {
+                    // index search is exact, so k results are always there
+                    results = new ArrayList<>();
+                    distances = new ArrayList<>();
+                    index.search(arr, record.getK(), results, distances);
+                } else if (record.isForceFillK()) {
                     VPTreeFillSearch vpTreeFillSearch = new VPTreeFillSearch(tree, record.getK(), arr);
                     vpTreeFillSearch.search();
                     results = vpTreeFillSearch.getResults();
@@ -201,12 +226,8 @@ public class NearestNeighborsServer {
                 }
 
                 List<NearestNeighborsResult> nnResult = new ArrayList<>();
-                for (int i=0; i<results.size(); i++) {
-                    if (!labels.isEmpty())
-                        nnResult.add(new NearestNeighborsResult(results.get(i).getIndex(), distances.get(i), labels.get(results.get(i).getIndex())));
-                    else
-                        nnResult.add(new NearestNeighborsResult(results.get(i).getIndex(), distances.get(i)));
-                }
+                for (int i=0; i<results.size(); i++)
+                    nnResult.add(toResult(results.get(i).getIndex(), distances.get(i), labels));
 
                 NearestNeighborsResults results2 = NearestNeighborsResults.builder().results(nnResult).build();
                 return ok(Json.toJson(results2));
@@ -218,6 +239,130 @@ public class NearestNeighborsServer {
             }
         })));
 
+        routingDsl.POST("/knnbatch").routeTo(FunctionUtil.function0((() -> {
+            try {
+                Base64NDArrayBody record = Json.fromJson(request().body().asJson(), Base64NDArrayBody.class);
+                if (record == null)
+                    return badRequest(Json.toJson(Collections.singletonMap("status", "invalid json passed.")));
+
+                INDArray arr = Nd4jBase64.fromBase64(record.getNdarray());
+                if (arr.isVector())
+                    arr = arr.reshape(1, arr.length());
+
+                int columns = index != null ? index.getDimension() : points.columns();
+                if (arr.columns() != columns)
+                    return badRequest(Json.toJson(Collections.singletonMap("status",
+                            "queries should have " + columns + " columns")));
+
+                List<NearestNeighborsResults> batch = new ArrayList<>();
+                if (index != null) {
+                    int[][] indices = new int[arr.rows()][];
+                    float[][] distances = new float[arr.rows()][];
+                    index.search(arr, record.getK(), indices, distances);
+
+                    for (int q = 0; q < indices.length; q++) {
+                        List<NearestNeighborsResult> nnResult = new ArrayList<>();
+                        for (int i = 0; i < indices[q].length; i++)
+                            nnResult.add(toResult(indices[q][i], distances[q][i], labels));
+
+                        batch.add(NearestNeighborsResults.builder().results(nnResult).build());
+                    }
+                } else {
+                    for (int q = 0; q < arr.rows(); q++) {
+                        List<DataPoint> results = new ArrayList<>();
+                        List<Double> distances = new ArrayList<>();
+                        tree.search(arr.getRow(q), record.getK(), results, distances);
+
+                        List<NearestNeighborsResult> nnResult = new ArrayList<>();
+                        for (int i = 0; i < results.size(); i++)
+                            nnResult.add(toResult(results.get(i).getIndex(), distances.get(i), labels));
+
+                        batch.add(NearestNeighborsResults.builder().results(nnResult).build());
+                    }
+                }
+
+                return ok(Json.toJson(NearestNeighborsBatchResults.builder().results(batch).build()));
+
+            } catch (Throwable e) {
+                log.error("Error in POST /knnbatch",e);
+                return internalServerError(e.getMessage());
+            }
+        })));
+
+        routingDsl.POST("/insert").routeTo(FunctionUtil.function0((() -> {
+            try {
+                if (index == null)
+                    return badRequest(Json.toJson(Collections.singletonMap("status", "updates aren't supported for "
+                            + similarityFunction + " similarity function" + (invert ? " with inversion" : ""))));
+
+                Base64NDArrayBody record = Json.fromJson(request().body().asJson(), Base64NDArrayBody.class);
+                if (record == null)
+                    return badRequest(Json.toJson(Collections.singletonMap("status", "invalid json passed.")));
+
+                INDArray arr = Nd4jBase64.fromBase64(record.getNdarray());
+                if (arr.isVector())
+                    arr = arr.reshape(1, arr.length());
+
+                if (arr.columns() != index.getDimension())
+                    return badRequest(Json.toJson(Collections.singletonMap("status",
+                            "points should have " + index.getDimension() + " columns")));
+
+                List<Integer> ids = new ArrayList<>();
+                for (int id : index.add(arr))
+                    ids.add(id);
+
+                scheduleRebuild(index, rebuild, rebuildScheduled);
+                return ok(Json.toJson(NearestNeighborsUpdateResults.builder().ids(ids).size(index.size()).build()));
+
+            } catch (Throwable e) {
+                log.error("Error in POST /insert",e);
+                return internalServerError(e.getMessage());
+            }
+        })));
+
+        routingDsl.POST("/delete").routeTo(FunctionUtil.function0((() -> {
+            try {
+                if (index == null)
+                    return badRequest(Json.toJson(Collections.singletonMap("status", "updates aren't supported for "
+                            + similarityFunction + " similarity function" + (invert ? " with inversion" : ""))));
+
+                NearestNeighborsDeleteRequest record = Json.fromJson(request().body().asJson(), NearestNeighborsDeleteRequest.class);
+                if (record == null || record.getIds() == null)
+                    return badRequest(Json.toJson(Collections.singletonMap("status", "invalid json passed.")));
+
+                List<Integer> removed = new ArrayList<>();
+                for (Integer id : record.getIds())
+                    if (id != null && index.remove(id))
+                        removed.add(id);
+
+                scheduleRebuild(index, rebuild, rebuildScheduled);
+                return ok(Json.toJson(NearestNeighborsUpdateResults.builder().ids(removed).size(index.size()).build()));
+
+            } catch (Throwable e) {
+                log.error("Error in POST /delete",e);
+                return internalServerError(e.getMessage());
+            }
+        })));
+
+        //rebuilds index synchronously, searches and updates aren't blocked in the meantime
+        routingDsl.POST("/rebuild").routeTo(FunctionUtil.function0((() -> {
+            try {
+                if (index == null)
+                    return badRequest(Json.toJson(Collections.singletonMap("status", "index isn't updatable")));
+
+                index.rebuild();
+                if (indexFile != null)
+                    index.save(indexFile);
+
+                return ok(Json.toJson(NearestNeighborsUpdateResults.builder().ids(Collections.emptyList())
+                        .size(index.size()).build()));
+
+            } catch (Throwable e) {
+                log.error("Error in POST /rebuild",e);
+                return internalServerError(e.getMessage());
+            }
+        })));
+
         //Set play secret key, if required
         //http://www.playframework.com/documentation/latest/ApplicationSecret
         String crypto = System.getProperty("play.crypto.secret");
@@ -235,6 +380,72 @@ public class NearestNeighborsServer {
 
     }
 
+    protected List<String> loadLabels() throws Exception {
+        List<String> labels = new ArrayList<>();
+        if (labelsPath != null) {
+            String[] labelsPathArr = labelsPath.split(",");
+            for (int i = 0; i < labelsPathArr.length; i++) {
+                labels.addAll(FileUtils.readLines(new File(labelsPathArr[i]), "utf-8"));
+            }
+        }
+
+        return labels;
+    }
+
+    protected INDArray loadPoints() throws Exception {
+        String[] pathArr = ndarrayPath.split(",");
+        //INDArray[] pointsArr = new INDArray[pathArr.length];
+        // first of all we reading shapes of saved eariler files
+        int rows = 0;
+        int cols = 0;
+        for (int i = 0; i < pathArr.length; i++) {
+            DataBuffer shape = BinarySerde.readShapeFromDisk(new File(pathArr[i]));
+
+            log.info("Loading shape {} of {}; Shape: [{} x {}]", i + 1, pathArr.length, Shape.size(shape, 0),
+                            Shape.size(shape, 1));
+
+            if (Shape.rank(shape) != 2)
+                throw new DL4JInvalidInputException("NearestNeighborsServer assumes 2D chunks");
+
+            rows += Shape.size(shape, 0);
+
+            if (cols == 0)
+                cols = Shape.size(shape, 1);
+            else if (cols != Shape.size(shape, 1))
+                throw new DL4JInvalidInputException(
+                                "NearestNeighborsServer requires equal 2D chunks. Got columns mismatch.");
+        }
+
+        INDArray points = Nd4j.createUninitialized(rows, cols);
+
+        int lastPosition = 0;
+        for (int i = 0; i < pathArr.length; i++) {
+            log.info("Loading chunk {} of {}", i + 1, pathArr.length);
+            INDArray pointsArr = BinarySerde.readFromDisk(new File(pathArr[i]));
+
+            points.get(NDArrayIndex.interval(lastPosition, lastPosition + pointsArr.rows())).assign(pointsArr);
+            lastPosition += pointsArr.rows();
+
+            // let's ensure we don't bring too much stuff in next loop
+            System.gc();
+        }
+
+        return points;
+    }
+
+    private void scheduleRebuild(ShardedVPTreeIndex index, Runnable rebuild, AtomicBoolean scheduled) {
+        if (index.pendingChanges() >= rebuildThreshold && scheduled.compareAndSet(false, true))
+            rebuildExecutor.execute(rebuild);
+    }
+
+    private static NearestNeighborsResult toResult(int index, double distance, List<String> labels) {
+        // points inserted after startup have no labels
+        if (index < labels.size())
+            return new NearestNeighborsResult(index, distance, labels.get(index));
+
+        return new NearestNeighborsResult(index, distance);
+    }
+
     /**
      * Stop the server
      */
@@ -243,6 +454,9 @@ public class NearestNeighborsServer {
             log.info("Attempting to stop server");
             server.stop();
         }
+
+        if (rebuildExecutor != null)
+            rebuildExecutor.shutdownNow();
     }
 
     public static void main(String[] args) throws Exception {
@@ -21,7 +21,9 @@ import org.deeplearning4j.clustering.vptree.VPTree;
 import org.deeplearning4j.clustering.vptree.VPTreeFillSearch;
 import org.deeplearning4j.nearestneighbor.client.NearestNeighborsClient;
 import org.deeplearning4j.nearestneighbor.model.NearestNeighborRequest;
+import org.deeplearning4j.nearestneighbor.model.NearestNeighborsBatchResults;
 import org.deeplearning4j.nearestneighbor.model.NearestNeighborsResults;
+import org.deeplearning4j.nearestneighbor.model.NearestNeighborsUpdateResults;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -38,6 +40,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 /**
  * Created by agibsonccc on 4/27/17.
@@ -102,7 +105,73 @@ public class NearestNeighborTest {
         server.stop();
     }
 
+    @Test
+    public void testServerBatch() throws Exception {
+        int localPort = getAvailablePort();
+        Nd4j.getRandom().setSeed(7);
+        INDArray rand = Nd4j.randn(10, 5);
+        File writeToTmp = testDir.newFile();
+        writeToTmp.deleteOnExit();
+        BinarySerde.writeArrayToDisk(rand, writeToTmp);
+        NearestNeighborsServer server = new NearestNeighborsServer();
+        server.runMain("--ndarrayPath", writeToTmp.getAbsolutePath(), "--nearestNeighborsPort",
+                String.valueOf(localPort));
+
+        NearestNeighborsClient client = new NearestNeighborsClient("http://localhost:" + localPort);
+        NearestNeighborsBatchResults result = client.knnBatch(5, rand);
+        assertEquals(10, result.getResults().size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5, result.getResults().get(i).getResults().size());
+            assertEquals(i, result.getResults().get(i).getResults().get(0).getIndex());
+        }
+        server.stop();
+    }
+
+
 
+    @Test
+    public void testServerUpdates() throws Exception {
+        int localPort = getAvailablePort();
+        Nd4j.getRandom().setSeed(7);
+        INDArray rand = Nd4j.randn(10, 5);
+        File writeToTmp = testDir.newFile();
+        BinarySerde.writeArrayToDisk(rand, writeToTmp);
+        File indexFile = new File(testDir.getRoot(), "index.bin");
+
+        NearestNeighborsServer server = new NearestNeighborsServer();
+        server.runMain("--ndarrayPath", writeToTmp.getAbsolutePath(), "--nearestNeighborsPort",
+                String.valueOf(localPort), "--shards", "2", "--indexPath", indexFile.getAbsolutePath());
+
+        NearestNeighborsClient client = new NearestNeighborsClient("http://localhost:" + localPort);
+        INDArray added = Nd4j.randn(1, 5).addi(100);
+        NearestNeighborsUpdateResults inserted = client.insert(added);
+        assertEquals(1, inserted.getIds().size());
+        assertEquals(11, inserted.getSize());
+
+        int id = inserted.getIds().get(0);
+        NearestNeighborsResults result = client.knnNew(1, added);
+        assertEquals(id, result.getResults().get(0).getIndex());
+        assertEquals(0.0, result.getResults().get(0).getDistance(), 1e-4);
+
+        assertEquals(2, client.delete(id, 0).getIds().size());
+        result = client.knnNew(1, added);
+        assertNotEquals(id, result.getResults().get(0).getIndex());
+
+        // rebuilt index is saved, and restored on restart without the source points
+        assertEquals(9, client.rebuild().getSize());
+        server.stop();
+
+        localPort = getAvailablePort();
+        server = new NearestNeighborsServer();
+        server.runMain("--nearestNeighborsPort", String.valueOf(localPort), "--indexPath",
+                indexFile.getAbsolutePath());
+
+        client = new NearestNeighborsClient("http://localhost:" + localPort);
+        result = client.knnNew(9, rand.getRow(1));
+        assertEquals(9, result.getResults().size());
+        assertEquals(1, result.getResults().get(0).getIndex());
+        server.stop();
+    }
 
     @Test
     public void testFullSearch() throws Exception {
@@ -29,6 +29,8 @@ import org.nd4j.serde.base64.Nd4jBase64;
 import org.nd4j.shade.jackson.core.JsonProcessingException;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Client for the nearest neighbors server.
@@ -122,6 +124,87 @@ public class NearestNeighborsClient {
         return ret;
     }
 
+    /**
+     * Run a k nearest neighbors search
+     * for multiple NEW data points at once.
+     * Queries are processed in parallel on the server side.
+     * @param k the number of results
+     *          to retrieve for each query
+     * @param arr the queries to run the search on,
+     *            one query per row
+     * @return results, one entry per query
+     * @throws Exception
+     */
+    public NearestNeighborsBatchResults knnBatch(int k, INDArray arr) throws Exception {
+        Base64NDArrayBody base64NDArrayBody =
+                        Base64NDArrayBody.builder().k(k).ndarray(Nd4jBase64.base64String(arr)).build();
+
+        HttpRequestWithBody req = Unirest.post(url + "/knnbatch");
+        req.header("accept", "application/json")
+                .header("Content-Type", "application/json").body(base64NDArrayBody);
+        addAuthHeader(req);
+
+        NearestNeighborsBatchResults ret = req.asObject(NearestNeighborsBatchResults.class).getBody();
+
+        return ret;
+    }
+
+    /**
+     * Add new points to the server index.
+     * New points are searchable immediately.
+     * @param arr the points to add,
+     *            one point per row
+     * @return ids assigned to the new points,
+     * in order of rows
+     * @throws Exception
+     */
+    public NearestNeighborsUpdateResults insert(INDArray arr) throws Exception {
+        Base64NDArrayBody base64NDArrayBody =
+                        Base64NDArrayBody.builder().ndarray(Nd4jBase64.base64String(arr)).build();
+
+        HttpRequestWithBody req = Unirest.post(url + "/insert");
+        req.header("accept", "application/json")
+                .header("Content-Type", "application/json").body(base64NDArrayBody);
+        addAuthHeader(req);
+
+        return req.asObject(NearestNeighborsUpdateResults.class).getBody();
+    }
+
+    /**
+     * Remove points from the server index
+     * @param ids the ids of points to remove
+     * @return ids of points actually removed
+     * @throws Exception
+     */
+    public NearestNeighborsUpdateResults delete(int... ids) throws Exception {
+        List<Integer> list = new ArrayList<>();
+        for (int id : ids)
+            list.add(id);
+
+        HttpRequestWithBody req = Unirest.post(url + "/delete");
+        req.header("accept", "application/json")
+                .header("Content-Type", "application/json").body(new NearestNeighborsDeleteRequest(list));
+        addAuthHeader(req);
+
+        return req.asObject(NearestNeighborsUpdateResults.class).getBody();
+    }
+
+    /**
+     * Rebuild the server index, folding
+     * all inserts and deletes into it.
+     * The index is saved afterwards,
+     * if the server was started with an index path.
+     * @return number of points in the index
+     * @throws Exception
+     */
+    public NearestNeighborsUpdateResults rebuild() throws Exception {
+        HttpRequestWithBody req = Unirest.post(url + "/rebuild");
+        req.header("accept", "application/json");
+        addAuthHeader(req);
+
+        return req.asObject(NearestNeighborsUpdateResults.class).getBody();
+    }
+
 
     /**
      * Add the specified authentication header to the specified HttpRequest
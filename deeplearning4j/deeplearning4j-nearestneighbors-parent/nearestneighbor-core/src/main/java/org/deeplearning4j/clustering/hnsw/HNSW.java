@@ -0,0 +1,958 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.clustering.hnsw;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Hierarchical Navigable Small World graph: approximate nearest neighbours index.
+ * Malkov &amp; Yashunin, "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small
+ * World graphs", https://arxiv.org/abs/1603.09320
+ *
+ * Points are stored as flat float array, and distances are computed in plain java, since per-op dispatch overhead
+ * would dominate for single-vector distances. Index supports incremental inserts, concurrent inserts and searches,
+ * and multi-threaded bulk construction. Recall vs latency trade-off is controlled via ef parameter, which can be
+ * changed at any time, or specified per query.
+ *
+ * Indices of points are assigned sequentially, in order of insertion.
+ */
+@Slf4j
+public class HNSW {
+    public static final String EUCLIDEAN = "euclidean";
+    public static final String COSINE = "cosinedistance";
+    public static final String DOT = "dot";
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 200;
+    public static final int DEFAULT_EF = 50;
+
+    private static final int MAGIC = 0x484E5357;
+    private static final int VERSION = 1;
+    private static final int LOCK_STRIPES = 4096;
+    private static final int MAX_LEVEL = 31;
+    private static final int[] EMPTY = new int[0];
+
+    @Getter
+    private final int dimension;
+    @Getter
+    private final String distanceFunction;
+    private final boolean euclidean;
+    private final boolean cosine;
+    @Getter
+    private final int m;
+    private final int maxM0;
+    @Getter
+    private final int efConstruction;
+    @Getter
+    private volatile int ef;
+    private final double levelMultiplier;
+    private final Random random;
+
+    // vectors and links arrays are replaced only under write lock. inserts and searches are done under read lock
+    private final ReentrantReadWriteLock storageLock = new ReentrantReadWriteLock();
+    // held during inserts which are going to add new top level
+    private final ReentrantLock entryLock = new ReentrantLock();
+    // neighbour lists are copy-on-write, and are published/fetched under striped locks
+    private final Object[] locks;
+
+    private float[] vectors;
+    private int[][][] links;
+    private volatile int size = 0;
+    private volatile int entryPoint = -1;
+    private volatile int maxLevel = -1;
+
+    private final ThreadLocal<VisitedSet> visited = new ThreadLocal<>();
+
+    protected HNSW(int dimension, @NonNull String distanceFunction, int m, int efConstruction, int ef,
+                    int initialCapacity, long seed) {
+        if (dimension < 1)
+            throw new ND4JIllegalStateException("Dimension should be positive value");
+
+        if (m < 2)
+            throw new ND4JIllegalStateException("M should be at least 2");
+
+        if (!EUCLIDEAN.equals(distanceFunction) && !COSINE.equals(distanceFunction) && !DOT.equals(distanceFunction))
+            throw new ND4JIllegalStateException("Unsupported distance function: [" + distanceFunction + "]");
+
+        this.dimension = dimension;
+        this.distanceFunction = distanceFunction;
+        this.euclidean = EUCLIDEAN.equals(distanceFunction);
+        this.cosine = COSINE.equals(distanceFunction);
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.ef = ef;
+        this.levelMultiplier = 1.0 / Math.log(m);
+        this.random = new Random(seed);
+
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            locks[i] = new Object();
+
+        int capacity = Math.max(16, initialCapacity);
+        this.vectors = new float[capacity * dimension];
+        this.links = new int[capacity][][];
+    }
+
+    /**
+     * Returns number of points in this index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method sets size of dynamic candidates list used for searches. Higher values give better recall at cost
+     * of latency. Values below k are ignored: k is used instead.
+     *
+     * @param ef
+     */
+    public void setEf(int ef) {
+        if (ef < 1)
+            throw new ND4JIllegalStateException("ef should be positive value");
+
+        this.ef = ef;
+    }
+
+    /**
+     * This method adds single point to the index
+     *
+     * @param vector point to be added
+     * @return index of the point
+     */
+    public int add(@NonNull float[] vector) {
+        checkDimension(vector.length);
+
+        int id = reserve(1);
+        storageLock.readLock().lock();
+        try {
+            setVector(id, vector);
+            insert(id);
+        } finally {
+            storageLock.readLock().unlock();
+        }
+
+        return id;
+    }
+
+    /**
+     * This method adds single point to the index
+     *
+     * @param vector point to be added
+     * @return index of the point
+     */
+    public int add(@NonNull INDArray vector) {
+        return add(toFloats(vector));
+    }
+
+    /**
+     * This method adds all rows of the matrix to the index, using given number of threads
+     *
+     * @param points  matrix, one point per row
+     * @param workers number of threads used for construction
+     * @return index of the first point added, rest of them get consecutive indices
+     */
+    public int addAll(@NonNull INDArray points, int workers) {
+        float[][] rows = new float[points.rows()][];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = toFloats(points.getRow(i));
+
+        return addAll(rows, workers);
+    }
+
+    /**
+     * This method adds all given points to the index, using given number of threads
+     *
+     * @param points  points to be added
+     * @param workers number of threads used for construction
+     * @return index of the first point added, rest of them get consecutive indices
+     */
+    public int addAll(@NonNull float[][] points, int workers) {
+        for (float[] point : points)
+            checkDimension(point.length);
+
+        final int first = reserve(points.length);
+        final int last = first + points.length;
+        storageLock.readLock().lock();
+        try {
+            for (int i = 0; i < points.length; i++)
+                setVector(first + i, points[i]);
+
+            if (workers <= 1 || points.length < 2) {
+                for (int i = first; i < last; i++)
+                    insert(i);
+                return first;
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setDaemon(true);
+                    t.setName("HNSW construction thread");
+                    return t;
+                }
+            });
+
+            try {
+                final AtomicInteger next = new AtomicInteger(first);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int w = 0; w < workers; w++) {
+                    futures.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            int id;
+                            while ((id = next.getAndIncrement()) < last)
+                                insert(id);
+                        }
+                    }));
+                }
+
+                for (Future<?> future : futures)
+                    future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            storageLock.readLock().unlock();
+        }
+
+        return first;
+    }
+
+    /**
+     * This method returns copy of the point with given index. For cosine distance, normalized vector is returned.
+     *
+     * @param index index of the point
+     */
+    public float[] getVector(int index) {
+        if (index < 0 || index >= size)
+            throw new ND4JIllegalStateException("Index [" + index + "] is out of range [0, " + size + ")");
+
+        storageLock.readLock().lock();
+        try {
+            return Arrays.copyOfRange(vectors, index * dimension, (index + 1) * dimension);
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method searches for k nearest neighbours, ordered from closest to farthest one
+     *
+     * @param query     query point
+     * @param k         number of neighbours to look for
+     * @param ef        size of dynamic candidates list, higher values give better recall
+     * @param indices   array of at least k elements, for indices of neighbours
+     * @param distances array of at least k elements, for distances to neighbours
+     * @return number of neighbours found, which is less than k only if index contains less than k points
+     */
+    public int search(@NonNull float[] query, int k, int ef, @NonNull int[] indices, @NonNull float[] distances) {
+        checkDimension(query.length);
+        if (indices.length < k || distances.length < k)
+            throw new ND4JIllegalStateException("Result arrays should have at least k elements");
+
+        float[] q = prepare(query);
+
+        storageLock.readLock().lock();
+        try {
+            int top = maxLevel;
+            int ep = entryPoint;
+            if (ep < 0 || k < 1)
+                return 0;
+
+            float epDist = distance(q, ep);
+            for (int level = top; level > 0; level--) {
+                long best = greedy(q, ep, epDist, level);
+                ep = (int) (best >>> 32);
+                epDist = Float.intBitsToFloat((int) best);
+            }
+
+            DistanceHeap results = searchLayer(q, ep, epDist, Math.max(ef, k), 0);
+            while (results.size() > k)
+                results.pop();
+
+            int count = results.size();
+            for (int i = count - 1; i >= 0; i--) {
+                indices[i] = results.peekId();
+                distances[i] = finalDistance(results.peekDistance());
+                results.pop();
+            }
+
+            return count;
+        } finally {
+            storageLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method searches for k nearest neighbours, using current ef value
+     *
+     * @param target    query point
+     * @param k         number of neighbours to look for
+     * @param results   list for neighbours, ordered from closest to farthest one
+     * @param distances list for distances to neighbours
+     */
+    public void search(@NonNull INDArray target, int k, @NonNull List<DataPoint> results,
+                    @NonNull List<Double> distances) {
+        if (!target.isVectorOrScalar() || target.length() != dimension)
+            throw new ND4JIllegalStateException("Target for search should have shape of [1, " + dimension
+                            + "] but got " + Arrays.toString(target.shape()) + " instead");
+
+        results.clear();
+        distances.clear();
+
+        int[] idx = new int[k];
+        float[] dist = new float[k];
+        int count = search(toFloats(target), k, ef, idx, dist);
+        for (int i = 0; i < count; i++) {
+            results.add(new DataPoint(idx[i], Nd4j.create(getVector(idx[i]))));
+            distances.add((double) dist[i]);
+        }
+    }
+
+    private int reserve(int count) {
+        storageLock.writeLock().lock();
+        try {
+            int first = size;
+            int required = first + count;
+            int capacity = links.length;
+            if (required > capacity) {
+                int newCapacity = (int) Math.min(Integer.MAX_VALUE / dimension,
+                                Math.max((long) required, 2L * capacity));
+                if (newCapacity < required)
+                    throw new ND4JIllegalStateException("HNSW index can't hold more than " + newCapacity + " points");
+
+                vectors = Arrays.copyOf(vectors, newCapacity * dimension);
+                links = Arrays.copyOf(links, newCapacity);
+            }
+
+            size = required;
+            return first;
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    private void setVector(int id, float[] vector) {
+        System.arraycopy(prepare(vector), 0, vectors, id * dimension, dimension);
+    }
+
+    private void insert(int id) {
+        float[] q = Arrays.copyOfRange(vectors, id * dimension, (id + 1) * dimension);
+        int level = randomLevel();
+
+        int[][] nodeLinks = new int[level + 1][];
+        Arrays.fill(nodeLinks, EMPTY);
+        synchronized (lock(id)) {
+            links[id] = nodeLinks;
+        }
+
+        boolean global = false;
+        if (level > maxLevel) {
+            entryLock.lock();
+            global = true;
+            if (level <= maxLevel) {
+                entryLock.unlock();
+                global = false;
+            }
+        }
+
+        try {
+            int top = maxLevel;
+            int ep = entryPoint;
+            if (ep < 0) {
+                // first point in the index, we're holding entry lock here
+                entryPoint = id;
+                maxLevel = level;
+                return;
+            }
+
+            float epDist = distance(q, ep);
+            for (int l = top; l > level; l--) {
+                long best = greedy(q, ep, epDist, l);
+                ep = (int) (best >>> 32);
+                epDist = Float.intBitsToFloat((int) best);
+            }
+
+            for (int l = Math.min(level, top); l >= 0; l--) {
+                DistanceHeap candidates = searchLayer(q, ep, epDist, efConstruction, l);
+
+                // heap is max-heap, so we're extracting candidates in descending order
+                int count = candidates.size();
+                int[] ids = new int[count];
+                float[] dists = new float[count];
+                for (int i = count - 1; i >= 0; i--) {
+                    ids[i] = candidates.peekId();
+                    dists[i] = candidates.peekDistance();
+                    candidates.pop();
+                }
+
+                // other inserts could have linked to this node already, so we merge instead of overwriting
+                int[] selected = selectNeighbours(ids, dists, m);
+                merge(id, selected, l);
+
+                for (int neighbour : selected)
+                    connect(neighbour, id, l);
+
+                ep = ids[0];
+                epDist = dists[0];
+            }
+
+            if (level > top) {
+                // entry point goes first: readers fetch maxLevel before entryPoint
+                entryPoint = id;
+                maxLevel = level;
+            }
+        } finally {
+            if (global)
+                entryLock.unlock();
+        }
+    }
+
+    /**
+     * Adds link from node to the new neighbour. If node has too many links already, its neighbours are selected again.
+     */
+    private void connect(int node, int neighbour, int level) {
+        merge(node, new int[] {neighbour}, level);
+    }
+
+    /**
+     * Merges given links into the node's current links on the given level. If node ends up with too many links,
+     * its neighbours are selected again.
+     */
+    private void merge(int node, int[] added, int level) {
+        int max = level == 0 ? maxM0 : m;
+        synchronized (lock(node)) {
+            int[] current = links[node][level];
+            int[] merged = Arrays.copyOf(current, current.length + added.length);
+            int count = current.length;
+            for (int a : added) {
+                boolean known = false;
+                for (int i = 0; i < count; i++) {
+                    if (merged[i] == a) {
+                        known = true;
+                        break;
+                    }
+                }
+
+                if (!known)
+                    merged[count++] = a;
+            }
+
+            if (count == current.length)
+                return;
+
+            if (count <= max) {
+                links[node][level] = count == merged.length ? merged : Arrays.copyOf(merged, count);
+                return;
+            }
+
+            final float[] dists = new float[count];
+            Integer[] order = new Integer[count];
+            for (int i = 0; i < count; i++) {
+                dists[i] = distance(node, merged[i]);
+                order[i] = i;
+            }
+
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Float.compare(dists[o1], dists[o2]);
+                }
+            });
+
+            int[] ids = new int[count];
+            float[] sorted = new float[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = merged[order[i]];
+                sorted[i] = dists[order[i]];
+            }
+
+            links[node][level] = selectNeighbours(ids, sorted, max);
+        }
+    }
+
+    /**
+     * Neighbours selection heuristic: candidate is kept only if it's closer to the base point than to any of
+     * already selected neighbours. This keeps graph navigable for clustered data.
+     *
+     * @param ids   candidates, sorted by distance to the base point, ascending
+     * @param dists distances to the base point
+     * @param max   maximal number of neighbours
+     */
+    private int[] selectNeighbours(int[] ids, float[] dists, int max) {
+        if (ids.length <= max)
+            return ids;
+
+        int[] selected = new int[max];
+        int count = 0;
+        for (int i = 0; i < ids.length && count < max; i++) {
+            boolean good = true;
+            for (int j = 0; j < count; j++) {
+                if (distance(ids[i], selected[j]) < dists[i]) {
+                    good = false;
+                    break;
+                }
+            }
+
+            if (good)
+                selected[count++] = ids[i];
+        }
+
+        return count == max ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private int[] neighbours(int node, int level) {
+        synchronized (lock(node)) {
+            return links[node][level];
+        }
+    }
+
+    /**
+     * Greedy search for the single closest point on the given level
+     *
+     * @return packed pair of index and distance bits
+     */
+    private long greedy(float[] q, int ep, float epDist, int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int n : neighbours(ep, level)) {
+                float d = distance(q, n);
+                if (d < epDist) {
+                    epDist = d;
+                    ep = n;
+                    changed = true;
+                }
+            }
+        }
+
+        return ((long) ep << 32) | (Float.floatToRawIntBits(epDist) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Beam search on the given level
+     *
+     * @return max-heap with ef closest points found
+     */
+    private DistanceHeap searchLayer(float[] q, int ep, float epDist, int ef, int level) {
+        VisitedSet visitedSet = visited.get();
+        if (visitedSet == null) {
+            visitedSet = new VisitedSet();
+            visited.set(visitedSet);
+        }
+        visitedSet.reset(links.length);
+
+        DistanceHeap candidates = new DistanceHeap(ef + 1, false);
+        DistanceHeap results = new DistanceHeap(ef + 1, true);
+
+        visitedSet.visit(ep);
+        candidates.push(ep, epDist);
+        results.push(ep, epDist);
+
+        while (candidates.size() > 0) {
+            float cDist = candidates.peekDistance();
+            int c = candidates.peekId();
+            if (cDist > results.peekDistance() && results.size() >= ef)
+                break;
+
+            candidates.pop();
+            for (int n : neighbours(c, level)) {
+                if (!visitedSet.visit(n))
+                    continue;
+
+                float d = distance(q, n);
+                if (results.size() < ef || d < results.peekDistance()) {
+                    candidates.push(n, d);
+                    results.push(n, d);
+                    if (results.size() > ef)
+                        results.pop();
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private int randomLevel() {
+        double r = random.nextDouble();
+        return (int) Math.min(MAX_LEVEL, Math.floor(-Math.log(1.0 - r) * levelMultiplier));
+    }
+
+    private Object lock(int id) {
+        return locks[id & (LOCK_STRIPES - 1)];
+    }
+
+    private void checkDimension(int length) {
+        if (length != dimension)
+            throw new ND4JIllegalStateException("Expected point of length " + dimension + ", but got " + length);
+    }
+
+    private static float[] toFloats(INDArray array) {
+        return array.dup('c').data().asFloat();
+    }
+
+    /**
+     * For cosine distance points are normalized once, so distance is computed as 1 - dot
+     */
+    private float[] prepare(float[] vector) {
+        if (!cosine)
+            return vector;
+
+        double norm = 0.0;
+        for (float v : vector)
+            norm += v * v;
+
+        norm = Math.sqrt(norm);
+        float[] result = new float[vector.length];
+        if (norm > 0.0)
+            for (int i = 0; i < vector.length; i++)
+                result[i] = (float) (vector[i] / norm);
+
+        return result;
+    }
+
+    private float distance(float[] q, int id) {
+        return distance(q, 0, vectors, id * dimension);
+    }
+
+    private float distance(int a, int b) {
+        return distance(vectors, a * dimension, vectors, b * dimension);
+    }
+
+    /**
+     * Internal distance: squared for euclidean, 1 - dot for cosine, and negative dot product for dot
+     */
+    private float distance(float[] x, int xOffset, float[] y, int yOffset) {
+        if (euclidean) {
+            float sum = 0.0f;
+            for (int i = 0; i < dimension; i++) {
+                float d = x[xOffset + i] - y[yOffset + i];
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        float dot = 0.0f;
+        for (int i = 0; i < dimension; i++)
+            dot += x[xOffset + i] * y[yOffset + i];
+
+        return cosine ? 1.0f - dot : -dot;
+    }
+
+    private float finalDistance(float distance) {
+        return euclidean ? (float) Math.sqrt(distance) : distance;
+    }
+
+    /**
+     * This method saves this index to the given stream. Concurrent inserts are blocked while index is being saved.
+     *
+     * @param stream target stream, it's not closed by this method
+     */
+    public void write(@NonNull OutputStream stream) throws IOException {
+        storageLock.writeLock().lock();
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(stream));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(dimension);
+            dos.writeUTF(distanceFunction);
+            dos.writeInt(m);
+            dos.writeInt(efConstruction);
+            dos.writeInt(ef);
+            dos.writeInt(size);
+            dos.writeInt(entryPoint);
+            dos.writeInt(maxLevel);
+
+            for (int i = 0; i < size * dimension; i++)
+                dos.writeFloat(vectors[i]);
+
+            for (int i = 0; i < size; i++) {
+                dos.writeInt(links[i].length);
+                for (int[] list : links[i]) {
+                    dos.writeInt(list.length);
+                    for (int n : list)
+                        dos.writeInt(n);
+                }
+            }
+
+            dos.flush();
+        } finally {
+            storageLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method restores index previously saved via {@link #write(OutputStream)}
+     *
+     * @param stream source stream, it's not closed by this method
+     */
+    public static HNSW read(@NonNull InputStream stream) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(stream));
+        if (dis.readInt() != MAGIC)
+            throw new IOException("Stream doesn't contain HNSW index");
+
+        int version = dis.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported HNSW index version: [" + version + "]");
+
+        int dimension = dis.readInt();
+        String distanceFunction = dis.readUTF();
+        int m = dis.readInt();
+        int efConstruction = dis.readInt();
+        int ef = dis.readInt();
+        int size = dis.readInt();
+
+        HNSW index = new HNSW(dimension, distanceFunction, m, efConstruction, ef, size, System.currentTimeMillis());
+        index.entryPoint = dis.readInt();
+        index.maxLevel = dis.readInt();
+
+        for (int i = 0; i < size * dimension; i++)
+            index.vectors[i] = dis.readFloat();
+
+        for (int i = 0; i < size; i++) {
+            int[][] nodeLinks = new int[dis.readInt()][];
+            for (int l = 0; l < nodeLinks.length; l++) {
+                nodeLinks[l] = new int[dis.readInt()];
+                for (int e = 0; e < nodeLinks[l].length; e++)
+                    nodeLinks[l][e] = dis.readInt();
+            }
+            index.links[i] = nodeLinks;
+        }
+
+        index.size = size;
+        return index;
+    }
+
+    /**
+     * This method saves this index to the given file
+     */
+    public void save(@NonNull File file) throws IOException {
+        try (OutputStream stream = new FileOutputStream(file)) {
+            write(stream);
+        }
+    }
+
+    /**
+     * This method restores index previously saved via {@link #save(File)}
+     */
+    public static HNSW load(@NonNull File file) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            return read(stream);
+        }
+    }
+
+    /**
+     * Binary heap of (index, distance) pairs
+     */
+    protected static class DistanceHeap {
+        private final boolean max;
+        private int[] ids;
+        private float[] dists;
+        private int size = 0;
+
+        protected DistanceHeap(int capacity, boolean max) {
+            this.max = max;
+            this.ids = new int[Math.max(1, capacity)];
+            this.dists = new float[ids.length];
+        }
+
+        protected int size() {
+            return size;
+        }
+
+        protected int peekId() {
+            return ids[0];
+        }
+
+        protected float peekDistance() {
+            return dists[0];
+        }
+
+        private boolean above(float a, float b) {
+            return max ? a > b : a < b;
+        }
+
+        protected void push(int id, float distance) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                dists = Arrays.copyOf(dists, size * 2);
+            }
+
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(distance, dists[parent]))
+                    break;
+
+                ids[i] = ids[parent];
+                dists[i] = dists[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            dists[i] = distance;
+        }
+
+        protected void pop() {
+            size--;
+            if (size == 0)
+                return;
+
+            int id = ids[size];
+            float distance = dists[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+
+                if (child + 1 < size && above(dists[child + 1], dists[child]))
+                    child++;
+
+                if (!above(dists[child], distance))
+                    break;
+
+                ids[i] = ids[child];
+                dists[i] = dists[child];
+                i = child;
+            }
+            ids[i] = id;
+            dists[i] = distance;
+        }
+    }
+
+    /**
+     * Visited marks, reused between searches done by the same thread
+     */
+    protected static class VisitedSet {
+        private int[] marks = new int[0];
+        private int tag = 0;
+
+        protected void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[capacity];
+                tag = 0;
+            }
+
+            if (++tag == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                tag = 1;
+            }
+        }
+
+        /**
+         * @return true if point wasn't visited before
+         */
+        protected boolean visit(int id) {
+            if (marks[id] == tag)
+                return false;
+
+            marks[id] = tag;
+            return true;
+        }
+    }
+
+    public static class Builder {
+        private final int dimension;
+        private String distanceFunction = COSINE;
+        private int m = DEFAULT_M;
+        private int efConstruction = DEFAULT_EF_CONSTRUCTION;
+        private int ef = DEFAULT_EF;
+        private int initialCapacity = 1024;
+        private long seed = System.currentTimeMillis();
+
+        /**
+         * @param dimension length of indexed vectors
+         */
+        public Builder(int dimension) {
+            this.dimension = dimension;
+        }
+
+        /**
+         * Distance function: {@link HNSW#COSINE}, {@link HNSW#EUCLIDEAN} or {@link HNSW#DOT}. Default is cosine.
+         */
+        public Builder distanceFunction(@NonNull String distanceFunction) {
+            this.distanceFunction = distanceFunction;
+            return this;
+        }
+
+        /**
+         * Maximal number of links per point on upper levels, twice as much on the bottom level. Default is 16.
+         */
+        public Builder m(int m) {
+            this.m = m;
+            return this;
+        }
+
+        /**
+         * Size of dynamic candidates list used during construction. Default is 200.
+         */
+        public Builder efConstruction(int efConstruction) {
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        /**
+         * Size of dynamic candidates list used during search. Default is 50.
+         */
+        public Builder ef(int ef) {
+            this.ef = ef;
+            return this;
+        }
+
+        /**
+         * Expected number of points, to avoid reallocations
+         */
+        public Builder initialCapacity(int initialCapacity) {
+            this.initialCapacity = initialCapacity;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public HNSW build() {
+            return new HNSW(dimension, distanceFunction, m, efConstruction, ef, initialCapacity, seed);
+        }
+    }
+}
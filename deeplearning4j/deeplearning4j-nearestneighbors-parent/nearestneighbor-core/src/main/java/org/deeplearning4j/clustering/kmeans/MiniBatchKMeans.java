@@ -0,0 +1,719 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.kmeans;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.util.MultiThreadUtils;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * KMeans for large datasets: mini-batch updates, and k-means|| seeding.
+ *
+ * Unlike {@link KMeansClustering}, which classifies points one by one, assignments are computed for blocks of
+ * points at once: squared distances to all centers are |x|^2 - 2 * x * C^T + |c|^2, so each block costs single gemm
+ * call. Blocks are processed in parallel.
+ *
+ * Centers are updated from mini-batches, each center with its own learning rate 1 / (number of points assigned to
+ * it so far), as described in Sculley, "Web-scale k-means clustering". Batches can be sampled from in-memory
+ * matrix, or streamed from {@link DataSetIterator}.
+ *
+ * Initial centers are chosen via k-means|| (Bahmani et al., "Scalable k-means++"): few rounds of oversampled D^2
+ * sampling over the whole data, followed by weighted k-means++ over sampled candidates.
+ *
+ * Supported distance functions are "euclidean" and "cosinedistance". For cosine distance points and centers are
+ * normalized, i.e. this is spherical kmeans.
+ */
+@Slf4j
+public class MiniBatchKMeans implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String EUCLIDEAN = "euclidean";
+    public static final String COSINE = "cosinedistance";
+
+    public enum Initialization {
+        RANDOM, KMEANS_PARALLEL
+    }
+
+    // weighted lloyd iterations used to recluster k-means|| candidates
+    private static final int RECLUSTER_ITERATIONS = 10;
+
+    @Getter
+    private final int k;
+    @Getter
+    private final String distanceFunction;
+    @Getter
+    private final int batchSize;
+    @Getter
+    private final int maxIterations;
+    @Getter
+    private final double tolerance;
+    @Getter
+    private final Initialization initialization;
+    @Getter
+    private final double oversampling;
+    @Getter
+    private final int initRounds;
+    @Getter
+    private final int initSampleSize;
+    @Getter
+    private final int blockSize;
+    @Getter
+    private final int workers;
+    private final boolean cosine;
+    private final Random random;
+
+    // [k, dimension] centers, and number of points assigned to each center so far
+    private INDArray centers;
+    private double[] counts;
+
+    private transient ExecutorService executor;
+
+    protected MiniBatchKMeans(int k, String distanceFunction, int batchSize, int maxIterations, double tolerance,
+                    Initialization initialization, double oversampling, int initRounds, int initSampleSize,
+                    int blockSize, int workers, long seed) {
+        if (!EUCLIDEAN.equals(distanceFunction) && !COSINE.equals(distanceFunction))
+            throw new ND4JIllegalStateException("Unsupported distance function: [" + distanceFunction + "]");
+
+        if (k < 1 || batchSize < 1 || blockSize < 1 || workers < 1 || initRounds < 0 || oversampling <= 0)
+            throw new ND4JIllegalStateException("Number of clusters, batch size, block size, workers and "
+                            + "oversampling factor should be positive values");
+
+        this.k = k;
+        this.distanceFunction = distanceFunction;
+        this.batchSize = batchSize;
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.initialization = initialization;
+        this.oversampling = oversampling;
+        this.initRounds = initRounds;
+        this.initSampleSize = Math.max(initSampleSize, k);
+        this.blockSize = blockSize;
+        this.workers = workers;
+        this.cosine = COSINE.equals(distanceFunction);
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Returns [k, dimension] matrix of cluster centers, or null if model wasn't fitted yet
+     */
+    public INDArray getCenters() {
+        return centers == null ? null : centers.dup();
+    }
+
+    /**
+     * Returns number of points assigned to each center so far
+     */
+    public double[] getCounts() {
+        return counts == null ? null : counts.clone();
+    }
+
+    /**
+     * This method fits the model to the points: centers are initialized from all points, and then updated from
+     * random mini-batches until centers stop moving, or maxIterations is reached.
+     *
+     * @param points matrix, one point per row
+     */
+    public MiniBatchKMeans fit(@NonNull INDArray points) {
+        INDArray x = prepare(points);
+        if (centers == null)
+            initialize(x);
+
+        int rows = x.rows();
+        for (int i = 0; i < maxIterations; i++) {
+            INDArray batch = x;
+            if (batchSize < rows) {
+                int[] indices = new int[batchSize];
+                for (int e = 0; e < batchSize; e++)
+                    indices[e] = random.nextInt(rows);
+                batch = Nd4j.pullRows(x, 1, indices);
+            }
+
+            double shift = update(batch);
+            if (shift <= tolerance) {
+                log.debug("MiniBatchKMeans converged after {} iterations", i + 1);
+                break;
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * This method fits the model to the points streamed from iterator. Centers are initialized from the first
+     * initSampleSize points, and then updated from each batch. If iterator doesn't support reset, only single
+     * epoch is done.
+     *
+     * @param iterator source of points, features of each DataSet are used. Features of rank > 2 are flattened
+     * @param epochs   number of passes over the data
+     */
+    public MiniBatchKMeans fit(@NonNull DataSetIterator iterator, int epochs) {
+        List<INDArray> pending = new ArrayList<>();
+        if (centers == null) {
+            int collected = 0;
+            while (collected < initSampleSize && iterator.hasNext()) {
+                INDArray features = prepare(iterator.next().getFeatures());
+                pending.add(features);
+                collected += features.rows();
+            }
+
+            if (pending.isEmpty())
+                throw new ND4JIllegalStateException("Iterator has no data");
+
+            initialize(pending.size() == 1 ? pending.get(0) : Nd4j.vstack(pending));
+        }
+
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            if (epoch > 0) {
+                if (!iterator.resetSupported()) {
+                    log.warn("Iterator doesn't support reset, stopping after {} epochs", epoch);
+                    break;
+                }
+                iterator.reset();
+            }
+
+            // batches used for initialization are not lost
+            for (INDArray features : pending)
+                update(features);
+            pending.clear();
+
+            while (iterator.hasNext())
+                update(prepare(iterator.next().getFeatures()));
+        }
+
+        return this;
+    }
+
+    /**
+     * This method updates centers with a single mini-batch. If model wasn't fitted yet, centers are initialized
+     * from this batch.
+     *
+     * @param batch matrix, one point per row
+     * @return mean squared shift of centers
+     */
+    public double partialFit(@NonNull INDArray batch) {
+        INDArray x = prepare(batch);
+        if (centers == null)
+            initialize(x);
+
+        return update(x);
+    }
+
+    /**
+     * This method returns index of the closest center for each point
+     *
+     * @param points matrix, one point per row
+     */
+    public int[] predict(@NonNull INDArray points) {
+        checkFitted();
+        int[] assignments = new int[points.rows()];
+        assign(prepare(points), centers, assignments, null);
+        return assignments;
+    }
+
+    /**
+     * This method returns sum of distances from points to their closest centers: squared euclidean distances, or
+     * cosine distances
+     *
+     * @param points matrix, one point per row
+     */
+    public double inertia(@NonNull INDArray points) {
+        checkFitted();
+        double[] distances = new double[points.rows()];
+        assign(prepare(points), centers, null, distances);
+
+        double sum = 0.0;
+        for (double d : distances)
+            sum += cosine ? d / 2.0 : d;
+        return sum;
+    }
+
+    private void checkFitted() {
+        if (centers == null)
+            throw new ND4JIllegalStateException("MiniBatchKMeans wasn't fitted yet");
+    }
+
+    /**
+     * Flattens and, for cosine distance, normalizes points. Source array is never modified
+     */
+    protected INDArray prepare(INDArray points) {
+        INDArray x = points;
+        if (x.rank() != 2)
+            x = x.reshape('c', x.size(0), x.length() / x.size(0));
+
+        if (centers != null && x.columns() != centers.columns())
+            throw new ND4JIllegalStateException("Points should have " + centers.columns() + " columns, got "
+                            + x.columns());
+
+        if (cosine) {
+            INDArray norm = x.norm2(1).reshape(x.rows(), 1);
+            Transforms.max(norm, 1e-12, false);
+            return x.divColumnVector(norm);
+        }
+
+        return x;
+    }
+
+    /**
+     * Computes closest center, and squared euclidean distance to it, for each point. Blocks of points are
+     * processed in parallel.
+     *
+     * @param assignments array for indices of closest centers, may be null
+     * @param distances   array for squared distances to closest centers, may be null
+     */
+    protected void assign(final INDArray x, INDArray centers, final int[] assignments, final double[] distances) {
+        final INDArray c = centers;
+        final INDArray cNorm = c.mul(c).sum(1).reshape(1, c.rows());
+        int rows = x.rows();
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < rows; from += blockSize) {
+            final int start = from;
+            final int end = Math.min(rows, from + blockSize);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    INDArray block = x.get(NDArrayIndex.interval(start, end), NDArrayIndex.all());
+                    INDArray d = squaredDistances(block, c, cNorm);
+                    if (assignments != null) {
+                        int[] idx = Nd4j.argMax(d.neg(), 1).data().asInt();
+                        System.arraycopy(idx, 0, assignments, start, end - start);
+                    }
+
+                    if (distances != null) {
+                        double[] min = d.min(1).data().asDouble();
+                        System.arraycopy(min, 0, distances, start, end - start);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        if (tasks.size() == 1 || workers == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return;
+        }
+
+        try {
+            for (Future<Void> future : getExecutor().invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns [block rows, centers rows] matrix of squared euclidean distances
+     */
+    private static INDArray squaredDistances(INDArray block, INDArray centers, INDArray cNorm) {
+        INDArray xNorm = block.mul(block).sum(1).reshape(block.rows(), 1);
+        INDArray d = block.mmul(centers.transpose()).muli(-2.0);
+        d.addiColumnVector(xNorm).addiRowVector(cNorm);
+
+        // rounding errors may give small negative values for points equal to centers
+        return Transforms.max(d, 0.0, false);
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = MultiThreadUtils.newExecutorService(workers);
+
+            // idle workers are released, so instances that are just dropped don't hold threads
+            if (executor instanceof ThreadPoolExecutor)
+                ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+    /**
+     * This method stops worker threads used for assignments. Model stays usable: new workers are started on demand.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Mini-batch update: every center moves towards mean of its points in batch, with learning rate
+     * (points in batch) / (points assigned so far)
+     *
+     * @return mean squared shift of centers
+     */
+    protected double update(INDArray x) {
+        int rows = x.rows();
+        int[] assignments = new int[rows];
+        assign(x, centers, assignments, null);
+
+        double[] batchCounts = new double[k];
+        for (int i = 0; i < rows; i++)
+            batchCounts[assignments[i]]++;
+
+        INDArray sums = sumByCenter(x, assignments, null);
+
+        double[] keep = new double[k];
+        double[] scale = new double[k];
+        for (int j = 0; j < k; j++) {
+            counts[j] += batchCounts[j];
+            keep[j] = counts[j] > 0 ? 1.0 - batchCounts[j] / counts[j] : 1.0;
+            scale[j] = counts[j] > 0 ? 1.0 / counts[j] : 0.0;
+        }
+
+        INDArray previous = centers.dup();
+        centers.muliColumnVector(Nd4j.create(keep, new int[] {k, 1}));
+        centers.addi(sums.muliColumnVector(Nd4j.create(scale, new int[] {k, 1})));
+        if (cosine)
+            normalizeRows(centers);
+
+        double shift = previous.subi(centers).norm2Number().doubleValue();
+        return shift * shift / k;
+    }
+
+    /**
+     * Returns [k, dimension] matrix of (weighted) sums of points assigned to each center. Rows are accumulated by
+     * index, so memory use doesn't depend on number of points times number of centers
+     *
+     * @param weights weight of each point, may be null
+     */
+    private INDArray sumByCenter(INDArray x, int[] assignments, double[] weights) {
+        int rows = x.rows();
+        int dimension = x.columns();
+        double[] data = x.dup('c').data().asDouble();
+        double[] sums = new double[k * dimension];
+        for (int i = 0; i < rows; i++) {
+            double w = weights == null ? 1.0 : weights[i];
+            int src = i * dimension;
+            int dst = assignments[i] * dimension;
+            for (int e = 0; e < dimension; e++)
+                sums[dst + e] += w * data[src + e];
+        }
+
+        return Nd4j.create(sums, new int[] {k, dimension}, 'c');
+    }
+
+    private static void normalizeRows(INDArray matrix) {
+        INDArray norm = matrix.norm2(1).reshape(matrix.rows(), 1);
+        Transforms.max(norm, 1e-12, false);
+        matrix.diviColumnVector(norm);
+    }
+
+    /**
+     * This method chooses initial centers from the given points, as configured: random points, or k-means||
+     *
+     * @param x prepared points, one per row
+     */
+    protected void initialize(INDArray x) {
+        int rows = x.rows();
+        if (rows < k)
+            throw new ND4JIllegalStateException("At least " + k + " points are required for initialization, got "
+                            + rows);
+
+        long time = System.currentTimeMillis();
+        if (initialization == Initialization.RANDOM || k == 1) {
+            centers = Nd4j.pullRows(x, 1, sampleDistinct(rows, k));
+            counts = new double[k];
+            return;
+        }
+
+        // k-means||: candidates are sampled with probability proportional to squared distance to candidates so far
+        List<Integer> chosen = new ArrayList<>();
+        chosen.add(random.nextInt(rows));
+        double[] minDist = new double[rows];
+        assign(x, Nd4j.pullRows(x, 1, new int[] {chosen.get(0)}), null, minDist);
+
+        double expected = oversampling * k;
+        for (int round = 0; round < initRounds; round++) {
+            double cost = 0.0;
+            for (double d : minDist)
+                cost += d;
+            if (cost <= 0.0)
+                break;
+
+            List<Integer> sampled = new ArrayList<>();
+            for (int i = 0; i < rows; i++)
+                if (random.nextDouble() < expected * minDist[i] / cost)
+                    sampled.add(i);
+            if (sampled.isEmpty())
+                continue;
+
+            chosen.addAll(sampled);
+            double[] dist = new double[rows];
+            assign(x, Nd4j.pullRows(x, 1, toArray(sampled)), null, dist);
+            for (int i = 0; i < rows; i++)
+                minDist[i] = Math.min(minDist[i], dist[i]);
+        }
+
+        // not enough candidates (e.g. duplicate points): random points are added
+        if (chosen.size() < k)
+            for (int i : sampleDistinct(rows, k - chosen.size()))
+                chosen.add(i);
+
+        INDArray candidates = Nd4j.pullRows(x, 1, toArray(chosen));
+
+        // each candidate is weighted by number of points closest to it
+        int[] closest = new int[rows];
+        assign(x, candidates, closest, null);
+        double[] weights = new double[candidates.rows()];
+        for (int c : closest)
+            weights[c]++;
+
+        centers = recluster(candidates, weights);
+
+        // counts start from zero: seeding them with candidate weights would make learning rate ~ batchSize / N
+        counts = new double[k];
+
+        log.debug("MiniBatchKMeans: {} centers chosen out of {} candidates in {} ms", k, candidates.rows(),
+                        System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Weighted k-means++ over candidates, refined with few weighted lloyd iterations
+     */
+    private INDArray recluster(INDArray candidates, double[] weights) {
+        int m = candidates.rows();
+        int dimension = candidates.columns();
+        double[] data = candidates.dup('c').data().asDouble();
+
+        int[] seeds = new int[k];
+        seeds[0] = sampleWeighted(weights, null);
+        double[] minDist = new double[m];
+        for (int i = 0; i < m; i++)
+            minDist[i] = squaredDistance(data, i, seeds[0], dimension);
+
+        for (int c = 1; c < k; c++) {
+            seeds[c] = sampleWeighted(weights, minDist);
+            for (int i = 0; i < m; i++)
+                minDist[i] = Math.min(minDist[i], squaredDistance(data, i, seeds[c], dimension));
+        }
+
+        INDArray result = Nd4j.pullRows(candidates, 1, seeds);
+        int[] assignments = new int[m];
+        for (int iter = 0; iter < RECLUSTER_ITERATIONS; iter++) {
+            assign(candidates, result, assignments, null);
+
+            double[] totals = new double[k];
+            for (int i = 0; i < m; i++)
+                totals[assignments[i]] += weights[i];
+
+            INDArray sums = sumByCenter(candidates, assignments, weights);
+            for (int j = 0; j < k; j++) {
+                // center without candidates stays where it is
+                if (totals[j] > 0)
+                    result.putRow(j, sums.getRow(j).divi(totals[j]));
+            }
+
+            if (cosine)
+                normalizeRows(result);
+        }
+
+        return result;
+    }
+
+    private static double squaredDistance(double[] data, int a, int b, int dimension) {
+        double sum = 0.0;
+        for (int i = 0; i < dimension; i++) {
+            double d = data[a * dimension + i] - data[b * dimension + i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * Samples index with probability proportional to weight (multiplied by factor, if not null)
+     */
+    private int sampleWeighted(double[] weights, double[] factors) {
+        double total = 0.0;
+        for (int i = 0; i < weights.length; i++)
+            total += weights[i] * (factors == null ? 1.0 : factors[i]);
+
+        if (total <= 0.0)
+            return random.nextInt(weights.length);
+
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i] * (factors == null ? 1.0 : factors[i]);
+            if (r <= 0.0)
+                return i;
+        }
+
+        return weights.length - 1;
+    }
+
+    private int[] sampleDistinct(int n, int count) {
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++)
+            perm[i] = i;
+
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(n - i);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(perm, 0, result, 0, count);
+        return result;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] result = new int[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = list.get(i);
+        return result;
+    }
+
+    public static class Builder {
+        private final int k;
+        private String distanceFunction = EUCLIDEAN;
+        private int batchSize = 1024;
+        private int maxIterations = 100;
+        private double tolerance = 0.0;
+        private Initialization initialization = Initialization.KMEANS_PARALLEL;
+        private double oversampling = 2.0;
+        private int initRounds = 5;
+        private int initSampleSize = 100000;
+        private int blockSize = 4096;
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private long seed = System.currentTimeMillis();
+
+        /**
+         * @param k number of clusters
+         */
+        public Builder(int k) {
+            this.k = k;
+        }
+
+        /**
+         * Distance function: {@link MiniBatchKMeans#EUCLIDEAN} or {@link MiniBatchKMeans#COSINE}. Default is
+         * euclidean.
+         */
+        public Builder distanceFunction(@NonNull String distanceFunction) {
+            this.distanceFunction = distanceFunction;
+            return this;
+        }
+
+        /**
+         * Number of points per mini-batch, for {@link MiniBatchKMeans#fit(INDArray)}. Default is 1024.
+         */
+        public Builder batchSize(int batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /**
+         * Maximal number of mini-batch updates, for {@link MiniBatchKMeans#fit(INDArray)}. Default is 100.
+         */
+        public Builder maxIterations(int maxIterations) {
+            this.maxIterations = maxIterations;
+            return this;
+        }
+
+        /**
+         * Fitting stops once mean squared shift of centers is below this value. Default is 0, i.e. no early stop.
+         */
+        public Builder tolerance(double tolerance) {
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * Initialization method. Default is k-means||.
+         */
+        public Builder initialization(@NonNull Initialization initialization) {
+            this.initialization = initialization;
+            return this;
+        }
+
+        /**
+         * Expected number of candidates sampled per k-means|| round, as multiple of k. Default is 2.
+         */
+        public Builder oversampling(double oversampling) {
+            this.oversampling = oversampling;
+            return this;
+        }
+
+        /**
+         * Number of k-means|| sampling rounds. Default is 5.
+         */
+        public Builder initRounds(int initRounds) {
+            this.initRounds = initRounds;
+            return this;
+        }
+
+        /**
+         * Number of points collected from iterator for initialization. Default is 100000.
+         */
+        public Builder initSampleSize(int initSampleSize) {
+            this.initSampleSize = initSampleSize;
+            return this;
+        }
+
+        /**
+         * Number of points per distances block: each block is single gemm call. Default is 4096.
+         */
+        public Builder blockSize(int blockSize) {
+            this.blockSize = blockSize;
+            return this;
+        }
+
+        /**
+         * Number of threads processing blocks. Default is number of available processors.
+         */
+        public Builder workers(int workers) {
+            this.workers = workers;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public MiniBatchKMeans build() {
+            return new MiniBatchKMeans(k, distanceFunction, batchSize, maxIterations, tolerance, initialization,
+                            oversampling, initRounds, initSampleSize, blockSize, workers, seed);
+        }
+    }
+}
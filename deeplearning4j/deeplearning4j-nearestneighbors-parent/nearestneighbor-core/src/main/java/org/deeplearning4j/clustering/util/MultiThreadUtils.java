@@ -31,7 +31,10 @@ public class MultiThreadUtils {
     private MultiThreadUtils() {}
 
     public static synchronized ExecutorService newExecutorService() {
-        int nThreads = Runtime.getRuntime().availableProcessors();
+        return newExecutorService(Runtime.getRuntime().availableProcessors());
+    }
+
+    public static synchronized ExecutorService newExecutorService(int nThreads) {
         return new ThreadPoolExecutor(nThreads, nThreads, 60L, TimeUnit.SECONDS, new LinkedTransferQueue<Runnable>(),
                         new ThreadFactory() {
                             @Override
@@ -0,0 +1,769 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.clustering.vptree;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Vantage point tree, stored in flat primitive arrays.
+ *
+ * Points are reordered during construction, so each subtree covers contiguous range of rows: vantage point of the
+ * node is the first row of its range, and leaves hold up to leafSize rows, which are scanned with blocked distance
+ * kernel. Nodes are kept in parallel arrays, in depth-first order. Distances are computed in plain java, so search
+ * doesn't involve any op dispatch, and multiple queries can be answered in parallel via {@link ForkJoinPool}.
+ *
+ * Supported similarity functions are "euclidean", "manhattan" and "cosinedistance". Search is exact: k neighbours
+ * are always returned, if tree holds at least k points.
+ */
+@Slf4j
+public class FlatVPTree implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAGIC = 0x46565054;
+    private static final int VERSION = 1;
+
+    public static final String EUCLIDEAN = "euclidean";
+    public static final String MANHATTAN = "manhattan";
+    public static final String COSINE = "cosinedistance";
+
+    public static final int DEFAULT_LEAF_SIZE = 64;
+
+    // number of queries processed by single fork-join task
+    private static final int BATCH_GRAIN = 8;
+
+    @Getter
+    private final String similarityFunction;
+    @Getter
+    private final int dimension;
+    private final int size;
+    @Getter
+    private final int leafSize;
+    private final boolean manhattan;
+    private final boolean cosine;
+
+    // rows in tree order, original index of each row, and row of each original index
+    private final float[] data;
+    private final int[] indices;
+    private final int[] positions;
+
+    // nodes: [start, end) range of rows, children ids (-1 if absent) and threshold. Nodes without children are leaves
+    private int numNodes;
+    private int[] nodeStart;
+    private int[] nodeEnd;
+    private int[] nodeLeft;
+    private int[] nodeRight;
+    private float[] nodeThreshold;
+
+    @Getter
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private transient volatile ForkJoinPool pool;
+
+    public FlatVPTree(@NonNull INDArray points) {
+        this(points, EUCLIDEAN);
+    }
+
+    public FlatVPTree(@NonNull INDArray points, @NonNull String similarityFunction) {
+        this(points, similarityFunction, DEFAULT_LEAF_SIZE, System.currentTimeMillis());
+    }
+
+    /**
+     * @param points             matrix, one point per row
+     * @param similarityFunction "euclidean", "manhattan" or "cosinedistance"
+     * @param leafSize           maximal number of points in leaf node
+     * @param seed               seed for vantage points selection
+     */
+    public FlatVPTree(@NonNull INDArray points, @NonNull String similarityFunction, int leafSize, long seed) {
+        this(toFloats(points), points.rows(), points.columns(), similarityFunction, leafSize, seed);
+    }
+
+    /**
+     * @param points             points, row-major, rows * columns elements
+     * @param rows               number of points
+     * @param columns            length of each point
+     * @param similarityFunction "euclidean", "manhattan" or "cosinedistance"
+     * @param leafSize           maximal number of points in leaf node
+     * @param seed               seed for vantage points selection
+     */
+    public FlatVPTree(@NonNull float[] points, int rows, int columns, @NonNull String similarityFunction, int leafSize,
+                    long seed) {
+        if (!isSupported(similarityFunction))
+            throw new ND4JIllegalStateException("Unsupported similarity function: [" + similarityFunction + "]");
+
+        if (rows < 1 || columns < 1 || (long) rows * columns != points.length)
+            throw new ND4JIllegalStateException("Points array doesn't match shape [" + rows + ", " + columns + "]");
+
+        if (leafSize < 1)
+            throw new ND4JIllegalStateException("Leaf size should be positive value");
+
+        this.similarityFunction = similarityFunction;
+        this.manhattan = MANHATTAN.equals(similarityFunction);
+        this.cosine = COSINE.equals(similarityFunction);
+        this.dimension = columns;
+        this.size = rows;
+        this.leafSize = leafSize;
+
+        // for cosine distance we're working with normalized vectors in euclidean space: |a - b|^2 = 2 * (1 - cos)
+        float[] source = points;
+        if (cosine) {
+            source = new float[points.length];
+            for (int r = 0; r < rows; r++)
+                normalize(points, r * columns, source, r * columns, columns);
+        }
+
+        int[] perm = new int[rows];
+        for (int i = 0; i < rows; i++)
+            perm[i] = i;
+
+        int capacity = 2 * (rows / leafSize + 1) + 16;
+        nodeStart = new int[capacity];
+        nodeEnd = new int[capacity];
+        nodeLeft = new int[capacity];
+        nodeRight = new int[capacity];
+        nodeThreshold = new float[capacity];
+
+        long time = System.currentTimeMillis();
+        build(source, perm, new float[rows], 0, rows, new Random(seed));
+        trimNodes();
+
+        this.data = new float[points.length];
+        for (int i = 0; i < rows; i++)
+            System.arraycopy(source, perm[i] * columns, data, i * columns, columns);
+        this.indices = perm;
+        this.positions = new int[rows];
+        for (int i = 0; i < rows; i++)
+            positions[perm[i]] = i;
+
+        log.debug("FlatVPTree for {} points built in {} ms; {} nodes", rows, System.currentTimeMillis() - time,
+                        numNodes);
+    }
+
+    private FlatVPTree(String similarityFunction, int dimension, int leafSize, float[] data, int[] indices,
+                    int numNodes) {
+        this.similarityFunction = similarityFunction;
+        this.manhattan = MANHATTAN.equals(similarityFunction);
+        this.cosine = COSINE.equals(similarityFunction);
+        this.dimension = dimension;
+        this.size = indices.length;
+        this.leafSize = leafSize;
+        this.data = data;
+        this.indices = indices;
+        this.positions = new int[size];
+        for (int i = 0; i < size; i++)
+            positions[indices[i]] = i;
+
+        this.numNodes = numNodes;
+        this.nodeStart = new int[numNodes];
+        this.nodeEnd = new int[numNodes];
+        this.nodeLeft = new int[numNodes];
+        this.nodeRight = new int[numNodes];
+        this.nodeThreshold = new float[numNodes];
+    }
+
+    /**
+     * Returns true if given similarity function is supported by FlatVPTree
+     */
+    public static boolean isSupported(String similarityFunction) {
+        return EUCLIDEAN.equals(similarityFunction) || MANHATTAN.equals(similarityFunction)
+                        || COSINE.equals(similarityFunction);
+    }
+
+    /**
+     * Returns number of points in this tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method sets number of threads used for batched searches
+     *
+     * @param workers
+     */
+    public synchronized void setWorkers(int workers) {
+        if (workers < 1)
+            throw new ND4JIllegalStateException("Number of workers should be positive value");
+
+        this.workers = workers;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    protected synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(workers);
+
+        return pool;
+    }
+
+    private static float[] toFloats(INDArray array) {
+        if (!array.isMatrix() && !array.isRowVector())
+            throw new ND4JIllegalStateException("Points should be 2D matrix, one point per row");
+
+        return array.dup('c').data().asFloat();
+    }
+
+    private static void normalize(float[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+        double norm = 0.0;
+        for (int i = 0; i < length; i++)
+            norm += source[sourceOffset + i] * source[sourceOffset + i];
+
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < length; i++)
+            target[targetOffset + i] = norm > 0.0 ? (float) (source[sourceOffset + i] / norm) : 0.0f;
+    }
+
+    private int build(float[] source, int[] perm, float[] dists, int start, int end, Random random) {
+        int node = allocateNode(start, end);
+        if (end - start <= leafSize)
+            return node;
+
+        // random vantage point goes first
+        swap(perm, dists, start, start + random.nextInt(end - start));
+        int vantage = perm[start] * dimension;
+        for (int i = start + 1; i < end; i++)
+            dists[i] = distance(source, vantage, source, perm[i] * dimension);
+
+        // points closer than median go left, the rest go right
+        int mid = (start + 1 + end) >>> 1;
+        select(perm, dists, start + 1, end - 1, mid, random);
+        nodeThreshold[node] = dists[mid];
+
+        int left = mid > start + 1 ? build(source, perm, dists, start + 1, mid, random) : -1;
+        int right = build(source, perm, dists, mid, end, random);
+        nodeLeft[node] = left;
+        nodeRight[node] = right;
+        return node;
+    }
+
+    private int allocateNode(int start, int end) {
+        if (numNodes == nodeStart.length) {
+            int capacity = 2 * numNodes;
+            nodeStart = Arrays.copyOf(nodeStart, capacity);
+            nodeEnd = Arrays.copyOf(nodeEnd, capacity);
+            nodeLeft = Arrays.copyOf(nodeLeft, capacity);
+            nodeRight = Arrays.copyOf(nodeRight, capacity);
+            nodeThreshold = Arrays.copyOf(nodeThreshold, capacity);
+        }
+
+        int node = numNodes++;
+        nodeStart[node] = start;
+        nodeEnd[node] = end;
+        nodeLeft[node] = -1;
+        nodeRight[node] = -1;
+        return node;
+    }
+
+    private void trimNodes() {
+        nodeStart = Arrays.copyOf(nodeStart, numNodes);
+        nodeEnd = Arrays.copyOf(nodeEnd, numNodes);
+        nodeLeft = Arrays.copyOf(nodeLeft, numNodes);
+        nodeRight = Arrays.copyOf(nodeRight, numNodes);
+        nodeThreshold = Arrays.copyOf(nodeThreshold, numNodes);
+    }
+
+    /**
+     * Quickselect: after this call dists[k] holds k-th smallest value within [lo, hi], values before it are not
+     * greater, and values after it are not smaller
+     */
+    private static void select(int[] perm, float[] dists, int lo, int hi, int k, Random random) {
+        while (lo < hi) {
+            float pivot = dists[lo + random.nextInt(hi - lo + 1)];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (dists[i] < pivot)
+                    i++;
+                while (dists[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(perm, dists, i++, j--);
+            }
+
+            if (k <= j)
+                hi = j;
+            else if (k >= i)
+                lo = i;
+            else
+                return;
+        }
+    }
+
+    private static void swap(int[] perm, float[] dists, int a, int b) {
+        int p = perm[a];
+        perm[a] = perm[b];
+        perm[b] = p;
+        float d = dists[a];
+        dists[a] = dists[b];
+        dists[b] = d;
+    }
+
+    /**
+     * Distance used for tree structure: euclidean (for cosine as well, over normalized vectors) or manhattan
+     */
+    private float distance(float[] x, int xOffset, float[] y, int yOffset) {
+        float sum = 0.0f;
+        if (manhattan) {
+            for (int i = 0; i < dimension; i++)
+                sum += Math.abs(x[xOffset + i] - y[yOffset + i]);
+            return sum;
+        }
+
+        for (int i = 0; i < dimension; i++) {
+            float d = x[xOffset + i] - y[yOffset + i];
+            sum += d * d;
+        }
+        return (float) Math.sqrt(sum);
+    }
+
+    /**
+     * This method searches for k nearest neighbours of the single query
+     *
+     * @param query     query point
+     * @param k         number of neighbours
+     * @param indices   array of at least k elements, for indices of neighbours, closest first
+     * @param distances array of at least k elements, for distances to neighbours
+     * @return number of neighbours found: min(k, size())
+     */
+    public int search(@NonNull float[] query, int k, @NonNull int[] indices, @NonNull float[] distances) {
+        return search(query, k, null, indices, distances);
+    }
+
+    /**
+     * This method searches for k nearest neighbours of the single query, skipping excluded points. Excluded points
+     * never enter the candidates heap, so there's no need to ask for extra neighbours and filter them afterwards.
+     *
+     * @param query     query point
+     * @param k         number of neighbours
+     * @param excluded  indices of points that shouldn't be returned, may be null
+     * @param indices   array of at least k elements, for indices of neighbours, closest first
+     * @param distances array of at least k elements, for distances to neighbours
+     * @return number of neighbours found: at most min(k, size())
+     */
+    public int search(@NonNull float[] query, int k, BitSet excluded, @NonNull int[] indices,
+                    @NonNull float[] distances) {
+        if (query.length != dimension)
+            throw new ND4JIllegalStateException("Query should have length of " + dimension + ", got " + query.length);
+
+        if (indices.length < Math.min(k, size) || distances.length < Math.min(k, size))
+            throw new ND4JIllegalStateException("Result arrays are too small for k = " + k);
+
+        if (k < 1)
+            return 0;
+
+        float[] q = query;
+        if (cosine) {
+            q = new float[dimension];
+            normalize(query, 0, q, 0, dimension);
+        }
+
+        KnnHeap heap = new KnnHeap(Math.min(k, size));
+        searchNode(0, q, heap, excluded == null || excluded.isEmpty() ? null : excluded);
+
+        int count = heap.size;
+        for (int i = count - 1; i >= 0; i--) {
+            indices[i] = this.indices[heap.positions[0]];
+            float d = heap.dists[0];
+            distances[i] = cosine ? d * d / 2.0f : d;
+            heap.pop();
+        }
+
+        return count;
+    }
+
+    /**
+     * This method searches for k nearest neighbours of multiple queries, in parallel
+     *
+     * @param queries   query points
+     * @param k         number of neighbours
+     * @param indices   array of queries.length elements, will be filled with indices of neighbours, closest first
+     * @param distances array of queries.length elements, will be filled with distances to neighbours
+     */
+    public void search(@NonNull final float[][] queries, final int k, @NonNull final int[][] indices,
+                    @NonNull final float[][] distances) {
+        if (indices.length < queries.length || distances.length < queries.length)
+            throw new ND4JIllegalStateException("Result arrays should have at least " + queries.length + " rows");
+
+        if (queries.length <= BATCH_GRAIN) {
+            new BatchSearch(queries, k, indices, distances, 0, queries.length).compute();
+            return;
+        }
+
+        getPool().invoke(new BatchSearch(queries, k, indices, distances, 0, queries.length));
+    }
+
+    /**
+     * This method searches for k nearest neighbours of multiple queries, in parallel
+     *
+     * @param queries   query points, one per row
+     * @param k         number of neighbours
+     * @param indices   array of queries.rows() elements, will be filled with indices of neighbours, closest first
+     * @param distances array of queries.rows() elements, will be filled with distances to neighbours
+     */
+    public void search(@NonNull INDArray queries, int k, @NonNull int[][] indices, @NonNull float[][] distances) {
+        if (queries.columns() != dimension)
+            throw new ND4JIllegalStateException("Queries should have " + dimension + " columns, got "
+                            + queries.columns());
+
+        float[] flat = toFloats(queries);
+        float[][] rows = new float[queries.rows()][];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = Arrays.copyOfRange(flat, i * dimension, (i + 1) * dimension);
+
+        search(rows, k, indices, distances);
+    }
+
+    /**
+     * This method searches for k nearest neighbours of the single query, same signature as VPTree
+     *
+     * @param target    query point
+     * @param k         number of neighbours
+     * @param results   list for neighbours, closest first
+     * @param distances list for distances to neighbours
+     */
+    public void search(@NonNull INDArray target, int k, @NonNull List<DataPoint> results,
+                    @NonNull List<Double> distances) {
+        if (!target.isVectorOrScalar() || target.length() != dimension)
+            throw new ND4JIllegalStateException("Target for search should have shape of [1, " + dimension
+                            + "] but got " + Arrays.toString(target.shape()) + " instead");
+
+        results.clear();
+        distances.clear();
+
+        int[] idx = new int[Math.max(0, Math.min(k, size))];
+        float[] dist = new float[idx.length];
+        int count = search(target.dup('c').data().asFloat(), k, idx, dist);
+        for (int i = 0; i < count; i++) {
+            results.add(new DataPoint(idx[i], Nd4j.create(getPoint(idx[i]))));
+            distances.add((double) dist[i]);
+        }
+    }
+
+    /**
+     * This method returns point with given original index. For cosine distance, normalized point is returned.
+     *
+     * @param index original index of the point
+     */
+    public float[] getPoint(int index) {
+        if (index < 0 || index >= size)
+            throw new ND4JIllegalStateException("Index [" + index + "] is out of range [0, " + size + ")");
+
+        int position = positions[index];
+        return Arrays.copyOfRange(data, position * dimension, (position + 1) * dimension);
+    }
+
+    /**
+     * This method saves this tree to the given stream, so it can be restored without rebuilding
+     *
+     * @param stream target stream, it's not closed by this method
+     */
+    public void write(@NonNull OutputStream stream) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(stream));
+        write(dos);
+        dos.flush();
+    }
+
+    protected void write(DataOutputStream dos) throws IOException {
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeUTF(similarityFunction);
+        dos.writeInt(dimension);
+        dos.writeInt(size);
+        dos.writeInt(leafSize);
+        dos.writeInt(numNodes);
+
+        for (int i = 0; i < size * dimension; i++)
+            dos.writeFloat(data[i]);
+
+        for (int i = 0; i < size; i++)
+            dos.writeInt(indices[i]);
+
+        for (int i = 0; i < numNodes; i++) {
+            dos.writeInt(nodeStart[i]);
+            dos.writeInt(nodeEnd[i]);
+            dos.writeInt(nodeLeft[i]);
+            dos.writeInt(nodeRight[i]);
+            dos.writeFloat(nodeThreshold[i]);
+        }
+    }
+
+    /**
+     * This method restores tree previously saved via {@link #write(OutputStream)}
+     *
+     * @param stream source stream, it's not closed by this method
+     */
+    public static FlatVPTree read(@NonNull InputStream stream) throws IOException {
+        return read(new DataInputStream(new BufferedInputStream(stream)));
+    }
+
+    protected static FlatVPTree read(DataInputStream dis) throws IOException {
+        if (dis.readInt() != MAGIC)
+            throw new IOException("Stream doesn't contain FlatVPTree");
+
+        int version = dis.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported FlatVPTree version: [" + version + "]");
+
+        String similarityFunction = dis.readUTF();
+        if (!isSupported(similarityFunction))
+            throw new IOException("Unsupported similarity function: [" + similarityFunction + "]");
+
+        int dimension = dis.readInt();
+        int size = dis.readInt();
+        int leafSize = dis.readInt();
+        int numNodes = dis.readInt();
+
+        float[] data = new float[size * dimension];
+        for (int i = 0; i < data.length; i++)
+            data[i] = dis.readFloat();
+
+        int[] indices = new int[size];
+        for (int i = 0; i < size; i++)
+            indices[i] = dis.readInt();
+
+        FlatVPTree tree = new FlatVPTree(similarityFunction, dimension, leafSize, data, indices, numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            tree.nodeStart[i] = dis.readInt();
+            tree.nodeEnd[i] = dis.readInt();
+            tree.nodeLeft[i] = dis.readInt();
+            tree.nodeRight[i] = dis.readInt();
+            tree.nodeThreshold[i] = dis.readFloat();
+        }
+
+        return tree;
+    }
+
+    /**
+     * This method saves this tree to the given file
+     */
+    public void save(@NonNull File file) throws IOException {
+        try (OutputStream stream = new FileOutputStream(file)) {
+            write(stream);
+        }
+    }
+
+    /**
+     * This method restores tree previously saved via {@link #save(File)}
+     */
+    public static FlatVPTree load(@NonNull File file) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            return read(stream);
+        }
+    }
+
+    private void searchNode(int node, float[] q, KnnHeap heap, BitSet excluded) {
+        int start = nodeStart[node];
+        int left = nodeLeft[node];
+        int right = nodeRight[node];
+        if (left < 0 && right < 0) {
+            scanLeaf(start, nodeEnd[node], q, heap, excluded);
+            return;
+        }
+
+        float dv = distance(q, 0, data, start * dimension);
+        if (excluded == null || !excluded.get(indices[start]))
+            heap.offer(start, dv);
+
+        float threshold = nodeThreshold[node];
+        if (dv < threshold) {
+            if (left >= 0 && dv - heap.tau() <= threshold)
+                searchNode(left, q, heap, excluded);
+            if (right >= 0 && dv + heap.tau() >= threshold)
+                searchNode(right, q, heap, excluded);
+        } else {
+            if (right >= 0 && dv + heap.tau() >= threshold)
+                searchNode(right, q, heap, excluded);
+            if (left >= 0 && dv - heap.tau() <= threshold)
+                searchNode(left, q, heap, excluded);
+        }
+    }
+
+    /**
+     * Leaf rows are contiguous, so they are processed 4 at once: every query element is loaded once per 4 rows
+     */
+    private void scanLeaf(int start, int end, float[] q, KnnHeap heap, BitSet excluded) {
+        int p = start;
+        for (; p + 4 <= end; p += 4) {
+            int o0 = p * dimension;
+            int o1 = o0 + dimension;
+            int o2 = o1 + dimension;
+            int o3 = o2 + dimension;
+            float s0 = 0.0f, s1 = 0.0f, s2 = 0.0f, s3 = 0.0f;
+            if (manhattan) {
+                for (int i = 0; i < dimension; i++) {
+                    float qi = q[i];
+                    s0 += Math.abs(qi - data[o0 + i]);
+                    s1 += Math.abs(qi - data[o1 + i]);
+                    s2 += Math.abs(qi - data[o2 + i]);
+                    s3 += Math.abs(qi - data[o3 + i]);
+                }
+            } else {
+                for (int i = 0; i < dimension; i++) {
+                    float qi = q[i];
+                    float d0 = qi - data[o0 + i];
+                    float d1 = qi - data[o1 + i];
+                    float d2 = qi - data[o2 + i];
+                    float d3 = qi - data[o3 + i];
+                    s0 += d0 * d0;
+                    s1 += d1 * d1;
+                    s2 += d2 * d2;
+                    s3 += d3 * d3;
+                }
+            }
+
+            offerRaw(heap, p, s0, excluded);
+            offerRaw(heap, p + 1, s1, excluded);
+            offerRaw(heap, p + 2, s2, excluded);
+            offerRaw(heap, p + 3, s3, excluded);
+        }
+
+        for (; p < end; p++)
+            if (excluded == null || !excluded.get(indices[p]))
+                heap.offer(p, distance(q, 0, data, p * dimension));
+    }
+
+    /**
+     * Offers raw leaf distance: squared one for euclidean, so sqrt is computed only for accepted points
+     */
+    private void offerRaw(KnnHeap heap, int position, float raw, BitSet excluded) {
+        if (excluded != null && excluded.get(indices[position]))
+            return;
+
+        if (manhattan) {
+            heap.offer(position, raw);
+            return;
+        }
+
+        float tau = heap.tau();
+        if (raw < tau * tau)
+            heap.offer(position, (float) Math.sqrt(raw));
+    }
+
+    /**
+     * Bounded max-heap of (position, distance) pairs, farthest one on top
+     */
+    static class KnnHeap {
+        final int k;
+        final int[] positions;
+        final float[] dists;
+        int size = 0;
+
+        KnnHeap(int k) {
+            this.k = k;
+            this.positions = new int[k];
+            this.dists = new float[k];
+        }
+
+        float tau() {
+            return size < k ? Float.MAX_VALUE : dists[0];
+        }
+
+        void offer(int position, float distance) {
+            if (size < k) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (dists[parent] >= distance)
+                        break;
+                    positions[i] = positions[parent];
+                    dists[i] = dists[parent];
+                    i = parent;
+                }
+                positions[i] = position;
+                dists[i] = distance;
+            } else if (distance < dists[0]) {
+                siftDown(position, distance, size);
+            }
+        }
+
+        void pop() {
+            size--;
+            if (size > 0)
+                siftDown(positions[size], dists[size], size);
+        }
+
+        private void siftDown(int position, float distance, int n) {
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= n)
+                    break;
+                if (child + 1 < n && dists[child + 1] > dists[child])
+                    child++;
+                if (dists[child] <= distance)
+                    break;
+                positions[i] = positions[child];
+                dists[i] = dists[child];
+                i = child;
+            }
+            positions[i] = position;
+            dists[i] = distance;
+        }
+    }
+
+    private class BatchSearch extends RecursiveAction {
+        private final float[][] queries;
+        private final int k;
+        private final int[][] indices;
+        private final float[][] distances;
+        private final int from;
+        private final int to;
+
+        private BatchSearch(float[][] queries, int k, int[][] indices, float[][] distances, int from, int to) {
+            this.queries = queries;
+            this.k = k;
+            this.indices = indices;
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_GRAIN) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchSearch(queries, k, indices, distances, from, mid),
+                                new BatchSearch(queries, k, indices, distances, mid, to));
+                return;
+            }
+
+            int n = Math.max(0, Math.min(k, size));
+            for (int i = from; i < to; i++) {
+                int[] idx = new int[n];
+                float[] dist = new float[n];
+                search(queries[i], k, idx, dist);
+                indices[i] = idx;
+                distances[i] = dist;
+            }
+        }
+    }
+}
@@ -0,0 +1,865 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.vptree;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Updatable nearest neighbours index, built on top of {@link FlatVPTree}.
+ *
+ * Points are split into shards by id range, one FlatVPTree per shard, and shards are searched in parallel. Points
+ * added after the last rebuild go to the small delta segment, which is scanned with brute force at query time.
+ * Removed points are either dropped from the delta segment, or marked as deleted and skipped at query time.
+ * {@link #rebuild()} folds delta segment and deletions into the new set of shards. Searches and updates aren't
+ * blocked while shards are being rebuilt: only the final swap is done under lock.
+ *
+ * Every point gets an id: initial points get ids [0, n), and each added point gets the next one. Ids are never
+ * reused, so they stay valid across rebuilds. Index can be saved to disk with shards, delta segment and deletions,
+ * so it can be restored without rebuilding.
+ */
+@Slf4j
+public class ShardedVPTreeIndex {
+    private static final int MAGIC = 0x53565049;
+    private static final int VERSION = 1;
+
+    // number of queries processed by single fork-join task
+    private static final int BATCH_GRAIN = 8;
+
+    @Getter
+    private final String similarityFunction;
+    @Getter
+    private final int dimension;
+    @Getter
+    private final int numShards;
+    @Getter
+    private final int leafSize;
+    private final long seed;
+    private final boolean manhattan;
+    private final boolean cosine;
+
+    // everything below is guarded by this lock. searches hold read lock, updates hold write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object rebuildLock = new Object();
+
+    // shards, and id of each shard point. ids within shard are sorted, and shards cover increasing id ranges
+    private FlatVPTree[] shards = new FlatVPTree[0];
+    private int[][] shardIds = new int[0][];
+    private BitSet inShards = new BitSet();
+    private BitSet deleted = new BitSet();
+    private int numDeleted = 0;
+    // deleted points of each shard, by position within shard. shards skip them during search
+    private BitSet[] shardDeleted = new BitSet[0];
+
+    // points added after the last rebuild. for cosine distance they are stored normalized
+    private float[] delta = new float[0];
+    private int[] deltaIds = new int[0];
+    private int deltaSize = 0;
+    private Map<Integer, Integer> deltaPositions = new HashMap<>();
+
+    private int nextId = 0;
+
+    @Getter
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private volatile ForkJoinPool pool;
+
+    /**
+     * @param points             matrix, one point per row. Rows get ids [0, points.rows())
+     * @param similarityFunction "euclidean", "manhattan" or "cosinedistance"
+     * @param numShards          number of shards
+     */
+    public ShardedVPTreeIndex(@NonNull INDArray points, @NonNull String similarityFunction, int numShards) {
+        this(points.columns(), similarityFunction, numShards, FlatVPTree.DEFAULT_LEAF_SIZE,
+                        System.currentTimeMillis());
+
+        if (!points.isMatrix() && !points.isRowVector())
+            throw new ND4JIllegalStateException("Points should be 2D matrix, one point per row");
+
+        float[] data = points.dup('c').data().asFloat();
+        int[] ids = new int[points.rows()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i;
+
+        nextId = ids.length;
+        install(buildShards(data, ids));
+    }
+
+    /**
+     * Creates empty index
+     *
+     * @param dimension          length of each point
+     * @param similarityFunction "euclidean", "manhattan" or "cosinedistance"
+     * @param numShards          number of shards
+     * @param leafSize           maximal number of points in leaf node of each shard
+     * @param seed               seed for vantage points selection
+     */
+    public ShardedVPTreeIndex(int dimension, @NonNull String similarityFunction, int numShards, int leafSize,
+                    long seed) {
+        if (!FlatVPTree.isSupported(similarityFunction))
+            throw new ND4JIllegalStateException("Unsupported similarity function: [" + similarityFunction + "]");
+
+        if (dimension < 1 || numShards < 1 || leafSize < 1)
+            throw new ND4JIllegalStateException("Dimension, number of shards and leaf size should be positive values");
+
+        this.similarityFunction = similarityFunction;
+        this.dimension = dimension;
+        this.numShards = numShards;
+        this.leafSize = leafSize;
+        this.seed = seed;
+        this.manhattan = FlatVPTree.MANHATTAN.equals(similarityFunction);
+        this.cosine = FlatVPTree.COSINE.equals(similarityFunction);
+    }
+
+    /**
+     * This method sets number of threads used for parallel searches and rebuilds
+     *
+     * @param workers
+     */
+    public synchronized void setWorkers(int workers) {
+        if (workers < 1)
+            throw new ND4JIllegalStateException("Number of workers should be positive value");
+
+        this.workers = workers;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    protected synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(workers);
+
+        return pool;
+    }
+
+    /**
+     * Returns number of live points in this index
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            int size = deltaSize - numDeleted;
+            for (FlatVPTree shard : shards)
+                size += shard.size();
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns number of points added or removed since the last rebuild
+     */
+    public int pendingChanges() {
+        lock.readLock().lock();
+        try {
+            return deltaSize + numDeleted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method adds new point to the delta segment of the index
+     *
+     * @param point point of length dimension
+     * @return id of the new point
+     */
+    public int add(@NonNull float[] point) {
+        if (point.length != dimension)
+            throw new ND4JIllegalStateException("Point should have length of " + dimension + ", got " + point.length);
+
+        lock.writeLock().lock();
+        try {
+            if (deltaSize == deltaIds.length) {
+                int capacity = Math.max(16, 2 * deltaSize);
+                deltaIds = Arrays.copyOf(deltaIds, capacity);
+                delta = Arrays.copyOf(delta, capacity * dimension);
+            }
+
+            if (cosine)
+                normalize(point, delta, deltaSize * dimension);
+            else
+                System.arraycopy(point, 0, delta, deltaSize * dimension, dimension);
+
+            int id = nextId++;
+            deltaPositions.put(id, deltaSize);
+            deltaIds[deltaSize++] = id;
+            return id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method adds all rows of the matrix to the index
+     *
+     * @param points matrix, one point per row
+     * @return ids of the new points
+     */
+    public int[] add(@NonNull INDArray points) {
+        if (points.isVector())
+            points = points.reshape(1, points.length());
+
+        if (points.columns() != dimension)
+            throw new ND4JIllegalStateException("Points should have " + dimension + " columns, got "
+                            + points.columns());
+
+        float[] data = points.dup('c').data().asFloat();
+        int[] ids = new int[points.rows()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = add(Arrays.copyOfRange(data, i * dimension, (i + 1) * dimension));
+
+        return ids;
+    }
+
+    /**
+     * This method removes point with given id from the index
+     *
+     * @return true if point was removed, false if there's no such point
+     */
+    public boolean remove(int id) {
+        lock.writeLock().lock();
+        try {
+            Integer position = deltaPositions.remove(id);
+            if (position != null) {
+                // last point takes place of the removed one
+                int last = deltaSize - 1;
+                if (position != last) {
+                    deltaIds[position] = deltaIds[last];
+                    deltaPositions.put(deltaIds[last], position);
+                    System.arraycopy(delta, last * dimension, delta, position * dimension, dimension);
+                }
+                deltaSize--;
+                return true;
+            }
+
+            if (id < 0 || !inShards.get(id) || deleted.get(id))
+                return false;
+
+            deleted.set(id);
+            numDeleted++;
+            for (int s = 0; s < shards.length; s++) {
+                int local = Arrays.binarySearch(shardIds[s], id);
+                if (local >= 0) {
+                    shardDeleted[s].set(local);
+                    break;
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * This method returns true if index holds point with given id
+     */
+    public boolean contains(int id) {
+        lock.readLock().lock();
+        try {
+            return id >= 0 && ((inShards.get(id) && !deleted.get(id)) || deltaPositions.containsKey(id));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method returns point with given id. For cosine distance, normalized point is returned.
+     */
+    public float[] getPoint(int id) {
+        lock.readLock().lock();
+        try {
+            Integer position = deltaPositions.get(id);
+            if (position != null)
+                return Arrays.copyOfRange(delta, position * dimension, (position + 1) * dimension);
+
+            if (id >= 0 && inShards.get(id) && !deleted.get(id)) {
+                for (int s = 0; s < shards.length; s++) {
+                    int local = Arrays.binarySearch(shardIds[s], id);
+                    if (local >= 0)
+                        return shards[s].getPoint(local);
+                }
+            }
+
+            throw new ND4JIllegalStateException("There's no point with id [" + id + "]");
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method searches for k nearest neighbours of the single query. Shards are searched in parallel.
+     *
+     * @param query     query point
+     * @param k         number of neighbours
+     * @param ids       array of at least k elements, for ids of neighbours, closest first
+     * @param distances array of at least k elements, for distances to neighbours
+     * @return number of neighbours found: min(k, size())
+     */
+    public int search(@NonNull float[] query, int k, @NonNull int[] ids, @NonNull float[] distances) {
+        return search(query, k, ids, distances, true);
+    }
+
+    /**
+     * This method searches for k nearest neighbours of multiple queries. Queries are processed in parallel.
+     *
+     * @param queries   query points
+     * @param k         number of neighbours
+     * @param ids       array of queries.length elements, will be filled with ids of neighbours, closest first
+     * @param distances array of queries.length elements, will be filled with distances to neighbours
+     */
+    public void search(@NonNull float[][] queries, int k, @NonNull int[][] ids, @NonNull float[][] distances) {
+        if (ids.length < queries.length || distances.length < queries.length)
+            throw new ND4JIllegalStateException("Result arrays should have at least " + queries.length + " rows");
+
+        if (queries.length <= BATCH_GRAIN) {
+            new BatchSearch(queries, k, ids, distances, 0, queries.length).compute();
+            return;
+        }
+
+        getPool().invoke(new BatchSearch(queries, k, ids, distances, 0, queries.length));
+    }
+
+    /**
+     * This method searches for k nearest neighbours of multiple queries. Queries are processed in parallel.
+     *
+     * @param queries   query points, one per row
+     * @param k         number of neighbours
+     * @param ids       array of queries.rows() elements, will be filled with ids of neighbours, closest first
+     * @param distances array of queries.rows() elements, will be filled with distances to neighbours
+     */
+    public void search(@NonNull INDArray queries, int k, @NonNull int[][] ids, @NonNull float[][] distances) {
+        if (queries.columns() != dimension)
+            throw new ND4JIllegalStateException("Queries should have " + dimension + " columns, got "
+                            + queries.columns());
+
+        float[] flat = queries.dup('c').data().asFloat();
+        float[][] rows = new float[queries.rows()][];
+        for (int i = 0; i < rows.length; i++)
+            rows[i] = Arrays.copyOfRange(flat, i * dimension, (i + 1) * dimension);
+
+        search(rows, k, ids, distances);
+    }
+
+    /**
+     * This method searches for k nearest neighbours of the single query, same signature as VPTree.
+     * Index of each returned DataPoint is the id of the point.
+     *
+     * @param target    query point
+     * @param k         number of neighbours
+     * @param results   list for neighbours, closest first
+     * @param distances list for distances to neighbours
+     */
+    public void search(@NonNull INDArray target, int k, @NonNull List<DataPoint> results,
+                    @NonNull List<Double> distances) {
+        if (!target.isVectorOrScalar() || target.length() != dimension)
+            throw new ND4JIllegalStateException("Target for search should have shape of [1, " + dimension
+                            + "] but got " + Arrays.toString(target.shape()) + " instead");
+
+        results.clear();
+        distances.clear();
+
+        int[] ids = new int[Math.max(0, k)];
+        float[] dist = new float[ids.length];
+        int count = search(target.dup('c').data().asFloat(), k, ids, dist);
+        for (int i = 0; i < count; i++) {
+            results.add(new DataPoint(ids[i], Nd4j.create(getPoint(ids[i]))));
+            distances.add((double) dist[i]);
+        }
+    }
+
+    protected int search(final float[] query, final int k, int[] ids, float[] distances, boolean parallel) {
+        if (query.length != dimension)
+            throw new ND4JIllegalStateException("Query should have length of " + dimension + ", got " + query.length);
+
+        if (k < 1)
+            return 0;
+
+        lock.readLock().lock();
+        try {
+            // deleted points are skipped within shards, so each shard returns up to k live neighbours
+            final FlatVPTree[] shards = this.shards;
+            final BitSet[] excluded = this.shardDeleted;
+            final int[][] shardResults = new int[shards.length][];
+            final float[][] shardDistances = new float[shards.length][];
+            if (parallel && shards.length > 1) {
+                List<Callable<Void>> tasks = new ArrayList<>(shards.length);
+                for (int s = 0; s < shards.length; s++) {
+                    final int shard = s;
+                    tasks.add(new Callable<Void>() {
+                        @Override
+                        public Void call() {
+                            searchShard(shards, excluded, shard, query, k, shardResults, shardDistances);
+                            return null;
+                        }
+                    });
+                }
+
+                for (Future<Void> future : getPool().invokeAll(tasks))
+                    future.get();
+            } else {
+                for (int s = 0; s < shards.length; s++)
+                    searchShard(shards, excluded, s, query, k, shardResults, shardDistances);
+            }
+
+            // merging shards results and delta segment
+            int total = deltaSize;
+            for (int[] r : shardResults)
+                total += r.length;
+
+            FlatVPTree.KnnHeap heap = new FlatVPTree.KnnHeap(Math.max(1, Math.min(k, total)));
+            int[] candidates = new int[total];
+            int c = 0;
+            for (int s = 0; s < shards.length; s++) {
+                for (int i = 0; i < shardResults[s].length; i++) {
+                    candidates[c] = shardIds[s][shardResults[s][i]];
+                    heap.offer(c++, shardDistances[s][i]);
+                }
+            }
+
+            if (deltaSize > 0) {
+                float[] q = query;
+                if (cosine) {
+                    q = new float[dimension];
+                    normalize(query, q, 0);
+                }
+
+                for (int i = 0; i < deltaSize; i++) {
+                    candidates[c] = deltaIds[i];
+                    heap.offer(c++, deltaDistance(q, i));
+                }
+            }
+
+            int count = heap.size;
+            for (int i = count - 1; i >= 0; i--) {
+                ids[i] = candidates[heap.positions[0]];
+                distances[i] = heap.dists[0];
+                heap.pop();
+            }
+
+            return count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void searchShard(FlatVPTree[] shards, BitSet[] excluded, int shard, float[] query, int k,
+                    int[][] results, float[][] distances) {
+        int n = Math.min(k, shards[shard].size());
+        int[] idx = new int[n];
+        float[] dist = new float[n];
+        int count = shards[shard].search(query, k, excluded[shard], idx, dist);
+        results[shard] = count == n ? idx : Arrays.copyOf(idx, count);
+        distances[shard] = count == n ? dist : Arrays.copyOf(dist, count);
+    }
+
+    /**
+     * Same distance as reported by {@link FlatVPTree}
+     */
+    private float deltaDistance(float[] q, int position) {
+        int offset = position * dimension;
+        float sum = 0.0f;
+        if (manhattan) {
+            for (int i = 0; i < dimension; i++)
+                sum += Math.abs(q[i] - delta[offset + i]);
+            return sum;
+        }
+
+        for (int i = 0; i < dimension; i++) {
+            float d = q[i] - delta[offset + i];
+            sum += d * d;
+        }
+
+        // for normalized vectors |a - b|^2 = 2 * (1 - cos)
+        return cosine ? sum / 2.0f : (float) Math.sqrt(sum);
+    }
+
+    private void normalize(float[] source, float[] target, int targetOffset) {
+        double norm = 0.0;
+        for (int i = 0; i < dimension; i++)
+            norm += source[i] * source[i];
+
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < dimension; i++)
+            target[targetOffset + i] = norm > 0.0 ? (float) (source[i] / norm) : 0.0f;
+    }
+
+    /**
+     * This method rebuilds shards from all live points: delta segment and deleted points are folded into the new
+     * shards. Searches and updates can proceed while shards are being built, changes made in the meantime are kept.
+     */
+    public void rebuild() {
+        synchronized (rebuildLock) {
+            long time = System.currentTimeMillis();
+
+            // snapshot of the current state. shards are immutable, so only delta segment has to be copied
+            FlatVPTree[] oldShards;
+            int[][] oldIds;
+            BitSet snapshotDeleted;
+            float[] snapshotDelta;
+            int[] snapshotDeltaIds;
+            lock.readLock().lock();
+            try {
+                oldShards = shards;
+                oldIds = shardIds;
+                snapshotDeleted = (BitSet) deleted.clone();
+                snapshotDelta = Arrays.copyOf(delta, deltaSize * dimension);
+                snapshotDeltaIds = Arrays.copyOf(deltaIds, deltaSize);
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            // live points, ordered by id: shard ids are increasing, and delta ids are greater than any of them
+            int count = snapshotDeltaIds.length;
+            for (int[] ids : oldIds)
+                count += ids.length;
+            count -= snapshotDeleted.cardinality();
+
+            int[] ids = new int[count];
+            float[] data = new float[count * dimension];
+            int c = 0;
+            for (int s = 0; s < oldShards.length; s++) {
+                for (int i = 0; i < oldIds[s].length; i++) {
+                    if (snapshotDeleted.get(oldIds[s][i]))
+                        continue;
+
+                    ids[c] = oldIds[s][i];
+                    System.arraycopy(oldShards[s].getPoint(i), 0, data, c * dimension, dimension);
+                    c++;
+                }
+            }
+
+            Integer[] order = new Integer[snapshotDeltaIds.length];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            final int[] dIds = snapshotDeltaIds;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Integer.compare(dIds[o1], dIds[o2]);
+                }
+            });
+            for (Integer i : order) {
+                ids[c] = snapshotDeltaIds[i];
+                System.arraycopy(snapshotDelta, i * dimension, data, c * dimension, dimension);
+                c++;
+            }
+
+            Shards built = buildShards(data, ids);
+
+            lock.writeLock().lock();
+            try {
+                // points added during rebuild stay in delta segment, points removed during rebuild become deleted
+                BitSet rebuilt = new BitSet();
+                for (int id : ids)
+                    rebuilt.set(id);
+
+                BitSet newDeleted = (BitSet) deleted.clone();
+                newDeleted.andNot(snapshotDeleted);
+                for (int id : snapshotDeltaIds)
+                    if (!deltaPositions.containsKey(id))
+                        newDeleted.set(id);
+
+                int keep = 0;
+                Map<Integer, Integer> positions = new HashMap<>();
+                for (int i = 0; i < deltaSize; i++) {
+                    if (rebuilt.get(deltaIds[i]))
+                        continue;
+
+                    deltaIds[keep] = deltaIds[i];
+                    System.arraycopy(delta, i * dimension, delta, keep * dimension, dimension);
+                    positions.put(deltaIds[keep], keep);
+                    keep++;
+                }
+                deltaSize = keep;
+                deltaPositions = positions;
+
+                deleted = newDeleted;
+                numDeleted = newDeleted.cardinality();
+                install(built);
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            log.info("ShardedVPTreeIndex: {} points in {} shards rebuilt in {} ms", count, built.trees.length,
+                            System.currentTimeMillis() - time);
+        }
+    }
+
+    /**
+     * Builds shards from points sorted by id. Shards are built in parallel
+     */
+    private Shards buildShards(final float[] data, int[] ids) {
+        int n = Math.min(numShards, ids.length);
+        final FlatVPTree[] trees = new FlatVPTree[n];
+        final int[][] treeIds = new int[n][];
+
+        List<Callable<Void>> tasks = new ArrayList<>(n);
+        for (int s = 0; s < n; s++) {
+            final int shard = s;
+            final int from = (int) ((long) ids.length * s / n);
+            final int to = (int) ((long) ids.length * (s + 1) / n);
+            treeIds[s] = Arrays.copyOfRange(ids, from, to);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    float[] points = Arrays.copyOfRange(data, from * dimension, to * dimension);
+                    trees[shard] = new FlatVPTree(points, to - from, dimension, similarityFunction, leafSize,
+                                    seed + shard);
+                    trees[shard].setWorkers(1);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> future : getPool().invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+
+        return new Shards(trees, treeIds);
+    }
+
+    /**
+     * Replaces shards. Caller is responsible for locking
+     */
+    private void install(Shards built) {
+        shards = built.trees;
+        shardIds = built.ids;
+
+        BitSet present = new BitSet();
+        for (int[] ids : shardIds)
+            for (int id : ids)
+                present.set(id);
+        inShards = present;
+
+        indexDeleted();
+    }
+
+    /**
+     * Maps deleted ids to positions within shards. Caller is responsible for locking
+     */
+    private void indexDeleted() {
+        BitSet[] local = new BitSet[shards.length];
+        for (int s = 0; s < shards.length; s++) {
+            local[s] = new BitSet();
+            if (numDeleted == 0)
+                continue;
+
+            for (int i = 0; i < shardIds[s].length; i++)
+                if (deleted.get(shardIds[s][i]))
+                    local[s].set(i);
+        }
+        shardDeleted = local;
+    }
+
+    /**
+     * This method saves this index to the given stream. Updates are blocked while index is being saved.
+     *
+     * @param stream target stream, it's not closed by this method
+     */
+    public void write(@NonNull OutputStream stream) throws IOException {
+        lock.readLock().lock();
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(stream));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(similarityFunction);
+            dos.writeInt(dimension);
+            dos.writeInt(numShards);
+            dos.writeInt(leafSize);
+            dos.writeLong(seed);
+            dos.writeInt(nextId);
+
+            dos.writeInt(shards.length);
+            for (int s = 0; s < shards.length; s++) {
+                dos.writeInt(shardIds[s].length);
+                for (int id : shardIds[s])
+                    dos.writeInt(id);
+                shards[s].write(dos);
+            }
+
+            dos.writeInt(deltaSize);
+            for (int i = 0; i < deltaSize; i++)
+                dos.writeInt(deltaIds[i]);
+            for (int i = 0; i < deltaSize * dimension; i++)
+                dos.writeFloat(delta[i]);
+
+            long[] words = deleted.toLongArray();
+            dos.writeInt(words.length);
+            for (long word : words)
+                dos.writeLong(word);
+
+            dos.flush();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * This method restores index previously saved via {@link #write(OutputStream)}
+     *
+     * @param stream source stream, it's not closed by this method
+     */
+    public static ShardedVPTreeIndex read(@NonNull InputStream stream) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(stream));
+        if (dis.readInt() != MAGIC)
+            throw new IOException("Stream doesn't contain ShardedVPTreeIndex");
+
+        int version = dis.readInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported ShardedVPTreeIndex version: [" + version + "]");
+
+        String similarityFunction = dis.readUTF();
+        int dimension = dis.readInt();
+        int numShards = dis.readInt();
+        int leafSize = dis.readInt();
+        long seed = dis.readLong();
+
+        ShardedVPTreeIndex index = new ShardedVPTreeIndex(dimension, similarityFunction, numShards, leafSize, seed);
+        index.nextId = dis.readInt();
+
+        FlatVPTree[] trees = new FlatVPTree[dis.readInt()];
+        int[][] treeIds = new int[trees.length][];
+        for (int s = 0; s < trees.length; s++) {
+            treeIds[s] = new int[dis.readInt()];
+            for (int i = 0; i < treeIds[s].length; i++)
+                treeIds[s][i] = dis.readInt();
+
+            trees[s] = FlatVPTree.read(dis);
+            trees[s].setWorkers(1);
+            if (trees[s].size() != treeIds[s].length || trees[s].getDimension() != dimension)
+                throw new IOException("Shard " + s + " doesn't match its ids");
+        }
+        index.install(new Shards(trees, treeIds));
+
+        index.deltaSize = dis.readInt();
+        index.deltaIds = new int[index.deltaSize];
+        for (int i = 0; i < index.deltaSize; i++) {
+            index.deltaIds[i] = dis.readInt();
+            index.deltaPositions.put(index.deltaIds[i], i);
+        }
+        index.delta = new float[index.deltaSize * dimension];
+        for (int i = 0; i < index.delta.length; i++)
+            index.delta[i] = dis.readFloat();
+
+        long[] words = new long[dis.readInt()];
+        for (int i = 0; i < words.length; i++)
+            words[i] = dis.readLong();
+        index.deleted = BitSet.valueOf(words);
+        index.numDeleted = index.deleted.cardinality();
+        index.indexDeleted();
+
+        return index;
+    }
+
+    /**
+     * This method saves this index to the given file. Index is written to the temporary file first, so the
+     * previously saved index stays intact if something goes wrong.
+     */
+    public void save(@NonNull File file) throws IOException {
+        File tmp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        try (OutputStream stream = new FileOutputStream(tmp)) {
+            write(stream);
+        }
+
+        if (file.exists() && !file.delete())
+            throw new IOException("Unable to replace file [" + file.getAbsolutePath() + "]");
+
+        if (!tmp.renameTo(file))
+            throw new IOException("Unable to rename [" + tmp.getAbsolutePath() + "] to [" + file.getAbsolutePath()
+                            + "]");
+    }
+
+    /**
+     * This method restores index previously saved via {@link #save(File)}
+     */
+    public static ShardedVPTreeIndex load(@NonNull File file) throws IOException {
+        try (InputStream stream = new FileInputStream(file)) {
+            return read(stream);
+        }
+    }
+
+    private static class Shards {
+        private final FlatVPTree[] trees;
+        private final int[][] ids;
+
+        private Shards(FlatVPTree[] trees, int[][] ids) {
+            this.trees = trees;
+            this.ids = ids;
+        }
+    }
+
+    private class BatchSearch extends RecursiveAction {
+        private final float[][] queries;
+        private final int k;
+        private final int[][] ids;
+        private final float[][] distances;
+        private final int from;
+        private final int to;
+
+        private BatchSearch(float[][] queries, int k, int[][] ids, float[][] distances, int from, int to) {
+            this.queries = queries;
+            this.k = k;
+            this.ids = ids;
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_GRAIN) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchSearch(queries, k, ids, distances, from, mid),
+                                new BatchSearch(queries, k, ids, distances, mid, to));
+                return;
+            }
+
+            // queries are already processed in parallel, so shards are searched sequentially here
+            for (int i = from; i < to; i++) {
+                int[] idx = new int[Math.max(0, k)];
+                float[] dist = new float[idx.length];
+                int count = search(queries[i], k, idx, dist, false);
+                ids[i] = Arrays.copyOf(idx, count);
+                distances[i] = Arrays.copyOf(dist, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.clustering.hnsw;
+
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class HNSWTest {
+
+    private static float[][] getPoints(int n, int dimension, long seed) {
+        Random r = new Random(seed);
+        float[][] points = new float[n][dimension];
+        for (float[] point : points)
+            for (int i = 0; i < dimension; i++)
+                point[i] = (float) r.nextGaussian();
+
+        return points;
+    }
+
+    private static Set<Integer> bruteForce(float[][] points, float[] query, int k, String distanceFunction) {
+        final float[] distances = new float[points.length];
+        Integer[] order = new Integer[points.length];
+        for (int i = 0; i < points.length; i++) {
+            double dot = 0, normP = 0, normQ = 0, sq = 0;
+            for (int e = 0; e < query.length; e++) {
+                dot += points[i][e] * query[e];
+                normP += points[i][e] * points[i][e];
+                normQ += query[e] * query[e];
+                sq += (points[i][e] - query[e]) * (points[i][e] - query[e]);
+            }
+
+            if (HNSW.EUCLIDEAN.equals(distanceFunction))
+                distances[i] = (float) sq;
+            else if (HNSW.COSINE.equals(distanceFunction))
+                distances[i] = (float) (1.0 - dot / Math.sqrt(normP * normQ));
+            else
+                distances[i] = (float) -dot;
+
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Float.compare(distances[o1], distances[o2]);
+            }
+        });
+
+        return new HashSet<>(Arrays.asList(order).subList(0, k));
+    }
+
+    private static double recall(HNSW index, float[][] points, float[][] queries, int k, int ef) {
+        int[] indices = new int[k];
+        float[] distances = new float[k];
+        double hits = 0;
+        for (float[] query : queries) {
+            int count = index.search(query, k, ef, indices, distances);
+            assertEquals(k, count);
+
+            for (int i = 1; i < count; i++)
+                assertTrue(distances[i - 1] <= distances[i]);
+
+            Set<Integer> exact = bruteForce(points, query, k, index.getDistanceFunction());
+            for (int i = 0; i < count; i++)
+                if (exact.contains(indices[i]))
+                    hits++;
+        }
+
+        return hits / (queries.length * k);
+    }
+
+    @Test
+    public void testRecall1() {
+        float[][] points = getPoints(3000, 16, 12345);
+        float[][] queries = getPoints(50, 16, 119);
+
+        for (String distance : new String[] {HNSW.EUCLIDEAN, HNSW.COSINE, HNSW.DOT}) {
+            HNSW index = new HNSW.Builder(16).distanceFunction(distance).seed(12345).build();
+            for (float[] point : points)
+                index.add(point);
+
+            assertEquals(points.length, index.size());
+
+            double low = recall(index, points, queries, 10, 10);
+            double high = recall(index, points, queries, 10, 200);
+            log.info("Distance: {}; recall@ef=10: {}; recall@ef=200: {}", distance, low, high);
+
+            assertTrue(distance, high >= 0.95);
+            assertTrue(distance, high >= low);
+        }
+    }
+
+    @Test
+    public void testParallelConstruction1() {
+        float[][] points = getPoints(3000, 16, 12345);
+        float[][] queries = getPoints(50, 16, 119);
+
+        HNSW index = new HNSW.Builder(16).distanceFunction(HNSW.EUCLIDEAN).seed(12345).initialCapacity(10).build();
+        assertEquals(0, index.addAll(Arrays.copyOfRange(points, 0, 1000), 4));
+        assertEquals(1000, index.addAll(Arrays.copyOfRange(points, 1000, 3000), 4));
+        assertEquals(points.length, index.size());
+
+        assertTrue(recall(index, points, queries, 10, 200) >= 0.95);
+    }
+
+    @Test
+    public void testSelfSearch1() {
+        float[][] points = getPoints(500, 8, 12345);
+        HNSW index = new HNSW.Builder(8).distanceFunction(HNSW.EUCLIDEAN).seed(12345).build();
+        index.addAll(Nd4j.create(points), 2);
+
+        List<DataPoint> results = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        for (int i = 0; i < points.length; i += 50) {
+            index.search(Nd4j.create(points[i]), 3, results, distances);
+            assertEquals(3, results.size());
+            assertEquals(i, results.get(0).getIndex());
+            assertEquals(0.0, distances.get(0), 1e-5);
+        }
+    }
+
+    @Test
+    public void testPersistence1() throws Exception {
+        float[][] points = getPoints(1000, 16, 12345);
+        float[][] queries = getPoints(20, 16, 119);
+
+        HNSW index = new HNSW.Builder(16).seed(12345).build();
+        index.addAll(points, 2);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        index.write(bos);
+        HNSW restored = HNSW.read(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals(index.size(), restored.size());
+        assertEquals(index.getDistanceFunction(), restored.getDistanceFunction());
+        assertEquals(index.getM(), restored.getM());
+
+        int[] idxA = new int[5];
+        int[] idxB = new int[5];
+        float[] distA = new float[5];
+        float[] distB = new float[5];
+        for (float[] query : queries) {
+            index.search(query, 5, 50, idxA, distA);
+            restored.search(query, 5, 50, idxB, distB);
+            assertArrayEquals(idxA, idxB);
+            assertArrayEquals(distA, distB, 0.0f);
+        }
+
+        // restored index is still updatable
+        INDArray extra = Nd4j.create(getPoints(1, 16, 7)[0]);
+        assertEquals(1000, restored.add(extra));
+        assertEquals(1001, restored.size());
+    }
+
+    @Test
+    public void testSmallIndex1() {
+        HNSW index = new HNSW.Builder(2).distanceFunction(HNSW.EUCLIDEAN).build();
+
+        int[] indices = new int[3];
+        float[] distances = new float[3];
+        assertEquals(0, index.search(new float[] {0, 0}, 3, 10, indices, distances));
+
+        index.add(new float[] {1, 1});
+        index.add(new float[] {5, 5});
+        assertEquals(2, index.search(new float[] {0, 0}, 3, 10, indices, distances));
+        assertEquals(0, indices[0]);
+        assertEquals(1, indices[1]);
+        assertEquals(Math.sqrt(2), distances[0], 1e-5);
+    }
+}
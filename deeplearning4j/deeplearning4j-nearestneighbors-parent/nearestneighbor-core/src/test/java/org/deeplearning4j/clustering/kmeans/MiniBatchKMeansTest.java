@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.kmeans;
+
+import org.deeplearning4j.datasets.iterator.impl.ListDataSetIterator;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MiniBatchKMeansTest {
+
+    /**
+     * Returns well separated gaussian blobs: point i belongs to blob i % numBlobs
+     */
+    private static INDArray getBlobs(int n, int numBlobs, int dimension, long seed) {
+        Random r = new Random(seed);
+        double[][] means = new double[numBlobs][dimension];
+        for (double[] mean : means)
+            for (int i = 0; i < dimension; i++)
+                mean[i] = 20 * r.nextDouble() - 10;
+
+        double[][] points = new double[n][dimension];
+        for (int p = 0; p < n; p++)
+            for (int i = 0; i < dimension; i++)
+                points[p][i] = means[p % numBlobs][i] + 0.1 * r.nextGaussian();
+
+        return Nd4j.create(points);
+    }
+
+    /**
+     * Checks that all points of each blob are assigned to the same cluster, and blobs don't share clusters
+     */
+    private static void checkBlobs(int[] assignments, int numBlobs) {
+        int[] clusterOf = new int[numBlobs];
+        for (int i = 0; i < numBlobs; i++)
+            clusterOf[i] = assignments[i];
+
+        for (int p = 0; p < assignments.length; p++)
+            assertEquals("Point " + p, clusterOf[p % numBlobs], assignments[p]);
+
+        for (int i = 0; i < numBlobs; i++)
+            for (int j = i + 1; j < numBlobs; j++)
+                assertNotEquals(clusterOf[i], clusterOf[j]);
+    }
+
+    @Test
+    public void testBlobs1() {
+        INDArray points = getBlobs(5000, 8, 10, 12345);
+        MiniBatchKMeans kMeans = new MiniBatchKMeans.Builder(8).batchSize(500).maxIterations(50).blockSize(700)
+                        .workers(4).seed(12345).build();
+        kMeans.fit(points);
+
+        assertArrayEquals(new long[] {8, 10}, kMeans.getCenters().shape());
+        checkBlobs(kMeans.predict(points), 8);
+
+        // within-blob variance only: 5000 * 10 * 0.1^2
+        assertEquals(500.0, kMeans.inertia(points), 100.0);
+
+        // counts are accumulated from mini-batches only
+        double total = 0;
+        for (double count : kMeans.getCounts())
+            total += count;
+        assertTrue(total >= 500);
+        assertEquals(0.0, total % 500, 1e-6);
+
+        kMeans.shutdown();
+        checkBlobs(kMeans.predict(points), 8);
+    }
+
+    @Test
+    public void testIterator1() {
+        INDArray points = getBlobs(3000, 5, 4, 119);
+        DataSet ds = new DataSet(points, Nd4j.zeros(3000, 1));
+        ListDataSetIterator<DataSet> iterator = new ListDataSetIterator<>(ds.asList(), 100);
+
+        MiniBatchKMeans kMeans = new MiniBatchKMeans.Builder(5).initSampleSize(1000).seed(12345).build();
+        kMeans.fit(iterator, 2);
+
+        checkBlobs(kMeans.predict(points), 5);
+        assertEquals(3000 * 4 * 0.01, kMeans.inertia(points), 30.0);
+    }
+
+    @Test
+    public void testCosine1() {
+        // blobs of directions: points are scaled by random positive factors
+        INDArray points = getBlobs(2000, 4, 6, 42);
+        Random r = new Random(42);
+        for (int i = 0; i < 2000; i++)
+            points.getRow(i).muli(0.5 + 10 * r.nextDouble());
+
+        MiniBatchKMeans kMeans = new MiniBatchKMeans.Builder(4).distanceFunction(MiniBatchKMeans.COSINE)
+                        .batchSize(200).maxIterations(30).seed(12345).build();
+        kMeans.fit(points);
+        checkBlobs(kMeans.predict(points), 4);
+
+        // centers are normalized
+        INDArray norms = kMeans.getCenters().norm2(1);
+        for (int i = 0; i < 4; i++)
+            assertEquals(1.0, norms.getDouble(i), 1e-4);
+    }
+
+    @Test
+    public void testPartialFit1() {
+        INDArray points = getBlobs(1000, 3, 2, 7);
+        MiniBatchKMeans kMeans = new MiniBatchKMeans.Builder(3).initialization(MiniBatchKMeans.Initialization.RANDOM)
+                        .seed(1).build();
+
+        double shift = Double.MAX_VALUE;
+        for (int i = 0; i < 20; i++)
+            shift = kMeans.partialFit(points);
+
+        // same full batch every time: centers stop moving
+        assertEquals(0.0, shift, 1e-6);
+        assertEquals(3, kMeans.getCenters().rows());
+
+        double total = 0;
+        for (double count : kMeans.getCounts())
+            total += count;
+        assertEquals(20 * 1000, total, 1e-6);
+    }
+
+    @Test
+    public void testPoorInitialization1() {
+        INDArray points = getBlobs(4000, 2, 3, 31);
+
+        // k-means|| over points of the first blob only: both centers start within that blob
+        int[] first = new int[2000];
+        for (int i = 0; i < first.length; i++)
+            first[i] = 2 * i;
+        MiniBatchKMeans kMeans = new MiniBatchKMeans.Builder(2).seed(12345).build();
+        kMeans.partialFit(Nd4j.pullRows(points, 1, first));
+
+        INDArray blob0 = points.getRow(0);
+        double separation = blob0.distance2(points.getRow(1));
+
+        // few small batches from all points are enough for one of centers to move to the second blob
+        Random r = new Random(12345);
+        for (int iter = 0; iter < 5; iter++) {
+            int[] batch = new int[100];
+            for (int i = 0; i < batch.length; i++)
+                batch[i] = r.nextInt(4000);
+            kMeans.partialFit(Nd4j.pullRows(points, 1, batch));
+        }
+
+        INDArray centers = kMeans.getCenters();
+        double moved = Math.max(centers.getRow(0).distance2(blob0), centers.getRow(1).distance2(blob0));
+        assertTrue("Centers moved by " + moved + " out of " + separation, moved > 0.75 * separation);
+        checkBlobs(kMeans.predict(points), 2);
+    }
+}
@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.vptree;
+
+import org.deeplearning4j.clustering.sptree.DataPoint;
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FlatVPTreeTest {
+
+    private static float[][] getPoints(int n, int dimension, long seed) {
+        Random r = new Random(seed);
+        float[][] points = new float[n][dimension];
+        for (float[] point : points)
+            for (int i = 0; i < dimension; i++)
+                point[i] = (float) r.nextGaussian();
+
+        return points;
+    }
+
+    private static float[] flatten(float[][] points) {
+        int dimension = points[0].length;
+        float[] flat = new float[points.length * dimension];
+        for (int i = 0; i < points.length; i++)
+            System.arraycopy(points[i], 0, flat, i * dimension, dimension);
+
+        return flat;
+    }
+
+    private static double distance(float[] a, float[] b, String similarityFunction) {
+        double dot = 0, normA = 0, normB = 0, sq = 0, abs = 0;
+        for (int e = 0; e < a.length; e++) {
+            dot += a[e] * b[e];
+            normA += a[e] * a[e];
+            normB += b[e] * b[e];
+            sq += (a[e] - b[e]) * (a[e] - b[e]);
+            abs += Math.abs(a[e] - b[e]);
+        }
+
+        if (FlatVPTree.EUCLIDEAN.equals(similarityFunction))
+            return Math.sqrt(sq);
+        else if (FlatVPTree.MANHATTAN.equals(similarityFunction))
+            return abs;
+        else
+            return 1.0 - dot / Math.sqrt(normA * normB);
+    }
+
+    /**
+     * Checks that k-th distance matches brute force, and that all returned distances are correct
+     */
+    private static void checkExact(float[][] points, float[] query, int k, String similarityFunction, int count,
+                    int[] indices, float[] distances) {
+        double[] all = new double[points.length];
+        for (int i = 0; i < points.length; i++)
+            all[i] = distance(points[i], query, similarityFunction);
+        Arrays.sort(all);
+
+        assertEquals(Math.min(k, points.length), count);
+        for (int i = 0; i < count; i++) {
+            assertEquals(similarityFunction, all[i], distances[i], 1e-4);
+            assertEquals(similarityFunction, distance(points[indices[i]], query, similarityFunction), distances[i],
+                            1e-4);
+        }
+    }
+
+    @Test
+    public void testExactSearch1() {
+        float[][] points = getPoints(3000, 12, 12345);
+        float[][] queries = getPoints(30, 12, 119);
+
+        for (String similarityFunction : new String[] {FlatVPTree.EUCLIDEAN, FlatVPTree.MANHATTAN,
+                        FlatVPTree.COSINE}) {
+            for (int leafSize : new int[] {1, 8, FlatVPTree.DEFAULT_LEAF_SIZE}) {
+                FlatVPTree tree = new FlatVPTree(flatten(points), points.length, 12, similarityFunction, leafSize,
+                                12345);
+                assertEquals(points.length, tree.size());
+
+                int[] indices = new int[10];
+                float[] distances = new float[10];
+                for (float[] query : queries) {
+                    int count = tree.search(query, 10, indices, distances);
+                    checkExact(points, query, 10, similarityFunction, count, indices, distances);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testExcludedSearch1() {
+        float[][] points = getPoints(2000, 8, 42);
+        float[][] queries = getPoints(20, 8, 43);
+        FlatVPTree tree = new FlatVPTree(flatten(points), points.length, 8, FlatVPTree.EUCLIDEAN, 16, 12345);
+
+        // every point except each third one is excluded
+        BitSet excluded = new BitSet();
+        float[][] live = new float[667][];
+        for (int i = 0; i < points.length; i++) {
+            if (i % 3 == 0)
+                live[i / 3] = points[i];
+            else
+                excluded.set(i);
+        }
+
+        int[] indices = new int[10];
+        float[] distances = new float[10];
+        for (float[] query : queries) {
+            int count = tree.search(query, 10, excluded, indices, distances);
+            for (int i = 0; i < count; i++)
+                assertFalse(excluded.get(indices[i]));
+
+            double[] all = new double[live.length];
+            for (int i = 0; i < live.length; i++)
+                all[i] = distance(live[i], query, FlatVPTree.EUCLIDEAN);
+            Arrays.sort(all);
+
+            assertEquals(10, count);
+            for (int i = 0; i < count; i++)
+                assertEquals(all[i], distances[i], 1e-4);
+        }
+
+        // fewer live points than k
+        excluded.set(0, points.length - 3);
+        assertEquals(3, tree.search(queries[0], 10, excluded, indices, distances));
+    }
+
+    @Test
+    public void testBatchSearch1() {
+        float[][] points = getPoints(2000, 8, 12345);
+        float[][] queries = getPoints(100, 8, 119);
+
+        FlatVPTree tree = new FlatVPTree(Nd4j.create(points), FlatVPTree.EUCLIDEAN);
+        tree.setWorkers(4);
+
+        int[][] batchIndices = new int[queries.length][];
+        float[][] batchDistances = new float[queries.length][];
+        tree.search(Nd4j.create(queries), 7, batchIndices, batchDistances);
+
+        int[] indices = new int[7];
+        float[] distances = new float[7];
+        for (int q = 0; q < queries.length; q++) {
+            assertEquals(tree.search(queries[q], 7, indices, distances), batchIndices[q].length);
+            assertArrayEquals(indices, batchIndices[q]);
+            assertArrayEquals(distances, batchDistances[q], 0.0f);
+        }
+    }
+
+    @Test
+    public void testCompareToVPTree1() {
+        float[][] points = getPoints(500, 4, 12345);
+        FlatVPTree flat = new FlatVPTree(Nd4j.create(points));
+        VPTree tree = new VPTree(Nd4j.create(points), "euclidean", false);
+
+        List<DataPoint> flatResults = new ArrayList<>();
+        List<Double> flatDistances = new ArrayList<>();
+        List<DataPoint> results = new ArrayList<>();
+        List<Double> distances = new ArrayList<>();
+        for (float[] query : getPoints(10, 4, 119)) {
+            flat.search(Nd4j.create(query), 5, flatResults, flatDistances);
+            tree.search(Nd4j.create(query), 5, results, distances);
+
+            assertEquals(5, flatResults.size());
+            for (int i = 0; i < 5; i++)
+                assertEquals(distances.get(i), flatDistances.get(i), 1e-4);
+        }
+    }
+
+    @Test
+    public void testSmallTree1() {
+        FlatVPTree tree = new FlatVPTree(new float[] {1, 1, 5, 5}, 2, 2, FlatVPTree.EUCLIDEAN, 1, 12345);
+
+        int[] indices = new int[3];
+        float[] distances = new float[3];
+        assertEquals(2, tree.search(new float[] {0, 0}, 3, indices, distances));
+        assertEquals(0, indices[0]);
+        assertEquals(1, indices[1]);
+        assertEquals(Math.sqrt(2), distances[0], 1e-5);
+
+        assertArrayEquals(new float[] {5, 5}, tree.getPoint(1), 0.0f);
+        assertFalse(FlatVPTree.isSupported("jaccard"));
+    }
+}
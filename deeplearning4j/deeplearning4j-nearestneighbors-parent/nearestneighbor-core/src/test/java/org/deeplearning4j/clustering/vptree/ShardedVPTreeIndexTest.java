@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.clustering.vptree;
+
+import org.junit.Test;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ShardedVPTreeIndexTest {
+
+    private static float[] getPoint(Random r, int dimension) {
+        float[] point = new float[dimension];
+        for (int i = 0; i < dimension; i++)
+            point[i] = (float) r.nextGaussian();
+
+        return point;
+    }
+
+    private static double distance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Compares index search with brute force over the given live points
+     */
+    private static void checkSearch(ShardedVPTreeIndex index, Map<Integer, float[]> live, float[] query, int k) {
+        List<Double> all = new ArrayList<>();
+        for (float[] point : live.values())
+            all.add(distance(point, query));
+        Collections.sort(all);
+
+        int[] ids = new int[k];
+        float[] distances = new float[k];
+        int count = index.search(query, k, ids, distances);
+        assertEquals(Math.min(k, live.size()), count);
+        for (int i = 0; i < count; i++) {
+            assertTrue(live.containsKey(ids[i]));
+            assertEquals(all.get(i), distances[i], 1e-4);
+            assertEquals(distance(live.get(ids[i]), query), distances[i], 1e-4);
+        }
+    }
+
+    @Test
+    public void testUpdates1() {
+        Random r = new Random(12345);
+        int dimension = 6;
+        Map<Integer, float[]> live = new HashMap<>();
+
+        float[][] initial = new float[1000][];
+        for (int i = 0; i < initial.length; i++) {
+            initial[i] = getPoint(r, dimension);
+            live.put(i, initial[i]);
+        }
+
+        ShardedVPTreeIndex index = new ShardedVPTreeIndex(Nd4j.create(initial), FlatVPTree.EUCLIDEAN, 3);
+        assertEquals(1000, index.size());
+        assertEquals(0, index.pendingChanges());
+
+        for (int step = 0; step < 2000; step++) {
+            int op = r.nextInt(10);
+            if (op < 4) {
+                float[] point = getPoint(r, dimension);
+                int id = index.add(point);
+                assertFalse(live.containsKey(id));
+                live.put(id, point);
+            } else if (op < 7) {
+                List<Integer> ids = new ArrayList<>(live.keySet());
+                int id = ids.get(r.nextInt(ids.size()));
+                assertTrue(index.remove(id));
+                assertFalse(index.remove(id));
+                assertFalse(index.contains(id));
+                live.remove(id);
+            } else if (op == 7 && step % 10 == 0) {
+                index.rebuild();
+                assertEquals(0, index.pendingChanges());
+            } else {
+                checkSearch(index, live, getPoint(r, dimension), 1 + r.nextInt(10));
+            }
+
+            assertEquals(live.size(), index.size());
+        }
+
+        // ids stay valid across rebuilds
+        index.rebuild();
+        for (Map.Entry<Integer, float[]> e : live.entrySet())
+            assertArrayEquals(e.getValue(), index.getPoint(e.getKey()), 0.0f);
+    }
+
+    @Test
+    public void testBatchSearch1() {
+        Random r = new Random(12345);
+        ShardedVPTreeIndex index = new ShardedVPTreeIndex(4, FlatVPTree.MANHATTAN, 4, 8, 12345);
+        for (int i = 0; i < 500; i++)
+            index.add(getPoint(r, 4));
+        index.rebuild();
+        for (int i = 0; i < 50; i++)
+            index.add(getPoint(r, 4));
+        index.remove(7);
+
+        float[][] queries = new float[100][];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = getPoint(r, 4);
+
+        int[][] batchIds = new int[queries.length][];
+        float[][] batchDistances = new float[queries.length][];
+        index.search(queries, 5, batchIds, batchDistances);
+
+        int[] ids = new int[5];
+        float[] distances = new float[5];
+        for (int q = 0; q < queries.length; q++) {
+            assertEquals(5, index.search(queries[q], 5, ids, distances));
+            assertArrayEquals(ids, batchIds[q]);
+            assertArrayEquals(distances, batchDistances[q], 0.0f);
+        }
+    }
+
+    @Test
+    public void testPersistence1() throws Exception {
+        Random r = new Random(12345);
+        ShardedVPTreeIndex index = new ShardedVPTreeIndex(8, FlatVPTree.COSINE, 2, 16, 12345);
+        for (int i = 0; i < 300; i++)
+            index.add(getPoint(r, 8));
+        index.rebuild();
+        int added = index.add(getPoint(r, 8));
+        index.remove(3);
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        index.write(bos);
+        ShardedVPTreeIndex restored = ShardedVPTreeIndex.read(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals(index.size(), restored.size());
+        assertEquals(index.pendingChanges(), restored.pendingChanges());
+        assertEquals(index.getSimilarityFunction(), restored.getSimilarityFunction());
+        assertTrue(restored.contains(added));
+        assertFalse(restored.contains(3));
+
+        int[] idsA = new int[10];
+        int[] idsB = new int[10];
+        float[] distA = new float[10];
+        float[] distB = new float[10];
+        for (int q = 0; q < 20; q++) {
+            float[] query = getPoint(r, 8);
+            index.search(query, 10, idsA, distA);
+            restored.search(query, 10, idsB, distB);
+            assertArrayEquals(idsA, idsB);
+            assertArrayEquals(distA, distB, 0.0f);
+        }
+
+        // restored index keeps assigning new ids
+        assertEquals(added + 1, restored.add(getPoint(r, 8)));
+    }
+
+    @Test
+    public void testEmptyIndex1() {
+        ShardedVPTreeIndex index = new ShardedVPTreeIndex(2, FlatVPTree.EUCLIDEAN, 2, 4, 12345);
+        int[] ids = new int[3];
+        float[] distances = new float[3];
+        assertEquals(0, index.search(new float[] {0, 0}, 3, ids, distances));
+
+        index.rebuild();
+        assertEquals(0, index.add(new float[] {1, 1}));
+        assertEquals(1, index.search(new float[] {0, 0}, 3, ids, distances));
+        assertEquals(Math.sqrt(2), distances[0], 1e-5);
+    }
+}
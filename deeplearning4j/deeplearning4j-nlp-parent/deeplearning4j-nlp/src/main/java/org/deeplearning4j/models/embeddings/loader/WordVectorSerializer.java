@@ -37,6 +37,7 @@ import org.deeplearning4j.models.sequencevectors.SequenceVectors;
 import org.deeplearning4j.models.sequencevectors.interfaces.SequenceElementFactory;
 import org.deeplearning4j.models.sequencevectors.sequence.SequenceElement;
 import org.deeplearning4j.models.sequencevectors.serialization.VocabWordFactory;
+import org.deeplearning4j.models.word2vec.MappedWord2Vec;
 import org.deeplearning4j.models.word2vec.StaticWord2Vec;
 import org.deeplearning4j.models.word2vec.VocabWord;
 import org.deeplearning4j.models.word2vec.Word2Vec;
@@ -2605,6 +2606,39 @@ public class WordVectorSerializer {
         return word2Vec;
     }
 
+    /**
+     * This method saves WordVectors in memory-mapped format, suitable for {@link #loadMappedModel(File)}.
+     * Vectors are written one by one, so huge models can be converted after loading them via
+     * {@link #loadStaticModel(File)}, without materializing full lookup table.
+     *
+     * @param vectors WordVectors to be saved
+     * @param file    target file
+     */
+    public static void writeMappedModel(@NonNull WordVectors vectors, @NonNull File file) throws IOException {
+        MappedWord2Vec.writeModel(vectors, file);
+    }
+
+    /**
+     * This method maps model previously saved with {@link #writeMappedModel(WordVectors, File)}.
+     *
+     * In return you get MappedWord2Vec model: both vectors and vocabulary stay off-heap, in OS page cache, and are
+     * read lazily, so this method returns immediately, regardless of model size.
+     *
+     * @param file File should point to previously saved mapped model
+     * @return
+     */
+    public static MappedWord2Vec loadMappedModel(@NonNull File file) {
+        if (!file.exists() || file.isDirectory())
+            throw new RuntimeException(
+                            new FileNotFoundException("File [" + file.getAbsolutePath() + "] was not found"));
+
+        try {
+            return MappedWord2Vec.load(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 
     protected interface Reader extends AutoCloseable {
         boolean hasNext();
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.models.embeddings.reader.impl;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.clustering.hnsw.HNSW;
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.sequencevectors.sequence.SequenceElement;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * This is HNSW-based implementation for wordsNearest method, suited for serving: queries take sublinear time,
+ * at cost of approximate results. Recall vs latency trade-off is controlled via ef parameter.
+ * Please note: index is built upon first call to wordsNearest, and it holds its own copy of vectors.
+ * Prebuilt index, i.e. restored via {@link HNSW#load(java.io.File)}, can be provided instead.
+ *
+ * PLEASE NOTE: This reader does NOT normalize underlying weights, it stays intact
+ */
+@Slf4j
+public class HnswModelUtils<T extends SequenceElement> extends BasicModelUtils<T> {
+    protected volatile HNSW index;
+    protected int m = HNSW.DEFAULT_M;
+    protected int efConstruction = HNSW.DEFAULT_EF_CONSTRUCTION;
+    protected volatile int ef = HNSW.DEFAULT_EF;
+    protected int workers = Runtime.getRuntime().availableProcessors();
+
+    public HnswModelUtils() {
+
+    }
+
+    /**
+     * @param m              maximal number of links per point in the graph
+     * @param efConstruction size of candidates list used during index construction
+     * @param ef             size of candidates list used during search
+     */
+    public HnswModelUtils(int m, int efConstruction, int ef) {
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.ef = ef;
+    }
+
+    /**
+     * @param index prebuilt index, with cosine distance, and points added in order of vocabulary indices
+     */
+    public HnswModelUtils(@NonNull HNSW index) {
+        this.index = index;
+        this.ef = index.getEf();
+    }
+
+    @Override
+    public void init(@NonNull WeightLookupTable<T> lookupTable) {
+        super.init(lookupTable);
+
+        if (index != null && (index.size() != vocabCache.numWords() || index.getDimension() != lookupTable.layerSize()
+                        || !HNSW.COSINE.equals(index.getDistanceFunction()))) {
+            log.warn("Provided HNSW index doesn't match model, it will be rebuilt");
+            index = null;
+        }
+    }
+
+    /**
+     * This method sets size of candidates list used for searches: higher values give better recall, at cost of latency
+     *
+     * @param ef
+     */
+    public void setEf(int ef) {
+        this.ef = ef;
+        if (index != null)
+            index.setEf(ef);
+    }
+
+    /**
+     * This method sets number of threads used for index construction
+     *
+     * @param workers
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * This method returns index used by this ModelUtils, building it if necessary. Returned index can be saved,
+     * and passed to other instances.
+     */
+    public HNSW getIndex() {
+        return checkIndex();
+    }
+
+    protected HNSW checkIndex() {
+        // double-checked locking: once index is built, searches don't need to synchronize
+        HNSW current = index;
+        if (current != null)
+            return current;
+
+        synchronized (this) {
+            // build new index if it wasn't created before
+            if (index == null) {
+                int numWords = vocabCache.numWords();
+                float[][] points = new float[numWords][];
+                for (int i = 0; i < numWords; i++)
+                    points[i] = lookupTable.vector(vocabCache.wordAtIndex(i)).dup('c').data().asFloat();
+
+                HNSW hnsw = new HNSW.Builder(lookupTable.layerSize()).distanceFunction(HNSW.COSINE).m(m)
+                                .efConstruction(efConstruction).ef(ef).initialCapacity(numWords).build();
+
+                long time = System.currentTimeMillis();
+                hnsw.addAll(points, workers);
+                log.info("HNSW index for {} words was built in {} ms", numWords, System.currentTimeMillis() - time);
+
+                index = hnsw;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * This method returns nearest words for given vector, based on HNSW graph.
+     * Index will be built upon first call to this method.
+     *
+     * @param words vector we're looking nearest words to
+     * @param top number of nearest elements to return
+     * @return
+     */
+    @Override
+    public Collection<String> wordsNearest(INDArray words, int top) {
+        HNSW hnsw = checkIndex();
+
+        int[] indices = new int[top];
+        float[] distances = new float[top];
+        int count = hnsw.search(words.dup('c').data().asFloat(), top, Math.max(ef, top), indices, distances);
+
+        List<String> ret = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            ret.add(vocabCache.wordAtIndex(indices[i]));
+
+        return ret;
+    }
+}
@@ -0,0 +1,716 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.models.word2vec;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.models.embeddings.WeightLookupTable;
+import org.deeplearning4j.models.embeddings.reader.ModelUtils;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.deeplearning4j.models.word2vec.wordstore.VocabCache;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This is special limited Word2Vec implementation, suited for serving as read-only lookup table.
+ * Vectors are memory-mapped from the binary file written by {@link #writeModel(WordVectors, File)}, so opening a model
+ * takes constant time, nothing is copied onto java heap, and OS page cache is shared between all processes using
+ * the same file: resident memory is proportional to the vectors actually used.
+ *
+ * Vocabulary is mapped as well: words are resolved via perfect hash (hash and displace), stored in the same file.
+ * This implementation DOES NOT provide some of original Word2Vec methods, such as wordsNearest, wordsNearestSum
+ * or vocab().
+ *
+ * File layout (little endian):
+ * header, padded to {@link #HEADER_SIZE} bytes;
+ * float32 matrix [numWords, vectorLength], row-major, row i is vector for the word with index i;
+ * long[numWords + 1] offsets of UTF-8 encoded words;
+ * words blob;
+ * int[numBuckets] hash displacements;
+ * int[numSlots] word indices, -1 for empty slots
+ */
+@Slf4j
+public class MappedWord2Vec implements WordVectors {
+    public static final int MAGIC = 0x4D575631;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 4096;
+
+    // average number of words per hash bucket
+    protected static final int BUCKET_SIZE = 4;
+    protected static final int MAX_DISPLACEMENT = 1 << 20;
+    protected static final int MAX_SEEDS = 16;
+
+    private final File file;
+    private String unk = null;
+
+    private transient int numWords;
+    private transient int vectorLength;
+    private transient int numBuckets;
+    private transient int numSlots;
+    private transient long seed;
+    private transient int rowsPerChunk;
+    private transient MappedByteBuffer[] vectors;
+    private transient MappedByteBuffer index;
+    private transient int wordsPosition;
+    private transient int bucketsPosition;
+    private transient int slotsPosition;
+
+    protected MappedWord2Vec(@NonNull File file) throws IOException {
+        this.file = file;
+        map();
+    }
+
+    /**
+     * This method maps previously written model. Nothing except the header is read here.
+     *
+     * @param file model file, written by {@link #writeModel(WordVectors, File)}
+     */
+    public static MappedWord2Vec load(@NonNull File file) throws IOException {
+        return new MappedWord2Vec(file);
+    }
+
+    protected void map() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("File [" + file.getAbsolutePath() + "] isn't mapped word vectors model");
+
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC)
+                throw new IOException("File [" + file.getAbsolutePath() + "] isn't mapped word vectors model");
+
+            if (header.getInt(4) != VERSION)
+                throw new IOException("Unsupported mapped model version: [" + header.getInt(4) + "]");
+
+            numWords = header.getInt(8);
+            vectorLength = header.getInt(12);
+            numBuckets = header.getInt(16);
+            numSlots = header.getInt(20);
+            seed = header.getLong(24);
+            long vectorsOffset = header.getLong(32);
+            long offsetsOffset = header.getLong(40);
+            long wordsOffset = header.getLong(48);
+            long bucketsOffset = header.getLong(56);
+            long slotsOffset = header.getLong(64);
+            long fileLength = header.getLong(72);
+
+            if (fileLength != channel.size())
+                throw new IOException("Mapped model file is truncated: expected [" + fileLength + "] bytes, got ["
+                                + channel.size() + "]");
+
+            if (fileLength - offsetsOffset > Integer.MAX_VALUE)
+                throw new IOException("Vocabulary index exceeds 2GB");
+
+            // each MappedByteBuffer is limited to 2GB, so matrix is mapped as a number of chunks with whole rows
+            long rowBytes = 4L * vectorLength;
+            rowsPerChunk = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+            int numChunks = (int) ((numWords + (long) rowsPerChunk - 1) / rowsPerChunk);
+            vectors = new MappedByteBuffer[numChunks];
+            for (int c = 0; c < numChunks; c++) {
+                long rows = Math.min(rowsPerChunk, numWords - (long) c * rowsPerChunk);
+                vectors[c] = channel.map(FileChannel.MapMode.READ_ONLY, vectorsOffset + c * rowsPerChunk * rowBytes,
+                                rows * rowBytes);
+            }
+
+            index = channel.map(FileChannel.MapMode.READ_ONLY, offsetsOffset, fileLength - offsetsOffset);
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            wordsPosition = (int) (wordsOffset - offsetsOffset);
+            bucketsPosition = (int) (bucketsOffset - offsetsOffset);
+            slotsPosition = (int) (slotsOffset - offsetsOffset);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        map();
+    }
+
+    /**
+     * This method writes given WordVectors into mapped format. Vectors are streamed to the file one by one, so
+     * any WordVectors implementation providing vocab() can be converted, i.e. StaticWord2Vec.
+     *
+     * @param vectors WordVectors to be saved
+     * @param file    target file
+     */
+    public static void writeModel(@NonNull WordVectors vectors, @NonNull File file) throws IOException {
+        VocabCache<?> vocab = vectors.vocab();
+        int numWords = vocab.numWords();
+        if (numWords < 1)
+            throw new IllegalArgumentException("Can't save model with empty vocabulary");
+
+        byte[][] words = new byte[numWords][];
+        for (int i = 0; i < numWords; i++) {
+            String word = vocab.wordAtIndex(i);
+            if (word == null)
+                throw new IllegalArgumentException("No word found for index [" + i + "]");
+
+            words[i] = word.getBytes(StandardCharsets.UTF_8);
+        }
+
+        int vectorLength = (int) vectors.getWordVectorMatrix(vocab.wordAtIndex(0)).length();
+
+        int numBuckets = Math.max(1, numWords / BUCKET_SIZE);
+        // small slack in table size keeps displacement search short for the last buckets
+        int numSlots = numWords + numWords / 100 + 1;
+        int[] buckets = new int[numBuckets];
+        int[] slots = new int[numSlots];
+        long seed = 0;
+        for (; seed < MAX_SEEDS; seed++) {
+            if (buildIndex(words, seed, buckets, slots))
+                break;
+        }
+
+        if (seed == MAX_SEEDS)
+            throw new IllegalStateException("Failed to build vocabulary index");
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+
+            // vectors first, row by row
+            long vectorsOffset = HEADER_SIZE;
+            channel.position(vectorsOffset);
+            ByteBuffer row = ByteBuffer.allocate(4 * vectorLength).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < numWords; i++) {
+                INDArray vector = vectors.getWordVectorMatrix(vocab.wordAtIndex(i));
+                if (vector == null || vector.length() != vectorLength)
+                    throw new IllegalStateException("Vector for word [" + vocab.wordAtIndex(i)
+                                    + "] is missing or has wrong length");
+
+                row.clear();
+                for (int e = 0; e < vectorLength; e++)
+                    row.putFloat(vector.getFloat(e));
+
+                row.flip();
+                writeFully(channel, row);
+            }
+
+            // words: offsets first, then UTF-8 bytes
+            long offsetsOffset = channel.position();
+            long[] offsets = new long[numWords + 1];
+            for (int i = 0; i < numWords; i++)
+                offsets[i + 1] = offsets[i] + words[i].length;
+
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            for (long offset : offsets) {
+                if (buffer.remaining() < 8)
+                    flush(channel, buffer);
+                buffer.putLong(offset);
+            }
+            flush(channel, buffer);
+
+            long wordsOffset = channel.position();
+            for (byte[] word : words)
+                writeFully(channel, ByteBuffer.wrap(word));
+
+            // ints are aligned to 4 bytes
+            long padding = (4 - channel.position() % 4) % 4;
+            if (padding > 0)
+                writeFully(channel, ByteBuffer.allocate((int) padding));
+
+            long bucketsOffset = channel.position();
+            writeInts(channel, buffer, buckets);
+
+            long slotsOffset = channel.position();
+            writeInts(channel, buffer, slots);
+
+            long fileLength = channel.position();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(numWords).putInt(vectorLength).putInt(numBuckets)
+                            .putInt(numSlots).putLong(seed).putLong(vectorsOffset).putLong(offsetsOffset)
+                            .putLong(wordsOffset).putLong(bucketsOffset).putLong(slotsOffset).putLong(fileLength);
+            header.clear();
+            channel.position(0);
+            writeFully(channel, header);
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int value : values) {
+            if (buffer.remaining() < 4)
+                flush(channel, buffer);
+            buffer.putInt(value);
+        }
+        flush(channel, buffer);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        writeFully(channel, buffer);
+        buffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Builds perfect hash via hash and displace: buckets are processed from the largest to the smallest one,
+     * and for each bucket we look for displacement value which puts all its words into free slots.
+     *
+     * @return false if index can't be built with given seed
+     */
+    protected static boolean buildIndex(byte[][] words, long seed, int[] buckets, int[] slots) {
+        int numBuckets = buckets.length;
+        int numSlots = slots.length;
+
+        long[] hashes = new long[words.length];
+        int[] bucketStart = new int[numBuckets + 1];
+        for (int i = 0; i < words.length; i++) {
+            hashes[i] = hash(words[i], seed);
+            bucketStart[bucket(hashes[i], numBuckets) + 1]++;
+        }
+
+        int maxBucket = 0;
+        for (int b = 0; b < numBuckets; b++) {
+            maxBucket = Math.max(maxBucket, bucketStart[b + 1]);
+            bucketStart[b + 1] += bucketStart[b];
+        }
+
+        int[] members = new int[words.length];
+        int[] fill = Arrays.copyOf(bucketStart, numBuckets);
+        for (int i = 0; i < words.length; i++)
+            members[fill[bucket(hashes[i], numBuckets)]++] = i;
+
+        // counting sort of buckets by size, descending
+        int[] sizeStart = new int[maxBucket + 2];
+        for (int b = 0; b < numBuckets; b++)
+            sizeStart[maxBucket - (bucketStart[b + 1] - bucketStart[b]) + 1]++;
+        for (int s = 0; s <= maxBucket; s++)
+            sizeStart[s + 1] += sizeStart[s];
+        int[] order = new int[numBuckets];
+        for (int b = 0; b < numBuckets; b++)
+            order[sizeStart[maxBucket - (bucketStart[b + 1] - bucketStart[b])]++] = b;
+
+        Arrays.fill(slots, -1);
+        Arrays.fill(buckets, 0);
+        int[] candidates = new int[maxBucket];
+        for (int b : order) {
+            int from = bucketStart[b];
+            int size = bucketStart[b + 1] - from;
+            if (size == 0)
+                break;
+
+            for (int j = 0; j < size; j++)
+                for (int k = j + 1; k < size; k++) {
+                    int w1 = members[from + j];
+                    int w2 = members[from + k];
+                    if (hashes[w1] == hashes[w2] && Arrays.equals(words[w1], words[w2]))
+                        throw new IllegalArgumentException("Duplicate word found in vocabulary: ["
+                                        + new String(words[w1], StandardCharsets.UTF_8) + "]");
+                }
+
+            boolean placed = false;
+            for (int d = 0; d < MAX_DISPLACEMENT && !placed; d++) {
+                placed = true;
+                for (int j = 0; j < size; j++) {
+                    int slot = slot(hashes[members[from + j]], d, numSlots);
+                    if (slots[slot] >= 0) {
+                        // rolling back this attempt
+                        for (int k = 0; k < j; k++)
+                            slots[candidates[k]] = -1;
+                        placed = false;
+                        break;
+                    }
+                    candidates[j] = slot;
+                    slots[slot] = members[from + j];
+                }
+
+                if (placed)
+                    buckets[b] = d;
+            }
+
+            if (!placed)
+                return false;
+        }
+
+        return true;
+    }
+
+    protected static long hash(byte[] bytes, long seed) {
+        // FNV-1a, with murmur3 finalizer on top
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (byte b : bytes) {
+            h ^= (b & 0xFF);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    protected static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    protected static int bucket(long hash, int numBuckets) {
+        return (int) ((hash >>> 1) % numBuckets);
+    }
+
+    protected static int slot(long hash, int displacement, int numSlots) {
+        return (int) ((mix(hash + displacement * 0x9E3779B97F4A7C15L) >>> 1) % numSlots);
+    }
+
+    /**
+     * Returns number of words in this model
+     */
+    public int numWords() {
+        return numWords;
+    }
+
+    /**
+     * Returns length of each vector in this model
+     */
+    public int getVectorLength() {
+        return vectorLength;
+    }
+
+    /**
+     * Returns word for given index, or null if index is out of range
+     *
+     * @param idx index of the word
+     */
+    public String wordAtIndex(int idx) {
+        if (idx < 0 || idx >= numWords)
+            return null;
+
+        long from = index.getLong(8 * idx);
+        int length = (int) (index.getLong(8 * idx + 8) - from);
+        byte[] bytes = new byte[length];
+        int position = wordsPosition + (int) from;
+        for (int i = 0; i < length; i++)
+            bytes[i] = index.get(position + i);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getUNK() {
+        return unk;
+    }
+
+    @Override
+    public void setUNK(String newUNK) {
+        this.unk = newUNK;
+    }
+
+    /**
+     * Returns true if the model has this word in the vocab
+     *
+     * @param word the word to test for
+     * @return true if the model has the word in the vocab
+     */
+    @Override
+    public boolean hasWord(String word) {
+        return indexOf(word) >= 0;
+    }
+
+    @Override
+    public int indexOf(String word) {
+        if (word == null)
+            return -1;
+
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes, seed);
+        int displacement = index.getInt(bucketsPosition + 4 * bucket(hash, numBuckets));
+        int idx = index.getInt(slotsPosition + 4 * slot(hash, displacement, numSlots));
+        if (idx < 0)
+            return -1;
+
+        // perfect hash maps unknown words to arbitrary slots, so stored word has to be checked
+        long from = index.getLong(8 * idx);
+        long to = index.getLong(8 * idx + 8);
+        if (to - from != bytes.length)
+            return -1;
+
+        int position = wordsPosition + (int) from;
+        for (int i = 0; i < bytes.length; i++)
+            if (index.get(position + i) != bytes[i])
+                return -1;
+
+        return idx;
+    }
+
+    @Override
+    public Collection<String> wordsNearest(INDArray words, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    @Override
+    public Collection<String> wordsNearestSum(INDArray words, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Get the top n words most similar to the given word
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @param word the word to compare
+     * @param n    the n to get
+     * @return the top n words
+     */
+    @Override
+    public Collection<String> wordsNearestSum(String word, int n) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Words nearest based on positive and negative words
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @param positive the positive words
+     * @param negative the negative words
+     * @param top      the top n words
+     * @return the words nearest the mean of the words
+     */
+    @Override
+    public Collection<String> wordsNearestSum(Collection<String> positive, Collection<String> negative, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Accuracy based on questions which are a space separated list of strings
+     * where the first word is the query word, the next 2 words are negative,
+     * and the last word is the predicted word to be nearest
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @param questions the questions to ask
+     * @return the accuracy based on these questions
+     */
+    @Override
+    public Map<String, Double> accuracy(List<String> questions) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Find all words with a similar characters
+     * in the vocab
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @param word     the word to compare
+     * @param accuracy the accuracy: 0 to 1
+     * @return the list of words that are similar in the vocab
+     */
+    @Override
+    public List<String> similarWordsInVocabTo(String word, double accuracy) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Get the word vector for a given matrix
+     *
+     * @param word the word to get the matrix for
+     * @return the ndarray for this word
+     */
+    @Override
+    public double[] getWordVector(String word) {
+        float[] row = getRow(word);
+        if (row == null)
+            return null;
+
+        double[] result = new double[row.length];
+        for (int i = 0; i < row.length; i++)
+            result[i] = row[i];
+
+        return result;
+    }
+
+    /**
+     * Returns the word vector divided by the norm2 of the array
+     *
+     * @param word the word to get the matrix for
+     * @return the looked up matrix
+     */
+    @Override
+    public INDArray getWordVectorMatrixNormalized(String word) {
+        INDArray array = getWordVectorMatrix(word);
+        return array == null ? null : Transforms.unitVec(array);
+    }
+
+    /**
+     * Get the word vector for a given matrix
+     *
+     * @param word the word to get the matrix for
+     * @return the ndarray for this word
+     */
+    @Override
+    public INDArray getWordVectorMatrix(String word) {
+        float[] row = getRow(word);
+        return row == null ? null : Nd4j.create(row);
+    }
+
+    protected float[] getRow(String word) {
+        int idx = indexOf(word);
+        if (idx < 0 && getUNK() != null)
+            idx = indexOf(getUNK());
+
+        if (idx < 0)
+            return null;
+
+        float[] row = new float[vectorLength];
+        readRow(idx, row);
+        return row;
+    }
+
+    /**
+     * This method copies vector with given index into provided array. Only pages holding this vector are touched.
+     *
+     * @param idx    index of the word
+     * @param target array of vectorLength elements
+     */
+    public void readRow(int idx, float[] target) {
+        if (idx < 0 || idx >= numWords)
+            throw new IndexOutOfBoundsException("Word index [" + idx + "] is out of range [0, " + numWords + ")");
+
+        // duplicate() resets byte order, and gives us independent position, so this is thread-safe
+        ByteBuffer buffer = vectors[idx / rowsPerChunk].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position((idx % rowsPerChunk) * 4 * vectorLength);
+        buffer.asFloatBuffer().get(target, 0, vectorLength);
+    }
+
+    /**
+     * This method returns 2D array, where each row represents corresponding word/label
+     *
+     * @param labels
+     * @return
+     */
+    @Override
+    public INDArray getWordVectors(Collection<String> labels) {
+        List<float[]> rows = new ArrayList<>();
+        for (String label : labels) {
+            float[] row = getRow(label);
+            if (row != null)
+                rows.add(row);
+        }
+
+        return Nd4j.create(rows.toArray(new float[rows.size()][]));
+    }
+
+    /**
+     * This method returns mean vector, built from words/labels passed in
+     *
+     * @param labels
+     * @return
+     */
+    @Override
+    public INDArray getWordVectorsMean(Collection<String> labels) {
+        return getWordVectors(labels).mean(0);
+    }
+
+    /**
+     * Words nearest based on positive and negative words
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @param positive the positive words
+     * @param negative the negative words
+     * @param top      the top n words
+     * @return the words nearest the mean of the words
+     */
+    @Override
+    public Collection<String> wordsNearest(Collection<String> positive, Collection<String> negative, int top) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Get the top n words most similar to the given word
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @param word the word to compare
+     * @param n    the n to get
+     * @return the top n words
+     */
+    @Override
+    public Collection<String> wordsNearest(String word, int n) {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Returns the similarity of 2 words
+     *
+     * @param label1  the first word
+     * @param label2 the second word
+     * @return a normalized similarity (cosine similarity)
+     */
+    @Override
+    public double similarity(String label1, String label2) {
+        if (label1 == null || label2 == null)
+            return Double.NaN;
+
+        INDArray vec1 = getWordVectorMatrix(label1);
+        INDArray vec2 = getWordVectorMatrix(label2);
+
+        if (vec1 == null || vec2 == null) {
+            log.debug(label1 + ": " + (vec1 == null ? "null" : "exists") + ";" + label2 + " vec2:"
+                            + (vec2 == null ? "null" : "exists"));
+            return Double.NaN;
+        }
+
+        if (label1.equals(label2))
+            return 1.0;
+
+        return Transforms.cosineSim(vec1, vec2);
+    }
+
+    /**
+     * Vocab for the vectors
+     * PLEASE NOTE: This method is not available in this implementation, since vocabulary isn't loaded onto heap.
+     * Use {@link #indexOf(String)}, {@link #wordAtIndex(int)} and {@link #numWords()} instead.
+     *
+     * @return
+     */
+    @Override
+    public VocabCache vocab() {
+        throw new UnsupportedOperationException(
+                        "Method isn't implemented. Please use indexOf(), wordAtIndex() and numWords() instead");
+    }
+
+    /**
+     * Lookup table for the vectors
+     * PLEASE NOTE: This method is not available in this implementation.
+     *
+     * @return
+     */
+    @Override
+    public WeightLookupTable lookupTable() {
+        throw new UnsupportedOperationException("Method isn't implemented. Please use usual Word2Vec implementation");
+    }
+
+    /**
+     * Specifies ModelUtils to be used to access model
+     * PLEASE NOTE: This method has no effect in this implementation.
+     *
+     * @param utils
+     */
+    @Override
+    public void setModelUtils(ModelUtils utils) {
+        // no-op
+    }
+}
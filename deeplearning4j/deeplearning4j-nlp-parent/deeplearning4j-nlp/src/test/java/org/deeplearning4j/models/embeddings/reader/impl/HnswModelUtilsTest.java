@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.models.embeddings.reader.impl;
+
+import org.deeplearning4j.clustering.hnsw.HNSW;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.word2vec.VocabWord;
+import org.deeplearning4j.models.word2vec.Word2Vec;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.io.ClassPathResource;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class HnswModelUtilsTest {
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    @Test
+    public void testWordsNearest1() throws Exception {
+        Word2Vec vec = WordVectorSerializer.readWord2VecModel(new ClassPathResource("vec.bin").getFile());
+
+        vec.setModelUtils(new BasicModelUtils<VocabWord>());
+        List<String> exp = new ArrayList<>(vec.wordsNearest("Adam", 5));
+
+        // vocabulary is tiny, so with large ef results are exact
+        HnswModelUtils<VocabWord> utils = new HnswModelUtils<>(16, 200, 200);
+        vec.setModelUtils(utils);
+        List<String> res = new ArrayList<>(vec.wordsNearest("Adam", 5));
+        assertEquals(exp, res);
+        assertEquals("is", res.get(0));
+
+        // persisted index is reused as is
+        File file = testDir.newFile("hnsw.bin");
+        utils.getIndex().save(file);
+
+        HnswModelUtils<VocabWord> restored = new HnswModelUtils<>(HNSW.load(file));
+        vec.setModelUtils(restored);
+        Collection<String> fromRestored = vec.wordsNearest("Adam", 5);
+        assertEquals(exp, new ArrayList<>(fromRestored));
+    }
+}
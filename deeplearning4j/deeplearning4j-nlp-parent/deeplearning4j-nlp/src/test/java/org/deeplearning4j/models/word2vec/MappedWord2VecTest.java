@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.deeplearning4j.models.word2vec;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.SerializationUtils;
+import org.deeplearning4j.models.embeddings.loader.WordVectorSerializer;
+import org.deeplearning4j.models.embeddings.wordvectors.WordVectors;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.io.ClassPathResource;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class MappedWord2VecTest {
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    @Test
+    public void testMappedModel1() throws Exception {
+        WordVectors original = WordVectorSerializer.readWord2VecModel(new ClassPathResource("vec.bin").getFile());
+        File file = testDir.newFile("vectors.mapped");
+
+        WordVectorSerializer.writeMappedModel(original, file);
+        MappedWord2Vec mapped = WordVectorSerializer.loadMappedModel(file);
+
+        assertEquals(original.vocab().numWords(), mapped.numWords());
+        assertEquals(original.lookupTable().layerSize(), mapped.getVectorLength());
+
+        for (int i = 0; i < mapped.numWords(); i++) {
+            String word = original.vocab().wordAtIndex(i);
+            assertEquals(word, mapped.wordAtIndex(i));
+            assertEquals(i, mapped.indexOf(word));
+            assertTrue(mapped.hasWord(word));
+
+            INDArray exp = original.getWordVectorMatrix(word);
+            INDArray vec = mapped.getWordVectorMatrix(word);
+            assertEquals(exp.length(), vec.length());
+            for (int e = 0; e < exp.length(); e++)
+                assertEquals(exp.getFloat(e), vec.getFloat(e), 0.0f);
+        }
+
+        assertFalse(mapped.hasWord("definitely_not_a_word_here"));
+        assertEquals(-1, mapped.indexOf("definitely_not_a_word_here"));
+        assertNull(mapped.getWordVectorMatrix("definitely_not_a_word_here"));
+
+        assertEquals(original.similarity("Adam", "is"), mapped.similarity("Adam", "is"), 1e-5);
+        assertEquals(2, mapped.getWordVectors(Arrays.asList("Adam", "is", "definitely_not_a_word_here")).rows());
+    }
+
+    @Test
+    public void testUnkAndSerialization1() throws Exception {
+        WordVectors original = WordVectorSerializer.readWord2VecModel(new ClassPathResource("vec.bin").getFile());
+        File file = testDir.newFile("vectors.mapped");
+        WordVectorSerializer.writeMappedModel(original, file);
+
+        MappedWord2Vec mapped = WordVectorSerializer.loadMappedModel(file);
+        mapped.setUNK("Adam");
+        assertEquals(mapped.getWordVectorMatrix("Adam"), mapped.getWordVectorMatrix("definitely_not_a_word_here"));
+
+        // only path to file is serialized, and it's mapped again upon deserialization
+        MappedWord2Vec restored = SerializationUtils.clone(mapped);
+        assertEquals("Adam", restored.getUNK());
+        assertEquals(mapped.numWords(), restored.numWords());
+        assertEquals(mapped.getWordVectorMatrix("is"), restored.getWordVectorMatrix("is"));
+    }
+
+    @Test
+    public void testPerfectHash1() {
+        int numWords = 100000;
+        byte[][] words = new byte[numWords][];
+        for (int i = 0; i < numWords; i++)
+            words[i] = ("word_" + i).getBytes(StandardCharsets.UTF_8);
+
+        int[] buckets = new int[numWords / MappedWord2Vec.BUCKET_SIZE];
+        int[] slots = new int[numWords + numWords / 100 + 1];
+        assertTrue(MappedWord2Vec.buildIndex(words, 0, buckets, slots));
+
+        for (int i = 0; i < numWords; i++) {
+            long hash = MappedWord2Vec.hash(words[i], 0);
+            int slot = MappedWord2Vec.slot(hash, buckets[MappedWord2Vec.bucket(hash, buckets.length)], slots.length);
+            assertEquals(i, slots[slot]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateWords1() {
+        byte[][] words = new byte[][] {"one".getBytes(StandardCharsets.UTF_8), "two".getBytes(StandardCharsets.UTF_8),
+                        "one".getBytes(StandardCharsets.UTF_8)};
+
+        MappedWord2Vec.buildIndex(words, 0, new int[1], new int[4]);
+    }
+}
@@ -354,9 +354,9 @@ public class ROC extends BaseEvaluation<ROC> {
         double[] thresholdOut;
         double[] precisionOut;
         double[] recallOut;
-        int[] tpCountOut;
-        int[] fpCountOut;
-        int[] fnCountOut;
+        long[] tpCountOut;
+        long[] fpCountOut;
+        long[] fnCountOut;
 
         if (isExact) {
             INDArray pl = getProbAndLabelUsed();
@@ -401,24 +401,24 @@ public class ROC extends BaseEvaluation<ROC> {
             recallOut = rec.data().asDouble();
 
             //Counts. Note the edge cases
-            tpCountOut = new int[thresholdOut.length];
-            fpCountOut = new int[thresholdOut.length];
-            fnCountOut = new int[thresholdOut.length];
+            tpCountOut = new long[thresholdOut.length];
+            fpCountOut = new long[thresholdOut.length];
+            fnCountOut = new long[thresholdOut.length];
 
             for (int i = 1; i < tpCountOut.length - 1; i++) {
                 tpCountOut[i] = cumSumPos.getInt(i - 1);
                 fpCountOut[i] = i - tpCountOut[i]; //predicted positive - true positive
-                fnCountOut[i] = (int) countActualPositive - tpCountOut[i];
+                fnCountOut[i] = countActualPositive - tpCountOut[i];
             }
 
             //Edge cases: last idx -> threshold of 0.0, all predicted positive
-            tpCountOut[tpCountOut.length - 1] = (int) countActualPositive;
-            fpCountOut[tpCountOut.length - 1] = (int) (exampleCount - countActualPositive);
+            tpCountOut[tpCountOut.length - 1] = countActualPositive;
+            fpCountOut[tpCountOut.length - 1] = exampleCount - countActualPositive;
             fnCountOut[tpCountOut.length - 1] = 0;
             //Edge case: first idx -> threshold of 1.0, all predictions negative
             tpCountOut[0] = 0;
             fpCountOut[0] = 0; //(int)(exampleCount - countActualPositive);  //All negatives are predicted positive
-            fnCountOut[0] = (int) countActualPositive;
+            fnCountOut[0] = countActualPositive;
 
             //Finally: 2 things to do
             //(a) Reverse order: lowest to highest threshold
@@ -432,10 +432,10 @@ public class ROC extends BaseEvaluation<ROC> {
             ArrayUtils.reverse(fnCountOut);
 
             if (rocRemoveRedundantPts) {
-                Pair<double[][], int[][]> pair = removeRedundant(thresholdOut, precisionOut, recallOut, tpCountOut,
+                Pair<double[][], long[][]> pair = removeRedundant(thresholdOut, precisionOut, recallOut, tpCountOut,
                                 fpCountOut, fnCountOut);
                 double[][] temp = pair.getFirst();
-                int[][] temp2 = pair.getSecond();
+                long[][] temp2 = pair.getSecond();
                 thresholdOut = temp[0];
                 precisionOut = temp[1];
                 recallOut = temp[2];
@@ -447,9 +447,9 @@ public class ROC extends BaseEvaluation<ROC> {
             thresholdOut = new double[counts.size()];
             precisionOut = new double[counts.size()];
             recallOut = new double[counts.size()];
-            tpCountOut = new int[counts.size()];
-            fpCountOut = new int[counts.size()];
-            fnCountOut = new int[counts.size()];
+            tpCountOut = new long[counts.size()];
+            fpCountOut = new long[counts.size()];
+            fnCountOut = new long[counts.size()];
 
             int i = 0;
             for (Map.Entry<Double, CountsForThreshold> entry : counts.entrySet()) {
@@ -479,9 +479,9 @@ public class ROC extends BaseEvaluation<ROC> {
                 precisionOut[i] = precision;
                 recallOut[i] = recall;
 
-                tpCountOut[i] = (int) tpCount;
-                fpCountOut[i] = (int) fpCount;
-                fnCountOut[i] = (int) (countActualPositive - tpCount);
+                tpCountOut[i] = tpCount;
+                fpCountOut[i] = fpCount;
+                fnCountOut[i] = countActualPositive - tpCount;
                 i++;
             }
         }
@@ -540,7 +540,7 @@ public class ROC extends BaseEvaluation<ROC> {
             //Note: we can have multiple FPR for a given TPR, and multiple TPR for a given FPR
             //These can be omitted, without changing the area (as long as we keep the edge points)
             if (rocRemoveRedundantPts) {
-                Pair<double[][], int[][]> p = removeRedundant(tOut, x_fpr_out, y_tpr_out, null, null, null);
+                Pair<double[][], long[][]> p = removeRedundant(tOut, x_fpr_out, y_tpr_out, null, null, null);
                 double[][] temp = p.getFirst();
                 tOut = temp[0];
                 x_fpr_out = temp[1];
@@ -568,19 +568,19 @@ public class ROC extends BaseEvaluation<ROC> {
         }
     }
 
-    private static Pair<double[][], int[][]> removeRedundant(double[] threshold, double[] x, double[] y, int[] tpCount,
-                    int[] fpCount, int[] fnCount) {
+    static Pair<double[][], long[][]> removeRedundant(double[] threshold, double[] x, double[] y, long[] tpCount,
+                    long[] fpCount, long[] fnCount) {
         double[] t_compacted = new double[threshold.length];
         double[] x_compacted = new double[x.length];
         double[] y_compacted = new double[y.length];
-        int[] tp_compacted = null;
-        int[] fp_compacted = null;
-        int[] fn_compacted = null;
+        long[] tp_compacted = null;
+        long[] fp_compacted = null;
+        long[] fn_compacted = null;
         boolean hasInts = false;
         if (tpCount != null) {
-            tp_compacted = new int[tpCount.length];
-            fp_compacted = new int[fpCount.length];
-            fn_compacted = new int[fnCount.length];
+            tp_compacted = new long[tpCount.length];
+            fp_compacted = new long[fpCount.length];
+            fn_compacted = new long[fnCount.length];
             hasInts = true;
         }
         int lastOutPos = -1;
@@ -620,7 +620,7 @@ public class ROC extends BaseEvaluation<ROC> {
         }
 
         return new Pair<>(new double[][] {t_compacted, x_compacted, y_compacted},
-                        hasInts ? new int[][] {tp_compacted, fp_compacted, fn_compacted} : null);
+                        hasInts ? new long[][] {tp_compacted, fp_compacted, fn_compacted} : null);
     }
 
     /**
@@ -0,0 +1,496 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.eval;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.deeplearning4j.eval.curves.PrecisionRecallCurve;
+import org.deeplearning4j.eval.curves.RocCurve;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.primitives.Pair;
+
+import java.util.Arrays;
+
+/**
+ * ROC (Receiver Operating Characteristic) for binary classifiers, with bounded memory use.<br>
+ * <br>
+ * Unlike exact {@link ROC}, which keeps every (probability, label) pair, this implementation keeps a mergeable
+ * quantile sketch of predicted probabilities: a sorted list of centroids, each holding the mean probability and the
+ * number of positive and negative examples within a contiguous range of probabilities. Each centroid holds at most
+ * 1/compression of all positives and 1/compression of all negatives (identical probabilities are never split), so
+ * memory use is O(compression) regardless of the number of examples.<br>
+ * Examples within one centroid are treated as ties, so the AUC error is bounded by 1/(2 * compression) - i.e. ~2.5e-4
+ * with default settings - and it's usually much lower than that. Unlike thresholded {@link ROC}, the sketch adapts to
+ * the actual distribution of predictions, so skewed predictions don't reduce accuracy.<br>
+ * <br>
+ * Instances can be merged via {@link #merge(ROCSketch)}, which makes this class suitable for parallel and
+ * distributed evaluation.<br>
+ * <br>
+ * The data is assumed to be binary classification - nColumns == 1 (single binary output variable) or nColumns == 2
+ * (probability distribution over 2 classes, with column 1 being values for 'positive' examples).
+ * NaN predictions are ignored.
+ */
+@EqualsAndHashCode(callSuper = true)
+public class ROCSketch extends BaseEvaluation<ROCSketch> {
+    public static final int DEFAULT_COMPRESSION = 2048;
+
+    @Getter
+    private int compression;
+    @Getter
+    private boolean rocRemoveRedundantPts;
+    @Getter
+    private long countActualPositive;
+    @Getter
+    private long countActualNegative;
+
+    // centroids, sorted by value
+    @Getter
+    private int numCentroids;
+    private double[] centroidValue;
+    private long[] centroidPositive;
+    private long[] centroidNegative;
+
+    // values not compressed yet: positives are stored from the head of the buffer, negatives from the tail
+    private double[] buffer;
+    private int bufferedPositive;
+    private int bufferedNegative;
+
+    private transient Double auc;
+    private transient Double auprc;
+    private transient RocCurve rocCurve;
+    private transient PrecisionRecallCurve prCurve;
+
+    public ROCSketch() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compression Maximal number of centroids per class. Higher values give better accuracy at the cost of memory
+     */
+    public ROCSketch(int compression) {
+        this(compression, true);
+    }
+
+    /**
+     * @param compression           Maximal number of centroids per class. Higher values give better accuracy at the cost of memory
+     * @param rocRemoveRedundantPts Usually set to true. If true,  remove any redundant points from ROC and P-R curves
+     */
+    public ROCSketch(int compression, boolean rocRemoveRedundantPts) {
+        if (compression < 1)
+            throw new IllegalArgumentException("Compression should be positive value, got " + compression);
+
+        this.compression = compression;
+        this.rocRemoveRedundantPts = rocRemoveRedundantPts;
+    }
+
+    /**
+     * @return total number of examples seen so far
+     */
+    public long getExampleCount() {
+        return countActualPositive + countActualNegative;
+    }
+
+    @Override
+    public void reset() {
+        countActualPositive = 0;
+        countActualNegative = 0;
+        numCentroids = 0;
+        centroidValue = null;
+        centroidPositive = null;
+        centroidNegative = null;
+        bufferedPositive = 0;
+        bufferedNegative = 0;
+        invalidate();
+    }
+
+    @Override
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("AUC (Area under ROC Curve):                ").append(calculateAUC()).append("\n");
+        sb.append("AUPRC (Area under Precision/Recall Curve): ").append(calculateAUCPR()).append("\n");
+        sb.append("[Note: Sketch-based AUC/AUPRC calculation used with compression of ").append(compression)
+                        .append(" (").append(numCentroids).append(" centroids for ").append(getExampleCount())
+                        .append(" examples)]");
+        return sb.toString();
+    }
+
+    /**
+     * Evaluate (collect statistics for) the given minibatch of data.
+     *
+     * @param labels      Labels / true outcomes
+     * @param predictions Predictions
+     */
+    @Override
+    public void eval(INDArray labels, INDArray predictions) {
+        if (labels.rank() == 3 && predictions.rank() == 3) {
+            //Assume time series input -> reshape to 2d
+            evalTimeSeries(labels, predictions);
+            return;
+        }
+        if (labels.rank() > 2 || predictions.rank() > 2 || labels.size(1) != predictions.size(1)
+                        || labels.size(1) > 2) {
+            throw new IllegalArgumentException("Invalid input data shape: labels shape = "
+                            + Arrays.toString(labels.shape()) + ", predictions shape = "
+                            + Arrays.toString(predictions.shape()) + "; require rank 2 array with size(1) == 1 or 2");
+        }
+
+        INDArray probClass1;
+        INDArray labelClass1;
+        if (labels.size(1) == 1) {
+            probClass1 = predictions;
+            labelClass1 = labels;
+        } else {
+            probClass1 = predictions.getColumn(1);
+            labelClass1 = labels.getColumn(1);
+        }
+
+        // dup() gives us contiguous arrays of exactly given length, regardless of original strides
+        double[] prob = probClass1.dup().data().asDouble();
+        double[] label = labelClass1.dup().data().asDouble();
+
+        for (int i = 0; i < prob.length; i++) {
+            if (Double.isNaN(prob[i]))
+                continue;
+
+            boolean positive = label[i] > 0.5;
+            if (positive)
+                countActualPositive++;
+            else
+                countActualNegative++;
+
+            bufferValue(prob[i], positive);
+        }
+
+        invalidate();
+    }
+
+    /**
+     * Merge this sketch with another one.
+     * This instance is modified, by adding the stats from the other instance.
+     *
+     * @param other ROCSketch instance to combine with this one
+     */
+    @Override
+    public void merge(ROCSketch other) {
+        if (other == null || other.getExampleCount() == 0)
+            return;
+
+        countActualPositive += other.countActualPositive;
+        countActualNegative += other.countActualNegative;
+
+        if (other.numCentroids > 0) {
+            // both lists are sorted, so we just interleave them here. Compression is applied below
+            int total = numCentroids + other.numCentroids;
+            double[] values = new double[total];
+            long[] positive = new long[total];
+            long[] negative = new long[total];
+
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < total; k++) {
+                if (j >= other.numCentroids || (i < numCentroids && centroidValue[i] <= other.centroidValue[j])) {
+                    values[k] = centroidValue[i];
+                    positive[k] = centroidPositive[i];
+                    negative[k] = centroidNegative[i];
+                    i++;
+                } else {
+                    values[k] = other.centroidValue[j];
+                    positive[k] = other.centroidPositive[j];
+                    negative[k] = other.centroidNegative[j];
+                    j++;
+                }
+            }
+
+            centroidValue = values;
+            centroidPositive = positive;
+            centroidNegative = negative;
+            numCentroids = total;
+        }
+
+        if (other.buffer != null) {
+            for (int i = 0; i < other.bufferedPositive; i++)
+                bufferValue(other.buffer[i], true);
+
+            for (int i = other.buffer.length - other.bufferedNegative; i < other.buffer.length; i++)
+                bufferValue(other.buffer[i], false);
+        }
+
+        compress();
+        invalidate();
+    }
+
+    /**
+     * Get the ROC curve, as a set of (threshold, falsePositive, truePositive) points. Points are located at the
+     * centroid boundaries, in ascending threshold order.
+     *
+     * @return ROC curve
+     */
+    public RocCurve getRocCurve() {
+        if (rocCurve != null)
+            return rocCurve;
+
+        compress();
+
+        int length = numCentroids + 2;
+        double[] threshold = new double[length];
+        double[] fpr = new double[length];
+        double[] tpr = new double[length];
+
+        // all examples above the threshold are predicted positive. So we go from the highest centroid down
+        threshold[length - 1] = 1.0;
+        long cumPositive = 0;
+        long cumNegative = 0;
+        for (int i = numCentroids - 1; i >= 0; i--) {
+            cumPositive += centroidPositive[i];
+            cumNegative += centroidNegative[i];
+
+            threshold[i + 1] = centroidValue[i];
+            fpr[i + 1] = cumNegative / (double) countActualNegative;
+            tpr[i + 1] = cumPositive / (double) countActualPositive;
+        }
+
+        // edge case: threshold of 0.0, everything is predicted positive
+        threshold[0] = 0.0;
+        fpr[0] = 1.0;
+        tpr[0] = 1.0;
+
+        if (rocRemoveRedundantPts) {
+            Pair<double[][], long[][]> p = ROC.removeRedundant(threshold, fpr, tpr, null, null, null);
+            threshold = p.getFirst()[0];
+            fpr = p.getFirst()[1];
+            tpr = p.getFirst()[2];
+        }
+
+        rocCurve = new RocCurve(threshold, fpr, tpr);
+        return rocCurve;
+    }
+
+    /**
+     * Get the precision recall curve. Points are located at the centroid boundaries, in ascending threshold order.
+     *
+     * @return precision recall curve
+     */
+    public PrecisionRecallCurve getPrecisionRecallCurve() {
+        if (prCurve != null)
+            return prCurve;
+
+        compress();
+
+        int length = numCentroids + 2;
+        double[] threshold = new double[length];
+        double[] precision = new double[length];
+        double[] recall = new double[length];
+        long[] tpCount = new long[length];
+        long[] fpCount = new long[length];
+        long[] fnCount = new long[length];
+
+        // edge case: threshold of 1.0, nothing is predicted positive
+        threshold[length - 1] = 1.0;
+        precision[length - 1] = 1.0;
+        recall[length - 1] = countActualPositive == 0 ? 1.0 : 0.0;
+        fnCount[length - 1] = countActualPositive;
+
+        long cumPositive = 0;
+        long cumNegative = 0;
+        for (int i = numCentroids - 1; i >= 0; i--) {
+            cumPositive += centroidPositive[i];
+            cumNegative += centroidNegative[i];
+
+            threshold[i + 1] = centroidValue[i];
+            precision[i + 1] = cumPositive / (double) (cumPositive + cumNegative);
+            recall[i + 1] = countActualPositive == 0 ? 1.0 : cumPositive / (double) countActualPositive;
+            tpCount[i + 1] = cumPositive;
+            fpCount[i + 1] = cumNegative;
+            fnCount[i + 1] = countActualPositive - cumPositive;
+        }
+
+        // edge case: threshold of 0.0, everything is predicted positive
+        threshold[0] = 0.0;
+        precision[0] = getExampleCount() == 0 ? 1.0 : countActualPositive / (double) getExampleCount();
+        recall[0] = 1.0;
+        tpCount[0] = countActualPositive;
+        fpCount[0] = countActualNegative;
+        fnCount[0] = 0;
+
+        if (rocRemoveRedundantPts) {
+            Pair<double[][], long[][]> p =
+                            ROC.removeRedundant(threshold, precision, recall, tpCount, fpCount, fnCount);
+            threshold = p.getFirst()[0];
+            precision = p.getFirst()[1];
+            recall = p.getFirst()[2];
+            tpCount = p.getSecond()[0];
+            fpCount = p.getSecond()[1];
+            fnCount = p.getSecond()[2];
+        }
+
+        prCurve = new PrecisionRecallCurve(threshold, precision, recall, tpCount, fpCount, fnCount,
+                        getExampleCount());
+        return prCurve;
+    }
+
+    /**
+     * Calculate the AUROC - Area Under ROC Curve<br>
+     * Utilizes trapezoidal integration internally
+     *
+     * @return AUC
+     */
+    public double calculateAUC() {
+        if (auc != null)
+            return auc;
+
+        if (getExampleCount() == 0)
+            return Double.NaN;
+
+        auc = getRocCurve().calculateAUC();
+        return auc;
+    }
+
+    /**
+     * Calculate the area under the precision/recall curve - aka AUCPR
+     *
+     * @return AUPRC
+     */
+    public double calculateAUCPR() {
+        if (auprc != null)
+            return auprc;
+
+        if (getExampleCount() == 0)
+            return Double.NaN;
+
+        auprc = getPrecisionRecallCurve().calculateAUPRC();
+        return auprc;
+    }
+
+    private void invalidate() {
+        auc = null;
+        auprc = null;
+        rocCurve = null;
+        prCurve = null;
+    }
+
+    private void bufferValue(double value, boolean positive) {
+        if (buffer == null)
+            buffer = new double[8 * compression];
+
+        if (bufferedPositive + bufferedNegative == buffer.length)
+            compress();
+
+        if (positive)
+            buffer[bufferedPositive++] = value;
+        else
+            buffer[buffer.length - 1 - bufferedNegative++] = value;
+    }
+
+    /**
+     * This method merges buffered values into centroids, and re-applies size limits to all centroids.
+     * Single pass leaves at most 4 * compression + 1 centroids: any two adjacent centroids exceed the size limit
+     * for at least one of the classes
+     */
+    protected void compress() {
+        if (bufferedPositive + bufferedNegative == 0 && numCentroids <= 4 * compression + 2)
+            return;
+
+        int negativeStart = buffer == null ? 0 : buffer.length - bufferedNegative;
+        int negativeEnd = buffer == null ? 0 : buffer.length;
+        if (buffer != null) {
+            Arrays.sort(buffer, 0, bufferedPositive);
+            Arrays.sort(buffer, negativeStart, negativeEnd);
+        }
+
+        long maxPositive = Math.max(1, (countActualPositive + compression - 1) / compression);
+        long maxNegative = Math.max(1, (countActualNegative + compression - 1) / compression);
+
+        int capacity = numCentroids + bufferedPositive + bufferedNegative;
+        double[] values = new double[capacity];
+        long[] positive = new long[capacity];
+        long[] negative = new long[capacity];
+        int cnt = 0;
+
+        // 3-way merge of sorted centroids, sorted positives and sorted negatives
+        int c = 0;
+        int p = 0;
+        int n = negativeStart;
+        double sum = 0.0;
+        long curPositive = 0;
+        long curNegative = 0;
+        double last = 0.0;
+        while (c < numCentroids || p < bufferedPositive || n < negativeEnd) {
+            int source = -1;
+            double v = 0.0;
+            if (c < numCentroids) {
+                source = 0;
+                v = centroidValue[c];
+            }
+            if (p < bufferedPositive && (source < 0 || buffer[p] < v)) {
+                source = 1;
+                v = buffer[p];
+            }
+            if (n < negativeEnd && (source < 0 || buffer[n] < v)) {
+                source = 2;
+                v = buffer[n];
+            }
+
+            long dp;
+            long dn;
+            if (source == 0) {
+                dp = centroidPositive[c];
+                dn = centroidNegative[c];
+                c++;
+            } else if (source == 1) {
+                dp = 1;
+                dn = 0;
+                p++;
+            } else {
+                dp = 0;
+                dn = 1;
+                n++;
+            }
+
+            // identical values are never split, since there's nothing to gain
+            if (curPositive + curNegative > 0 && v != last
+                            && (curPositive + dp > maxPositive || curNegative + dn > maxNegative)) {
+                values[cnt] = sum / (curPositive + curNegative);
+                positive[cnt] = curPositive;
+                negative[cnt] = curNegative;
+                cnt++;
+
+                sum = 0.0;
+                curPositive = 0;
+                curNegative = 0;
+            }
+
+            sum += v * (dp + dn);
+            curPositive += dp;
+            curNegative += dn;
+            last = v;
+        }
+
+        if (curPositive + curNegative > 0) {
+            values[cnt] = sum / (curPositive + curNegative);
+            positive[cnt] = curPositive;
+            negative[cnt] = curNegative;
+            cnt++;
+        }
+
+        centroidValue = Arrays.copyOf(values, cnt);
+        centroidPositive = Arrays.copyOf(positive, cnt);
+        centroidNegative = Arrays.copyOf(negative, cnt);
+        numCentroids = cnt;
+        bufferedPositive = 0;
+        bufferedNegative = 0;
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.api.layers;
+
+import org.deeplearning4j.nn.api.Layer;
+
+/**
+ * A layer whose gradients for some parameters are row-sparse: only a small subset of the rows of a 2d parameter
+ * receive a gradient in each iteration (for example, the rows of an embedding matrix that correspond to the indices
+ * in the current minibatch).<br>
+ * For such parameters, the updater may apply updates lazily, i.e., only to the rows returned by
+ * {@link #getGradientRows(String)} (and the corresponding rows of the updater state), and the layer only needs to
+ * clear these rows (instead of the full gradient view) before the next backprop.
+ */
+public interface SparseGradientLayer extends Layer {
+
+    /**
+     * @param paramName Name of the parameter
+     * @return True if gradients for the given parameter are row-sparse, and updates may be applied lazily
+     */
+    boolean hasSparseGradient(String paramName);
+
+    /**
+     * @param paramName Name of the parameter
+     * @return Sorted, unique indices of the rows of the parameter that received a gradient during the last backprop,
+     * or null if the gradient for this parameter should be considered dense
+     */
+    int[] getGradientRows(String paramName);
+
+    /**
+     * Called by the updater once the update for the given parameter was applied to the rows returned by
+     * {@link #getGradientRows(String)} only, so that all other rows of the gradient view are still zero.<br>
+     * If this method isn't called between two backprop passes, the full gradient view is cleared on the next one.
+     *
+     * @param paramName Name of the parameter
+     */
+    void gradientRowsUpdated(String paramName);
+
+    /**
+     * Called when the gradient view may have been modified outside of the rows returned by
+     * {@link #getGradientRows(String)} (for example, by a line search optimizer), so that the full
+     * gradient view is cleared on the next backprop.
+     */
+    void invalidateGradientRows();
+}
@@ -50,10 +50,12 @@ import java.util.Map;
 @EqualsAndHashCode(callSuper = true)
 public class EmbeddingLayer extends FeedForwardLayer {
     private boolean hasBias = true; //Default for pre-0.9.2 implementations
+    private boolean sparseGradients = false;
 
     private EmbeddingLayer(Builder builder) {
         super(builder);
         this.hasBias = builder.hasBias;
+        this.sparseGradients = builder.sparseGradients;
         initializeConstraints(builder);
     }
 
@@ -103,6 +105,7 @@ public class EmbeddingLayer extends FeedForwardLayer {
     public static class Builder extends FeedForwardLayer.Builder<Builder> {
 
         private boolean hasBias = false;
+        private boolean sparseGradients = false;
 
         /**
          * If true: include bias parameters in the layer. False (default): no bias.
@@ -114,6 +117,22 @@ public class EmbeddingLayer extends FeedForwardLayer {
             return this;
         }
 
+        /**
+         * If true: gradients for the embedding weights are row-sparse. Only the rows for the indices in the current
+         * minibatch are cleared and updated, and updaters (Adam, Nesterovs, etc) are applied lazily: the updater state
+         * for rows that are not in the minibatch isn't modified, and L1/L2 regularization is only applied to these
+         * rows. With {@link org.deeplearning4j.nn.api.OptimizationAlgorithm#STOCHASTIC_GRADIENT_DESCENT}, clearing,
+         * updating and stepping the weights only touches these rows, which can be much faster for large nIn. Gradient
+         * normalization, gradient sharing and line search optimizers still process the full weight gradient.<br>
+         * False (default): dense gradients and updates, for the full weight matrix.
+         *
+         * @param sparseGradients If true: use row-sparse gradients and lazy updates for the weights
+         */
+        public Builder sparseGradients(boolean sparseGradients) {
+            this.sparseGradients = sparseGradients;
+            return this;
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         public EmbeddingLayer build() {
@@ -52,12 +52,14 @@ public class EmbeddingSequenceLayer extends FeedForwardLayer {
     private int inputLength = 1; // By default only use one index to embed
     private boolean hasBias = false;
     private boolean inferInputLength = false; // use input length as provided by input data
+    private boolean sparseGradients = false;
 
     private EmbeddingSequenceLayer(Builder builder) {
         super(builder);
         this.hasBias = builder.hasBias;
         this.inputLength = builder.inputLength;
         this.inferInputLength = builder.inferInputLength;
+        this.sparseGradients = builder.sparseGradients;
         initializeConstraints(builder);
     }
 
@@ -113,6 +115,7 @@ public class EmbeddingSequenceLayer extends FeedForwardLayer {
     public static class Builder extends FeedForwardLayer.Builder<Builder> {
 
         private boolean hasBias = false;
+        private boolean sparseGradients = false;
         private int inputLength = 1;
         private boolean inferInputLength = true;
 
@@ -149,6 +152,22 @@ public class EmbeddingSequenceLayer extends FeedForwardLayer {
             return this;
         }
 
+        /**
+         * If true: gradients for the embedding weights are row-sparse. Only the rows for the indices in the current
+         * minibatch are cleared and updated, and updaters (Adam, Nesterovs, etc) are applied lazily: the updater state
+         * for rows that are not in the minibatch isn't modified, and L1/L2 regularization is only applied to these
+         * rows. With {@link org.deeplearning4j.nn.api.OptimizationAlgorithm#STOCHASTIC_GRADIENT_DESCENT}, clearing,
+         * updating and stepping the weights only touches these rows, which can be much faster for large nIn. Gradient
+         * normalization, gradient sharing and line search optimizers still process the full weight gradient.<br>
+         * False (default): dense gradients and updates, for the full weight matrix.
+         *
+         * @param sparseGradients If true: use row-sparse gradients and lazy updates for the weights
+         */
+        public Builder sparseGradients(boolean sparseGradients) {
+            this.sparseGradients = sparseGradients;
+            return this;
+        }
+
         @Override
         @SuppressWarnings("unchecked")
         public EmbeddingSequenceLayer build() {
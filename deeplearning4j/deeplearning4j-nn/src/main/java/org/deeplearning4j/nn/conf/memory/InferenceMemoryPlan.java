@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.conf.memory;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.MemoryWorkspaceManager;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.Serializable;
+import java.text.DecimalFormat;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Static memory layout for inference, as produced by {@link InferenceMemoryPlanner}.<br>
+ * The arena is split into regions: one region for layer working memory, and one region per activations workspace.
+ * Layers/vertices whose activations have non-overlapping lifetimes share the same region.<br>
+ * <br>
+ * Each region is backed by a workspace that is allocated to its full planned size on first use, and never learns or
+ * resizes afterwards. So there are no warm-up allocations, and a smaller minibatch than the planned one doesn't trigger
+ * re-learning. If actual use exceeds the plan (i.e. memory report for some custom layer is inaccurate), extra allocations
+ * spill outside of the workspace instead of failing, and the workspace keeps its planned size.<br>
+ * <br>
+ * Region names are logical names within the plan. Actual workspace ids carry a plan-unique suffix (see
+ * {@link #getWorkspaceId(String)}), so two networks with their own plans don't share workspaces on the same thread.
+ * A network that is planned again keeps its workspace ids (see {@link #withWorkspacesOf(InferenceMemoryPlan)}), and
+ * workspaces sized for the previous plan are recreated on their next use.
+ */
+@Getter
+public class InferenceMemoryPlan implements Serializable {
+    /**
+     * Name of the region holding working memory for a single layer
+     */
+    public static final String WS_WORKING_MEM = "WS_PLANNED_WORKING_MEM";
+    /**
+     * Prefix of the region names holding layer activations
+     */
+    public static final String WS_ACT_PREFIX = "WS_PLANNED_ACT_";
+
+    private static final DecimalFormat BYTES_FORMAT = new DecimalFormat("#,###");
+
+    /**
+     * Unique id of this plan, used as suffix for the workspace ids
+     */
+    private final String id;
+
+    private final int minibatchSize;
+    private final DataBuffer.Type dataType;
+
+    /**
+     * Size of each region, in bytes. Key: region name
+     */
+    private final Map<String, Long> regionBytes;
+
+    /**
+     * Offset of each region within the arena, in bytes. Key: region name
+     */
+    private final Map<String, Long> regionOffsets;
+
+    /**
+     * Region each layer/vertex activations are placed into. Key: layer or vertex name
+     */
+    private final Map<String, String> activationRegions;
+
+    private final long totalBytes;
+
+    /**
+     * Total activations size in bytes, without any buffer reuse between layers
+     */
+    private final long unsharedActivationBytes;
+
+    public InferenceMemoryPlan(int minibatchSize, @NonNull DataBuffer.Type dataType, @NonNull Map<String, Long> regionBytes,
+                    @NonNull Map<String, String> activationRegions, long unsharedActivationBytes) {
+        this(UUID.randomUUID().toString(), minibatchSize, dataType, regionBytes, activationRegions, unsharedActivationBytes);
+    }
+
+    private InferenceMemoryPlan(String id, int minibatchSize, DataBuffer.Type dataType, Map<String, Long> regionBytes,
+                    Map<String, String> activationRegions, long unsharedActivationBytes) {
+        this.id = id;
+        this.minibatchSize = minibatchSize;
+        this.dataType = dataType;
+        this.regionBytes = Collections.unmodifiableMap(new LinkedHashMap<>(regionBytes));
+        this.activationRegions = Collections.unmodifiableMap(new LinkedHashMap<>(activationRegions));
+        this.unsharedActivationBytes = unsharedActivationBytes;
+
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        long offset = 0;
+        for (Map.Entry<String, Long> e : regionBytes.entrySet()) {
+            offsets.put(e.getKey(), offset);
+            offset += e.getValue();
+        }
+        this.regionOffsets = Collections.unmodifiableMap(offsets);
+        this.totalBytes = offset;
+    }
+
+    /**
+     * This method returns name of the activations region with given index
+     *
+     * @param index region index
+     * @return region name
+     */
+    public static String activationsWorkspace(int index) {
+        return WS_ACT_PREFIX + index;
+    }
+
+    /**
+     * This method returns id of the workspace backing the given region of this plan
+     *
+     * @param regionName name of the region
+     * @return workspace id
+     */
+    public String getWorkspaceId(@NonNull String regionName) {
+        return regionName + "_" + id;
+    }
+
+    /**
+     * This method returns copy of this plan, that uses the same workspace ids as the given plan. Networks use it
+     * when they are planned again, so the workspaces of the previous plan are reused instead of being left behind
+     *
+     * @param previous plan this one replaces
+     * @return copy of this plan
+     */
+    public InferenceMemoryPlan withWorkspacesOf(@NonNull InferenceMemoryPlan previous) {
+        return new InferenceMemoryPlan(previous.id, minibatchSize, dataType, regionBytes, activationRegions,
+                        unsharedActivationBytes);
+    }
+
+    /**
+     * This method destroys workspaces of this plan for the current thread, that were allocated for different region
+     * sizes (i.e. by the previous plan with the same workspace ids). Workspaces that are currently open are kept.
+     */
+    public void validateWorkspaces() {
+        MemoryWorkspaceManager manager = Nd4j.getWorkspaceManager();
+        for (Map.Entry<String, Long> e : regionBytes.entrySet()) {
+            String wsId = getWorkspaceId(e.getKey());
+            if (!manager.checkIfWorkspaceExists(wsId))
+                continue;
+
+            MemoryWorkspace workspace = manager.getWorkspaceForCurrentThread(wsId);
+            if (workspace.getWorkspaceConfiguration().getInitialSize() != e.getValue() && !workspace.isScopeActive()) {
+                workspace.destroyWorkspace(true);
+                manager.destroyWorkspace(workspace);
+            }
+        }
+    }
+
+    /**
+     * This method checks if this plan can be used for the given minibatch size and data type
+     *
+     * @param minibatchSize actual minibatch size
+     * @param dataType      actual data type
+     * @return true if planned memory is sufficient
+     */
+    public boolean isApplicable(long minibatchSize, DataBuffer.Type dataType) {
+        return minibatchSize <= this.minibatchSize && this.dataType == dataType;
+    }
+
+    /**
+     * This method returns number of activation regions in this plan
+     *
+     * @return
+     */
+    public int numActivationRegions() {
+        return regionBytes.containsKey(WS_WORKING_MEM) ? regionBytes.size() - 1 : regionBytes.size();
+    }
+
+    /**
+     * This method returns workspace configuration for the given region: workspace is allocated to the planned size
+     * upfront, and neither learns nor reallocates afterwards
+     *
+     * @param regionName name of the region
+     * @return workspace configuration
+     */
+    public WorkspaceConfiguration getWorkspaceConfiguration(@NonNull String regionName) {
+        Long bytes = regionBytes.get(regionName);
+        if (bytes == null)
+            throw new IllegalStateException("No region [" + regionName + "] in this plan");
+
+        return WorkspaceConfiguration.builder()
+                        .initialSize(bytes)
+                        .policyLearning(LearningPolicy.NONE)
+                        .policyReset(ResetPolicy.BLOCK_LEFT)
+                        .policySpill(SpillPolicy.EXTERNAL)
+                        .policyAllocation(AllocationPolicy.STRICT)
+                        .build();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("----- Inference Memory Plan -----\n")
+                        .append("  Minibatch size:      ").append(minibatchSize).append("\n")
+                        .append("  Data type:           ").append(dataType).append("\n")
+                        .append("  Arena size:          ").append(BYTES_FORMAT.format(totalBytes)).append(" bytes\n")
+                        .append("  Without reuse:       ").append(BYTES_FORMAT.format(unsharedActivationBytes))
+                        .append(" bytes (activations only)\n");
+
+        for (Map.Entry<String, Long> e : regionBytes.entrySet()) {
+            sb.append(String.format("  - %-26s", e.getKey())).append("offset ")
+                            .append(BYTES_FORMAT.format(regionOffsets.get(e.getKey()))).append(", ")
+                            .append(BYTES_FORMAT.format(e.getValue())).append(" bytes\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.conf.memory;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.conf.CacheMode;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.conf.graph.GraphVertex;
+import org.deeplearning4j.nn.conf.graph.LayerVertex;
+import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+
+import java.util.*;
+
+/**
+ * Static memory planner for MultiLayerNetwork/ComputationGraph inference.<br>
+ * Uses the per-layer {@link LayerMemoryReport}s (as produced by {@code getMemoryReport(InputType...)}) to calculate exact
+ * activation and working memory sizes for the given minibatch size, and lays them out in {@link InferenceMemoryPlan}.<br>
+ * <br>
+ * Activations are assigned to regions following the same lifetime rules the networks use for inference:
+ * <ul>
+ *     <li>MultiLayerNetwork: activations of layer i are alive during forward pass of layers i and i+1, so even and odd
+ *     layers share two regions</li>
+ *     <li>ComputationGraph: activations of a vertex are alive until the last vertex consuming them is done. Regions are
+ *     released at that point, and reused by vertices executed later</li>
+ * </ul>
+ * Working memory is only alive during a single layer's forward pass, so one region of the largest layer's working memory
+ * size is shared by all layers.
+ */
+@Slf4j
+public class InferenceMemoryPlanner {
+    // workspaces align every allocation to 8 bytes
+    private static final long ALIGNMENT = 8;
+
+    private InferenceMemoryPlanner() {
+        // static use only
+    }
+
+    /**
+     * This method builds inference memory plan for MultiLayerNetwork
+     *
+     * @param configuration network configuration
+     * @param inputType     network input type. For recurrent inputs, time series length must be specified
+     * @param minibatchSize maximal minibatch size the plan should support
+     * @param dataType      data type of the network
+     * @return memory plan
+     */
+    public static InferenceMemoryPlan plan(@NonNull MultiLayerConfiguration configuration, @NonNull InputType inputType,
+                    int minibatchSize, @NonNull DataBuffer.Type dataType) {
+        if (minibatchSize < 1)
+            throw new IllegalArgumentException("Minibatch size should be positive, got " + minibatchSize);
+
+        NetworkMemoryReport report = configuration.getMemoryReport(inputType);
+        List<MemoryReport> layers = new ArrayList<>(report.getLayerAndVertexReports().values());
+        List<String> names = new ArrayList<>(report.getLayerAndVertexReports().keySet());
+
+        long[] regions = new long[2];
+        long working = 0;
+        long unshared = 0;
+        Map<String, String> assignment = new LinkedHashMap<>();
+        for (int i = 0; i < layers.size(); i++) {
+            MemoryReport mr = layers.get(i);
+            long bytes = 0;
+
+            // preprocessor output lives in the same workspace as layer activations
+            if (configuration.getInputPreProcess(i) != null)
+                bytes += inputBytes(mr, minibatchSize, dataType);
+
+            // output of the last layer is detached, so it's never placed into the arena
+            if (i < layers.size() - 1)
+                bytes += activationBytes(mr, minibatchSize, dataType);
+
+            regions[i % 2] = Math.max(regions[i % 2], bytes);
+            working = Math.max(working, workingBytes(mr, minibatchSize, dataType));
+            unshared += bytes;
+            assignment.put(names.get(i), InferenceMemoryPlan.activationsWorkspace(i % 2));
+        }
+
+        // first layer input might be placed into working memory as well
+        if (!layers.isEmpty())
+            working += inputBytes(layers.get(0), minibatchSize, dataType);
+
+        Map<String, Long> regionBytes = new LinkedHashMap<>();
+        regionBytes.put(InferenceMemoryPlan.WS_WORKING_MEM, working);
+        for (int i = 0; i < regions.length; i++)
+            regionBytes.put(InferenceMemoryPlan.activationsWorkspace(i), regions[i]);
+
+        return new InferenceMemoryPlan(minibatchSize, dataType, regionBytes, assignment, unshared);
+    }
+
+    /**
+     * This method builds inference memory plan for ComputationGraph
+     *
+     * @param configuration graph configuration
+     * @param minibatchSize maximal minibatch size the plan should support
+     * @param dataType      data type of the network
+     * @param inputTypes    network input types. For recurrent inputs, time series length must be specified
+     * @return memory plan
+     */
+    public static InferenceMemoryPlan plan(@NonNull ComputationGraphConfiguration configuration, int minibatchSize,
+                    @NonNull DataBuffer.Type dataType, @NonNull InputType... inputTypes) {
+        if (minibatchSize < 1)
+            throw new IllegalArgumentException("Minibatch size should be positive, got " + minibatchSize);
+
+        NetworkMemoryReport report = configuration.getMemoryReport(inputTypes);
+        Map<String, MemoryReport> reports = report.getLayerAndVertexReports();
+
+        // we must follow exactly the same order ComputationGraph uses for forward pass
+        List<String> order = configuration.getTopologicalOrderStr() != null ? configuration.getTopologicalOrderStr()
+                        : configuration.topologicalOrdering();
+
+        // step at which activations of each vertex have been fully consumed
+        Map<String, Integer> consumedAt = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            List<String> inputs = configuration.getVertexInputs().get(order.get(i));
+            if (inputs != null)
+                for (String in : inputs)
+                    consumedAt.put(in, i);
+        }
+
+        List<Long> regions = new ArrayList<>();
+        List<Integer> free = new ArrayList<>();     // used as stack, same as in ComputationGraph
+        Map<Integer, List<Integer>> releaseAt = new HashMap<>();
+        Map<String, String> assignment = new LinkedHashMap<>();
+        long working = 0;
+        long unshared = 0;
+        for (int i = 0; i < order.size(); i++) {
+            String name = order.get(i);
+
+            int region;
+            if (!free.isEmpty()) {
+                region = free.remove(free.size() - 1);
+            } else {
+                region = regions.size();
+                regions.add(0L);
+            }
+
+            long bytes = 0;
+            MemoryReport mr = reports.get(name);
+            if (mr != null) {
+                // input vertices are never allocated, and network outputs are detached
+                if (!configuration.getNetworkOutputs().contains(name))
+                    bytes += activationBytes(mr, minibatchSize, dataType);
+
+                GraphVertex gv = configuration.getVertices().get(name);
+                if (gv instanceof LayerVertex && ((LayerVertex) gv).getPreProcessor() != null)
+                    bytes += inputBytes(mr, minibatchSize, dataType);
+
+                working = Math.max(working, workingBytes(mr, minibatchSize, dataType));
+            }
+
+            regions.set(region, Math.max(regions.get(region), bytes));
+            unshared += bytes;
+            assignment.put(name, InferenceMemoryPlan.activationsWorkspace(region));
+
+            int closeAt = consumedAt.containsKey(name) ? consumedAt.get(name) : order.size() - 1;
+            List<Integer> list = releaseAt.get(closeAt);
+            if (list == null) {
+                list = new ArrayList<>();
+                releaseAt.put(closeAt, list);
+            }
+            list.add(region);
+
+            if (releaseAt.containsKey(i))
+                free.addAll(releaseAt.get(i));
+        }
+
+        Map<String, Long> regionBytes = new LinkedHashMap<>();
+        regionBytes.put(InferenceMemoryPlan.WS_WORKING_MEM, working);
+        for (int i = 0; i < regions.size(); i++)
+            regionBytes.put(InferenceMemoryPlan.activationsWorkspace(i), regions.get(i));
+
+        return new InferenceMemoryPlan(minibatchSize, dataType, regionBytes, assignment, unshared);
+    }
+
+    protected static long activationBytes(MemoryReport mr, int minibatchSize, DataBuffer.Type dataType) {
+        return align(mr.getMemoryBytes(MemoryType.ACTIVATIONS, minibatchSize, MemoryUseMode.INFERENCE, CacheMode.NONE, dataType));
+    }
+
+    protected static long inputBytes(MemoryReport mr, int minibatchSize, DataBuffer.Type dataType) {
+        if (!(mr instanceof LayerMemoryReport) || ((LayerMemoryReport) mr).getInputType() == null)
+            return 0;
+
+        return align(minibatchSize * ((LayerMemoryReport) mr).getInputType().arrayElementsPerExample() * bytesPerElement(dataType));
+    }
+
+    protected static long workingBytes(MemoryReport mr, int minibatchSize, DataBuffer.Type dataType) {
+        if (mr instanceof LayerMemoryReport) {
+            // inference working memory is reported as fixed + per example
+            LayerMemoryReport lmr = (LayerMemoryReport) mr;
+            return align((lmr.getWorkingMemoryFixedInference() + minibatchSize * lmr.getWorkingMemoryVariableInference())
+                            * bytesPerElement(dataType));
+        }
+
+        return align(mr.getMemoryBytes(MemoryType.WORKING_MEMORY_FIXED, minibatchSize, MemoryUseMode.INFERENCE, CacheMode.NONE, dataType)
+                        + mr.getMemoryBytes(MemoryType.WORKING_MEMORY_VARIABLE, minibatchSize, MemoryUseMode.INFERENCE, CacheMode.NONE, dataType));
+    }
+
+    protected static int bytesPerElement(DataBuffer.Type dataType) {
+        switch (dataType) {
+            case DOUBLE:
+                return 8;
+            case FLOAT:
+                return 4;
+            case HALF:
+                return 2;
+            default:
+                throw new UnsupportedOperationException("Data type not supported: " + dataType);
+        }
+    }
+
+    private static long align(long bytes) {
+        return ((bytes + ALIGNMENT - 1) / ALIGNMENT) * ALIGNMENT;
+    }
+}
@@ -30,10 +30,13 @@ import org.deeplearning4j.nn.api.layers.IOutputLayer;
 import org.deeplearning4j.nn.api.layers.RecurrentLayer;
 import org.deeplearning4j.nn.conf.*;
 import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.memory.InferenceMemoryPlan;
+import org.deeplearning4j.nn.conf.memory.InferenceMemoryPlanner;
 import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
 import org.deeplearning4j.nn.conf.layers.recurrent.Bidirectional;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.nn.graph.paging.ParameterPager;
 import org.deeplearning4j.nn.graph.util.ComputationGraphUtil;
 import org.deeplearning4j.nn.graph.util.GraphIndices;
 import org.deeplearning4j.nn.graph.vertex.GraphVertex;
@@ -115,6 +118,17 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
 
     private transient final AtomicLong occupiedBy = new AtomicLong(-1);
 
+    //Optional: provides per-vertex parameters on demand, instead of flattened params array. See init(ParameterPager)
+    @Getter
+    protected transient ParameterPager parameterPager;
+
+    /**
+     * Static memory plan for inference, see {@link #planInferenceMemory(int, InputType...)}. May be null
+     */
+    @Getter
+    @Setter
+    protected transient InferenceMemoryPlan inferenceMemoryPlan;
+
     /**
      * Workspace for working memory for a single layer: forward pass and backward pass
      * Note that this is opened/closed once per op (activate/backpropGradient call)
@@ -425,6 +439,23 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         init(null, false);
     }
 
+    /**
+     * Initialize the ComputationGraph, with parameters of each vertex provided on demand by the given pager.
+     * No flattened parameters array is allocated: parameters of each vertex are requested from the pager right
+     * before the vertex is executed, so only a subset of the parameters needs to be in memory at any time.<br>
+     * PLEASE NOTE: Graph initialized this way is meant for inference only, {@link #params()} will return null.
+     *
+     * @param pager Parameter pager to use
+     */
+    public void init(@NonNull ParameterPager pager) {
+        if (initCalled)
+            return;
+
+        this.parameterPager = pager;
+        init(null, false);
+        pager.attach(this);
+    }
+
     /**
      * Initialize the ComputationGraph, optionally with an existing parameters array.
      * If an existing parameters array is specified, it will be used (and the values will not be modified) in the network;
@@ -494,7 +525,13 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         }
 
         boolean initializeParams;
-        if (parameters != null) {
+        if (parameterPager != null) {
+            if (parameters != null)
+                throw new IllegalArgumentException("Parameters array can't be used together with parameter pager");
+
+            flattenedParams = null;
+            initializeParams = false;
+        } else if (parameters != null) {
             if (!parameters.isRowVectorOrScalar())
                 throw new IllegalArgumentException("Invalid parameters: should be a row vector");
             if (parameters.length() != numParams)
@@ -527,7 +564,10 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         i = 0;
         for (int vertexIdx : topologicalOrder) {
             int nParamsThisVertex = numParamsForVertex[vertexIdx];
-            if (nParamsThisVertex != 0) {
+            if (nParamsThisVertex != 0 && parameterPager != null) {
+                paramsViewForVertex[vertexIdx] = parameterPager.initialView(indices.getIdxToName().get(vertexIdx),
+                        paramOffsetSoFar, nParamsThisVertex);
+            } else if (nParamsThisVertex != 0) {
                 paramsViewForVertex[vertexIdx] = flattenedParams.get(NDArrayIndex.point(0),
                         NDArrayIndex.interval(paramOffsetSoFar, paramOffsetSoFar + nParamsThisVertex));
             }
@@ -1900,6 +1940,8 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 if(current.isInputVertex()){
                     out = inputs[vIdx];
                 } else {
+                    if(parameterPager != null)
+                        parameterPager.ensureResident(current);
 
                     if(fwdPassType == FwdPassType.STANDARD) {
                         //Standard feed-forward case
@@ -2046,6 +2088,8 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                 if(current.isInputVertex()){
                     out = inputs[vIdx];
                 } else {
+                    if(parameterPager != null)
+                        parameterPager.ensureResident(current);
 
                     if(fwdPassType == FwdPassType.STANDARD){
                         out = current.doForward(train, workspaceMgr);
@@ -2185,6 +2229,17 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         WorkspaceMode wsm = (train ? configuration.getTrainingWorkspaceMode() : configuration.getInferenceWorkspaceMode());
         boolean noWS = wsm == WorkspaceMode.NONE;
         LayerWorkspaceMgr allNone = noWS ? LayerWorkspaceMgr.noWorkspaces(helperWorkspaces) : null;
+
+        //If static memory plan is available, activations and working memory go to the planned (preallocated) workspaces
+        InferenceMemoryPlan plan = inferenceMemoryPlan;
+        if(train || plan == null || !plan.isApplicable(features[0].size(0), Nd4j.dataType())){
+            plan = null;
+        } else {
+            plan.validateWorkspaces();
+        }
+        String wsWorking = plan == null ? WS_LAYER_WORKING_MEM : plan.getWorkspaceId(InferenceMemoryPlan.WS_WORKING_MEM);
+        WorkspaceConfiguration wsWorkingConf = plan == null ? WS_LAYER_WORKING_MEM_CONFIG
+                        : plan.getWorkspaceConfiguration(InferenceMemoryPlan.WS_WORKING_MEM);
         List<MemoryWorkspace>[] closeAtEndIteraton = (List<MemoryWorkspace>[])new List[topologicalOrder.length];
         MemoryWorkspace initialWorkspace = Nd4j.getMemoryManager().getCurrentWorkspace();
         try {
@@ -2203,11 +2258,20 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                         workspaceMgr = freeWorkspaceManagers.remove(freeWorkspaceManagers.size() - 1);
                     } else {
                         //No existing free workspace managers for forward pass - create a new one...
-                        String wsName = "WS_LAYER_ACT_" + allWorkspaceManagers.size();
+                        String wsName;
+                        WorkspaceConfiguration wsConf;
+                        if(plan == null || allWorkspaceManagers.size() >= plan.numActivationRegions()) {
+                            wsName = "WS_LAYER_ACT_" + allWorkspaceManagers.size();
+                            wsConf = WS_LAYER_ACT_X_CONFIG;
+                        } else {
+                            String region = InferenceMemoryPlan.activationsWorkspace(allWorkspaceManagers.size());
+                            wsName = plan.getWorkspaceId(region);
+                            wsConf = plan.getWorkspaceConfiguration(region);
+                        }
                         workspaceMgr = LayerWorkspaceMgr.builder()
-                                .with(ArrayType.INPUT, wsName, WS_LAYER_ACT_X_CONFIG)
-                                .with(ArrayType.ACTIVATIONS, wsName, WS_LAYER_ACT_X_CONFIG)
-                                .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
+                                .with(ArrayType.INPUT, wsName, wsConf)
+                                .with(ArrayType.ACTIVATIONS, wsName, wsConf)
+                                .with(ArrayType.FF_WORKING_MEM, wsWorking, wsWorkingConf)
                                 .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
                                 .build();
 
@@ -2281,6 +2345,8 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
                     if (current.isInputVertex()) {
                         out = features[vIdx];
                     } else {
+                        if (parameterPager != null)
+                            parameterPager.ensureResident(current);
 
                         if(fwdPassType == FwdPassType.STANDARD){
                             //Standard feed-forward case
@@ -4251,6 +4317,29 @@ public class ComputationGraph implements Serializable, Model, NeuralNetwork {
         return CrashReportingUtil.generateMemoryStatus(this, minibatch, inputTypes);
     }
 
+    /**
+     * Build a static memory plan for inference (using the vertex memory reports), and use it for all subsequent
+     * output calls with minibatch size up to the planned one. Activations and working memory are then placed into
+     * workspaces that are allocated to their exact planned size on first use, instead of learning their sizes over
+     * the first iterations.
+     *
+     * @param minibatch    Maximal minibatch size to plan memory for
+     * @param inputTypes   Input types to the network. For recurrent inputs, time series length must be specified
+     * @return The memory plan
+     */
+    public InferenceMemoryPlan planInferenceMemory(int minibatch, InputType... inputTypes){
+        if(!initCalled)
+            init();
+
+        InferenceMemoryPlan plan = InferenceMemoryPlanner.plan(configuration, minibatch, Nd4j.dataType(), inputTypes);
+        if(inferenceMemoryPlan != null){
+            //Keep workspace ids of the previous plan: its workspaces are reused, instead of being leaked
+            plan = plan.withWorkspacesOf(inferenceMemoryPlan);
+        }
+        this.inferenceMemoryPlan = plan;
+        return plan;
+    }
+
     /**
      * This method just makes sure there's no state preserved within layers
      */
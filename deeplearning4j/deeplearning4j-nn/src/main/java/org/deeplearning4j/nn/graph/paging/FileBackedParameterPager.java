@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.graph.paging;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.vertex.GraphVertex;
+import org.deeplearning4j.util.MappedModelSerializer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * {@link ParameterPager} implementation backed by a model file written by {@link MappedModelSerializer}.<br>
+ * <br>
+ * Parameters of each vertex are a separate segment of the parameters block in the file. Segment is loaded when the
+ * vertex is executed for the first time: segments up to 2GB are memory mapped (so only pages that are actually touched
+ * are read from disk - i.e. only used rows of large embedding tables), larger segments are read into native memory.
+ * <br>
+ * Loaded segments are tracked in LRU order, and once the total size of loaded segments exceeds the memory budget,
+ * least recently used segments are released. Released segments are loaded again on the next use.<br>
+ * <br>
+ * PLEASE NOTE: Segment that's larger than the memory budget is still loaded, since it's needed to execute the vertex.
+ * PLEASE NOTE: Graph that uses this pager shouldn't be used from multiple threads at the same time.
+ */
+@Slf4j
+public class FileBackedParameterPager implements ParameterPager, Closeable {
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final MappedModelSerializer.Header header;
+    private final long maxResidentBytes;
+
+    // vertex name -> {offset, length}, in elements
+    private final Map<String, long[]> segments = new HashMap<>();
+    // access-ordered, eldest entry is the least recently used one
+    private final LinkedHashMap<String, Long> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Layer> layers = new HashMap<>();
+    private long residentBytes = 0;
+
+    // shared by all initial views: values are never read, and views are released once graph is attached
+    private INDArray placeholder;
+
+    private long pageIns = 0;
+    private long evictions = 0;
+
+    /**
+     * @param file             Model file, written by {@link MappedModelSerializer#writeModel}
+     * @param maxResidentBytes Memory budget for loaded parameters, in bytes
+     * @throws IOException
+     */
+    public FileBackedParameterPager(@NonNull File file, long maxResidentBytes) throws IOException {
+        if (maxResidentBytes <= 0)
+            throw new IllegalArgumentException("Memory budget should be positive value");
+
+        this.raf = new RandomAccessFile(file, "r");
+        try {
+            this.header = MappedModelSerializer.readHeader(raf);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+        this.channel = raf.getChannel();
+        this.maxResidentBytes = maxResidentBytes;
+    }
+
+    /**
+     * @return Header of the underlying model file
+     */
+    public MappedModelSerializer.Header getHeader() {
+        return header;
+    }
+
+    @Override
+    public synchronized INDArray initialView(String vertexName, long offset, long length) {
+        if ((offset + length) > header.getParamsLength())
+            throw new IllegalStateException("Parameters of vertex [" + vertexName + "] are out of bounds of the "
+                            + "parameters block: model file doesn't match graph configuration");
+
+        segments.put(vertexName, new long[] {offset, length});
+
+        // all vertices share the same placeholder memory, so initialization takes as much memory as the largest vertex
+        // (up to 2x, due to growth), instead of the full model
+        if (placeholder == null || placeholder.length() < length) {
+            long size = placeholder == null ? length : Math.max(length, 2 * placeholder.length());
+            placeholder = Nd4j.createUninitializedDetached(new long[] {1, size});
+        }
+
+        return placeholder.get(NDArrayIndex.point(0), NDArrayIndex.interval(0, length));
+    }
+
+    @Override
+    public synchronized void attach(@NonNull ComputationGraph graph) {
+        for (GraphVertex vertex : graph.getVertices()) {
+            if (vertex.hasLayer() && segments.containsKey(vertex.getVertexName())) {
+                layers.put(vertex.getVertexName(), vertex.getLayer());
+                release(vertex.getLayer());
+            }
+        }
+        placeholder = null;
+    }
+
+    @Override
+    public synchronized void ensureResident(@NonNull GraphVertex vertex) {
+        String name = vertex.getVertexName();
+        long[] segment = segments.get(name);
+        if (segment == null)
+            return;
+
+        // this call also moves vertex to the tail of LRU order
+        if (resident.get(name) != null)
+            return;
+
+        long elementSize = Nd4j.sizeOfDataType(Nd4j.dataType());
+        long required = segment[1] * elementSize;
+        if (required > maxResidentBytes)
+            log.warn("Parameters of vertex [{}] take {} bytes, which exceeds memory budget of {} bytes", name,
+                            required, maxResidentBytes);
+
+        Iterator<Map.Entry<String, Long>> iterator = resident.entrySet().iterator();
+        while (residentBytes + required > maxResidentBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            release(layers.get(eldest.getKey()));
+            residentBytes -= eldest.getValue();
+            iterator.remove();
+            evictions++;
+        }
+
+        INDArray view;
+        try {
+            long position = header.getParamsOffset()
+                            + segment[0] * Nd4j.sizeOfDataType(header.getDataType());
+            view = MappedModelSerializer.readBlock(channel, header.getDataType(), position, segment[1]);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to load parameters of vertex [" + name + "]", e);
+        }
+
+        bind(vertex.getLayer(), view);
+        resident.put(name, required);
+        residentBytes += required;
+        pageIns++;
+    }
+
+    /**
+     * @return Number of bytes taken by currently loaded parameters
+     */
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * @return Names of vertices with loaded parameters, least recently used first
+     */
+    public synchronized List<String> getResidentVertices() {
+        return new ArrayList<>(resident.keySet());
+    }
+
+    /**
+     * @return Number of segments loaded so far
+     */
+    public synchronized long getPageIns() {
+        return pageIns;
+    }
+
+    /**
+     * @return Number of segments released so far
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * This method releases parameters of all vertices
+     */
+    public synchronized void evictAll() {
+        for (String name : resident.keySet()) {
+            release(layers.get(name));
+            evictions++;
+        }
+        resident.clear();
+        residentBytes = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        evictAll();
+        raf.close();
+    }
+
+    protected void bind(Layer layer, INDArray view) {
+        Map<String, INDArray> paramTable =
+                        layer.conf().getLayer().initializer().init(layer.conf(), view, false);
+        layer.setParamTable(paramTable);
+        layer.setParamsViewArray(view);
+    }
+
+    protected void release(Layer layer) {
+        // layer must not hold references to the old views, otherwise memory won't be released
+        layer.setParamsViewArray(null);
+        layer.setParamTable(new LinkedHashMap<String, INDArray>());
+    }
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.graph.paging;
+
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.vertex.GraphVertex;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * ParameterPager provides per-vertex parameters for a {@link ComputationGraph} on demand, instead of keeping the
+ * full flattened parameters array in memory.<br>
+ * <br>
+ * When a pager is used (see {@link ComputationGraph#init(ParameterPager)}), the graph has no flattened parameters
+ * array: every vertex gets its own parameters view, and the graph calls {@link #ensureResident(GraphVertex)} right
+ * before each vertex is executed. Pager is free to release parameters of vertices that are not executed at the moment.
+ * <br>
+ * PLEASE NOTE: Paged graphs are meant for inference only.
+ */
+public interface ParameterPager {
+
+    /**
+     * This method returns parameters view used to instantiate the vertex. Values of this view are never read during
+     * initialization, so placeholder is fine here: views of different vertices may share the same memory.
+     *
+     * @param vertexName Name of the vertex
+     * @param offset     Offset of the vertex parameters within the flattened parameters, in elements
+     * @param length     Number of parameters of the vertex
+     * @return row vector of the given length
+     */
+    INDArray initialView(String vertexName, long offset, long length);
+
+    /**
+     * This method is called once graph initialization is complete
+     *
+     * @param graph Initialized graph
+     */
+    void attach(ComputationGraph graph);
+
+    /**
+     * This method is called before the vertex is executed. Once it returns, the vertex parameters should be in place.
+     *
+     * @param vertex Vertex that's going to be executed
+     */
+    void ensureResident(GraphVertex vertex);
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.inference;
+
+import lombok.NonNull;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+
+/**
+ * Inference session over a MultiLayerNetwork or ComputationGraph, that shares parameters with the source model.<br>
+ * <br>
+ * Layers keep per-call state (inputs, masks, rnnTimeStep state) on the layer objects, so a single network instance
+ * can only serve one forward pass at a time. Session holds its own lightweight replica of the model: configuration
+ * and layer objects are separate, but all layer parameters are views of the source model's flattened parameters
+ * array, so no weights are copied. Activations are allocated in the workspaces of the calling thread, which are
+ * thread-local as well.<br>
+ * <br>
+ * PLEASE NOTE: session is NOT thread-safe. Use one session per thread, or {@link SharedWeightsInference} which
+ * manages that for you.<br>
+ * PLEASE NOTE: parameters are shared, not frozen. In-place updates of the source model (i.e. fit() or setParams())
+ * are visible to all sessions, and must not run concurrently with inference. Anything that replaces the source
+ * model's parameters array (i.e. calling init() again) breaks the sharing - create new sessions in this case.
+ */
+public class InferenceSession {
+    protected final Model source;
+    protected final Model replica;
+
+    /**
+     * @param model source model, MultiLayerNetwork or ComputationGraph
+     */
+    public InferenceSession(@NonNull Model model) {
+        this.source = model;
+        this.replica = replicate(model);
+    }
+
+    /**
+     * This method creates a replica of the given model, that uses the parameters of the source model as is.<br>
+     * Returned model has separate layers (and thus separate per-call state), but no parameters of its own.
+     *
+     * @param model source model, MultiLayerNetwork or ComputationGraph
+     * @return replica sharing the parameters with the source model
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Model> T replicate(@NonNull T model) {
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) model;
+            if (!net.isInitCalled())
+                throw new ND4JIllegalStateException("Model should be initialized before creating inference session");
+
+            MultiLayerNetwork ret = new MultiLayerNetwork(net.getLayerWiseConfigurations().clone());
+            ret.init(net.params(), false);
+            return (T) ret;
+        } else if (model instanceof ComputationGraph) {
+            ComputationGraph graph = (ComputationGraph) model;
+            if (graph.getVertices() == null)
+                throw new ND4JIllegalStateException("Model should be initialized before creating inference session");
+
+            ComputationGraph ret = new ComputationGraph(graph.getConfiguration().clone());
+            ret.init(graph.params(), false);
+            return (T) ret;
+        } else
+            throw new ND4JIllegalStateException("Unsupported model type: [" + model.getClass().getSimpleName() + "]");
+    }
+
+    /**
+     * This method returns the source model this session was created for
+     *
+     * @return source model
+     */
+    public Model getSourceModel() {
+        return source;
+    }
+
+    /**
+     * This method returns the replica used by this session. Use it for anything not covered by session methods,
+     * but keep in mind that its parameters are shared with the source model.
+     *
+     * @return replica
+     */
+    public Model getReplica() {
+        return replica;
+    }
+
+    /**
+     * This method checks, if this session still shares parameters with the source model
+     *
+     * @return true if parameters are shared, false if the source model's parameters array was replaced
+     */
+    public boolean isShared() {
+        return source.params() == replica.params();
+    }
+
+    /**
+     * Calculate the output of the model, in inference mode
+     *
+     * @param input model inputs, exactly one for MultiLayerNetwork
+     * @return model outputs
+     */
+    public INDArray[] output(@NonNull INDArray... input) {
+        return output(input, null);
+    }
+
+    /**
+     * Calculate the output of the model, in inference mode
+     *
+     * @param input      model inputs, exactly one for MultiLayerNetwork
+     * @param inputMasks input masks, may be null
+     * @return model outputs
+     */
+    public INDArray[] output(@NonNull INDArray[] input, INDArray[] inputMasks) {
+        if (replica instanceof ComputationGraph)
+            return ((ComputationGraph) replica).output(false, input, inputMasks);
+
+        if (input.length != 1)
+            throw new ND4JIllegalStateException("MultiLayerNetwork expects exactly 1 input, got " + input.length);
+
+        INDArray mask = inputMasks == null ? null : inputMasks[0];
+        return new INDArray[] {((MultiLayerNetwork) replica).output(input[0], false, mask, null)};
+    }
+
+    /**
+     * Convenience method for models with single output
+     *
+     * @param input model inputs, exactly one for MultiLayerNetwork
+     * @return model output
+     */
+    public INDArray outputSingle(@NonNull INDArray... input) {
+        INDArray[] output = output(input);
+        if (output.length != 1)
+            throw new ND4JIllegalStateException("Model has " + output.length + " outputs, outputSingle can't be used");
+
+        return output[0];
+    }
+
+    /**
+     * Single time step of the recurrent model. RNN state is kept within this session, so different sessions can
+     * process different sequences concurrently.
+     *
+     * @param input model inputs, exactly one for MultiLayerNetwork
+     * @return model outputs
+     */
+    public INDArray[] rnnTimeStep(@NonNull INDArray... input) {
+        if (replica instanceof ComputationGraph)
+            return ((ComputationGraph) replica).rnnTimeStep(input);
+
+        if (input.length != 1)
+            throw new ND4JIllegalStateException("MultiLayerNetwork expects exactly 1 input, got " + input.length);
+
+        return new INDArray[] {((MultiLayerNetwork) replica).rnnTimeStep(input[0])};
+    }
+
+    /**
+     * This method clears RNN state accumulated by {@link #rnnTimeStep(INDArray...)} calls of this session
+     */
+    public void rnnClearPreviousState() {
+        if (replica instanceof ComputationGraph)
+            ((ComputationGraph) replica).rnnClearPreviousState();
+        else
+            ((MultiLayerNetwork) replica).rnnClearPreviousState();
+    }
+}
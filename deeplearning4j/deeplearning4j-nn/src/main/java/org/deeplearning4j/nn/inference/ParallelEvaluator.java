@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.inference;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.SerializationUtils;
+import org.deeplearning4j.eval.IEvaluation;
+import org.deeplearning4j.nn.api.Model;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.MultiDataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.Serializable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-threaded evaluation of MultiLayerNetwork or ComputationGraph.<br>
+ * <br>
+ * The calling thread reads minibatches from the iterator, while worker threads run inference and
+ * {@link IEvaluation#eval(INDArray, INDArray, INDArray)} concurrently. Each worker uses its own
+ * {@link InferenceSession}, so model parameters are shared rather than copied, and its own copies of the evaluation
+ * instances. Once the iterator is exhausted, per-worker evaluations are combined via {@link IEvaluation#merge(IEvaluation)}
+ * into the evaluation instances passed in.<br>
+ * <br>
+ * PLEASE NOTE: evaluation instances are copied via Java serialization, so they must be fully serializable.
+ * Use {@link org.deeplearning4j.eval.ROCSketch} instead of exact {@link org.deeplearning4j.eval.ROC} for very large
+ * datasets, to keep memory use bounded.<br>
+ * PLEASE NOTE: unlike MultiLayerNetwork.doEvaluation(), truncated BPTT segmentation of long time series isn't
+ * applied here: each minibatch is processed in a single forward pass.<br>
+ * PLEASE NOTE: for ComputationGraph, evaluation is done for the first network output only.
+ */
+@Slf4j
+public class ParallelEvaluator {
+    private static final MultiDataSet TERMINATOR = new org.nd4j.linalg.dataset.MultiDataSet();
+
+    protected final Model model;
+    protected final int workers;
+    protected final int prefetchSize;
+
+    /**
+     * Create evaluator with one worker per available processor
+     *
+     * @param model MultiLayerNetwork or ComputationGraph
+     */
+    public ParallelEvaluator(@NonNull Model model) {
+        this(model, Runtime.getRuntime().availableProcessors(), 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param model        MultiLayerNetwork or ComputationGraph
+     * @param workers      number of worker threads
+     * @param prefetchSize maximal number of minibatches waiting for workers
+     */
+    public ParallelEvaluator(@NonNull Model model, int workers, int prefetchSize) {
+        if (workers < 1)
+            throw new IllegalArgumentException("Number of workers should be positive value");
+
+        if (prefetchSize < 1)
+            throw new IllegalArgumentException("Prefetch size should be positive value");
+
+        this.model = model;
+        this.workers = workers;
+        this.prefetchSize = prefetchSize;
+    }
+
+    /**
+     * Perform evaluation using arbitrary IEvaluation instances
+     *
+     * @param iterator    data to evaluate on
+     * @param evaluations evaluation instances
+     * @return the same evaluation instances, after performing evaluation
+     */
+    public <T extends IEvaluation> T[] evaluate(@NonNull final DataSetIterator iterator, @NonNull T... evaluations) {
+        return evaluate(new Source() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public MultiDataSet next() {
+                DataSet ds = iterator.next();
+                return new org.nd4j.linalg.dataset.MultiDataSet(ds.getFeatures(), ds.getLabels(),
+                                ds.getFeaturesMaskArray(), ds.getLabelsMaskArray());
+            }
+
+            @Override
+            public boolean resetSupported() {
+                return iterator.resetSupported();
+            }
+
+            @Override
+            public void reset() {
+                iterator.reset();
+            }
+        }, evaluations);
+    }
+
+    /**
+     * Perform evaluation using arbitrary IEvaluation instances
+     *
+     * @param iterator    data to evaluate on
+     * @param evaluations evaluation instances
+     * @return the same evaluation instances, after performing evaluation
+     */
+    public <T extends IEvaluation> T[] evaluate(@NonNull final MultiDataSetIterator iterator,
+                    @NonNull T... evaluations) {
+        return evaluate(new Source() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public MultiDataSet next() {
+                return iterator.next();
+            }
+
+            @Override
+            public boolean resetSupported() {
+                return iterator.resetSupported();
+            }
+
+            @Override
+            public void reset() {
+                iterator.reset();
+            }
+        }, evaluations);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected <T extends IEvaluation> T[] evaluate(Source source, T[] evaluations) {
+        if (!source.hasNext() && source.resetSupported())
+            source.reset();
+
+        // first worker works with original instances, others get empty copies
+        IEvaluation[][] perWorker = new IEvaluation[workers][];
+        perWorker[0] = evaluations;
+        for (int w = 1; w < workers; w++) {
+            perWorker[w] = new IEvaluation[evaluations.length];
+            for (int e = 0; e < evaluations.length; e++) {
+                perWorker[w][e] = (IEvaluation) SerializationUtils.clone((Serializable) evaluations[e]);
+                perWorker[w][e].reset();
+            }
+        }
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        BlockingQueue<MultiDataSet> queue = new LinkedBlockingQueue<>(prefetchSize);
+        Integer deviceId = Nd4j.getAffinityManager().getDeviceForCurrentThread();
+
+        Worker[] threads = new Worker[workers];
+        for (int w = 0; w < workers; w++) {
+            threads[w] = new Worker(w, queue, perWorker[w], failure);
+            Nd4j.getAffinityManager().attachThreadToDevice(threads[w], deviceId);
+            threads[w].start();
+        }
+
+        try {
+            while (failure.get() == null && source.hasNext()) {
+                MultiDataSet next = source.next();
+                if (next.getFeatures() == null || next.getLabels() == null)
+                    continue;
+
+                // workers use this minibatch out of our scope
+                if (next.getFeatures(0).isAttached())
+                    next.detach();
+
+                offer(queue, next, failure);
+            }
+
+            for (int w = 0; w < workers; w++)
+                offer(queue, TERMINATOR, failure);
+
+            for (Worker thread : threads)
+                thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Worker thread : threads)
+                thread.interrupt();
+            throw new RuntimeException(e);
+        }
+
+        if (failure.get() != null) {
+            for (Worker thread : threads)
+                thread.interrupt();
+
+            Throwable t = failure.get();
+            if (t instanceof RuntimeException)
+                throw (RuntimeException) t;
+            if (t instanceof Error)
+                throw (Error) t;
+            throw new RuntimeException(t);
+        }
+
+        for (int w = 1; w < workers; w++)
+            for (int e = 0; e < evaluations.length; e++)
+                evaluations[e].merge(perWorker[w][e]);
+
+        return evaluations;
+    }
+
+    private static void offer(BlockingQueue<MultiDataSet> queue, MultiDataSet element,
+                    AtomicReference<Throwable> failure) throws InterruptedException {
+        // workers might be gone due to failure, so we don't block forever here
+        while (failure.get() == null) {
+            if (queue.offer(element, 100, TimeUnit.MILLISECONDS))
+                return;
+        }
+    }
+
+    protected interface Source {
+        boolean hasNext();
+
+        MultiDataSet next();
+
+        boolean resetSupported();
+
+        void reset();
+    }
+
+    protected class Worker extends Thread implements Runnable {
+        private final BlockingQueue<MultiDataSet> queue;
+        private final IEvaluation[] evaluations;
+        private final AtomicReference<Throwable> failure;
+
+        protected Worker(int index, BlockingQueue<MultiDataSet> queue, IEvaluation[] evaluations,
+                        AtomicReference<Throwable> failure) {
+            this.queue = queue;
+            this.evaluations = evaluations;
+            this.failure = failure;
+
+            this.setDaemon(true);
+            this.setName("ParallelEvaluator worker thread " + index);
+        }
+
+        @Override
+        public void run() {
+            try {
+                InferenceSession session = new InferenceSession(model);
+
+                while (true) {
+                    MultiDataSet next = queue.take();
+                    if (next == TERMINATOR)
+                        return;
+
+                    INDArray out = session.output(next.getFeatures(), next.getFeaturesMaskArrays())[0];
+                    INDArray labels = next.getLabels(0);
+                    INDArray labelsMask = next.getLabelsMaskArrays() == null ? null : next.getLabelsMaskArray(0);
+
+                    try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+                        for (IEvaluation evaluation : evaluations)
+                            evaluation.eval(labels, out, labelsMask);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                log.error("Evaluation worker failed", t);
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+}
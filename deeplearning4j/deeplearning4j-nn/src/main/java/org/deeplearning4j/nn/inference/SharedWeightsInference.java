@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.inference;
+
+import lombok.NonNull;
+import org.deeplearning4j.nn.api.Model;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * Thread-safe inference wrapper for MultiLayerNetwork or ComputationGraph.<br>
+ * Each calling thread gets its own {@link InferenceSession}, created on first use, while all sessions share the
+ * parameters of the source model. So N threads can run forward passes concurrently, at the memory cost of one set
+ * of weights plus N sets of activations.<br>
+ * <br>
+ * PLEASE NOTE: see {@link InferenceSession} for limitations regarding source model updates.
+ */
+public class SharedWeightsInference {
+    protected final Model model;
+    protected final ThreadLocal<InferenceSession> sessions = new ThreadLocal<>();
+
+    /**
+     * @param model source model, MultiLayerNetwork or ComputationGraph. Should be initialized.
+     */
+    public SharedWeightsInference(@NonNull Model model) {
+        this.model = model;
+    }
+
+    /**
+     * This method returns the source model
+     *
+     * @return source model
+     */
+    public Model getModel() {
+        return model;
+    }
+
+    /**
+     * This method returns inference session of the calling thread, creating it if necessary
+     *
+     * @return session for the calling thread
+     */
+    public InferenceSession getSession() {
+        InferenceSession session = sessions.get();
+        if (session == null || !session.isShared()) {
+            session = new InferenceSession(model);
+            sessions.set(session);
+        }
+
+        return session;
+    }
+
+    /**
+     * This method creates new inference session, not bound to any thread.
+     * Useful for thread pools, or for keeping RNN state per client.
+     *
+     * @return new session
+     */
+    public InferenceSession newSession() {
+        return new InferenceSession(model);
+    }
+
+    /**
+     * Calculate the output of the model within the session of the calling thread
+     *
+     * @param input model inputs, exactly one for MultiLayerNetwork
+     * @return model outputs
+     */
+    public INDArray[] output(@NonNull INDArray... input) {
+        return getSession().output(input);
+    }
+
+    /**
+     * Calculate the output of the model within the session of the calling thread
+     *
+     * @param input      model inputs, exactly one for MultiLayerNetwork
+     * @param inputMasks input masks, may be null
+     * @return model outputs
+     */
+    public INDArray[] output(@NonNull INDArray[] input, INDArray[] inputMasks) {
+        return getSession().output(input, inputMasks);
+    }
+
+    /**
+     * Convenience method for models with single output
+     *
+     * @param input model inputs, exactly one for MultiLayerNetwork
+     * @return model output
+     */
+    public INDArray outputSingle(@NonNull INDArray... input) {
+        return getSession().outputSingle(input);
+    }
+
+    /**
+     * This method drops the session of the calling thread, if any
+     */
+    public void release() {
+        sessions.remove();
+    }
+}
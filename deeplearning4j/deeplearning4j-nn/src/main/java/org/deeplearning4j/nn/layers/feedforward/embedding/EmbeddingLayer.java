@@ -21,6 +21,7 @@ import lombok.val;
 import org.nd4j.linalg.api.ops.custom.ScatterUpdate;
 import org.nd4j.linalg.primitives.Pair;
 import org.deeplearning4j.exception.DL4JInvalidInputException;
+import org.deeplearning4j.nn.api.layers.SparseGradientLayer;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
@@ -42,9 +43,12 @@ import org.deeplearning4j.nn.workspace.ArrayType;
  * @author Alex Black
  */
 @Slf4j
-public class EmbeddingLayer extends BaseLayer<org.deeplearning4j.nn.conf.layers.EmbeddingLayer> {
+public class EmbeddingLayer extends BaseLayer<org.deeplearning4j.nn.conf.layers.EmbeddingLayer>
+                implements SparseGradientLayer {
     private static final int[] DIM_1 = new int[]{1};
 
+    private final SparseRowGradients gradientRows = new SparseRowGradients();
+
     public EmbeddingLayer(NeuralNetConfiguration conf) {
         super(conf);
     }
@@ -60,15 +64,15 @@ public class EmbeddingLayer extends BaseLayer<org.deeplearning4j.nn.conf.layers.
             delta.muliColumnVector(maskArray);
         }
 
-        INDArray weightGradients = gradientViews.get(DefaultParamInitializer.WEIGHT_KEY);
-        weightGradients.assign(0);
-
         // FIXME: int cast
         int[] indexes = new int[(int) input.length()];
         for (int i = 0; i < indexes.length; i++) {
             indexes[i] = input.getInt(i, 0);
         }
 
+        INDArray weightGradients = gradientViews.get(DefaultParamInitializer.WEIGHT_KEY);
+        gradientRows.clear(weightGradients, indexes, layerConf().isSparseGradients());
+
         ScatterUpdate op = new ScatterUpdate(weightGradients, delta, indexes, DIM_1, ScatterUpdate.UpdateOp.ADD);
         Nd4j.getExecutioner().exec(op);
 
@@ -148,4 +152,31 @@ public class EmbeddingLayer extends BaseLayer<org.deeplearning4j.nn.conf.layers.
         throw new UnsupportedOperationException("Dropout not supported with EmbeddingLayer " + layerId());
     }
 
+    @Override
+    public boolean hasSparseGradient(String paramName) {
+        return layerConf().isSparseGradients() && DefaultParamInitializer.WEIGHT_KEY.equals(paramName);
+    }
+
+    @Override
+    public int[] getGradientRows(String paramName) {
+        return hasSparseGradient(paramName) ? gradientRows.getRows() : null;
+    }
+
+    @Override
+    public void gradientRowsUpdated(String paramName) {
+        if (hasSparseGradient(paramName))
+            gradientRows.updated();
+    }
+
+    @Override
+    public void invalidateGradientRows() {
+        gradientRows.invalidate();
+    }
+
+    @Override
+    public void setBackpropGradientsViewArray(INDArray gradients) {
+        super.setBackpropGradientsViewArray(gradients);
+        gradientRows.invalidate();
+    }
+
 }
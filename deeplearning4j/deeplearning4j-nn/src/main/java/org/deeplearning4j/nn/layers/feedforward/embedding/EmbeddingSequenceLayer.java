@@ -19,6 +19,7 @@ package org.deeplearning4j.nn.layers.feedforward.embedding;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.deeplearning4j.exception.DL4JInvalidInputException;
+import org.deeplearning4j.nn.api.layers.SparseGradientLayer;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
@@ -48,9 +49,12 @@ import static org.nd4j.linalg.api.shape.Shape.hasDefaultStridesForShape;
  * @author Max Pumperla
  */
 @Slf4j
-public class EmbeddingSequenceLayer extends BaseLayer<org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer> {
+public class EmbeddingSequenceLayer extends BaseLayer<org.deeplearning4j.nn.conf.layers.EmbeddingSequenceLayer>
+                implements SparseGradientLayer {
     private static final int[] WEIGHT_DIM = new int[]{1};
 
+    private final SparseRowGradients gradientRows = new SparseRowGradients();
+
     public EmbeddingSequenceLayer(NeuralNetConfiguration conf) {
         super(conf);
     }
@@ -79,7 +83,7 @@ public class EmbeddingSequenceLayer extends BaseLayer<org.deeplearning4j.nn.conf
         delta = delta.reshape('c',inputLength * numSamples, nOut);
 
         INDArray weightGradients = gradientViews.get(DefaultParamInitializer.WEIGHT_KEY);
-        weightGradients.assign(0);
+        gradientRows.clear(weightGradients, indexes, layerConf().isSparseGradients());
 
         if (!hasDefaultStridesForShape(input))
             input = workspaceMgr.dup(ArrayType.ACTIVATIONS, input, 'f');
@@ -199,6 +203,33 @@ public class EmbeddingSequenceLayer extends BaseLayer<org.deeplearning4j.nn.conf
     }
 
 
+    @Override
+    public boolean hasSparseGradient(String paramName) {
+        return layerConf().isSparseGradients() && DefaultParamInitializer.WEIGHT_KEY.equals(paramName);
+    }
+
+    @Override
+    public int[] getGradientRows(String paramName) {
+        return hasSparseGradient(paramName) ? gradientRows.getRows() : null;
+    }
+
+    @Override
+    public void gradientRowsUpdated(String paramName) {
+        if (hasSparseGradient(paramName))
+            gradientRows.updated();
+    }
+
+    @Override
+    public void invalidateGradientRows() {
+        gradientRows.invalidate();
+    }
+
+    @Override
+    public void setBackpropGradientsViewArray(INDArray gradients) {
+        super.setBackpropGradientsViewArray(gradients);
+        gradientRows.invalidate();
+    }
+
     @Override
     public Type type() {
         return Type.RECURRENT;
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.nn.layers.feedforward.embedding;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.custom.ScatterUpdate;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of the rows of the embedding weight gradient view that are (possibly) non-zero, so that only these
+ * rows have to be cleared before the next backprop, instead of the full [nIn, nOut] gradient view.
+ */
+class SparseRowGradients {
+    private static final int[] DIM_1 = new int[]{1};
+
+    private int[] rows;
+    private boolean clean = false;
+
+    /**
+     * Clear the weight gradient view, and remember the rows that are going to be touched by the given indexes
+     *
+     * @param weightGradients Weight gradient view, shape [nIn, nOut]
+     * @param indexes         Embedding indexes for the current minibatch (may contain duplicates)
+     * @param sparse          If false: the full gradient view is cleared, and no rows are tracked
+     */
+    void clear(INDArray weightGradients, int[] indexes, boolean sparse) {
+        if (sparse && clean && rows != null) {
+            //Only rows from the previous iteration may be non-zero: updates were applied to these rows only
+            if (rows.length > 0) {
+                INDArray zeros = Nd4j.zeros(rows.length, weightGradients.size(1));
+                Nd4j.getExecutioner().exec(new ScatterUpdate(weightGradients, zeros, rows, DIM_1,
+                        ScatterUpdate.UpdateOp.ASSIGN));
+            }
+        } else {
+            weightGradients.assign(0);
+        }
+
+        clean = false;
+        rows = sparse ? unique(indexes) : null;
+    }
+
+    int[] getRows() {
+        return rows;
+    }
+
+    void updated() {
+        clean = rows != null;
+    }
+
+    void invalidate() {
+        clean = false;
+    }
+
+    private static int[] unique(int[] indexes) {
+        int[] sorted = Arrays.copyOf(indexes, indexes.length);
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[i] != sorted[n - 1])
+                sorted[n++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+}
@@ -38,6 +38,7 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.api.ops.impl.transforms.TimesOneMinus;
 import org.nd4j.linalg.api.ops.impl.transforms.arithmetic.OldMulOp;
 import org.nd4j.linalg.api.shape.Shape;
+import org.nd4j.linalg.factory.Broadcast;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.primitives.Pair;
@@ -211,6 +212,14 @@ public class LSTMHelpers {
             }
         }
 
+        //Input to hidden projection (and bias) doesn't depend on the recurrent state: calculate it for all time steps
+        // with a single large GEMM, instead of one small GEMM per time step. Shape: [T*miniBatch,4*layerSize]
+        INDArray input2d = timeStepsAsRows(input, is2dInput, ArrayType.FF_WORKING_MEM, workspaceMgr);
+        INDArray inputProjection = workspaceMgr.createUninitialized(ArrayType.FF_WORKING_MEM,
+                        new long[] {input2d.size(0), inputWeights.size(1)}, 'f');
+        Nd4j.gemm(input2d, inputWeights, inputProjection, false, false, 1.0, 0.0);
+        inputProjection.addiRowVector(biases);
+
         for (int iTimeIndex = 0; iTimeIndex < timeSeriesLength; iTimeIndex++) {
             try(MemoryWorkspace ws = workspaceMgr.notifyScopeEntered(ArrayType.RNN_FF_LOOP_WORKING_MEM)) {
                 int time = iTimeIndex;
@@ -219,19 +228,17 @@ public class LSTMHelpers {
                     time = timeSeriesLength - iTimeIndex - 1;
                 }
 
-
-                INDArray miniBatchData = (is2dInput ? input : input.tensorAlongDimension(time, 1, 0)); //[Expected shape: [m,nIn]. Also deals with edge case of T=1, with 'time series' data of shape [m,nIn], equiv. to [m,nIn,1]
-                miniBatchData = Shape.toMmulCompatible(miniBatchData);
-
                 // if we're using cache here - let's create ifogActivations within cache workspace, so all views from this array will be valid in cache
                 cacheEnter(training, cacheMode, workspaceMgr);
 
-                //Calculate activations for: network input + forget, output, input modulation gates. Next 3 lines are first part of those
-                INDArray ifogActivations = miniBatchData.mmul(inputWeights); //Shape: [miniBatch,4*layerSize]
+                //Calculate activations for: network input + forget, output, input modulation gates. Input projection
+                // for this time step is copied, so only the recurrent part is left to calculate
+                INDArray ifogActivations = inputProjection.get(
+                                interval(time * miniBatchSize, (time + 1) * miniBatchSize), NDArrayIndex.all())
+                                .dup('f'); //Shape: [miniBatch,4*layerSize]
                 cacheExit(training, cacheMode, workspaceMgr);
 
                 Nd4j.gemm(prevOutputActivations, recurrentWeightsIFOG, ifogActivations, false, false, 1.0, 1.0);
-                ifogActivations.addiRowVector(biases);
 
                 INDArray inputActivations =
                         ifogActivations.get(NDArrayIndex.all(), NDArrayIndex.interval(0, hiddenLayerSize));
@@ -257,21 +264,30 @@ public class LSTMHelpers {
 
                 INDArray forgetGateActivations = ifogActivations.get(NDArrayIndex.all(),
                         NDArrayIndex.interval(hiddenLayerSize, 2 * hiddenLayerSize));
+                INDArray outputGateActivations = ifogActivations.get(NDArrayIndex.all(),
+                        NDArrayIndex.interval(2 * hiddenLayerSize, 3 * hiddenLayerSize));
+                INDArray inputModGateActivations = ifogActivations.get(NDArrayIndex.all(),
+                        NDArrayIndex.interval(3 * hiddenLayerSize, 4 * hiddenLayerSize));
+
                 if (hasPeepholeConnections) {
                     INDArray pmcellWFF = prevMemCellState.dup('f').muliRowVector(wFFTranspose);
                     l1BLAS.axpy(pmcellWFF.length(), 1.0, pmcellWFF, forgetGateActivations); //y = a*x + y i.e., forgetGateActivations.addi(pmcellWFF)
-                }
-                //Above line: treats matrix as a vector. Can only do this because we're sure both pwcelWFF and forgetGateACtivations are f order, offset 0 and have same strides
-                if (forBackprop && !sigmoidGates) {
-                    if(shouldCache(training, cacheMode, workspaceMgr)){
-                        cacheEnter(training, cacheMode, workspaceMgr);
-                        toReturn.fz[time] = forgetGateActivations.dup('f'); //Forget gate pre-out (z)
-                        cacheExit(training, cacheMode, workspaceMgr);
-                    } else {
-                        toReturn.fz[time] = workspaceMgr.dup(ArrayType.BP_WORKING_MEM, forgetGateActivations, 'f'); //Forget gate pre-out (z)
+                    //Above line: treats matrix as a vector. Can only do this because we're sure both pwcelWFF and forgetGateACtivations are f order, offset 0 and have same strides
+                    if (forBackprop && !sigmoidGates) {
+                        toReturn.fz[time] = gatePreOut(forgetGateActivations, training, cacheMode, workspaceMgr); //Forget gate pre-out (z)
+                    }
+                    gateActivationFn.getActivation(forgetGateActivations, training);
+                } else {
+                    //No peephole connections: forget, output and input modulation gates only depend on ifogActivations.
+                    // These are contiguous (f order), so all 3 gate activations are done in one op
+                    if (forBackprop && !sigmoidGates) {
+                        toReturn.fz[time] = gatePreOut(forgetGateActivations, training, cacheMode, workspaceMgr);
+                        toReturn.oz[time] = gatePreOut(outputGateActivations, training, cacheMode, workspaceMgr);
+                        toReturn.gz[time] = gatePreOut(inputModGateActivations, training, cacheMode, workspaceMgr);
                     }
+                    gateActivationFn.getActivation(ifogActivations.get(NDArrayIndex.all(),
+                            NDArrayIndex.interval(hiddenLayerSize, 4 * hiddenLayerSize)), training);
                 }
-                gateActivationFn.getActivation(forgetGateActivations, training);
 
                 if (forBackprop) {
                     if(shouldCache(training, cacheMode, workspaceMgr)){
@@ -284,18 +300,14 @@ public class LSTMHelpers {
                 }
 
 
-                INDArray inputModGateActivations = ifogActivations.get(NDArrayIndex.all(),
-                        NDArrayIndex.interval(3 * hiddenLayerSize, 4 * hiddenLayerSize));
                 if (hasPeepholeConnections) {
                     INDArray pmcellWGG = prevMemCellState.dup('f').muliRowVector(wGGTranspose);
                     l1BLAS.axpy(pmcellWGG.length(), 1.0, pmcellWGG, inputModGateActivations); //inputModGateActivations.addi(pmcellWGG)
+                    if (forBackprop && !sigmoidGates) {
+                        toReturn.gz[time] = gatePreOut(inputModGateActivations, training, cacheMode, workspaceMgr); //Input modulation gate pre-out (z)
+                    }
+                    gateActivationFn.getActivation(inputModGateActivations, training);
                 }
-                if (forBackprop && !sigmoidGates) {
-                    cacheEnter(training, cacheMode, workspaceMgr);
-                    toReturn.gz[time] = workspaceMgr.dup(ArrayType.BP_WORKING_MEM, inputModGateActivations, 'f'); //Input modulation gate pre-out (z)
-                    cacheExit(training, cacheMode, workspaceMgr);
-                }
-                gateActivationFn.getActivation(inputModGateActivations, training);
                 if (forBackprop){
                     if(shouldCache(training, cacheMode, workspaceMgr)){
                         cacheEnter(training, cacheMode, workspaceMgr);
@@ -321,18 +333,14 @@ public class LSTMHelpers {
                 }
                 l1BLAS.axpy(currentMemoryCellState.length(), 1.0, inputModMulInput, currentMemoryCellState); //currentMemoryCellState.addi(inputModMulInput)
 
-                INDArray outputGateActivations = ifogActivations.get(NDArrayIndex.all(),
-                        NDArrayIndex.interval(2 * hiddenLayerSize, 3 * hiddenLayerSize));
                 if (hasPeepholeConnections) {
                     INDArray pmcellWOO = currentMemoryCellState.dup('f').muliRowVector(wOOTranspose);
                     l1BLAS.axpy(pmcellWOO.length(), 1.0, pmcellWOO, outputGateActivations); //outputGateActivations.addi(pmcellWOO)
+                    if (forBackprop && !sigmoidGates) {
+                        toReturn.oz[time] = gatePreOut(outputGateActivations, training, cacheMode, workspaceMgr); //Output gate pre-out (z)
+                    }
+                    gateActivationFn.getActivation(outputGateActivations, training);
                 }
-                if (forBackprop && !sigmoidGates) {
-                    cacheEnter(training, cacheMode, workspaceMgr);
-                    toReturn.oz[time] = workspaceMgr.dup(ArrayType.BP_WORKING_MEM, outputGateActivations, 'f'); //Output gate activations
-                    cacheExit(training, cacheMode, workspaceMgr);
-                }
-                gateActivationFn.getActivation(outputGateActivations, training);
                 if (forBackprop) {
                     if(shouldCache(training, cacheMode, workspaceMgr)){
                         cacheEnter(training, cacheMode, workspaceMgr);
@@ -411,6 +419,38 @@ public class LSTMHelpers {
         return toReturn;
     }
 
+    /**
+     * Copy of the gate pre-output (z), for use in backprop. Placed in the cache workspace if caching is enabled
+     */
+    private static INDArray gatePreOut(INDArray gatePreOut, boolean training, CacheMode cacheMode,
+                    LayerWorkspaceMgr workspaceMgr) {
+        if (shouldCache(training, cacheMode, workspaceMgr)) {
+            cacheEnter(training, cacheMode, workspaceMgr);
+            INDArray ret = gatePreOut.dup('f');
+            cacheExit(training, cacheMode, workspaceMgr);
+            return ret;
+        }
+        return workspaceMgr.dup(ArrayType.BP_WORKING_MEM, gatePreOut, 'f');
+    }
+
+    /**
+     * Reshape time series data from [miniBatch,n,T] to 2d, [T*miniBatch,n], f order. Row (t*miniBatch + i) of the
+     * result is example i at time step t, so the rows for one time step are a contiguous interval.
+     */
+    private static INDArray timeStepsAsRows(INDArray timeSeries, boolean is2d, ArrayType arrayType,
+                    LayerWorkspaceMgr workspaceMgr) {
+        if (is2d) {
+            return Shape.toMmulCompatible(timeSeries);
+        }
+        long miniBatch = timeSeries.size(0);
+        long n = timeSeries.size(1);
+        long timeSeriesLength = timeSeries.size(2);
+        //[m,T,n] in f order has exactly the same layout as [T*m,n] in f order
+        INDArray out = workspaceMgr.createUninitialized(arrayType, new long[] {miniBatch, timeSeriesLength, n}, 'f');
+        out.assign(timeSeries.permute(0, 2, 1));
+        return out.reshape('f', timeSeriesLength * miniBatch, n);
+    }
+
     private static boolean shouldCache(boolean training, CacheMode cacheMode, LayerWorkspaceMgr workspaceMgr){
         return training && cacheMode != CacheMode.NONE && workspaceMgr.hasConfiguration(ArrayType.FF_CACHE) && workspaceMgr.isWorkspaceOpen(ArrayType.FF_CACHE);
     }
@@ -512,6 +552,15 @@ public class LSTMHelpers {
         boolean sigmoidGates = gateActivationFn instanceof ActivationSigmoid;
         IActivation afn = ((org.deeplearning4j.nn.conf.layers.BaseLayer) conf.getLayer()).getActivationFn();
 
+        //Deltas and previous hidden unit activations for all time steps, with row (t*miniBatch + i) for example i at
+        // time step t: input weight, recurrent weight and bias gradients and epsilons are calculated after the time
+        // step loop with a few large GEMMs, instead of small GEMMs for every time step.
+        //Rows are zero for time steps without contribution (TBPTT; no previous activations at t=0)
+        INDArray deltaifogAll = workspaceMgr.create(ArrayType.BP_WORKING_MEM,
+                        new long[] {timeSeriesLength * miniBatchSize, 4 * hiddenLayerSize}, 'f');
+        INDArray prevHiddenUnitActivationAll = workspaceMgr.create(ArrayType.BP_WORKING_MEM,
+                        new long[] {timeSeriesLength * miniBatchSize, hiddenLayerSize}, 'f');
+
         INDArray timeStepMaskColumn = null;
         for (long iTimeIndex = timeSeriesLength - 1; iTimeIndex >= endIdx; iTimeIndex--) {
             try(MemoryWorkspace ws = workspaceMgr.notifyScopeEntered(ArrayType.RNN_BP_LOOP_WORKING_MEM)) {
@@ -638,29 +687,13 @@ public class LSTMHelpers {
                     //Later, the deltaifogNext is used to calculate: input weight gradients, recurrent weight gradients, bias gradients
                 }
 
-                INDArray prevLayerActivationSlice =
-                        Shape.toMmulCompatible(is2dInput ? input : input.tensorAlongDimension(time, 1, 0));
-                if (iTimeIndex > 0 || prevHiddenUnitActivation != null) { //For time == 0 && no prevMemCellState, equivalent to muli by 0
-                    //Note that prevHiddenUnitActivations may be non-null at t=0 for TBPTT
-                    //Again, deltaifog_current == deltaifogNext at this point... same array
-                    Nd4j.gemm(prevLayerActivationSlice, deltaifogNext, iwGradientsOut, true, false, 1.0, 1.0);
-                } else {
-                    INDArray iwGradients_i =
-                            iwGradientsOut.get(NDArrayIndex.all(), NDArrayIndex.interval(0, hiddenLayerSize));
-                    Nd4j.gemm(prevLayerActivationSlice, deltai, iwGradients_i, true, false, 1.0, 1.0);
-                    INDArray iwGradients_og = iwGradientsOut.get(NDArrayIndex.all(),
-                            NDArrayIndex.interval(2 * hiddenLayerSize, 4 * hiddenLayerSize));
-                    INDArray deltaog = deltaifogNext.get(NDArrayIndex.all(),
-                            NDArrayIndex.interval(2 * hiddenLayerSize, 4 * hiddenLayerSize));
-                    Nd4j.gemm(prevLayerActivationSlice, deltaog, iwGradients_og, true, false, 1.0, 1.0);
-                }
-
+                INDArray deltaifogRows = deltaifogAll.get(interval(time * miniBatchSize, (time + 1) * miniBatchSize),
+                                NDArrayIndex.all());
+                deltaifogRows.assign(deltaifogNext);
                 if (iTimeIndex > 0 || prevHiddenUnitActivation != null) {
-                    //If t==0 and prevHiddenUnitActivation==null, equiv. to zeros(n^L,n^L), so dL/dW for recurrent weights
-                    // will end up as 0 anyway
-                    //At this point: deltaifog and deltaifogNext are the same thing...
-                    //So what we are actually doing here is sum of (prevAct^transpose * deltaifog_current)
-                    Nd4j.gemm(prevHiddenUnitActivation, deltaifogNext, rwGradientsIFOG, true, false, 1.0, 1.0);
+                    //Note that prevHiddenUnitActivation may be non-null at t=0 for TBPTT
+                    prevHiddenUnitActivationAll.get(interval(time * miniBatchSize, (time + 1) * miniBatchSize),
+                                    NDArrayIndex.all()).assign(prevHiddenUnitActivation);
 
                     //Shape: [1,n^L]. sum(0) is sum over examples in mini-batch.
                     //Can use axpy here because result of sum and rwGradients[4 to 6] have order Nd4j.order(), via Nd4j.create()
@@ -670,48 +703,40 @@ public class LSTMHelpers {
                         INDArray dLdwGG = deltag.dup('f').muli(prevMemCellState).sum(0);
                         l1BLAS.axpy(hiddenLayerSize, 1.0, dLdwGG, rwGradientsGG); //rwGradients[6].addi(dLdwGG);
                     }
+                } else {
+                    //For time == 0 && no prevMemCellState: no contribution from forget gate (deltafNext wasn't
+                    // calculated for this time step), and recurrent weight gradients are 0
+                    deltaifogRows.get(NDArrayIndex.all(), interval(hiddenLayerSize, 2 * hiddenLayerSize)).assign(0);
                 }
 
                 if (hasPeepholeConnections) {
                     INDArray dLdwOO = deltao.dup('f').muli(currMemCellState).sum(0); //Expected shape: [n^L,1]. sum(0) is sum over examples in mini-batch.
                     l1BLAS.axpy(hiddenLayerSize, 1.0, dLdwOO, rwGradientsOO); //rwGradients[5].addi(dLdwOO);    //dL/dw_{OOxy}
                 }
+            }
+        }
 
-                if (iTimeIndex > 0 || prevHiddenUnitActivation != null) { //For time == 0 && no prevMemCellState, equivalent to muli by 0
-                    //Note that prevHiddenUnitActivation may be non-null at t=0 for TBPTT
-                    l1BLAS.axpy(4 * hiddenLayerSize, 1.0, deltaifogNext.sum(0), bGradientsOut);
-                } else {
-                    l1BLAS.axpy(hiddenLayerSize, 1.0, deltai.sum(0), bGradientsOut.get(point(0), interval(0, hiddenLayerSize))); //bGradients_i += deltai.sum(0)
-                    INDArray ogBiasToAdd = deltaifogNext.get(NDArrayIndex.all(),
-                            NDArrayIndex.interval(2 * hiddenLayerSize, 4 * hiddenLayerSize)).sum(0);
-                    INDArray ogBiasGrad = bGradientsOut.get(NDArrayIndex.point(0),
-                            NDArrayIndex.interval(2 * hiddenLayerSize, 4 * hiddenLayerSize));
-                    l1BLAS.axpy(2 * hiddenLayerSize, 1.0, ogBiasToAdd, ogBiasGrad);
-                }
+        //Input weight gradients: sum over time steps of (prevLayerActivations^transpose * deltaifog)
+        INDArray input2d = timeStepsAsRows(input, is2dInput, ArrayType.BP_WORKING_MEM, workspaceMgr);
+        Nd4j.gemm(input2d, deltaifogAll, iwGradientsOut, true, false, 1.0, 1.0);
 
-                //Calculate epsilonNext - i.e., equiv. to what would be (w^L*(d^(Lt))^T)^T in a normal network
-                //But here, need to add 4 weights * deltas for the IFOG gates
-                INDArray epsilonNextSlice = epsilonNext.tensorAlongDimension(time, 1, 0); //This slice: f order and contiguous, due to epsilonNext being defined as f order.
-                if (iTimeIndex > 0 || prevHiddenUnitActivation != null) {
-                    //Note that prevHiddenUnitActivation may be non-null at t=0 for TBPTT
-                    Nd4j.gemm(deltaifogNext, inputWeights, epsilonNextSlice, false, true, 1.0, 1.0);
-                } else {
-                    //No contribution from forget gate at t=0
-                    INDArray wi = inputWeights.get(NDArrayIndex.all(), NDArrayIndex.interval(0, hiddenLayerSize));
-                    Nd4j.gemm(deltai, wi, epsilonNextSlice, false, true, 1.0, 1.0);
-                    INDArray deltaog = deltaifogNext.get(NDArrayIndex.all(),
-                            NDArrayIndex.interval(2 * hiddenLayerSize, 4 * hiddenLayerSize));
-                    INDArray wog = inputWeights.get(NDArrayIndex.all(),
-                            NDArrayIndex.interval(2 * hiddenLayerSize, 4 * hiddenLayerSize));
-                    Nd4j.gemm(deltaog, wog, epsilonNextSlice, false, true, 1.0, 1.0); //epsilonNextSlice.addi(deltao.mmul(woTranspose)).addi(deltag.mmul(wgTranspose));
-                }
+        //Recurrent weight gradients: sum over time steps of (prevAct^transpose * deltaifog)
+        Nd4j.gemm(prevHiddenUnitActivationAll, deltaifogAll, rwGradientsIFOG, true, false, 1.0, 1.0);
 
-                if (maskArray != null) {
-                    //Mask array is present: bidirectional RNN -> need to zero out these errors to avoid sending anything
-                    // but 0s to the layer below at this time step (for the given example)
-                    epsilonNextSlice.muliColumnVector(timeStepMaskColumn);
-                }
-            }
+        l1BLAS.axpy(4 * hiddenLayerSize, 1.0, deltaifogAll.sum(0), bGradientsOut);
+
+        //Calculate epsilonNext - i.e., equiv. to what would be (w^L*(d^(Lt))^T)^T in a normal network
+        //But here, need to add 4 weights * deltas for the IFOG gates
+        //[T*m,n^(L-1)] in f order has the same layout as [m,T,n^(L-1)] in f order
+        INDArray epsilonNext2d = workspaceMgr.createUninitialized(ArrayType.BP_WORKING_MEM,
+                        new long[] {timeSeriesLength * miniBatchSize, prevLayerSize}, 'f');
+        Nd4j.gemm(deltaifogAll, inputWeights, epsilonNext2d, false, true, 1.0, 0.0);
+        epsilonNext.assign(epsilonNext2d.reshape('f', miniBatchSize, timeSeriesLength, prevLayerSize).permute(0, 2, 1));
+
+        if (maskArray != null) {
+            //Mask array is present: bidirectional RNN -> need to zero out these errors to avoid sending anything
+            // but 0s to the layer below at this time step (for the given example)
+            Broadcast.mul(epsilonNext, maskArray, epsilonNext, 0, 2);
         }
 
         Gradient retGradient = new DefaultGradient();
@@ -764,7 +789,8 @@ public class LSTMHelpers {
 
         //Memory use during forward pass:
         //ifogActivations: nTimeSteps * [minibatch,4*layerSize] (not cached during inference fwd pass)
-        val workingMemInferencePerEx = tsLength * 4 * lstmLayer.getNOut(); //Reduced by factor of tsLength if using workspace
+        //Input projection for all time steps: nTimeSteps * [minibatch,4*layerSize], plus input as [nTimeSteps*minibatch,nIn]
+        val workingMemInferencePerEx = tsLength * (8 * lstmLayer.getNOut() + lstmLayer.getNIn()); //ifogActivations reduced by factor of tsLength if using workspace
 
         //For training, we also have
         //nTimeSteps * 5 * [minibatch, nOut] - 4 x gate pre-outs, memory cell state - may be cached
@@ -781,8 +807,10 @@ public class LSTMHelpers {
         //3 dups [minibatch, nOut] for peephole (Graves only)
         // 5xnOut (independent of minibatch size) - deltaiFog, peephole etc. Only 2 if no peephole TODO
         //6 for non-graves, 9 for graves
+        //Deltas and previous activations for all time steps: 5xnOut; input and epsilons as 2d arrays: 2xnIn
 
-        val backpropWorkingSpace = (isGraves ? 9 : 6) * tsLength * lstmLayer.getNOut();
+        val backpropWorkingSpace = (isGraves ? 9 : 6) * tsLength * lstmLayer.getNOut()
+                        + tsLength * (5 * lstmLayer.getNOut() + 2 * lstmLayer.getNIn());
 
         //TODO NO WAY TO TAKE LSTM WORKSPACE INTO ACCOUNT HERE :(
 
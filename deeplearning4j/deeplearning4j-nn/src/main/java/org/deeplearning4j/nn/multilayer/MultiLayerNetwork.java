@@ -36,6 +36,8 @@ import org.deeplearning4j.nn.api.layers.IOutputLayer;
 import org.deeplearning4j.nn.api.layers.RecurrentLayer;
 import org.deeplearning4j.nn.conf.*;
 import org.deeplearning4j.nn.conf.inputs.InputType;
+import org.deeplearning4j.nn.conf.memory.InferenceMemoryPlan;
+import org.deeplearning4j.nn.conf.memory.InferenceMemoryPlanner;
 import org.deeplearning4j.nn.conf.layers.FeedForwardLayer;
 import org.deeplearning4j.nn.conf.layers.recurrent.Bidirectional;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
@@ -126,6 +128,12 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
     protected int layerIndex; //For Layer.get/setIndex()
 
     protected transient Solver solver; //Used to call optimizers during backprop
+    /**
+     * Static memory plan for inference, see {@link #planInferenceMemory(InputType, int)}. May be null
+     */
+    @Getter
+    @Setter
+    protected transient InferenceMemoryPlan inferenceMemoryPlan;
     //Workspaces for CUDNN. Pass to LayerWorkspaceMgr for re-use in cudnn helpers
     @Getter
     protected transient Map<String,Pointer> helperWorkspaces = new HashMap<>();
@@ -1111,6 +1119,13 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         LayerWorkspaceMgr mgrEven;
         LayerWorkspaceMgr mgrOdd;
 
+        String wsWorking = WS_LAYER_WORKING_MEM;
+        WorkspaceConfiguration wsWorkingConf = WS_LAYER_WORKING_MEM_CONFIG;
+        String wsAct1 = WS_LAYER_ACT_1;
+        WorkspaceConfiguration wsAct1Conf = WS_LAYER_ACT_X_CONFIG;
+        String wsAct2 = WS_LAYER_ACT_2;
+        WorkspaceConfiguration wsAct2Conf = WS_LAYER_ACT_X_CONFIG;
+
         WorkspaceMode wsm = train ? layerWiseConfigurations.getTrainingWorkspaceMode() : layerWiseConfigurations.getInferenceWorkspaceMode();
         if(wsm == WorkspaceMode.NONE){
             mgrEven = LayerWorkspaceMgr.noWorkspaces();
@@ -1124,17 +1139,29 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                         "workspaces are disabled for the network. use getConfiguration().setTraining/InferenceWorkspaceMode(WorkspaceMode.ENABLED)");
             }
         } else {
+            //If static memory plan is available, activations and working memory go to the planned (preallocated) workspaces
+            InferenceMemoryPlan plan = inferenceMemoryPlan;
+            if(!train && plan != null && plan.isApplicable(input.size(0), Nd4j.dataType())){
+                plan.validateWorkspaces();
+                wsWorking = plan.getWorkspaceId(InferenceMemoryPlan.WS_WORKING_MEM);
+                wsWorkingConf = plan.getWorkspaceConfiguration(InferenceMemoryPlan.WS_WORKING_MEM);
+                wsAct1 = plan.getWorkspaceId(InferenceMemoryPlan.activationsWorkspace(0));
+                wsAct1Conf = plan.getWorkspaceConfiguration(InferenceMemoryPlan.activationsWorkspace(0));
+                wsAct2 = plan.getWorkspaceId(InferenceMemoryPlan.activationsWorkspace(1));
+                wsAct2Conf = plan.getWorkspaceConfiguration(InferenceMemoryPlan.activationsWorkspace(1));
+            }
+
             mgrEven = LayerWorkspaceMgr.builder()
-                    .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
-                    .with(ArrayType.ACTIVATIONS, WS_LAYER_ACT_1, WS_LAYER_ACT_X_CONFIG)
-                    .with(ArrayType.INPUT, WS_LAYER_ACT_2, WS_LAYER_ACT_X_CONFIG)            //Inputs should always be in the previous WS
+                    .with(ArrayType.FF_WORKING_MEM, wsWorking, wsWorkingConf)
+                    .with(ArrayType.ACTIVATIONS, wsAct1, wsAct1Conf)
+                    .with(ArrayType.INPUT, wsAct2, wsAct2Conf)            //Inputs should always be in the previous WS
                     .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
                     .build();
 
             mgrOdd = LayerWorkspaceMgr.builder()
-                    .with(ArrayType.FF_WORKING_MEM, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG)
-                    .with(ArrayType.ACTIVATIONS, WS_LAYER_ACT_2, WS_LAYER_ACT_X_CONFIG)
-                    .with(ArrayType.INPUT, WS_LAYER_ACT_1, WS_LAYER_ACT_X_CONFIG)            //Inputs should always be in the previous WS
+                    .with(ArrayType.FF_WORKING_MEM, wsWorking, wsWorkingConf)
+                    .with(ArrayType.ACTIVATIONS, wsAct2, wsAct2Conf)
+                    .with(ArrayType.INPUT, wsAct1, wsAct1Conf)            //Inputs should always be in the previous WS
                     .with(ArrayType.RNN_FF_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM, WS_RNN_LOOP_WORKING_MEM_CONFIG)
                     .build();
         }
@@ -1151,7 +1178,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                 //Edge case: for first layer with dropout, inputs can't be in previous workspace (as it hasn't been opened yet)
                 //Hence: put inputs in working memory
                 if(i == 0 && wsm != WorkspaceMode.NONE){
-                    mgr.setWorkspace(ArrayType.INPUT, WS_LAYER_WORKING_MEM, WS_LAYER_WORKING_MEM_CONFIG);
+                    mgr.setWorkspace(ArrayType.INPUT, wsWorking, wsWorkingConf);
                 }
 
                 try (MemoryWorkspace wsFFWorking = mgr.notifyScopeEntered(ArrayType.FF_WORKING_MEM)) { //Working memory: opened/closed once per layer
@@ -1216,7 +1243,7 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
                 //Edge case: for first layer with dropout, inputs can't be in previous workspace (as it hasn't been opened yet)
                 //Hence: put inputs in working memory -> set back to default for next use of workspace mgr
                 if(i == 0 && wsm != WorkspaceMode.NONE){
-                    mgr.setWorkspace(ArrayType.INPUT, WS_LAYER_ACT_2, WS_LAYER_ACT_X_CONFIG);            //Inputs should always be in the previous WS
+                    mgr.setWorkspace(ArrayType.INPUT, wsAct2, wsAct2Conf);            //Inputs should always be in the previous WS
                 }
             }
 
@@ -3496,6 +3523,26 @@ public class MultiLayerNetwork implements Serializable, Classifier, Layer, Neura
         return CrashReportingUtil.generateMemoryStatus(this, minibatch, inputType);
     }
 
+    /**
+     * Build a static memory plan for inference (using the layer memory reports), and use it for all subsequent
+     * output calls with minibatch size up to the planned one. Activations and working memory are then placed into
+     * workspaces that are allocated to their exact planned size on first use, instead of learning their sizes over
+     * the first iterations.
+     *
+     * @param inputType    Input type to the network. For recurrent inputs, time series length must be specified
+     * @param minibatch    Maximal minibatch size to plan memory for
+     * @return The memory plan
+     */
+    public InferenceMemoryPlan planInferenceMemory(InputType inputType, int minibatch){
+        InferenceMemoryPlan plan = InferenceMemoryPlanner.plan(layerWiseConfigurations, inputType, minibatch, Nd4j.dataType());
+        if(inferenceMemoryPlan != null){
+            //Keep workspace ids of the previous plan: its workspaces are reused, instead of being leaked
+            plan = plan.withWorkspacesOf(inferenceMemoryPlan);
+        }
+        this.inferenceMemoryPlan = plan;
+        return plan;
+    }
+
     /**
      * This method just makes sure there's no state preserved within layers
      */
@@ -24,6 +24,7 @@ import org.deeplearning4j.nn.conf.GradientNormalization;
 import org.deeplearning4j.nn.conf.layers.BaseLayer;
 import org.deeplearning4j.nn.gradient.DefaultGradient;
 import org.deeplearning4j.nn.gradient.Gradient;
+import org.deeplearning4j.optimize.api.StepFunction;
 import org.nd4j.base.Preconditions;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -60,6 +61,8 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
     protected Map<String, Trainable> layersByName;
     protected final List<UpdaterBlock> updaterBlocks;
     protected INDArray updaterStateViewArray;
+    //Blocks with row-sparse gradients, that were updated lazily during the last update call
+    protected final List<UpdaterBlock> sparseBlocks = new ArrayList<>();
 
     public BaseMultiLayerUpdater(T network) {
         this(network, null);
@@ -288,6 +291,7 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
         //Apply the updaters in blocks. This also applies LR and momentum schedules, L1 and L2
 
         workspaceMgr.assertNotOpen(ArrayType.UPDATER_WORKING_MEM, "Updater working memory");
+        sparseBlocks.clear();
         for (UpdaterBlock ub : updaterBlocks) {
             if (ub.skipDueToPretrainConfig()) {
                 //Should skip some updater blocks sometimes
@@ -298,6 +302,9 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
                 if (isExternal) {
                     //RL4J etc type case: calculate gradients in 1 net, update them in another
                     ub.updateExternalGradient(iteration, epoch, gradient.gradient(), getParams());
+                } else if (ub.updateSparse(iteration, epoch, isMiniBatch() ? batchSize : 1)) {
+                    //Row-sparse gradients (embedding layers): updated and divided by minibatch size for touched rows only
+                    sparseBlocks.add(ub);
                 } else {
                     //Standard case
                     ub.update(iteration, epoch);
@@ -315,12 +322,60 @@ public abstract class BaseMultiLayerUpdater<T extends Model> implements Updater
                 INDArray grad = getFlattenedGradientsView();
                 if(grad != null) {
                     //May be null for nets with no parameters
-                    grad.divi(batchSize);
+                    if (sparseBlocks.isEmpty()) {
+                        grad.divi(batchSize);
+                    } else {
+                        long start = 0;
+                        for (UpdaterBlock ub : sparseBlocks) {
+                            divideInterval(grad, start, ub.getParamOffsetStart(), batchSize);
+                            start = ub.getParamOffsetEnd();
+                        }
+                        divideInterval(grad, start, grad.length(), batchSize);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Apply the step function to the model parameters, once the gradient was updated via
+     * {@link #update(Gradient, int, int, int, LayerWorkspaceMgr)}.<br>
+     * Blocks with row-sparse gradients that were updated lazily are stepped for the touched rows only, all other
+     * parameters are stepped densely.
+     *
+     * @param stepFunction Step function to apply
+     * @param params       Parameters to step
+     * @param gradient     Updated gradient
+     */
+    public void step(StepFunction stepFunction, INDArray params, INDArray gradient) {
+        if (sparseBlocks.isEmpty() || params != getParams() || gradient != getFlattenedGradientsView()) {
+            stepFunction.step(params, gradient);
+            return;
+        }
+
+        long start = 0;
+        for (UpdaterBlock ub : sparseBlocks) {
+            stepInterval(stepFunction, params, gradient, start, ub.getParamOffsetStart());
+            ub.stepSparse(stepFunction);
+            start = ub.getParamOffsetEnd();
+        }
+        stepInterval(stepFunction, params, gradient, start, params.length());
+    }
+
+    private static void stepInterval(StepFunction stepFunction, INDArray params, INDArray gradient, long start, long end) {
+        if (start < end)
+            stepFunction.step(intervalOf(params, start, end), intervalOf(gradient, start, end));
+    }
+
+    private static void divideInterval(INDArray view, long start, long end, int batchSize) {
+        if (start < end)
+            intervalOf(view, start, end).divi(batchSize);
+    }
+
+    private static INDArray intervalOf(INDArray view, long start, long end) {
+        return view.get(NDArrayIndex.point(0), NDArrayIndex.interval(start, end));
+    }
+
     protected boolean isSingleLayerUpdater() {
         return false;
     }
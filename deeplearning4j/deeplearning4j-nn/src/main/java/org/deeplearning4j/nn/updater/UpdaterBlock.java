@@ -21,10 +21,13 @@ import lombok.Data;
 import lombok.val;
 import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Trainable;
+import org.deeplearning4j.nn.api.layers.SparseGradientLayer;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.conf.layers.BaseLayer;
 import org.deeplearning4j.nn.layers.FrozenLayer;
+import org.deeplearning4j.optimize.api.StepFunction;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.custom.ScatterUpdate;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.learning.GradientUpdater;
@@ -41,6 +44,8 @@ import java.util.List;
  */
 @Data
 public class UpdaterBlock {
+    private static final int[] DIM_1 = new int[]{1};
+
     private int paramOffsetStart;
     private int paramOffsetEnd;
     private int updaterViewOffsetStart;
@@ -178,6 +183,123 @@ public class UpdaterBlock {
         }
     }
 
+    /**
+     * Lazy updater application for a block with a single row-sparse parameter (see {@link SparseGradientLayer}).<br>
+     * Rows of the gradient, updater state and parameters that received a gradient are gathered into compact arrays,
+     * the updater (and L1/L2) is applied to these, the gradient is divided by the minibatch size, and results are
+     * scattered back. Gradient and updater state rows that didn't receive a gradient are left as is, so the block has
+     * to be excluded from the dense minibatch division, and stepped via {@link #stepSparse(StepFunction)}.<br>
+     * This relies on all updaters being elementwise, with updater state consisting of one or more arrays of the same
+     * shape as the parameter.
+     *
+     * @param iteration The current iteration (i.e., total number of parameter updates so far)
+     * @param epoch     The current epoch
+     * @param batchSize Minibatch size to divide the gradient by, or 1 if the gradient shouldn't be divided
+     * @return True if the update was applied, false if the block has to be updated densely
+     */
+    public boolean updateSparse(int iteration, int epoch, int batchSize) {
+        int[] rows = getSparseRows();
+        if (rows == null)
+            return false;
+
+        if (gradientUpdater == null) {
+            init();
+        }
+
+        ParamState p = layersAndVariablesInBlock.get(0);
+        INDArray param = p.getLayer().paramTable(false).get(p.getParamName());
+        long nRows = param.size(0);
+        long nCols = param.size(1);
+        long length = nRows * nCols;
+        long stateLength = updaterView == null ? 0 : updaterView.length();
+        if (stateLength % length != 0)
+            return false;
+        int numStates = (int) (stateLength / length);
+
+        if (rows.length > 0) {
+            long compactLength = rows.length * nCols;
+            INDArray gradient2d = p.getGradView().reshape('f', nRows, nCols);
+            INDArray compactGradient = Nd4j.pullRows(gradient2d, 1, rows).reshape('c', 1, compactLength);
+
+            GradientUpdater updater = gradientUpdater;
+            INDArray compactState = null;
+            INDArray[] state2d = new INDArray[numStates];
+            if (numStates > 0) {
+                compactState = Nd4j.createUninitialized(new long[]{1, numStates * compactLength}, 'c');
+                for (int i = 0; i < numStates; i++) {
+                    state2d[i] = updaterView.get(NDArrayIndex.point(0), NDArrayIndex.interval(i * length, (i + 1) * length))
+                                    .reshape('f', nRows, nCols);
+                    compactState.get(NDArrayIndex.point(0), NDArrayIndex.interval(i * compactLength, (i + 1) * compactLength))
+                                    .assign(Nd4j.pullRows(state2d[i], 1, rows).reshape('c', 1, compactLength));
+                }
+                updater = p.getLayer().getConfig().getUpdaterByParam(p.getParamName()).instantiate(compactState, false);
+            }
+
+            updater.applyUpdater(compactGradient, iteration, epoch);
+
+            INDArray compactParams = Nd4j.pullRows(p.getParamView().reshape('f', nRows, nCols), 1, rows)
+                            .reshape('c', 1, compactLength);
+            postApply(p.getLayer(), p.getParamName(), compactGradient, compactParams);
+
+            if (batchSize != 1)
+                compactGradient.divi(batchSize);
+
+            scatterRows(gradient2d, compactGradient, rows, nCols);
+            for (int i = 0; i < numStates; i++) {
+                scatterRows(state2d[i], compactState.get(NDArrayIndex.point(0),
+                                NDArrayIndex.interval(i * compactLength, (i + 1) * compactLength)), rows, nCols);
+            }
+        }
+
+        UpdaterUtils.getSparseGradientLayer(p.getLayer()).gradientRowsUpdated(p.getParamName());
+        return true;
+    }
+
+    /**
+     * Apply the given step function to the rows of the parameter that received a gradient, for a block that was
+     * updated via {@link #updateSparse(int, int, int)}. Other rows of the parameter aren't touched.
+     *
+     * @param stepFunction Step function to apply
+     */
+    public void stepSparse(StepFunction stepFunction) {
+        int[] rows = getSparseRows();
+        if (rows == null || rows.length == 0)
+            return;
+
+        ParamState p = layersAndVariablesInBlock.get(0);
+        INDArray param = p.getLayer().paramTable(false).get(p.getParamName());
+        long nRows = param.size(0);
+        long nCols = param.size(1);
+        INDArray params2d = p.getParamView().reshape('f', nRows, nCols);
+        INDArray compactParams = Nd4j.pullRows(params2d, 1, rows);
+        INDArray compactGradient = Nd4j.pullRows(p.getGradView().reshape('f', nRows, nCols), 1, rows);
+
+        stepFunction.step(compactParams, compactGradient);
+        scatterRows(params2d, compactParams, rows, nCols);
+    }
+
+    /**
+     * @return Rows that received a gradient during the last backprop, if this block holds a single row-sparse 2d
+     * parameter, null otherwise
+     */
+    private int[] getSparseRows() {
+        if (layersAndVariablesInBlock.size() != 1)
+            return null;
+
+        ParamState p = layersAndVariablesInBlock.get(0);
+        SparseGradientLayer layer = UpdaterUtils.getSparseGradientLayer(p.getLayer());
+        INDArray param = p.getLayer().paramTable(false).get(p.getParamName());
+        if (layer == null || param == null || param.rank() != 2)
+            return null;
+
+        return layer.getGradientRows(p.getParamName());
+    }
+
+    private static void scatterRows(INDArray target, INDArray compact, int[] rows, long nCols) {
+        Nd4j.getExecutioner().exec(new ScatterUpdate(target, compact.reshape('c', rows.length, nCols), rows, DIM_1,
+                        ScatterUpdate.UpdateOp.ASSIGN));
+    }
+
     /**
      * Apply L1 and L2 regularization, if necessary. Note that L1/L2 may differ for different layers in the same block
      *
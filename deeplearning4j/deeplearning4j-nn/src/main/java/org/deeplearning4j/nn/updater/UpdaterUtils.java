@@ -18,6 +18,8 @@ package org.deeplearning4j.nn.updater;
 
 import org.deeplearning4j.nn.api.Trainable;
 import org.deeplearning4j.nn.api.TrainingConfig;
+import org.deeplearning4j.nn.api.layers.SparseGradientLayer;
+import org.deeplearning4j.nn.graph.vertex.GraphVertex;
 import org.nd4j.linalg.learning.config.IUpdater;
 
 /**
@@ -37,11 +39,17 @@ public class UpdaterUtils {
         //(b) If one or more of the params are pretrainable params, they are in the same layer
         //    This last point is necessary as we don't want to modify the pretrain gradient/updater state during
         //    backprop, or modify the pretrain gradient/updater state of one layer while training another
+        //(c) Neither of the params has row-sparse gradients: these get their own updater block, so that the updater
+        //    can be applied lazily to the touched rows only
         if (!u1.equals(u2)) {
             //Different updaters or different config
             return false;
         }
 
+        if (hasSparseGradient(layer1, param1) || hasSparseGradient(layer2, param2)) {
+            return false;
+        }
+
         boolean isPretrainParam1 = l1.isPretrainParam(param1);
         boolean isPretrainParam2 = l2.isPretrainParam(param2);
         if (isPretrainParam1 || isPretrainParam2) {
@@ -53,4 +61,27 @@ public class UpdaterUtils {
 
         return true;
     }
+
+    /**
+     * @return The layer as a {@link SparseGradientLayer}, if it (or the layer in the given graph vertex) is one, null
+     * otherwise
+     */
+    public static SparseGradientLayer getSparseGradientLayer(Trainable layer) {
+        if (layer instanceof SparseGradientLayer) {
+            return (SparseGradientLayer) layer;
+        }
+        if (layer instanceof GraphVertex && ((GraphVertex) layer).hasLayer()
+                        && ((GraphVertex) layer).getLayer() instanceof SparseGradientLayer) {
+            return (SparseGradientLayer) ((GraphVertex) layer).getLayer();
+        }
+        return null;
+    }
+
+    /**
+     * @return True if the given parameter has row-sparse gradients, as per {@link SparseGradientLayer#hasSparseGradient(String)}
+     */
+    public static boolean hasSparseGradient(Trainable layer, String param) {
+        SparseGradientLayer l = getSparseGradientLayer(layer);
+        return l != null && l.hasSparseGradient(param);
+    }
 }
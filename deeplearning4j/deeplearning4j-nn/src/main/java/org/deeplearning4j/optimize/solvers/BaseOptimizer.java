@@ -21,12 +21,14 @@ import org.deeplearning4j.exception.InvalidStepException;
 import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.api.Updater;
+import org.deeplearning4j.nn.api.layers.SparseGradientLayer;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
 import org.deeplearning4j.nn.gradient.Gradient;
 import org.deeplearning4j.nn.graph.ComputationGraph;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.nn.updater.BaseMultiLayerUpdater;
 import org.deeplearning4j.nn.updater.UpdaterCreator;
 import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
 import org.deeplearning4j.nn.workspace.LayerWorkspaceMgr;
@@ -236,6 +238,9 @@ public abstract class BaseOptimizer implements ConvexOptimizer {
         }
 
 
+        //Line search may have modified gradients outside of the rows tracked by layers with row-sparse gradients
+        invalidateSparseGradients(model);
+
         //check for termination conditions based on absolute change in score
         incrementIterationCount(model, 1);
         applyConstraints(model);
@@ -350,6 +355,62 @@ public abstract class BaseOptimizer implements ConvexOptimizer {
         }
     }
 
+    /**
+     * Apply the step function to the parameters. Parameters with row-sparse gradients, that were updated lazily by the
+     * updater, are stepped for the touched rows only (see {@link BaseMultiLayerUpdater#step(StepFunction, INDArray, INDArray)})
+     *
+     * @param params   Parameters to step
+     * @param gradient Updated gradient
+     */
+    protected void stepParams(INDArray params, INDArray gradient) {
+        Object u = model instanceof ComputationGraph ? computationGraphUpdater : updater;
+        if (u instanceof BaseMultiLayerUpdater) {
+            ((BaseMultiLayerUpdater<?>) u).step(stepFunction, params, gradient);
+        } else {
+            stepFunction.step(params, gradient);
+        }
+    }
+
+    /**
+     * Notify all {@link SparseGradientLayer}s in the model that their gradient views may have been modified outside
+     * of the tracked rows, so that the full gradient views are cleared on the next backprop
+     */
+    public static void invalidateSparseGradients(Model model) {
+        for (Layer l : getLayers(model)) {
+            if (l instanceof SparseGradientLayer) {
+                ((SparseGradientLayer) l).invalidateGradientRows();
+            }
+        }
+    }
+
+    /**
+     * @return True if any of the parameters in the model has row-sparse gradients, as per
+     * {@link SparseGradientLayer#hasSparseGradient(String)}
+     */
+    public static boolean hasSparseGradients(Model model) {
+        for (Layer l : getLayers(model)) {
+            if (l instanceof SparseGradientLayer) {
+                for (String param : l.paramTable().keySet()) {
+                    if (((SparseGradientLayer) l).hasSparseGradient(param)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Layer[] getLayers(Model model) {
+        if (model instanceof MultiLayerNetwork) {
+            return ((MultiLayerNetwork) model).getLayers();
+        } else if (model instanceof ComputationGraph) {
+            return ((ComputationGraph) model).getLayers();
+        } else if (model instanceof Layer) {
+            return new Layer[] {(Layer) model};
+        }
+        return new Layer[0];
+    }
+
     public static void applyConstraints(Model model){
         int iter = getIterationCount(model);
         int epoch = getEpochCount(model);
@@ -38,6 +38,7 @@ import java.util.Collection;
  */
 @Slf4j
 public class StochasticGradientDescent extends BaseOptimizer {
+    private INDArray updates;
 
 
     public StochasticGradientDescent(NeuralNetConfiguration conf, StepFunction stepFunction,
@@ -62,12 +63,12 @@ public class StochasticGradientDescent extends BaseOptimizer {
             // and getting (possible) pending update from accumulator
             //INDArray pendingUpdate = accumulator.getUpdate();
             //stepFunction.step(params, pendingUpdate);
-            accumulator.applyUpdate(stepFunction, params, gradient.gradient());
+            accumulator.applyUpdate(stepFunction, params, getUpdatesArray(gradient.gradient()));
 
             // if there's no update available - just go on then
         } else {
             // if accumulator isn't used - we just to for direct updates application
-            stepFunction.step(params, gradient.gradient());
+            stepParams(params, gradient.gradient());
         }
 
         //Note: model.params() is always in-place for MultiLayerNetwork and ComputationGraph, hence no setParams is necessary there
@@ -87,6 +88,23 @@ public class StochasticGradientDescent extends BaseOptimizer {
         return true;
     }
 
+    /**
+     * Array to decode accumulated updates into. Layers with row-sparse gradients only clear the rows they touched
+     * before the next backprop, so for models with such layers decoded updates go into a separate array instead of
+     * the gradient view
+     */
+    protected INDArray getUpdatesArray(INDArray gradient) {
+        if (!BaseOptimizer.hasSparseGradients(model))
+            return gradient;
+
+        if (updates == null || updates.length() != gradient.length()) {
+            try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                updates = Nd4j.create(gradient.shape(), gradient.ordering());
+            }
+        }
+        return updates;
+    }
+
     @Override
     public void preProcessLine() {}
 
@@ -20,23 +20,25 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
 import org.deeplearning4j.exception.DL4JInvalidConfigException;
+import org.deeplearning4j.nn.api.Layer;
 import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.optimize.api.StepFunction;
 import org.deeplearning4j.util.ThreadUtils;
 import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
 import org.nd4j.linalg.api.memory.enums.*;
 import org.nd4j.linalg.api.ndarray.INDArray;
-import org.nd4j.linalg.compression.ThresholdCompression;
 import org.nd4j.linalg.exception.ND4JIllegalStateException;
 import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.util.AtomicThrowable;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
@@ -44,10 +46,17 @@ import java.util.concurrent.locks.ReentrantLock;
 /**
  * This GradientsAccumulator is suited for CUDA backend.
  *
+ * Optionally, updates can be encoded and published in blocks (i.e. one block per layer, see {@link #getLayerBlocks(Model, long)}):
+ * each block is encoded by the trainer thread, and handed over to a separate publisher thread, so encoding of the next block
+ * overlaps with transmission of the previous one. While waiting for its publisher, trainer decodes updates already
+ * received from other trainers, instead of doing all decoding after the barrier.
+ *
  * @author raver119@gmail.com
  */
 @Slf4j
 public class EncodedGradientsAccumulator implements GradientsAccumulator, Registerable {
+    public static final long DEFAULT_MIN_BLOCK_SIZE = 8192;
+
     protected ThreadLocal<INDArray> accumulator = new ThreadLocal<>();
 
     protected int parties;
@@ -62,6 +71,14 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
     protected int queueSize = 5;
     protected Double boundary = 1.0;
 
+    // end offsets of encoding blocks, null means the whole updates array is encoded at once
+    protected long[] blocks;
+    protected ThreadLocal<INDArray[]> blockResiduals = new ThreadLocal<>();
+    protected ThreadLocal<INDArray> pending = new ThreadLocal<>();
+    protected ThreadLocal<AtomicInteger> pendingCounter = new ThreadLocal<>();
+    protected ThreadLocal<ExecutorService> publisher = new ThreadLocal<>();
+    protected final List<ExecutorService> publishers = new CopyOnWriteArrayList<>();
+
     protected Queue<INDArray> externalSource;
 
     protected AtomicBoolean isFirst = new AtomicBoolean(false);
@@ -97,7 +114,26 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
 
     protected EncodedGradientsAccumulator(int parties, @NonNull MessageHandler handler, long initialMemory,
                     int queueSize, Double boundary) {
+        this(parties, handler, initialMemory, queueSize, boundary, null);
+    }
+
+    protected EncodedGradientsAccumulator(int parties, @NonNull MessageHandler handler, long initialMemory,
+                    int queueSize, Double boundary, long[] blocks) {
+        if (blocks != null) {
+            if (blocks.length == 0)
+                throw new DL4JInvalidConfigException("Encoding blocks should contain at least one block");
+
+            for (int i = 0; i < blocks.length; i++)
+                if (blocks[i] <= (i == 0 ? 0 : blocks[i - 1]))
+                    throw new DL4JInvalidConfigException("Encoding blocks boundaries should be positive and increasing");
+
+            if (!(handler instanceof EncodingHandler) || ((EncodingHandler) handler).getCodec() != null)
+                throw new DL4JInvalidConfigException("Blocks encoding requires EncodingHandler with threshold encoding, but got "
+                                + handler.getClass().getSimpleName() + " instead");
+        }
+
         this.parties = parties;
+        this.blocks = blocks;
         this.handler = handler;
         this.initialMemory = initialMemory;
         this.queueSize = queueSize;
@@ -124,7 +160,8 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         int curDev = Nd4j.getAffinityManager().getDeviceForCurrentThread();
 
         for (int i = 0; i < parties; i++) {
-            messages.add(new LinkedBlockingQueue<INDArray>(queueSize));
+            // each trainer might send one message per block
+            messages.add(new LinkedBlockingQueue<INDArray>(blocks == null ? queueSize : queueSize * blocks.length));
 
             // we don't want device index to step out of boundaries here
             int cDevice = numDevices > 1 ? i % numDevices : 0;
@@ -166,6 +203,70 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         return getOptimalBufferSize(model.params().length(), numWorkers, queueSize);
     }
 
+    /**
+     * This method returns optimal bufferSize for a given model, wrt max message size produced by given handler
+     *
+     * @param paramsLength
+     * @param numWorkers
+     * @param queueSize
+     * @param handler
+     * @return
+     */
+    public static long getOptimalBufferSize(long paramsLength, int numWorkers, int queueSize,
+                    @NonNull EncodingHandler handler) {
+        // we add 64kb just for future proof volatility
+        return (handler.getMaxEncodedLength(paramsLength) + 65536) * numWorkers * queueSize * 4;
+    }
+
+    /**
+     * This method returns encoding blocks aligned with layers of given model, suitable for {@link Builder#encodingBlocks(long...)}
+     *
+     * Layers with less than minBlockSize params are merged with the following layers, since encoding & sending tiny messages
+     * doesn't pay off.
+     *
+     * @param model MultiLayerNetwork or ComputationGraph
+     * @param minBlockSize minimal number of params per block
+     * @return end offsets of blocks
+     */
+    public static long[] getLayerBlocks(@NonNull Model model, long minBlockSize) {
+        Layer[] layers;
+        if (model instanceof MultiLayerNetwork)
+            layers = ((MultiLayerNetwork) model).getLayers();
+        else if (model instanceof ComputationGraph)
+            layers = ((ComputationGraph) model).getLayers();
+        else
+            throw new DL4JInvalidConfigException("Layer blocks are supported only for MultiLayerNetwork and ComputationGraph, got "
+                            + model.getClass().getSimpleName());
+
+        List<Long> ends = new ArrayList<>();
+        long start = 0;
+        long end = 0;
+        for (Layer layer : layers) {
+            end += layer.numParams();
+            if (end - start >= minBlockSize) {
+                ends.add(end);
+                start = end;
+            }
+        }
+
+        // tail goes into last block
+        if (end > start) {
+            if (ends.isEmpty())
+                ends.add(end);
+            else
+                ends.set(ends.size() - 1, end);
+        }
+
+        if (ends.isEmpty())
+            throw new DL4JInvalidConfigException("Model has no parameters");
+
+        long[] result = new long[ends.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ends.get(i);
+
+        return result;
+    }
+
     @Override
     public void fallbackToSingleConsumerMode(boolean reallyFallback) {
         if (externalSource != null && externalSource instanceof Registerable)
@@ -264,17 +365,11 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             Nd4j.getMemoryManager().memset(updates);
             //updates.assign(0.0);
 
-            int cnt = 0;
+            int cnt = applyPending(updates);
             while (!messages.get(index.get()).isEmpty()) {
                 INDArray compressed = messages.get(index.get()).poll();
 
-                int encoding = compressed.data().getInt(3);
-                if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                    Nd4j.getExecutioner().thresholdDecode(compressed, updates);
-                else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                    Nd4j.getExecutioner().bitmapDecode(compressed, updates);
-                else
-                    throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                EncodingHandler.decode(compressed, updates);
 
                 cnt++;
             }
@@ -293,23 +388,10 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
                                         .getAndActivateWorkspace(appliedConfiguration, "CGA_APPLY")) {
                             INDArray compressed_copy = compressed.unsafeDuplication(true);
 
-                            int encoding = compressed.data().getInt(3);
-                            if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                                Nd4j.getExecutioner().thresholdDecode(compressed_copy, updates);
-                            else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                                Nd4j.getExecutioner().bitmapDecode(compressed_copy, updates);
-                            else
-                                throw new DL4JInvalidConfigException(
-                                                "Unknown compression header received: " + encoding);
+                            EncodingHandler.decode(compressed_copy, updates);
                         }
                     } else {
-                        int encoding = compressed.data().getInt(3);
-                        if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                            Nd4j.getExecutioner().thresholdDecode(compressed, updates);
-                        else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                            Nd4j.getExecutioner().bitmapDecode(compressed, updates);
-                        else
-                            throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                        EncodingHandler.decode(compressed, updates);
                     }
                     cnt++;
                     ent++;
@@ -348,17 +430,11 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             Nd4j.getMemoryManager().memset(updates);
             //updates.assign(0.0);
 
-            int cnt = 0;
+            int cnt = applyPending(updates);
             while (!messages.get(index.get()).isEmpty()) {
                 INDArray compressed = messages.get(index.get()).poll();
 
-                int encoding = compressed.data().getInt(3);
-                if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                    Nd4j.getExecutioner().thresholdDecode(compressed, updates);
-                else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                    Nd4j.getExecutioner().bitmapDecode(compressed, updates);
-                else
-                    throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                EncodingHandler.decode(compressed, updates);
 
                 cnt++;
             }
@@ -377,23 +453,10 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
                         try (MemoryWorkspace workspace = Nd4j.getWorkspaceManager()
                                         .getAndActivateWorkspace(appliedConfiguration, "CGA_APPLY")) {
                             INDArray compressed_copy = compressed.unsafeDuplication(true);
-                            int encoding = compressed.data().getInt(3);
-                            if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                                Nd4j.getExecutioner().thresholdDecode(compressed_copy, updates);
-                            else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                                Nd4j.getExecutioner().bitmapDecode(compressed_copy, updates);
-                            else
-                                throw new DL4JInvalidConfigException(
-                                                "Unknown compression header received: " + encoding);
+                            EncodingHandler.decode(compressed_copy, updates);
                         }
                     } else {
-                        int encoding = compressed.data().getInt(3);
-                        if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
-                            Nd4j.getExecutioner().thresholdDecode(compressed, updates);
-                        else if (encoding == ThresholdCompression.BITMAP_ENCODING)
-                            Nd4j.getExecutioner().bitmapDecode(compressed, updates);
-                        else
-                            throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+                        EncodingHandler.decode(compressed, updates);
                     }
                     cnt++;
                     ent++;
@@ -415,6 +478,28 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         }
     }
 
+    /**
+     * This method moves updates decoded during pipelined broadcast into given updates array
+     *
+     * @return number of messages decoded so far
+     */
+    protected int applyPending(INDArray updates) {
+        if (pending.get() == null || pendingCounter.get().get() == 0)
+            return 0;
+
+        updates.addi(pending.get());
+        Nd4j.getMemoryManager().memset(pending.get());
+        return pendingCounter.get().getAndSet(0);
+    }
+
+    /**
+     * This method decodes messages available in this trainer's queue into pending updates array
+     */
+    protected void decodePending(INDArray compressed) {
+        EncodingHandler.decode(compressed, pending.get());
+        pendingCounter.get().incrementAndGet();
+    }
+
     /**
      * This method allows to pass external updates to accumulator, they will be populated across all workers using this GradientsAccumulator instance
      *
@@ -456,6 +541,11 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
     @Override
     public void storeUpdate(INDArray array) {
         try {
+            if (blocks != null) {
+                storeBlocks(array);
+                return;
+            }
+
             if (accumulator.get() == null) {
                 // we don't want accumulator to be attached to workspaces
                 try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
@@ -491,6 +581,96 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         }
     }
 
+    protected ExecutorService getPublisher() {
+        if (publisher.get() == null) {
+            final Integer deviceId = Nd4j.getAffinityManager().getDeviceForCurrentThread();
+            final int idx = index.get() == null ? publishers.size() : index.get();
+            ExecutorService service = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CGA publisher-" + idx);
+                    t.setDaemon(true);
+                    Nd4j.getAffinityManager().attachThreadToDevice(t, deviceId);
+                    return t;
+                }
+            });
+            publisher.set(service);
+            publishers.add(service);
+        }
+
+        return publisher.get();
+    }
+
+    /**
+     * This method does pipelined broadcast: blocks are encoded one by one, in backprop order, and each encoded block
+     * is published by separate thread, while next block is being encoded
+     *
+     * @param array updates
+     */
+    protected void storeBlocks(INDArray array) throws Exception {
+        long length = array.lengthLong();
+        if (blocks[blocks.length - 1] != length)
+            throw new DL4JInvalidConfigException("Encoding blocks cover " + blocks[blocks.length - 1]
+                            + " elements, but updates have length of " + length);
+
+        if (blockResiduals.get() == null) {
+            // we don't want residuals to be attached to workspaces
+            try (MemoryWorkspace workspace = Nd4j.getMemoryManager().scopeOutOfWorkspaces()) {
+                INDArray[] residuals = new INDArray[blocks.length];
+                for (int b = 0; b < blocks.length; b++)
+                    residuals[b] = Nd4j.create(1, (int) (blocks[b] - (b == 0 ? 0 : blocks[b - 1])));
+
+                blockResiduals.set(residuals);
+                pending.set(Nd4j.create(array.shape(), array.ordering()));
+                pendingCounter.set(new AtomicInteger(0));
+            }
+        }
+
+        if (!bypassMode.get())
+            while (!registered.get()) {
+                ThreadUtils.uncheckedSleep(1);
+                if (throwable.isTriggered())
+                    throw new RuntimeException(throwable.get());
+            }
+
+        final EncodingHandler encoder = (EncodingHandler) handler;
+        ExecutorService service = getPublisher();
+        List<Future<?>> futures = new ArrayList<>();
+
+        // gradients for last layers become available first during backprop, so we're going backwards here as well
+        for (int b = blocks.length - 1; b >= 0; b--) {
+            long start = b == 0 ? 0 : blocks[b - 1];
+            INDArray residual = blockResiduals.get()[b];
+            residual.addi(array.get(NDArrayIndex.point(0), NDArrayIndex.interval(start, blocks[b])));
+
+            final INDArray message = encoder.encodeBlock(residual, start, length);
+            if (message != null)
+                futures.add(service.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        encoder.sendMessage(message);
+                    }
+                }));
+        }
+
+        // while blocks are being published, we decode whatever other trainers have published already
+        BlockingQueue<INDArray> queue = messages.get(index.get());
+        for (Future<?> future : futures) {
+            while (!future.isDone()) {
+                INDArray compressed = queue.poll(1, TimeUnit.MILLISECONDS);
+                if (compressed != null)
+                    decodePending(compressed);
+
+                if (throwable.isTriggered())
+                    throw new RuntimeException(throwable.get());
+            }
+            future.get();
+        }
+
+        // we're blocking here, untill all done broadcasting updates
+        synchronize(currentConsumers.get());
+    }
+
     /**
      * This method accepts updates suitable for StepFunction and puts them to the queue, which is used in backpropagation loop
      * <p>
@@ -544,6 +724,15 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
     public void reset() {
         // just replace accumulator, gc will do the rest
         accumulator = new ThreadLocal<>();
+        blockResiduals = new ThreadLocal<>();
+        pending = new ThreadLocal<>();
+        pendingCounter = new ThreadLocal<>();
+
+        // publisher threads are bound to trainer threads, so they go away as well
+        publisher = new ThreadLocal<>();
+        for (ExecutorService service : publishers)
+            service.shutdown();
+        publishers.clear();
 
         // resetting this counter too
         workersCounter.set(0);
@@ -564,6 +753,7 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
         protected int queueSize = 5;
         protected MessageHandler handler;
         protected Double boundary = null;
+        protected long[] blocks = null;
 
         /**
          * This
@@ -634,6 +824,29 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             return this;
         }
 
+        /**
+         * This method enables pipelined encoding: updates are encoded and published in blocks, as defined by given
+         * end offsets. Last offset should be equal to number of model params.
+         *
+         * Default value: null (updates are encoded at once)
+         * @param blocks end offsets of blocks
+         * @return
+         */
+        public Builder encodingBlocks(long... blocks) {
+            this.blocks = blocks;
+            return this;
+        }
+
+        /**
+         * This method enables pipelined encoding, with blocks aligned with layers of given model
+         *
+         * @param model MultiLayerNetwork or ComputationGraph
+         * @return
+         */
+        public Builder layerBlocks(@NonNull Model model) {
+            return encodingBlocks(getLayerBlocks(model, DEFAULT_MIN_BLOCK_SIZE));
+        }
+
         public EncodedGradientsAccumulator build() {
             if (handler == null) {
                 if (boundary == null)
@@ -643,7 +856,7 @@ public class EncodedGradientsAccumulator implements GradientsAccumulator, Regist
             }
 
             EncodedGradientsAccumulator accumulator =
-                            new EncodedGradientsAccumulator(parties, handler, initialMemory, queueSize, boundary);
+                            new EncodedGradientsAccumulator(parties, handler, initialMemory, queueSize, boundary, blocks);
 
             return accumulator;
         }
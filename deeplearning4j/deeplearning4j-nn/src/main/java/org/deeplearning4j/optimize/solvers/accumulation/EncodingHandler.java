@@ -17,14 +17,20 @@
 package org.deeplearning4j.optimize.solvers.accumulation;
 
 import com.google.common.util.concurrent.AtomicDouble;
+import lombok.Getter;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.deeplearning4j.exception.DL4JInvalidConfigException;
 import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.ErrorFeedbackCompressor;
 import org.nd4j.linalg.compression.NDArrayCompressor;
+import org.nd4j.linalg.compression.ThresholdCompression;
 import org.nd4j.linalg.exception.ND4JIllegalStateException;
 import org.nd4j.linalg.factory.Nd4j;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -35,11 +41,18 @@ import java.util.concurrent.atomic.AtomicLong;
  *
  * This handler is used as basement for distributed handler though.
  *
+ * By default, updates are threshold-encoded, with fallback to bitmap encoding for dense updates.
+ * Alternatively, any ErrorFeedbackCompressor available via Nd4j.getCompressor() can be used instead, i.e. "TOPK",
+ * "STOCHASTIC_INT8" or "SIGN". Encoded messages are self-describing, see {@link #decode(INDArray, INDArray)}.
+ *
  * PLEASE NOTE: This handler does NOT provide any network connectivity. *
  * @author raver119@gmail.com
  */
 @Slf4j
 public class EncodingHandler implements MessageHandler {
+    // ErrorFeedbackCompressor instances, by format id, used for decoding only
+    private static final Map<Integer, ErrorFeedbackCompressor> decoders = new ConcurrentHashMap<>();
+
     protected transient GradientsAccumulator accumulator;
     protected double threshold, minThreshold, thresholdStep, stepTrigger;
     protected int shakeFrequency;
@@ -48,6 +61,11 @@ public class EncodingHandler implements MessageHandler {
     protected NDArrayCompressor compressor;
     protected AtomicInteger atomicBoundary = new AtomicInteger(-1);
 
+    @Getter
+    protected String codec;
+    protected Double codecParam;
+    protected ErrorFeedbackCompressor codecCompressor;
+
     protected ThreadLocal<AtomicLong> iterations = new ThreadLocal<>();
     protected ThreadLocal<AtomicLong> lastStep = new ThreadLocal<>();
     protected ThreadLocal<AtomicDouble> currentThreshold = new ThreadLocal<>();
@@ -79,6 +97,18 @@ public class EncodingHandler implements MessageHandler {
         this(threshold, threshold, 0.0, 0, 0, 0, boundary);
     }
 
+    /**
+     * This method builds new EncodingHandler instance, that uses given ErrorFeedbackCompressor instead of threshold encoding
+     *
+     * @param codec Compressor name, i.e. "TOPK", "STOCHASTIC_INT8" or "SIGN"
+     * @param codecParam Compressor configuration, i.e. fraction of elements to be sent for "TOPK". Null for compressor defaults
+     */
+    public EncodingHandler(@NonNull String codec, Double codecParam) {
+        this(1e-3);
+        this.codec = codec.toUpperCase();
+        this.codecParam = codecParam;
+    }
+
     /**
      * This method builds new EncodingHandler instance
      *
@@ -125,16 +155,100 @@ public class EncodingHandler implements MessageHandler {
             throw new ND4JIllegalStateException("Can't find Threshold compressor implementation!");
 
         compressor.configure(threshold);
+
+        if (codec != null)
+            getCodecCompressor();
     }
 
-    public INDArray encodeUpdates(INDArray updates) {
-        // special op should be called here for encoding
+    /**
+     * This method returns ErrorFeedbackCompressor instance used by this handler, or null if threshold encoding is used
+     *
+     * @return
+     */
+    protected ErrorFeedbackCompressor getCodecCompressor() {
+        if (codec == null || codecCompressor != null)
+            return codecCompressor;
+
+        NDArrayCompressor registered = Nd4j.getCompressor().getCompressor(codec);
+        if (!(registered instanceof ErrorFeedbackCompressor))
+            throw new DL4JInvalidConfigException("Compressor [" + codec
+                            + "] isn't available, or can't be used for updates encoding");
+
+        // compressors are registered as singletons, but configuration belongs to this handler
+        ErrorFeedbackCompressor instance;
+        try {
+            instance = (ErrorFeedbackCompressor) registered.getClass().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+
+        if (codecParam != null)
+            instance.configure(codecParam);
+
+        codecCompressor = instance;
+        return codecCompressor;
+    }
+
+    /**
+     * This method returns max length of encoded message (in INT elements), for updates of given length
+     *
+     * @param length
+     * @return
+     */
+    public long getMaxEncodedLength(long length) {
+        ErrorFeedbackCompressor c = getCodecCompressor();
+        return c == null ? length / 16 + 5 : c.getMaxEncodedLength(length);
+    }
+
+    /**
+     * This method decodes given message, produced by any EncodingHandler, and adds decoded updates to target array
+     *
+     * @param message encoded message
+     * @param target updates array
+     */
+    public static void decode(INDArray message, INDArray target) {
+        int encoding = message.data().getInt(3);
+        if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
+            Nd4j.getExecutioner().thresholdDecode(message, target);
+        else if (encoding == ThresholdCompression.BITMAP_ENCODING)
+            Nd4j.getExecutioner().bitmapDecode(message, target);
+        else
+            getDecoder(encoding).decode(message, target);
+    }
+
+    protected static ErrorFeedbackCompressor getDecoder(int encoding) {
+        ErrorFeedbackCompressor decoder = decoders.get(encoding);
+        if (decoder == null) {
+            for (String name : Nd4j.getCompressor().getAvailableCompressors()) {
+                NDArrayCompressor c = Nd4j.getCompressor().getCompressor(name);
+                if (c instanceof ErrorFeedbackCompressor)
+                    decoders.put(((ErrorFeedbackCompressor) c).getEncodingId(), (ErrorFeedbackCompressor) c);
+            }
+
+            decoder = decoders.get(encoding);
+            if (decoder == null)
+                throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
+        }
+
+        return decoder;
+    }
+
+    protected void initializeThread() {
         if (bitmapMode.get() == null) {
             bitmapMode.set(new AtomicBoolean(true));
             currentThreshold.set(new AtomicDouble(threshold));
             iterations.set(new AtomicLong(0));
             lastStep.set(new AtomicLong(0));
         }
+    }
+
+    public INDArray encodeUpdates(INDArray updates) {
+        // error feedback compressors are doing everything on their own
+        if (codec != null)
+            return getCodecCompressor().encode(updates);
+
+        // special op should be called here for encoding
+        initializeThread();
 
         iterations.get().incrementAndGet();
 
@@ -207,6 +321,49 @@ public class EncodingHandler implements MessageHandler {
         return encoded;
     }
 
+    /**
+     * This method encodes single contiguous block of updates, as a part of pipelined broadcast.
+     * Resulting message is regular threshold-encoded message for the whole updates array: indices are shifted by block offset,
+     * so consumers don't need to know anything about blocks.
+     *
+     * PLEASE NOTE: bitmap encoding is positional, so blocks are always threshold-encoded, with at most blockLength / 16 elements per message.
+     * Threshold decay isn't applied here either, current threshold is used as is.
+     *
+     * @param block residual updates for this block, updated in place
+     * @param offset offset of this block within updates array
+     * @param totalLength length of the whole updates array
+     * @return encoded message, or null if there's nothing to share for this block
+     */
+    public INDArray encodeBlock(INDArray block, long offset, long totalLength) {
+        if (codec != null)
+            throw new DL4JInvalidConfigException("Blocks encoding is supported only for threshold encoding, but ["
+                            + codec + "] is used");
+
+        initializeThread();
+
+        int limit = (int) Math.max(2, block.lengthLong() / 16);
+        if (boundary != null)
+            limit = Math.min(limit, Math.max(2, (int) (block.lengthLong() * boundary)));
+
+        INDArray encoded = Nd4j.getExecutioner().thresholdEncode(block, currentThreshold.get().get(), limit);
+        if (encoded == null)
+            return null;
+
+        // encoded indices are 1-based and signed, so we shift them away from zero
+        DataBuffer buffer = encoded.data();
+        int count = buffer.getInt(0);
+        int shift = (int) offset;
+        if (shift > 0)
+            for (int i = 4; i < 4 + count; i++) {
+                int e = buffer.getInt(i);
+                buffer.put(i, e > 0 ? e + shift : e - shift);
+            }
+
+        buffer.put(1, (int) totalLength);
+
+        return encoded;
+    }
+
     @Deprecated
     public INDArray decodeUpdates(INDArray message) {
         // special op should be called here for decoding
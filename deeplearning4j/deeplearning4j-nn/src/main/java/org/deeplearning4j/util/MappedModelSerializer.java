@@ -0,0 +1,483 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.util;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.BytePointer;
+import org.deeplearning4j.nn.api.Model;
+import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
+import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
+import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.graph.paging.FileBackedParameterPager;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.concurrency.AffinityManager;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Utility class to save/restore neural net models in uncompressed, page-aligned format, suited for memory mapping.<br>
+ * <br>
+ * Unlike {@link ModelSerializer}, which stores parameters as compressed zip entries, this format stores the flattened
+ * parameters (and optionally, updater state) as raw little-endian blocks aligned to {@link #ALIGNMENT} bytes.
+ * On restore, the parameter block is memory mapped and used directly as the network's flattened parameters view:
+ * no inflation, no intermediate copies, and pages are only loaded when they are actually used. Mapping is
+ * copy-on-write ({@link FileChannel.MapMode#PRIVATE}), so the model can still be trained or modified after loading,
+ * without changing the file - while unmodified pages are shared between all processes that map the same file.<br>
+ * <br>
+ * Blocks larger than 2GB can't be mapped into a single buffer, so they're read directly into a native buffer instead.
+ * <br>
+ * File layout:
+ * <pre>
+ * magic (8 bytes), version (int), model type (int), data type (UTF string),
+ * params offset (long), params length (long), updater offset (long), updater length (long),
+ * configuration json length (int), configuration json (UTF-8 bytes)
+ * padding, params block, padding, updater block
+ * </pre>
+ */
+@Slf4j
+public class MappedModelSerializer {
+    public static final byte[] MAGIC = "DL4JMMAP".getBytes(Charset.forName("UTF-8"));
+    public static final int VERSION = 1;
+    public static final int ALIGNMENT = 4096;
+
+    protected static final int TYPE_MULTILAYER = 0;
+    protected static final int TYPE_GRAPH = 1;
+
+    private static final int COPY_CHUNK_BYTES = 64 * 1024 * 1024;
+
+    private MappedModelSerializer() {}
+
+    /**
+     * Write a model to a file, in memory mappable format
+     *
+     * @param model       the model to write
+     * @param file        the file to write to
+     * @param saveUpdater whether to save the updater state or not
+     * @throws IOException
+     */
+    public static void writeModel(@NonNull Model model, @NonNull File file, boolean saveUpdater) throws IOException {
+        String json;
+        INDArray updaterState = null;
+        int modelType;
+        if (model instanceof MultiLayerNetwork) {
+            MultiLayerNetwork net = (MultiLayerNetwork) model;
+            json = net.getLayerWiseConfigurations().toJson();
+            modelType = TYPE_MULTILAYER;
+            if (saveUpdater && net.getUpdater() != null)
+                updaterState = net.getUpdater().getStateViewArray();
+        } else if (model instanceof ComputationGraph) {
+            ComputationGraph graph = (ComputationGraph) model;
+            json = graph.getConfiguration().toJson();
+            modelType = TYPE_GRAPH;
+            if (saveUpdater && graph.getUpdater() != null)
+                updaterState = graph.getUpdater().getStateViewArray();
+        } else {
+            throw new IllegalArgumentException("Only MultiLayerNetwork and ComputationGraph models are supported, got "
+                            + model.getClass().getName());
+        }
+
+        INDArray params = model.params();
+        if (updaterState != null && updaterState.length() == 0)
+            updaterState = null;
+
+        DataBuffer.Type dataType = params != null ? params.data().dataType() : Nd4j.dataType();
+        int elementSize = Nd4j.sizeOfDataType(dataType);
+        long paramsLength = params == null ? 0 : params.length();
+        long updaterLength = updaterState == null ? 0 : updaterState.length();
+
+        byte[] jsonBytes = json.getBytes(Charset.forName("UTF-8"));
+        int headerSize = headerSize(dataType, jsonBytes.length);
+        long paramsOffset = align(headerSize);
+        long updaterOffset = updaterLength == 0 ? 0 : align(paramsOffset + paramsLength * elementSize);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(headerSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.write(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(modelType);
+        dos.writeUTF(dataType.name());
+        dos.writeLong(paramsOffset);
+        dos.writeLong(paramsLength);
+        dos.writeLong(updaterOffset);
+        dos.writeLong(updaterLength);
+        dos.writeInt(jsonBytes.length);
+        dos.write(jsonBytes);
+        dos.flush();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            writeFully(channel, ByteBuffer.wrap(baos.toByteArray()), 0);
+
+            long end = headerSize;
+            if (paramsLength > 0) {
+                writeBlock(channel, params, paramsOffset);
+                end = paramsOffset + paramsLength * elementSize;
+            }
+
+            if (updaterLength > 0) {
+                if (updaterState.data().dataType() != dataType)
+                    throw new IllegalStateException("Updater state data type (" + updaterState.data().dataType()
+                                    + ") differs from parameters data type (" + dataType + ")");
+
+                writeBlock(channel, updaterState, updaterOffset);
+                end = updaterOffset + updaterLength * elementSize;
+            }
+
+            raf.setLength(end);
+        }
+    }
+
+    /**
+     * Write a model to a file path, in memory mappable format
+     *
+     * @param model       the model to write
+     * @param path        the path to write to
+     * @param saveUpdater whether to save the updater state or not
+     * @throws IOException
+     */
+    public static void writeModel(@NonNull Model model, @NonNull String path, boolean saveUpdater) throws IOException {
+        writeModel(model, new File(path), saveUpdater);
+    }
+
+    /**
+     * Check if the given file was written by {@link #writeModel(Model, File, boolean)}
+     *
+     * @param file File to check
+     * @return true if file starts with valid header
+     */
+    public static boolean isMappedModel(@NonNull File file) {
+        if (!file.isFile() || file.length() < MAGIC.length)
+            return false;
+
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            byte[] magic = new byte[MAGIC.length];
+            dis.readFully(magic);
+            return Arrays.equals(MAGIC, magic);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Load a MultiLayerNetwork from a memory mappable model file
+     *
+     * @param file        the file to load from
+     * @param loadUpdater whether to load the updater state or not. Should be false for inference-only use
+     * @return the loaded multi layer network
+     * @throws IOException
+     */
+    public static MultiLayerNetwork restoreMultiLayerNetwork(@NonNull File file, boolean loadUpdater)
+                    throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            Header header = readHeader(raf);
+            if (header.modelType != TYPE_MULTILAYER)
+                throw new IllegalStateException("Saved model appears to be a ComputationGraph - use "
+                                + "MappedModelSerializer.restoreComputationGraph instead");
+
+            MultiLayerConfiguration conf = MultiLayerConfiguration.fromJson(header.json);
+            MultiLayerNetwork network = new MultiLayerNetwork(conf);
+
+            FileChannel channel = raf.getChannel();
+            INDArray params = header.paramsLength == 0 ? null
+                            : readBlock(channel, header.dataType, header.paramsOffset, header.paramsLength);
+            network.init(params, false);
+
+            if (loadUpdater && header.updaterLength > 0) {
+                INDArray updaterState =
+                                readBlock(channel, header.dataType, header.updaterOffset, header.updaterLength);
+                network.getUpdater().setStateViewArray(network, updaterState, false);
+            }
+
+            return network;
+        }
+    }
+
+    /**
+     * Load a MultiLayerNetwork from a memory mappable model file, without updater state
+     *
+     * @param file the file to load from
+     * @return the loaded multi layer network
+     * @throws IOException
+     */
+    public static MultiLayerNetwork restoreMultiLayerNetwork(@NonNull File file) throws IOException {
+        return restoreMultiLayerNetwork(file, false);
+    }
+
+    /**
+     * Load a ComputationGraph from a memory mappable model file
+     *
+     * @param file        the file to load from
+     * @param loadUpdater whether to load the updater state or not. Should be false for inference-only use
+     * @return the loaded computation graph
+     * @throws IOException
+     */
+    public static ComputationGraph restoreComputationGraph(@NonNull File file, boolean loadUpdater) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            Header header = readHeader(raf);
+            if (header.modelType != TYPE_GRAPH)
+                throw new IllegalStateException("Saved model appears to be a MultiLayerNetwork - use "
+                                + "MappedModelSerializer.restoreMultiLayerNetwork instead");
+
+            ComputationGraphConfiguration conf = ComputationGraphConfiguration.fromJson(header.json);
+            ComputationGraph graph = new ComputationGraph(conf);
+
+            FileChannel channel = raf.getChannel();
+            INDArray params = header.paramsLength == 0 ? null
+                            : readBlock(channel, header.dataType, header.paramsOffset, header.paramsLength);
+            graph.init(params, false);
+
+            if (loadUpdater && header.updaterLength > 0) {
+                INDArray updaterState =
+                                readBlock(channel, header.dataType, header.updaterOffset, header.updaterLength);
+                graph.getUpdater().setStateViewArray(updaterState);
+            }
+
+            return graph;
+        }
+    }
+
+    /**
+     * Load a ComputationGraph from a memory mappable model file, without updater state
+     *
+     * @param file the file to load from
+     * @return the loaded computation graph
+     * @throws IOException
+     */
+    public static ComputationGraph restoreComputationGraph(@NonNull File file) throws IOException {
+        return restoreComputationGraph(file, false);
+    }
+
+    /**
+     * Load a ComputationGraph from a memory mappable model file, with parameters of each vertex loaded on demand.
+     * Parameters of a vertex are loaded when it's executed for the first time, and least recently used parameters are
+     * released once the memory budget is exceeded. See {@link FileBackedParameterPager} for details.<br>
+     * PLEASE NOTE: Returned graph is meant for inference only, and keeps the model file open until
+     * {@link FileBackedParameterPager#close()} is called on its pager.
+     *
+     * @param file             the file to load from
+     * @param maxResidentBytes memory budget for loaded parameters, in bytes
+     * @return the loaded computation graph
+     * @throws IOException
+     */
+    public static ComputationGraph restoreComputationGraphPaged(@NonNull File file, long maxResidentBytes)
+                    throws IOException {
+        FileBackedParameterPager pager = new FileBackedParameterPager(file, maxResidentBytes);
+        try {
+            if (pager.getHeader().getModelType() != TYPE_GRAPH)
+                throw new IllegalStateException("Saved model appears to be a MultiLayerNetwork - paged loading is "
+                                + "only supported for ComputationGraph");
+
+            ComputationGraphConfiguration conf = ComputationGraphConfiguration.fromJson(pager.getHeader().getJson());
+            ComputationGraph graph = new ComputationGraph(conf);
+            graph.init(pager);
+            return graph;
+        } catch (IOException | RuntimeException e) {
+            pager.close();
+            throw e;
+        }
+    }
+
+    protected static long align(long position) {
+        return ((position + ALIGNMENT - 1) / ALIGNMENT) * ALIGNMENT;
+    }
+
+    private static int headerSize(DataBuffer.Type dataType, int jsonLength) {
+        // magic, version, type, dtype (2 bytes length + ascii name), 4 longs, json length, json
+        return MAGIC.length + 4 + 4 + 2 + dataType.name().length() + 4 * 8 + 4 + jsonLength;
+    }
+
+    /**
+     * Read header of a memory mappable model file
+     *
+     * @param raf file to read from
+     * @return parsed header
+     * @throws IOException
+     */
+    public static Header readHeader(@NonNull RandomAccessFile raf) throws IOException {
+        raf.seek(0);
+        byte[] magic = new byte[MAGIC.length];
+        raf.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic))
+            throw new IllegalStateException("Not a memory mappable model file: invalid header. Use ModelSerializer "
+                            + "to restore models saved via ModelSerializer.writeModel");
+
+        Header header = new Header();
+        int version = raf.readInt();
+        if (version > VERSION)
+            throw new IllegalStateException("Unsupported model file version: " + version + ", max supported version is "
+                            + VERSION);
+
+        header.modelType = raf.readInt();
+        header.dataType = DataBuffer.Type.valueOf(raf.readUTF());
+        header.paramsOffset = raf.readLong();
+        header.paramsLength = raf.readLong();
+        header.updaterOffset = raf.readLong();
+        header.updaterLength = raf.readLong();
+        byte[] json = new byte[raf.readInt()];
+        raf.readFully(json);
+        header.json = new String(json, Charset.forName("UTF-8"));
+        return header;
+    }
+
+    private static void writeBlock(FileChannel channel, INDArray array, long position) throws IOException {
+        if (array.isView())
+            array = array.dup();
+
+        Nd4j.getAffinityManager().ensureLocation(array, AffinityManager.Location.HOST);
+
+        long totalBytes = array.length() * array.data().getElementSize();
+        BytePointer pointer = new BytePointer(array.data().addressPointer());
+        pointer.capacity(totalBytes).limit(totalBytes);
+
+        for (long done = 0; done < totalBytes; done += COPY_CHUNK_BYTES) {
+            long chunk = Math.min(COPY_CHUNK_BYTES, totalBytes - done);
+            ByteBuffer bb = pointer.position(done).limit(done + chunk).asByteBuffer().order(ByteOrder.nativeOrder());
+
+            if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN)
+                bb = toOrder(bb, array.data().dataType(), ByteOrder.LITTLE_ENDIAN);
+
+            writeFully(channel, bb, position + done);
+        }
+    }
+
+    /**
+     * Read a block of values from a memory mappable model file, as row vector. Block is mapped if possible.
+     * Values are converted to the current data type if necessary.
+     *
+     * @param channel  model file channel
+     * @param dataType data type of the values in the file
+     * @param position offset of the block, in bytes
+     * @param length   number of values to read
+     * @return row vector with the values
+     * @throws IOException
+     */
+    public static INDArray readBlock(@NonNull FileChannel channel, @NonNull DataBuffer.Type dataType, long position,
+                    long length) throws IOException {
+        int elementSize = Nd4j.sizeOfDataType(dataType);
+        long totalBytes = length * elementSize;
+        if (position + totalBytes > channel.size())
+            throw new EOFException("Model file is truncated: expected at least " + (position + totalBytes)
+                            + " bytes, got " + channel.size());
+
+        INDArray result;
+        if (totalBytes <= Integer.MAX_VALUE && ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            // data buffer pointer keeps reference to the mapped buffer, so it won't be unmapped while in use
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.PRIVATE, position, totalBytes);
+            mapped.order(ByteOrder.nativeOrder());
+            DataBuffer buffer = Nd4j.createBuffer(mapped, dataType, (int) length);
+            result = Nd4j.create(buffer, new long[] {1, length});
+        } else {
+            DataBuffer buffer = Nd4j.createBuffer(new long[] {1, length}, dataType);
+            BytePointer pointer = new BytePointer(buffer.addressPointer());
+            pointer.capacity(totalBytes).limit(totalBytes);
+
+            for (long done = 0; done < totalBytes; done += COPY_CHUNK_BYTES) {
+                long chunk = Math.min(COPY_CHUNK_BYTES, totalBytes - done);
+                ByteBuffer target = pointer.position(done).limit(done + chunk).asByteBuffer()
+                                .order(ByteOrder.nativeOrder());
+                if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+                    readFully(channel, target, position + done);
+                } else {
+                    ByteBuffer tmp = ByteBuffer.allocate((int) chunk).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(channel, tmp, position + done);
+                    tmp.flip();
+                    target.put(toOrder(tmp, dataType, ByteOrder.nativeOrder()));
+                }
+            }
+            result = Nd4j.create(buffer, new long[] {1, length});
+        }
+
+        if (dataType != Nd4j.dataType()) {
+            log.warn("Model was saved with data type {}, but current data type is {}: parameters will be converted",
+                            dataType, Nd4j.dataType());
+            result = convert(result);
+        }
+
+        return result;
+    }
+
+    private static INDArray convert(INDArray source) {
+        INDArray target = Nd4j.createUninitialized(new long[] {1, source.length()}, 'c');
+        int chunk = COPY_CHUNK_BYTES / 8;
+        for (long i = 0; i < source.length(); i += chunk) {
+            int n = (int) Math.min(chunk, source.length() - i);
+            double[] values = source.data().getDoublesAt(i, n);
+            target.get(NDArrayIndex.all(), NDArrayIndex.interval(i, i + n)).assign(Nd4j.create(values));
+        }
+        return target;
+    }
+
+    private static ByteBuffer toOrder(ByteBuffer source, DataBuffer.Type dataType, ByteOrder order) {
+        ByteBuffer result = ByteBuffer.allocate(source.remaining()).order(order);
+        switch (dataType) {
+            case DOUBLE:
+                result.asDoubleBuffer().put(source.asDoubleBuffer());
+                break;
+            case FLOAT:
+                result.asFloatBuffer().put(source.asFloatBuffer());
+                break;
+            case HALF:
+                result.asShortBuffer().put(source.asShortBuffer());
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported data type: " + dataType);
+        }
+        return result;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("Unexpected end of model file");
+            position += read;
+        }
+    }
+
+    /**
+     * Header of a memory mappable model file
+     */
+    @Getter
+    public static class Header {
+        private int modelType;
+        private DataBuffer.Type dataType;
+        private long paramsOffset;
+        private long paramsLength;
+        private long updaterOffset;
+        private long updaterLength;
+        private String json;
+    }
+}
@@ -50,6 +50,8 @@ import java.util.zip.ZipOutputStream;
 /**
  * Utility class suited to save/restore neural net models
  *
+ * See {@link MappedModelSerializer} for uncompressed, memory mappable format, suited for fast loading of large models
+ *
  * @author raver119@gmail.com
  */
 @Slf4j
@@ -18,11 +18,18 @@ package org.deeplearning4j.optimize.solvers.accumulation;
 
 import lombok.extern.slf4j.Slf4j;
 import lombok.val;
+import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.optimize.api.StepFunction;
 import org.junit.Test;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
-import static org.junit.Assert.assertTrue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
 
 /**
  * Tests for memory-related stuff in gradients accumulator
@@ -88,6 +95,148 @@ public class EncodedGradientsAccumulatorTest {
     }
 
 
+    /**
+     * Here we ensure that message encoded in blocks decodes to exactly the same updates, as message encoded at once
+     */
+    @Test
+    public void testBlockEncoding1() throws Exception {
+        int numParams = 100000;
+        INDArray gradients = getSparseGradients(numParams, 300, 1e-2, 12345);
+
+        INDArray whole = Nd4j.getExecutioner().thresholdEncode(gradients.dup(), 1e-3);
+        INDArray expected = Nd4j.create(1, numParams);
+        Nd4j.getExecutioner().thresholdDecode(whole, expected);
+
+        EncodingHandler handler = new EncodingHandler(1e-3);
+        long[] blocks = new long[] {20000, 35000, 60000, numParams};
+        INDArray actual = Nd4j.create(1, numParams);
+        for (int b = 0; b < blocks.length; b++) {
+            long start = b == 0 ? 0 : blocks[b - 1];
+            INDArray block = Nd4j.create(1, (int) (blocks[b] - start));
+            for (int i = 0; i < block.length(); i++)
+                block.putScalar(i, gradients.getDouble(start + i));
+
+            INDArray encoded = handler.encodeBlock(block, start, numParams);
+            if (encoded != null) {
+                assertEquals(numParams, encoded.data().getInt(1));
+                Nd4j.getExecutioner().thresholdDecode(encoded, actual);
+            }
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Here we ensure that pipelined accumulator applies the same updates as threshold encoding of whole residual
+     */
+    @Test
+    public void testPipelinedStore1() throws Exception {
+        int numParams = 50000;
+        long[] blocks = new long[] {10000, 20000, 45000, numParams};
+
+        EncodedGradientsAccumulator pipelined = new EncodedGradientsAccumulator.Builder(1).encodingThreshold(1e-3)
+                        .memoryParameters(EncodedGradientsAccumulator.getOptimalBufferSize(numParams, 1, 4), 4)
+                        .encodingBlocks(blocks).build();
+
+        INDArray residual = Nd4j.create(1, numParams);
+        for (int iter = 0; iter < 3; iter++) {
+            INDArray gradients = getSparseGradients(numParams, 200, 5e-3, iter);
+
+            residual.addi(gradients);
+            INDArray expected = Nd4j.create(1, numParams);
+            Nd4j.getExecutioner().thresholdDecode(Nd4j.getExecutioner().thresholdEncode(residual, 1e-3), expected);
+
+            CapturingStepFunction function = new CapturingStepFunction();
+            pipelined.touch();
+            pipelined.registerConsumers(1);
+            pipelined.storeUpdate(gradients);
+            pipelined.applyUpdate(function, Nd4j.create(1, numParams), Nd4j.create(1, numParams));
+
+            assertNotNull(function.updates);
+            assertEquals("Iteration " + iter, expected, function.updates);
+        }
+
+        pipelined.reset();
+    }
+
+    /**
+     * Here we ensure that updates encoded with ErrorFeedbackCompressor are decoded by accumulator
+     */
+    @Test
+    public void testCodecStore1() throws Exception {
+        int numParams = 10000;
+        for (String codec : new String[] {"TOPK", "STOCHASTIC_INT8", "SIGN"}) {
+            EncodingHandler handler = new EncodingHandler(codec, codec.equals("TOPK") ? 0.01 : null);
+            EncodedGradientsAccumulator accumulator = new EncodedGradientsAccumulator.Builder(1).messageHandler(handler)
+                            .memoryParameters(EncodedGradientsAccumulator.getOptimalBufferSize(numParams, 1, 4, handler), 4)
+                            .build();
+
+            INDArray gradients = getSparseGradients(numParams, 500, 5e-3, 119);
+            INDArray residual = gradients.dup();
+            INDArray expected = Nd4j.create(1, numParams);
+            EncodingHandler.decode(handler.getCodecCompressor().encode(residual), expected);
+
+            CapturingStepFunction function = new CapturingStepFunction();
+            accumulator.touch();
+            accumulator.registerConsumers(1);
+            accumulator.storeUpdate(gradients);
+            accumulator.applyUpdate(function, Nd4j.create(1, numParams), Nd4j.create(1, numParams));
+
+            assertNotNull(codec, function.updates);
+            // quantization is stochastic, so we can only check that error is below one quantization step
+            if (codec.equals("STOCHASTIC_INT8"))
+                assertTrue(codec, function.updates.sub(gradients).amaxNumber().doubleValue() <= gradients.amaxNumber()
+                                .doubleValue() / 127 * 1.0001);
+            else
+                assertEquals(codec, expected, function.updates);
+        }
+    }
+
+    @Test
+    public void testLayerBlocks1() throws Exception {
+        MultiLayerNetwork net = new MultiLayerNetwork(new NeuralNetConfiguration.Builder().list()
+                        .layer(0, new DenseLayer.Builder().nIn(100).nOut(100).build())
+                        .layer(1, new DenseLayer.Builder().nIn(100).nOut(2).build())
+                        .layer(2, new OutputLayer.Builder().nIn(2).nOut(100).build()).build());
+        net.init();
+
+        // tiny layers are merged into following ones, tail goes into last block
+        assertArrayEquals(new long[] {net.numParams()}, EncodedGradientsAccumulator.getLayerBlocks(net, 20000));
+        assertArrayEquals(new long[] {10100, net.numParams()}, EncodedGradientsAccumulator.getLayerBlocks(net, 250));
+        assertArrayEquals(new long[] {10100, 10302, net.numParams()},
+                        EncodedGradientsAccumulator.getLayerBlocks(net, 1));
+    }
+
+    protected INDArray getSparseGradients(int length, int numValues, double value, long seed) {
+        Random rng = new Random(seed);
+        INDArray grad = Nd4j.create(1, length);
+
+        for (int i = 0; i < numValues; i++) {
+            grad.putScalar(rng.nextInt(length), rng.nextBoolean() ? value : -value);
+        }
+
+        return grad;
+    }
+
+    protected static class CapturingStepFunction implements StepFunction {
+        protected INDArray updates;
+
+        @Override
+        public void step(INDArray x, INDArray line, double step) {
+            step(x, line);
+        }
+
+        @Override
+        public void step(INDArray x, INDArray line) {
+            updates = line.dup();
+        }
+
+        @Override
+        public void step() {
+            // no-op
+        }
+    }
+
     protected INDArray getGradients(int length, int numPositives, double value) {
         INDArray grad = Nd4j.create(length);
 
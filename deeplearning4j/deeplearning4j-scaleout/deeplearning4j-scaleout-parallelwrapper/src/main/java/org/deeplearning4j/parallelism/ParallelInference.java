@@ -23,22 +23,32 @@ import org.deeplearning4j.nn.api.Model;
 import org.deeplearning4j.nn.conf.ComputationGraphConfiguration;
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.graph.ComputationGraph;
+import org.deeplearning4j.nn.inference.InferenceSession;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.inference.AdaptiveBatchSizer;
+import org.deeplearning4j.parallelism.inference.InferenceLatencyListener;
 import org.deeplearning4j.parallelism.inference.InferenceMode;
 import org.deeplearning4j.parallelism.inference.InferenceObservable;
 import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObservable;
 import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObserver;
 import org.deeplearning4j.parallelism.inference.observers.BatchedInferenceObservable;
+import org.deeplearning4j.parallelism.inference.observers.FutureInferenceObserver;
+import org.deeplearning4j.parallelism.inference.queue.WorkStealingInferenceQueue;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.DataSet;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.primitives.Pair;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observer;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -57,6 +67,11 @@ public class ParallelInference {
     private int batchLimit;
     private InferenceMode inferenceMode;
     private int queueLimit;
+    private long targetLatencyNanos;
+    private boolean padSequences;
+    private InferenceLatencyListener latencyListener;
+    private boolean workStealing;
+    private boolean sharedWeights;
 
     // this queue
     private BlockingQueue<InferenceObservable> observables;
@@ -72,6 +87,7 @@ public class ParallelInference {
     public final static int DEFAULT_BATCH_LIMIT = 32;
     public final static InferenceMode DEFAULT_INFERENCE_MODE = InferenceMode.BATCHED;
     public final static int DEFAULT_QUEUE_LIMIT = 64;
+    public final static long DEFAULT_TARGET_LATENCY_MS = 100;
 
 
 
@@ -80,7 +96,12 @@ public class ParallelInference {
     }
 
     protected void init() {
-        observables = new LinkedBlockingQueue<>(queueLimit);
+        if (workStealing) {
+            // each worker gets its own lock-free buffer, total capacity stays roughly the same
+            observables = new WorkStealingInferenceQueue<>(workers, Math.max(2, queueLimit / workers));
+        } else {
+            observables = new LinkedBlockingQueue<>(queueLimit);
+        }
 
         int numDevices = Nd4j.getAffinityManager().getNumberOfDevices();
         int currentDevice = Nd4j.getAffinityManager().getDeviceForCurrentThread();
@@ -103,6 +124,10 @@ public class ParallelInference {
         if (inferenceMode == InferenceMode.BATCHED) {
             log.info("Initializing ObservablesProvider...");
             provider = new ObservablesProvider(nanos, batchLimit, observables);
+        } else if (inferenceMode == InferenceMode.ADAPTIVE) {
+            log.info("Initializing AdaptiveObservablesProvider...");
+            AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(targetLatencyNanos, batchLimit, batchLimit);
+            provider = new AdaptiveObservablesProvider(sizer, padSequences, latencyListener, observables);
         }
     }
 
@@ -110,6 +135,18 @@ public class ParallelInference {
         return zoo[workerIdx].getCounterValue();
     }
 
+    /**
+     * This method returns batch size estimator used in ADAPTIVE inference mode
+     *
+     * @return AdaptiveBatchSizer instance, or null if other inference mode is used
+     */
+    public AdaptiveBatchSizer getBatchSizer() {
+        if (provider instanceof AdaptiveObservablesProvider)
+            return ((AdaptiveObservablesProvider) provider).getSizer();
+
+        return null;
+    }
+
     /**
      * This method gracefully shuts down ParallelInference instance
      */
@@ -222,6 +259,64 @@ public class ParallelInference {
         return observable.getOutput();
     }
 
+    /**
+     * Generate predictions from the network asynchronously. Calling thread is not blocked while waiting for the output:
+     * returned future is completed by the inference worker thread.
+     *
+     * @param input Input to the network
+     * @return Future for the output from the network
+     */
+    public CompletableFuture<INDArray> outputAsync(INDArray input) {
+        return outputAsync(input, null);
+    }
+
+    /**
+     * Generate predictions from the network asynchronously, optionally using input mask
+     *
+     * @param input     Input to the network
+     * @param inputMask Input mask for the network. May be null.
+     * @return Future for the output from the network
+     */
+    public CompletableFuture<INDArray> outputAsync(INDArray input, INDArray inputMask) {
+        return outputAsync(new INDArray[]{input}, (inputMask == null ? null : new INDArray[]{inputMask}))
+                        .thenApply(out -> {
+                            if (out.length != 1) {
+                                throw new IllegalArgumentException("Network has multiple (" + out.length + ") output arrays, but only a" +
+                                        " single output can be returned using this method. Use for outputAsync(INDArray[] input, INDArray[] " +
+                                        "inputMasks) for multi-output nets");
+                            }
+                            return out[0];
+                        });
+    }
+
+    /**
+     * Generate predictions/outputs from the network asynchronously, optionally using input masks
+     *
+     * @param input      Input to the network
+     * @param inputMasks Input masks for the network. May be null.
+     * @return Future for the output from the network
+     */
+    public CompletableFuture<INDArray[]> outputAsync(INDArray[] input, INDArray[] inputMasks) {
+        FutureInferenceObserver observer = new FutureInferenceObserver();
+
+        try {
+            if (inferenceMode == InferenceMode.SEQUENTIAL) {
+                InferenceObservable observable = new BasicInferenceObservable(input, inputMasks);
+                observable.addObserver(observer);
+                observables.put(observable);
+            } else {
+                provider.setInput(observer, input, inputMasks);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            observer.getFuture().completeExceptionally(e);
+        } catch (Exception e) {
+            observer.getFuture().completeExceptionally(e);
+        }
+
+        return observer.getFuture();
+    }
+
 
     public static class Builder {
         private Model model;
@@ -229,6 +324,11 @@ public class ParallelInference {
         private int batchLimit = DEFAULT_BATCH_LIMIT;
         private InferenceMode inferenceMode = DEFAULT_INFERENCE_MODE;
         private int queueLimit = DEFAULT_QUEUE_LIMIT;
+        private long targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TARGET_LATENCY_MS);
+        private boolean padSequences = true;
+        private InferenceLatencyListener latencyListener;
+        private boolean workStealing = false;
+        private boolean sharedWeights = false;
 
         public Builder(@NonNull Model model) {
             this.model = model;
@@ -241,6 +341,8 @@ public class ParallelInference {
          * SEQUENTIAL: Input will be sent to last-used worker unmodified.
          * BATCHED: Multiple inputs will be packed into single batch, and
          * sent to last-used device.
+         * ADAPTIVE: Same as BATCHED, but batch size is adjusted on the fly, based
+         * on observed model latency and target latency. See {@link #targetLatency(long, TimeUnit)}
          *
          * @param inferenceMode
          * @return
@@ -273,7 +375,8 @@ public class ParallelInference {
          * be batched within given time frame.
          *
          * PLEASE NOTE: This value has no effect in
-         * SEQUENTIAL inference mode
+         * SEQUENTIAL inference mode. In ADAPTIVE mode
+         * this value is used as upper bound for batch size
          *
          * @param limit
          * @return
@@ -302,6 +405,96 @@ public class ParallelInference {
             return this;
         }
 
+        /**
+         * This method defines p99 latency target (queue wait + compute) per request.
+         * Batch size is adjusted to meet this target, up to batch limit.
+         *
+         * PLEASE NOTE: This value has effect only in
+         * ADAPTIVE inference mode
+         *
+         * Default value: 100 ms
+         *
+         * @param latency
+         * @param timeUnit
+         * @return
+         */
+        public Builder targetLatency(long latency, @NonNull TimeUnit timeUnit) {
+            if (latency < 1)
+                throw new IllegalStateException("Target latency should be positive value");
+
+            this.targetLatencyNanos = timeUnit.toNanos(latency);
+            return this;
+        }
+
+        /**
+         * This method defines, if time series inputs with different lengths
+         * should be padded (and masked) to be included into the same batch.
+         * Inputs are bucketed by length, so padding overhead stays bounded.
+         *
+         * PLEASE NOTE: This value has effect only in
+         * ADAPTIVE inference mode. Padding relies on masking support of the model,
+         * so it should be disabled for models that don't support masking
+         *
+         * Default value: true
+         *
+         * @param reallyPad
+         * @return
+         */
+        public Builder padSequences(boolean reallyPad) {
+            this.padSequences = reallyPad;
+            return this;
+        }
+
+        /**
+         * This method allows to set listener, that'll be notified about queue wait and compute time for each request
+         *
+         * PLEASE NOTE: This value has effect only in
+         * ADAPTIVE inference mode
+         *
+         * @param listener
+         * @return
+         */
+        public Builder latencyListener(InferenceLatencyListener listener) {
+            this.latencyListener = listener;
+            return this;
+        }
+
+        /**
+         * This method defines, if each worker should get its own lock-free request buffer,
+         * with idle workers stealing requests from other workers' buffers.
+         * If false, all workers share single LinkedBlockingQueue.
+         *
+         * PLEASE NOTE: This option is primarily suited for systems with many cores and high request rate,
+         * since idle workers spin briefly before parking
+         *
+         * Default value: false
+         *
+         * @param reallySteal
+         * @return
+         */
+        public Builder workStealing(boolean reallySteal) {
+            this.workStealing = reallySteal;
+            return this;
+        }
+
+        /**
+         * This method defines, if workers located on the same device as the model should share its parameters,
+         * instead of holding full copies of them. Each worker still gets its own layers, activations and
+         * workspaces, so forward passes run concurrently. Workers on other devices always get their own copies.
+         *
+         * PLEASE NOTE: with shared weights, in-place updates of the original model (i.e. fit()) become visible to
+         * workers, and must not be done while inference is running
+         *
+         * Default value: false
+         *
+         * @param reallyShare
+         * @return
+         */
+        public Builder sharedWeights(boolean reallyShare) {
+            this.sharedWeights = reallyShare;
+            return this;
+        }
+
         /**
          * This method builds new ParallelInference instance
          *
@@ -314,6 +507,11 @@ public class ParallelInference {
             inference.inferenceMode = this.inferenceMode;
             inference.model = this.model;
             inference.workers = this.workers;
+            inference.targetLatencyNanos = this.targetLatencyNanos;
+            inference.padSequences = this.padSequences;
+            inference.latencyListener = this.latencyListener;
+            inference.workStealing = this.workStealing;
+            inference.sharedWeights = this.sharedWeights;
 
             inference.init();
 
@@ -334,9 +532,11 @@ public class ParallelInference {
         private Model replicatedModel;
         private AtomicLong counter = new AtomicLong(0);
         private boolean rootDevice;
+        private int workerId;
 
         private InferenceWorker(int id, @NonNull Model model, @NonNull BlockingQueue inputQueue, boolean rootDevice) {
             this.inputQueue = inputQueue;
+            this.workerId = id;
             this.protoModel = model;
             this.rootDevice = rootDevice;
 
@@ -352,8 +552,16 @@ public class ParallelInference {
         @Override
         public void run() {
             try {
+                if (inputQueue instanceof WorkStealingInferenceQueue)
+                    ((WorkStealingInferenceQueue) inputQueue).registerConsumer(workerId);
+
                 // model should be replicated & initialized here
-                if (protoModel instanceof ComputationGraph) {
+                if (!rootDevice && sharedWeights && protoModel.params() != null
+                                && Nd4j.getAffinityManager().getDeviceForArray(protoModel.params())
+                                                .equals(Nd4j.getAffinityManager().getDeviceForCurrentThread())) {
+                    // same device, so we only need separate layers, parameters are used as is
+                    this.replicatedModel = InferenceSession.replicate(protoModel);
+                } else if (protoModel instanceof ComputationGraph) {
                     if (!rootDevice) {
                         this.replicatedModel = new ComputationGraph(ComputationGraphConfiguration
                                         .fromJson(((ComputationGraph) protoModel).getConfiguration().toJson()));
@@ -388,6 +596,7 @@ public class ParallelInference {
 
                     if (request != null) {
                         counter.incrementAndGet();
+                        long computeStart = System.nanoTime();
 
                         // FIXME: get rid of instanceof here, model won't change during runtime anyway
                         if (replicatedModel instanceof ComputationGraph) {
@@ -418,6 +627,8 @@ public class ParallelInference {
                             }
                         }
 
+                        if (provider instanceof AdaptiveObservablesProvider)
+                            ((AdaptiveObservablesProvider) provider).batchCompleted(request, System.nanoTime() - computeStart);
 
                     } else {
                         // just do nothing, i guess and hope for next round?
@@ -443,7 +654,7 @@ public class ParallelInference {
 
 
     protected static class ObservablesProvider {
-        private BlockingQueue<InferenceObservable> targetQueue;
+        protected BlockingQueue<InferenceObservable> targetQueue;
         private long nanos;
         private int batchLimit;
 
@@ -474,6 +685,8 @@ public class ParallelInference {
                 }
 
                 currentObservable.addInput(input, inputMask);
+                if (observer instanceof FutureInferenceObserver)
+                    ((FutureInferenceObserver) observer).setPosition(currentObservable.getPosition());
                 currentObservable.addObserver(observer);
 
                 try {
@@ -488,4 +701,100 @@ public class ParallelInference {
             }
         }
     }
+
+
+    /**
+     * This provider batches inputs with respect to batch limit estimated by {@link AdaptiveBatchSizer}.
+     * Inputs are bucketed by shape, so inputs that can't be merged don't break up each other's batches.
+     */
+    protected static class AdaptiveObservablesProvider extends ObservablesProvider {
+        private AdaptiveBatchSizer sizer;
+        private boolean padSequences;
+        private InferenceLatencyListener listener;
+
+        private final Map<String, BatchedInferenceObservable> currentObservables = new HashMap<>();
+        private final Object locker = new Object();
+
+        protected AdaptiveObservablesProvider(@NonNull AdaptiveBatchSizer sizer, boolean padSequences,
+                        InferenceLatencyListener listener, @NonNull BlockingQueue<InferenceObservable> queue) {
+            super(0L, sizer.getBatchLimit(), queue);
+            this.sizer = sizer;
+            this.padSequences = padSequences;
+            this.listener = listener;
+        }
+
+        protected AdaptiveBatchSizer getSizer() {
+            return sizer;
+        }
+
+        @Override
+        protected InferenceObservable setInput(@NonNull Observer observer, INDArray[] input, INDArray[] inputMask) {
+            String key = bucketKey(input, inputMask);
+
+            synchronized (locker) {
+                BatchedInferenceObservable currentObservable = currentObservables.get(key);
+                boolean isNew = false;
+                if (currentObservable == null || currentObservable.getNumExamples() >= sizer.getBatchLimit()
+                                || currentObservable.isLocked()) {
+                    isNew = true;
+                    currentObservable = new BatchedInferenceObservable(padSequences);
+                    currentObservables.put(key, currentObservable);
+                }
+
+                currentObservable.addInput(input, inputMask);
+                if (observer instanceof FutureInferenceObserver)
+                    ((FutureInferenceObserver) observer).setPosition(currentObservable.getPosition());
+                currentObservable.addObserver(observer);
+
+                try {
+                    if (isNew)
+                        targetQueue.put(currentObservable);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                }
+
+                return currentObservable;
+            }
+        }
+
+        /**
+         * Inputs with the same key can be merged into one batch. For time series with padding enabled, lengths are
+         * rounded up to the next power of 2, so at most half of each padded sequence is padding.
+         */
+        protected String bucketKey(INDArray[] input, INDArray[] inputMask) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < input.length; i++) {
+                long[] shape = input[i].shape().clone();
+                shape[0] = 0;
+                if (padSequences && shape.length == 3)
+                    shape[2] = Long.highestOneBit(Math.max(1, shape[2] - 1)) << 1;
+
+                sb.append(Arrays.toString(shape));
+                if (inputMask != null && inputMask[i] != null)
+                    sb.append("m").append(inputMask[i].rank());
+                sb.append(";");
+            }
+            return sb.toString();
+        }
+
+        protected void batchCompleted(@NonNull InferenceObservable observable, long computeNanos) {
+            if (!(observable instanceof BatchedInferenceObservable))
+                return;
+
+            BatchedInferenceObservable batch = (BatchedInferenceObservable) observable;
+            long dispatchTime = batch.getDispatchTime();
+            long batchSize = batch.getNumExamples();
+            long maxWait = 0;
+            for (Long enqueued : batch.getEnqueueTimes()) {
+                long wait = Math.max(0, dispatchTime - enqueued);
+                maxWait = Math.max(maxWait, wait);
+
+                if (listener != null)
+                    listener.onRequestCompleted(wait, computeNanos, batchSize);
+            }
+
+            sizer.record(batchSize, maxWait, computeNanos);
+        }
+    }
 }
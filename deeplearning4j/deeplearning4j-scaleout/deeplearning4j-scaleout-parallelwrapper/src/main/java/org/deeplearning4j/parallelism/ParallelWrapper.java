@@ -36,6 +36,7 @@ import org.deeplearning4j.nn.updater.graph.ComputationGraphUpdater;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.optimize.listeners.SharedGradient;
 import org.deeplearning4j.optimize.solvers.accumulation.EncodedGradientsAccumulator;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodingHandler;
 import org.deeplearning4j.optimize.solvers.accumulation.GradientsAccumulator;
 import org.deeplearning4j.optimize.solvers.accumulation.Registerable;
 import org.deeplearning4j.parallelism.factory.DefaultTrainerContext;
@@ -682,6 +683,9 @@ public class ParallelWrapper implements AutoCloseable {
         protected TrainerContext trainerContext = new DefaultTrainerContext();
         protected Object[] trainerContextArgs;
         protected WorkspaceMode workspaceMode = WorkspaceMode.ENABLED;
+        protected boolean pipelinedEncoding = false;
+        protected String codec;
+        protected Double codecParam;
 
         protected GradientsAccumulator accumulator;
 
@@ -815,6 +819,50 @@ public class ParallelWrapper implements AutoCloseable {
             return this;
         }
 
+        /**
+         * This method enables/disables pipelined encoding of updates for SHARED_GRADIENTS mode:
+         * updates are encoded & shared in layer-aligned blocks, so encoding overlaps with transmission and decoding.
+         *
+         * PLEASE NOTE: This method is applicable only to default accumulator, created for SHARED_GRADIENTS mode.
+         *
+         * Default value: false
+         * @param reallyPipeline
+         * @return
+         */
+        public Builder pipelinedEncoding(boolean reallyPipeline) {
+            this.pipelinedEncoding = reallyPipeline;
+            return this;
+        }
+
+        /**
+         * This method allows to use one of ErrorFeedbackCompressor implementations instead of threshold encoding for SHARED_GRADIENTS mode:
+         * "TOPK" (top-k sparsification), "STOCHASTIC_INT8" (8-bit stochastic quantization) or "SIGN" (1-bit sign encoding).
+         *
+         * PLEASE NOTE: This method is applicable only to default accumulator, created for SHARED_GRADIENTS mode.
+         *
+         * Default value: null (threshold encoding)
+         * @param codec
+         * @return
+         */
+        public Builder encodingCodec(String codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * This method allows to use one of ErrorFeedbackCompressor implementations instead of threshold encoding,
+         * with given configuration value, i.e. fraction of elements to be sent for "TOPK"
+         *
+         * @param codec
+         * @param codecParam
+         * @return
+         */
+        public Builder encodingCodec(@NonNull String codec, double codecParam) {
+            this.codec = codec;
+            this.codecParam = codecParam;
+            return this;
+        }
+
 
         /**
          * This method enables/disables averaged model score reporting
@@ -853,7 +901,21 @@ public class ParallelWrapper implements AutoCloseable {
                     this.trainerContext = new SymmetricTrainerContext();
                     if (this.accumulator == null) {
                         log.info("Creating new GradientsAccumulator instance with threshold of [5e-4");
-                        this.accumulator = new EncodedGradientsAccumulator(workers, 5e-4);
+                        if (codec != null) {
+                            if (pipelinedEncoding)
+                                throw new DL4JInvalidConfigException(
+                                                "Pipelined encoding is supported only for threshold encoding");
+
+                            EncodingHandler handler = new EncodingHandler(codec, codecParam);
+                            long memory = Math.max(100 * 1024 * 1024L, EncodedGradientsAccumulator
+                                            .getOptimalBufferSize(model.params().length(), workers, 10, handler));
+                            this.accumulator = new EncodedGradientsAccumulator.Builder(workers).messageHandler(handler)
+                                            .memoryParameters(memory, 10).build();
+                        } else if (pipelinedEncoding)
+                            this.accumulator = new EncodedGradientsAccumulator.Builder(workers).encodingThreshold(5e-4)
+                                            .memoryParameters(100 * 1024 * 1024L, 10).layerBlocks(model).build();
+                        else
+                            this.accumulator = new EncodedGradientsAccumulator(workers, 5e-4);
                     }
                 }
                     break;
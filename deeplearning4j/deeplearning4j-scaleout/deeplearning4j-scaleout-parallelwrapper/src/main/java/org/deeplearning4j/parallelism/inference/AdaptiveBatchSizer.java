@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+
+/**
+ * This class estimates the largest batch size that still meets a p99 latency target, used in
+ * {@link InferenceMode#ADAPTIVE} mode.<br>
+ * <br>
+ * For each completed batch, the number of examples and the compute time are recorded in a sliding window. Compute time
+ * is modelled as {@code overhead + perExample * batchSize} (least squares fit over the window), and the p99 of the
+ * observed/predicted ratio is used as a safety factor for the tail.<br>
+ * While a batch is being computed, the next batch is being filled - so a request may wait for up to one full batch
+ * computation before its own batch is computed. Consequently, half of the latency target is used as the compute
+ * budget for a single batch.<br>
+ * To avoid extrapolating too far from observed data, the limit can at most double relative to the largest batch size
+ * in the window.
+ */
+@Slf4j
+public class AdaptiveBatchSizer {
+    public static final int DEFAULT_WINDOW_SIZE = 128;
+    public static final int WARMUP_BATCHES = 8;
+
+    private final long targetLatencyNanos;
+    private final int maxBatchLimit;
+
+    private final long[] sizes;
+    private final long[] computeNanos;
+    private final long[] queueNanos;
+    private int position = 0;
+    private int count = 0;
+
+    private volatile int batchLimit;
+
+    /**
+     * @param targetLatencyNanos p99 end-to-end latency target (queue wait + compute), in nanoseconds
+     * @param initialBatchLimit  Batch limit to use until enough batches were observed
+     * @param maxBatchLimit      Upper bound for the batch limit
+     */
+    public AdaptiveBatchSizer(long targetLatencyNanos, int initialBatchLimit, int maxBatchLimit) {
+        this(targetLatencyNanos, initialBatchLimit, maxBatchLimit, DEFAULT_WINDOW_SIZE);
+    }
+
+    public AdaptiveBatchSizer(long targetLatencyNanos, int initialBatchLimit, int maxBatchLimit, int windowSize) {
+        if (targetLatencyNanos <= 0)
+            throw new IllegalArgumentException("Target latency should be positive value");
+        if (maxBatchLimit < 1 || initialBatchLimit < 1)
+            throw new IllegalArgumentException("Batch limits should be positive values");
+        if (windowSize < WARMUP_BATCHES)
+            throw new IllegalArgumentException("Window size should be at least " + WARMUP_BATCHES);
+
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.maxBatchLimit = maxBatchLimit;
+        this.batchLimit = Math.min(initialBatchLimit, maxBatchLimit);
+        this.sizes = new long[windowSize];
+        this.computeNanos = new long[windowSize];
+        this.queueNanos = new long[windowSize];
+    }
+
+    /**
+     * @return Current batch limit, in number of examples
+     */
+    public int getBatchLimit() {
+        return batchLimit;
+    }
+
+    /**
+     * Record a completed batch
+     *
+     * @param batchSize      Number of examples in the batch
+     * @param maxQueueNanos  Largest queue wait of any request in the batch
+     * @param batchNanos     Compute time for the batch
+     */
+    public synchronized void record(long batchSize, long maxQueueNanos, long batchNanos) {
+        if (batchSize < 1)
+            return;
+
+        sizes[position] = batchSize;
+        computeNanos[position] = batchNanos;
+        queueNanos[position] = maxQueueNanos;
+        position = (position + 1) % sizes.length;
+        count = Math.min(count + 1, sizes.length);
+
+        if (count >= WARMUP_BATCHES)
+            batchLimit = estimateLimit();
+    }
+
+    /**
+     * @param percentile Percentile, 0 to 100
+     * @return Percentile of per-batch compute time over the current window, in nanoseconds
+     */
+    public synchronized long getComputePercentile(double percentile) {
+        return percentile(computeNanos, count, percentile);
+    }
+
+    /**
+     * @param percentile Percentile, 0 to 100
+     * @return Percentile of the per-batch maximum queue wait over the current window, in nanoseconds
+     */
+    public synchronized long getQueueWaitPercentile(double percentile) {
+        return percentile(queueNanos, count, percentile);
+    }
+
+    protected int estimateLimit() {
+        double meanN = 0, meanT = 0;
+        long maxN = 0;
+        for (int i = 0; i < count; i++) {
+            meanN += sizes[i];
+            meanT += computeNanos[i];
+            maxN = Math.max(maxN, sizes[i]);
+        }
+        meanN /= count;
+        meanT /= count;
+
+        double cov = 0, var = 0;
+        for (int i = 0; i < count; i++) {
+            cov += (sizes[i] - meanN) * (computeNanos[i] - meanT);
+            var += (sizes[i] - meanN) * (sizes[i] - meanN);
+        }
+
+        double perExample;
+        double overhead;
+        if (var > 0 && cov > 0) {
+            perExample = cov / var;
+            overhead = Math.max(0.0, meanT - perExample * meanN);
+        } else {
+            // all batches had the same size, or noise dominates: assume cost is proportional to batch size
+            perExample = meanT / meanN;
+            overhead = 0.0;
+        }
+
+        double[] ratios = new double[count];
+        for (int i = 0; i < count; i++) {
+            double predicted = overhead + perExample * sizes[i];
+            ratios[i] = predicted > 0 ? computeNanos[i] / predicted : 1.0;
+        }
+        Arrays.sort(ratios);
+        double safety = Math.max(1.0, ratios[Math.min(count - 1, (int) Math.ceil(0.99 * count) - 1)]);
+
+        double budget = targetLatencyNanos / 2.0 / safety - overhead;
+        long limit = perExample > 0 ? (long) (budget / perExample) : maxBatchLimit;
+        limit = Math.min(limit, 2 * maxN);
+        limit = Math.max(1, Math.min(limit, maxBatchLimit));
+
+        if (log.isTraceEnabled())
+            log.trace("Batch limit estimate: overhead={}ns, perExample={}ns, safety={}, limit={}", (long) overhead,
+                            (long) perExample, safety, limit);
+
+        return (int) limit;
+    }
+
+    private static long percentile(long[] values, int count, double percentile) {
+        if (count == 0)
+            return 0;
+
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        int idx = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, idx))];
+    }
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference;
+
+/**
+ * Listener for per-request latency breakdown in {@link InferenceMode#ADAPTIVE} mode.<br>
+ * Note that this listener is called from inference worker threads, so implementations should be thread safe and fast.
+ */
+public interface InferenceLatencyListener {
+
+    /**
+     * Called once for each request, after the output for the request is available
+     *
+     * @param queueWaitNanos Time between the request being submitted and the batch containing it being picked up by a worker
+     * @param computeNanos   Time spent by the worker computing the output for the whole batch
+     * @param batchSize      Total number of examples in the batch this request was part of
+     */
+    void onRequestCompleted(long queueWaitNanos, long computeNanos, long batchSize);
+}
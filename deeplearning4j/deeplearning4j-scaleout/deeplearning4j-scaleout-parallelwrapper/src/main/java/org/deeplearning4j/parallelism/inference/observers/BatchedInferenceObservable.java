@@ -48,6 +48,10 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
     private AtomicInteger counter = new AtomicInteger(0);
     private ThreadLocal<Integer> position = new ThreadLocal<>();
     private List<int[]> outputBatchInputArrays = new ArrayList<>();
+    private List<Long> enqueueTimes = new ArrayList<>();
+    private boolean padSequences;
+    private volatile long dispatchTime;
+    private volatile long completionTime;
 
     private final Object locker = new Object();
 
@@ -56,7 +60,16 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
     private AtomicBoolean isReadLocked = new AtomicBoolean(false);
 
     public BatchedInferenceObservable() {
+        this(false);
+    }
 
+    /**
+     * @param padSequences If true, time series inputs (rank 3) with different lengths and/or minibatch sizes will be
+     *                     padded and merged into a single batch (with mask arrays), instead of being processed as
+     *                     separate batches. Outputs are trimmed back to each input's original length
+     */
+    public BatchedInferenceObservable(boolean padSequences) {
+        this.padSequences = padSequences;
     }
 
     @Override
@@ -64,6 +77,7 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         synchronized (locker) {
             inputs.add(input);
             this.inputMasks.add(inputMasks);
+            enqueueTimes.add(System.nanoTime());
             position.set(counter.getAndIncrement());
 
             if (isReadLocked.get())
@@ -75,6 +89,7 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
     public List<Pair<INDArray[],INDArray[]>> getInputBatches() {
         realLocker.writeLock().lock();
         isLocked.set(true);
+        dispatchTime = System.nanoTime();
 
         outputBatchInputArrays.clear();
 
@@ -90,7 +105,7 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
                 //First: determine which we can actually batch...
                 int lastPossible = pos;
                 for (int i = pos+1; i < inputs.size(); i++) {
-                    if (canBatch(inputs.get(pos), inputs.get(i))) {
+                    if (canBatch(inputs.get(pos), inputs.get(i), inputMasks.get(pos), inputMasks.get(i), padSequences)) {
                         lastPossible = i;
                     } else {
                         break;
@@ -135,7 +150,6 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         //Check if we can batch these inputs into the one array. This isn't always possible - for example, some fully
         // convolutional nets can support different input image sizes
         //For now: let's simply require that the inputs have the same shape
-        //In the future: we'll intelligently handle the RNN variable length case
         //Note also we can ignore input masks here - they should have shared dimensions with the input, thus if the
         // inputs can be batched, so can the masks
         for(int i=0; i<first.length; i++ ){
@@ -146,6 +160,42 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         return true;
     }
 
+    /**
+     * Check if the candidate input can be merged into the same batch as the first input.<br>
+     * Without padding, this requires identical shapes. With padding, only the non-minibatch dimensions need to match,
+     * except for the time dimension of time series inputs: shorter sequences are padded and masked during merging
+     * (see {@link DataSetUtil#mergeTimeSeries(INDArray[], INDArray[])})
+     */
+    public static boolean canBatch(INDArray[] first, INDArray[] candidate, INDArray[] firstMasks,
+                                   INDArray[] candidateMasks, boolean padSequences){
+        if(!padSequences)
+            return canBatch(first, candidate);
+
+        for(int i=0; i<first.length; i++ ){
+            if(first[i].rank() != candidate[i].rank())
+                return false;
+
+            //Dimension 0 is minibatch; dimension 2 of time series can be padded
+            for( int d=1; d<first[i].rank(); d++ ){
+                if(d == 2 && first[i].rank() == 3)
+                    continue;
+                if(first[i].size(d) != candidate[i].size(d))
+                    return false;
+            }
+
+            //Per-time-step masks can be merged with absent masks; per-output (3d) masks can't be mixed with 2d masks
+            int r1 = maskRank(firstMasks, i);
+            int r2 = maskRank(candidateMasks, i);
+            if(r1 > 0 && r2 > 0 && r1 != r2)
+                return false;
+        }
+        return true;
+    }
+
+    private static int maskRank(INDArray[] masks, int idx){
+        return (masks == null || masks[idx] == null) ? -1 : masks[idx].rank();
+    }
+
     @Override
     public void setOutputBatches(List<INDArray[]> output) {
         //this method should split batched output INDArray[] into multiple separate INDArrays
@@ -175,6 +225,7 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
             }
         }
 
+        completionTime = System.nanoTime();
         this.setChanged();
         notifyObservers();
     }
@@ -190,10 +241,26 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
             for(int i=1; i<indices.length; i++ ){
                 indices[i] = NDArrayIndex.all();
             }
+            //If time series inputs were padded, we need to trim the (padded) time series outputs back to the original length
+            long maxLength = -1;
+            if(padSequences && netOutput.rank() == 3 && inputs.get(firstInputComponent)[0].rank() == 3){
+                for( int inNum = 0; inNum < numSplits; inNum++ ){
+                    maxLength = Math.max(maxLength, inputs.get(firstInputComponent + inNum)[0].size(2));
+                }
+                if(netOutput.size(2) != maxLength){
+                    //Output length differs from input length (for example: 1d convolution without same mode)
+                    maxLength = -1;
+                }
+            }
+
             int examplesSoFar = 0;
             for( int inNum = 0; inNum < numSplits; inNum++ ){
-                val inSizeEx = inputs.get(firstInputComponent + inNum)[0].size(0);
+                INDArray in = inputs.get(firstInputComponent + inNum)[0];
+                val inSizeEx = in.size(0);
                 indices[0] = NDArrayIndex.interval(examplesSoFar, examplesSoFar+inSizeEx);
+                if(maxLength > 0){
+                    indices[2] = NDArrayIndex.interval(0, in.size(2));
+                }
                 out[inNum] = netOutput.get(indices);
                 examplesSoFar += inSizeEx;
             }
@@ -222,6 +289,41 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
         return counter.get();
     }
 
+    /**
+     * @return Total number of examples (sum of minibatch sizes of the first input) across all inputs in this batch
+     */
+    public long getNumExamples() {
+        synchronized (locker) {
+            long count = 0;
+            for (INDArray[] in : inputs)
+                count += in[0].size(0);
+            return count;
+        }
+    }
+
+    /**
+     * @return System.nanoTime() values at which each input was added to this batch, in order of addition
+     */
+    public List<Long> getEnqueueTimes() {
+        synchronized (locker) {
+            return new ArrayList<>(enqueueTimes);
+        }
+    }
+
+    /**
+     * @return System.nanoTime() value at which the batch was handed to a worker, or 0 if not yet dispatched
+     */
+    public long getDispatchTime() {
+        return dispatchTime;
+    }
+
+    /**
+     * @return System.nanoTime() value at which the outputs were set, or 0 if not yet completed
+     */
+    public long getCompletionTime() {
+        return completionTime;
+    }
+
 
 
     public boolean isLocked() {
@@ -236,10 +338,28 @@ public class BatchedInferenceObservable extends BasicInferenceObservable impleme
     }
 
 
+    /**
+     * @return Position of the last input added to this batch by the calling thread
+     */
+    public int getPosition() {
+        Integer pos = position.get();
+        return pos == null ? -1 : pos;
+    }
+
     @Override
     public INDArray[] getOutput() {
         // basically we should take care of splits here: each client should get its own part of output, wrt order number
+        return getOutput(position.get());
+    }
+
+    /**
+     * This method returns output for the input at the specified position, regardless of calling thread
+     *
+     * @param position Position of the input within this batch
+     * @return
+     */
+    public INDArray[] getOutput(int position) {
         checkOutputException();
-        return outputs.get(position.get());
+        return outputs.get(position);
     }
 }
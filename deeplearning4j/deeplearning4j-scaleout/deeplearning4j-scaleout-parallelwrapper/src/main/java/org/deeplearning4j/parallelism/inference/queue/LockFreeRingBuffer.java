@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference.queue;
+
+import lombok.NonNull;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free ring buffer, based on per-slot sequence numbers (D. Vyukov's bounded queue).<br>
+ * Any number of threads can offer and poll concurrently: producers and consumers only contend on a single CAS
+ * of the tail or head counter respectively, and never block each other.<br>
+ * Multiple consumers are supported so that idle workers can steal work from other workers' buffers.<br>
+ * Elements can also be removed from the middle of the buffer via {@link #iterator()}: removed slot is marked, and
+ * skipped by consumers later.
+ */
+public class LockFreeRingBuffer<T> {
+    // marks elements removed via iterator
+    private static final Object REMOVED = new Object();
+
+    private final int mask;
+    private final AtomicReferenceArray<Object> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * @param capacity Minimal capacity of the buffer. Will be rounded up to the next power of 2
+     */
+    public LockFreeRingBuffer(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity should be positive value");
+
+        int size = capacity == 1 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /**
+     * @return Actual capacity of this buffer
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Add element to the buffer, if there is space for it
+     *
+     * @param element
+     * @return true if element was added, false if buffer is full
+     */
+    public boolean offer(@NonNull T element) {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer.set(idx, element);
+                    sequences.lazySet(idx, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // slot wasn't consumed yet since previous lap: buffer is full
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Remove element from the buffer
+     *
+     * @return element, or null if buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    // getAndSet, so that concurrent removal via iterator either gets the element, or we do
+                    Object element = buffer.getAndSet(idx, null);
+                    sequences.lazySet(idx, pos + mask + 1);
+                    if (element != REMOVED)
+                        return (T) element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                // slot wasn't published yet: buffer is empty
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * @return Approximate number of elements in the buffer
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return Element at the head of the buffer, without removing it, or null if buffer is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        while (true) {
+            long pos = head.get();
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff < 0)
+                return null;
+
+            if (diff == 0) {
+                Object element = buffer.get(idx);
+                if (element == REMOVED) {
+                    // consume removed element, so that it doesn't hide the next one
+                    if (head.compareAndSet(pos, pos + 1)) {
+                        buffer.getAndSet(idx, null);
+                        sequences.lazySet(idx, pos + mask + 1);
+                    }
+                } else if (element != null && head.get() == pos) {
+                    return (T) element;
+                }
+            }
+        }
+    }
+
+    /**
+     * Weakly consistent iterator: it returns elements that were in the buffer when iteration started, unless they
+     * were consumed in the meantime. Elements added after that may or may not be returned.
+     * {@link Iterator#remove()} is supported.
+     */
+    public Iterator<T> iterator() {
+        return new RingIterator();
+    }
+
+    protected boolean remove(long pos, Object element) {
+        int idx = (int) (pos & mask);
+        return sequences.get(idx) == pos + 1 && buffer.compareAndSet(idx, element, REMOVED);
+    }
+
+    private class RingIterator implements Iterator<T> {
+        private final long end = tail.get();
+        private long pos = head.get();
+        private T next;
+        private long nextPos;
+        private T last;
+        private long lastPos;
+
+        private RingIterator() {
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            for (pos = Math.max(pos, head.get()); pos < end; pos++) {
+                int idx = (int) (pos & mask);
+                if (sequences.get(idx) != pos + 1)
+                    continue;
+
+                Object element = buffer.get(idx);
+                if (element != null && element != REMOVED && sequences.get(idx) == pos + 1) {
+                    next = (T) element;
+                    nextPos = pos++;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            last = next;
+            lastPos = nextPos;
+            advance();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if (last == null)
+                throw new IllegalStateException();
+
+            // element might be consumed already: nothing to do then
+            LockFreeRingBuffer.this.remove(lastPos, last);
+            last = null;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference.queue;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * BlockingQueue implementation that holds one {@link LockFreeRingBuffer} per consumer (inference worker).<br>
+ * Producers distribute elements over the buffers in round-robin order, and wake up the owner of the buffer.
+ * Consumers take elements from their own buffer first, and steal from other buffers if their own buffer is empty.
+ * Idle consumers spin, yield and then park for short periods - they are never blocked on a lock.<br>
+ * <br>
+ * PLEASE NOTE: Consumer threads must call {@link #registerConsumer(int)} before taking elements.
+ * Producers only block in {@link #put(Object)} if all buffers are full.
+ */
+@Slf4j
+public class WorkStealingInferenceQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private static final int SPIN_ITERATIONS = 64;
+    private static final int YIELD_ITERATIONS = 16;
+    private static final long PARK_NANOS = 50000L;
+
+    private final LockFreeRingBuffer<T>[] buffers;
+    private final AtomicReferenceArray<Thread> consumers;
+    private final AtomicInteger nextBuffer = new AtomicInteger(0);
+    private final ThreadLocal<Integer> consumerIndex = new ThreadLocal<>();
+
+    /**
+     * @param numConsumers      Number of consumers, one buffer is created for each
+     * @param capacityPerBuffer Capacity of each buffer
+     */
+    @SuppressWarnings("unchecked")
+    public WorkStealingInferenceQueue(int numConsumers, int capacityPerBuffer) {
+        if (numConsumers < 1)
+            throw new IllegalArgumentException("Number of consumers should be positive value");
+
+        buffers = new LockFreeRingBuffer[numConsumers];
+        for (int i = 0; i < numConsumers; i++)
+            buffers[i] = new LockFreeRingBuffer<>(capacityPerBuffer);
+
+        consumers = new AtomicReferenceArray<>(numConsumers);
+    }
+
+    /**
+     * This method binds the calling thread to the buffer with the specified index
+     *
+     * @param index Index of the buffer, 0 to numConsumers-1
+     */
+    public void registerConsumer(int index) {
+        if (index < 0 || index >= buffers.length)
+            throw new IllegalArgumentException("Consumer index should be in range [0, " + buffers.length + ")");
+
+        consumerIndex.set(index);
+        consumers.set(index, Thread.currentThread());
+    }
+
+    @Override
+    public boolean offer(@NonNull T element) {
+        int start = (nextBuffer.getAndIncrement() & Integer.MAX_VALUE) % buffers.length;
+        for (int i = 0; i < buffers.length; i++) {
+            int idx = (start + i) % buffers.length;
+            if (buffers[idx].offer(element)) {
+                Thread consumer = consumers.get(idx);
+                if (consumer != null)
+                    LockSupport.unpark(consumer);
+
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void put(@NonNull T element) throws InterruptedException {
+        while (!offer(element)) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer(@NonNull T element, long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(element)) {
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        return true;
+    }
+
+    @Override
+    public T poll() {
+        Integer own = consumerIndex.get();
+        int start = own == null ? 0 : own;
+
+        // own buffer goes first, then we try to steal from other buffers
+        for (int i = 0; i < buffers.length; i++) {
+            T element = buffers[(start + i) % buffers.length].poll();
+            if (element != null)
+                return element;
+        }
+        return null;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        int idle = 0;
+        while (true) {
+            T element = poll();
+            if (element != null)
+                return element;
+
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            idle++;
+            if (idle < SPIN_ITERATIONS) {
+                // just spin
+            } else if (idle < SPIN_ITERATIONS + YIELD_ITERATIONS) {
+                Thread.yield();
+            } else {
+                // producers will unpark us if something was added to our own buffer
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        }
+    }
+
+    @Override
+    public T poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            T element = poll();
+            if (element != null)
+                return element;
+
+            if (Thread.interrupted())
+                throw new InterruptedException();
+
+            long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return null;
+
+            LockSupport.parkNanos(this, Math.min(left, PARK_NANOS));
+        }
+    }
+
+    @Override
+    public T peek() {
+        Integer own = consumerIndex.get();
+        int start = own == null ? 0 : own;
+
+        // same order as poll()
+        for (int i = 0; i < buffers.length; i++) {
+            T element = buffers[(start + i) % buffers.length].peek();
+            if (element != null)
+                return element;
+        }
+        return null;
+    }
+
+    /**
+     * Weakly consistent iterator over all buffers, see {@link LockFreeRingBuffer#iterator()}
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            private int index = 0;
+            private Iterator<T> current = buffers[0].iterator();
+            private Iterator<T> last;
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && index < buffers.length - 1)
+                    current = buffers[++index].iterator();
+
+                return current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+
+                last = current;
+                return current.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+
+                last.remove();
+                last = null;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (LockFreeRingBuffer<T> buffer : buffers)
+            size += buffer.size();
+
+        return size;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int capacity = 0;
+        for (LockFreeRingBuffer<T> buffer : buffers)
+            capacity += buffer.capacity();
+
+        return Math.max(0, capacity - size());
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@NonNull Collection<? super T> c, int maxElements) {
+        int cnt = 0;
+        T element;
+        while (cnt < maxElements && (element = poll()) != null) {
+            c.add(element);
+            cnt++;
+        }
+        return cnt;
+    }
+}
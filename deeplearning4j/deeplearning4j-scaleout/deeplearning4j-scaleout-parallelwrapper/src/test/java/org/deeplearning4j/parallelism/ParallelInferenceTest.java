@@ -31,6 +31,8 @@ import org.nd4j.linalg.io.ClassPathResource;
 import org.deeplearning4j.datasets.iterator.impl.MnistDataSetIterator;
 import org.deeplearning4j.eval.Evaluation;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.deeplearning4j.parallelism.inference.AdaptiveBatchSizer;
+import org.deeplearning4j.parallelism.inference.InferenceLatencyListener;
 import org.deeplearning4j.parallelism.inference.InferenceMode;
 import org.deeplearning4j.parallelism.inference.InferenceObservable;
 import org.deeplearning4j.parallelism.inference.observers.BasicInferenceObserver;
@@ -48,7 +50,10 @@ import org.nd4j.linalg.primitives.Pair;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
@@ -324,6 +329,130 @@ public class ParallelInferenceTest {
     }
 
 
+    @Test
+    public void testAdaptiveBatchSizer() throws Exception {
+        // 1ms overhead + 0.1ms per example, 20ms target => 10ms budget per batch => 90 examples
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(20000000L, 4, 256);
+        assertEquals(4, sizer.getBatchLimit());
+
+        for (int i = 0; i < AdaptiveBatchSizer.DEFAULT_WINDOW_SIZE; i++) {
+            int size = 20 + (i % 50);
+            sizer.record(size, 0L, 1000000L + 100000L * size);
+        }
+        assertTrue(sizer.getBatchLimit() >= 89 && sizer.getBatchLimit() <= 90);
+
+        // limit can't grow much above observed batch sizes
+        AdaptiveBatchSizer sizer2 = new AdaptiveBatchSizer(20000000L, 4, 256);
+        for (int i = 0; i < AdaptiveBatchSizer.WARMUP_BATCHES; i++) {
+            sizer2.record(4, 0L, 100000L * 4);
+        }
+        assertEquals(8, sizer2.getBatchLimit());
+    }
+
+    @Test
+    public void testAdaptiveProviderPadding() throws Exception {
+        LinkedBlockingQueue queue = new LinkedBlockingQueue();
+        BasicInferenceObserver observer = new BasicInferenceObserver();
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(100000000L, 16, 16);
+        ParallelInference.AdaptiveObservablesProvider provider =
+                        new ParallelInference.AdaptiveObservablesProvider(sizer, true, null, queue);
+
+        InferenceObservable observable1 = provider.setInput(observer, Nd4j.create(1, 3, 5).assign(1.0));
+        InferenceObservable observable2 = provider.setInput(observer, Nd4j.create(2, 3, 7).assign(2.0));
+        InferenceObservable observable3 = provider.setInput(observer, Nd4j.create(1, 3, 20).assign(3.0));
+
+        // lengths 5 and 7 share the same bucket, 20 doesn't
+        assertTrue(observable1 == observable2);
+        assertTrue(observable1 != observable3);
+        assertEquals(2, queue.size());
+
+        List<Pair<INDArray[],INDArray[]>> l = observable1.getInputBatches();
+        assertEquals(1, l.size());
+        assertArrayEquals(new long[] {3, 3, 7}, l.get(0).getFirst()[0].shape());
+        INDArray mask = l.get(0).getSecond()[0];
+        assertArrayEquals(new long[] {3, 7}, mask.shape());
+        assertEquals(5.0, mask.getRow(0).sumNumber().doubleValue(), 1e-6);
+        assertEquals(7.0, mask.getRow(1).sumNumber().doubleValue(), 1e-6);
+
+        BatchedInferenceObservable batched = (BatchedInferenceObservable) observable1;
+        batched.setOutputBatches(Collections.singletonList(new INDArray[]{Nd4j.create(3, 4, 7)}));
+
+        batched.setPosition(0);
+        assertArrayEquals(new long[] {1, 4, 5}, batched.getOutput()[0].shape());
+        batched.setPosition(1);
+        assertArrayEquals(new long[] {2, 4, 7}, batched.getOutput()[0].shape());
+        assertEquals(3, batched.getNumExamples());
+    }
+
+    @Test(timeout = 60000L)
+    public void testInferenceAdaptiveListener() throws Exception {
+        final AtomicInteger requests = new AtomicInteger(0);
+        ParallelInference inf = new ParallelInference.Builder(model).inferenceMode(InferenceMode.ADAPTIVE)
+                        .targetLatency(50, TimeUnit.MILLISECONDS).batchLimit(32).workers(2)
+                        .latencyListener(new InferenceLatencyListener() {
+                            @Override
+                            public void onRequestCompleted(long queueWaitNanos, long computeNanos, long batchSize) {
+                                assertTrue(queueWaitNanos >= 0);
+                                assertTrue(computeNanos > 0);
+                                assertTrue(batchSize > 0);
+                                requests.incrementAndGet();
+                            }
+                        }).build();
+
+        iterator = new MnistDataSetIterator(1, false, 12345);
+        evalClassifcationMultipleThreads(inf, iterator, 10);
+
+        assertTrue(requests.get() > 0);
+        assertNotNull(inf.getBatchSizer());
+        assertTrue(inf.getBatchSizer().getBatchLimit() >= 1);
+
+        inf.shutdown();
+    }
+
+    @Test(timeout = 60000L)
+    public void testOutputAsync() throws Exception {
+        for (InferenceMode m : InferenceMode.values()) {
+            for (boolean steal : new boolean[]{false, true}) {
+                ParallelInference inf = new ParallelInference.Builder(model).inferenceMode(m).workers(3)
+                                .workStealing(steal).build();
+
+                iterator = new MnistDataSetIterator(1, false, 12345);
+                List<INDArray> features = new ArrayList<>();
+                List<CompletableFuture<INDArray>> futures = new ArrayList<>();
+                for (int i = 0; i < 64 && iterator.hasNext(); i++) {
+                    INDArray f = iterator.next().getFeatures();
+                    features.add(f);
+                    futures.add(inf.outputAsync(f));
+                }
+
+                for (int i = 0; i < futures.size(); i++) {
+                    INDArray exp = model.output(features.get(i));
+                    assertEquals("Failed at mode " + m + ", iteration " + i, exp, futures.get(i).get());
+                }
+
+                inf.shutdown();
+            }
+        }
+    }
+
+    @Test(timeout = 60000L)
+    public void testOutputAsyncErrorPropagation() throws Exception {
+        ParallelInference inf = new ParallelInference.Builder(model).inferenceMode(InferenceMode.BATCHED).workers(2)
+                        .workStealing(true).build();
+
+        // wrong number of input features
+        CompletableFuture<INDArray> future = inf.outputAsync(Nd4j.create(1, 10));
+        try {
+            future.get();
+            fail("Expected exception");
+        } catch (ExecutionException e) {
+            //OK
+            log.info("Expected exception: {}", e.getCause().getMessage());
+        }
+
+        inf.shutdown();
+    }
+
     protected void evalClassifcationSingleThread(@NonNull ParallelInference inf, @NonNull DataSetIterator iterator) {
         DataSet ds = iterator.next();
         log.info("NumColumns: {}", ds.getLabels().columns());
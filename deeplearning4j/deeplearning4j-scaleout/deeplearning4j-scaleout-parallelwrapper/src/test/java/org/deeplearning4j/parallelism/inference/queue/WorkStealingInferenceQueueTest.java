@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.parallelism.inference.queue;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class WorkStealingInferenceQueueTest {
+
+    @Test
+    public void testRingBufferBasic1() throws Exception {
+        LockFreeRingBuffer<Integer> buffer = new LockFreeRingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+        assertNull(buffer.poll());
+
+        for (int i = 0; i < 4; i++)
+            assertTrue(buffer.offer(i));
+
+        assertFalse(buffer.offer(4));
+        assertEquals(4, buffer.size());
+
+        for (int i = 0; i < 4; i++)
+            assertEquals(i, buffer.poll().intValue());
+
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+
+        // wrap around
+        for (int i = 0; i < 10; i++) {
+            assertTrue(buffer.offer(i));
+            assertEquals(i, buffer.poll().intValue());
+        }
+    }
+
+    @Test
+    public void testPeekIteratorRemove1() throws Exception {
+        WorkStealingInferenceQueue<Integer> queue = new WorkStealingInferenceQueue<>(3, 4);
+        assertNull(queue.peek());
+        assertTrue(queue.isEmpty());
+        assertEquals("[]", queue.toString());
+
+        for (int i = 0; i < 6; i++)
+            assertTrue(queue.offer(i));
+
+        // round-robin: buffer 0 holds 0 and 3
+        assertEquals(0, queue.peek().intValue());
+        assertEquals(6, queue.size());
+        assertTrue(queue.contains(4));
+        assertFalse(queue.contains(7));
+
+        List<Integer> all = new ArrayList<>();
+        for (Integer i : queue)
+            all.add(i);
+        assertEquals(6, all.size());
+        assertTrue(all.containsAll(Arrays.asList(0, 1, 2, 3, 4, 5)));
+
+        // removed elements are skipped by consumers and peek()
+        assertTrue(queue.remove((Object) 0));
+        assertTrue(queue.remove((Object) 4));
+        assertFalse(queue.remove((Object) 4));
+        assertFalse(queue.contains(0));
+        assertEquals(3, queue.peek().intValue());
+
+        List<Integer> polled = new ArrayList<>();
+        Integer element;
+        while ((element = queue.poll()) != null)
+            polled.add(element);
+
+        assertEquals(4, polled.size());
+        assertFalse(polled.contains(0));
+        assertFalse(polled.contains(4));
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+    }
+
+    @Test(timeout = 30000L)
+    public void testConcurrentProducersConsumers1() throws Exception {
+        final int numProducers = 4;
+        final int numConsumers = 3;
+        final int perProducer = 50000;
+        final WorkStealingInferenceQueue<Integer> queue = new WorkStealingInferenceQueue<>(numConsumers, 16);
+
+        final AtomicLong sum = new AtomicLong(0);
+        final AtomicInteger received = new AtomicInteger(0);
+        final int total = numProducers * perProducer;
+
+        List<Thread> threads = new ArrayList<>();
+        // only first consumer registers: other buffers must be drained via stealing
+        for (int c = 0; c < numConsumers; c++) {
+            final int idx = c;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (idx == 0)
+                        queue.registerConsumer(idx);
+                    try {
+                        while (received.get() < total) {
+                            Integer v = queue.poll(10, TimeUnit.MILLISECONDS);
+                            if (v != null) {
+                                sum.addAndGet(v);
+                                received.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        for (int p = 0; p < numProducers; p++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 1; i <= perProducer; i++)
+                            queue.put(i);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }));
+        }
+
+        for (Thread t : threads)
+            t.start();
+
+        for (Thread t : threads)
+            t.join();
+
+        assertEquals(total, received.get());
+        assertEquals((long) numProducers * perProducer * (perProducer + 1) / 2, sum.get());
+        assertEquals(0, queue.size());
+    }
+}
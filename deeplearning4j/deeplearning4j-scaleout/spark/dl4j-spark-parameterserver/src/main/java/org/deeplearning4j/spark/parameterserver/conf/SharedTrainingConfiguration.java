@@ -58,6 +58,12 @@ public class SharedTrainingConfiguration implements Serializable {
     @Builder.Default protected double stepTrigger = 0.0;
     @Builder.Default protected int stepDelay = 3;
     @Builder.Default protected int shakeFrequency = 0;
+
+    /**
+     * Name of ErrorFeedbackCompressor to be used instead of threshold encoding (i.e. "TOPK", "STOCHASTIC_INT8" or "SIGN"), and its configuration
+     */
+    protected String codec;
+    protected Double codecParam;
     protected String messageHandlerClass;
 
 
@@ -20,6 +20,7 @@ import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.deeplearning4j.exception.DL4JInvalidConfigException;
 import org.deeplearning4j.optimize.api.StepFunction;
+import org.deeplearning4j.optimize.solvers.accumulation.EncodingHandler;
 import org.deeplearning4j.optimize.solvers.accumulation.FancyBlockingQueue;
 import org.deeplearning4j.optimize.solvers.accumulation.GradientsAccumulator;
 import org.deeplearning4j.spark.parameterserver.networking.messages.SilentUpdatesMessage;
@@ -159,14 +160,11 @@ public class SilentTrainingDriver implements TrainingDriver<SilentUpdatesMessage
             synchronized (this) {
                 // threshold decoder is inplace & fast
                 int encoding = message.getUpdates().data().getInt(3);
-                if (encoding == ThresholdCompression.FLEXIBLE_ENCODING) {
-                    Nd4j.getExecutioner().thresholdDecode(message.getUpdates(), updates);
+                EncodingHandler.decode(message.getUpdates(), updates);
+                if (encoding == ThresholdCompression.FLEXIBLE_ENCODING)
                     sparseCounter.incrementAndGet();
-                } else if (encoding == ThresholdCompression.BITMAP_ENCODING) {
-                    Nd4j.getExecutioner().bitmapDecode(message.getUpdates(), updates);
+                else
                     denseCounter.incrementAndGet();
-                } else
-                    throw new DL4JInvalidConfigException("Unknown compression header received: " + encoding);
 
                 /*
                 if ((sparseCounter.get() + denseCounter.get()) % 100 == 0) {
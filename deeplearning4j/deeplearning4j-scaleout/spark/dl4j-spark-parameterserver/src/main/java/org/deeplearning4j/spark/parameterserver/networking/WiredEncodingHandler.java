@@ -63,6 +63,16 @@ public class WiredEncodingHandler extends EncodingHandler {
         super(threshold, boundary);
     }
 
+    /**
+     * This method builds new WiredEncodingHandler instance, that uses given ErrorFeedbackCompressor instead of threshold encoding
+     *
+     * @param codec Compressor name, i.e. "TOPK", "STOCHASTIC_INT8" or "SIGN"
+     * @param codecParam Compressor configuration, null for compressor defaults
+     */
+    public WiredEncodingHandler(String codec, Double codecParam) {
+        super(codec, codecParam);
+    }
+
     /**
      * This method builds new WiredEncodingHandler instance
      *
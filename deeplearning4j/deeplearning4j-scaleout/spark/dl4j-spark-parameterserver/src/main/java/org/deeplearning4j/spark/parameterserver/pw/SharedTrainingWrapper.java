@@ -29,7 +29,6 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.optimize.api.TrainingListener;
 import org.deeplearning4j.optimize.listeners.SleepyTrainingListener;
 import org.deeplearning4j.optimize.solvers.accumulation.EncodedGradientsAccumulator;
-import org.deeplearning4j.optimize.solvers.accumulation.MessageHandler;
 import org.deeplearning4j.parallelism.ParallelWrapper;
 import org.deeplearning4j.spark.parameterserver.conf.SharedTrainingConfiguration;
 import org.deeplearning4j.spark.parameterserver.iterators.VirtualDataSetIterator;
@@ -249,10 +248,15 @@ public class SharedTrainingWrapper {
                     }
                 }
 
-                MessageHandler handler = new WiredEncodingHandler(trainingConfiguration.getThreshold(),
-                                trainingConfiguration.getMinThreshold(), trainingConfiguration.getThresholdStep(),
-                                trainingConfiguration.getStepTrigger(), trainingConfiguration.getStepDelay(),
-                                trainingConfiguration.getShakeFrequency());
+                WiredEncodingHandler handler = trainingConfiguration.getCodec() != null
+                                ? new WiredEncodingHandler(trainingConfiguration.getCodec(),
+                                                trainingConfiguration.getCodecParam())
+                                : new WiredEncodingHandler(trainingConfiguration.getThreshold(),
+                                                trainingConfiguration.getMinThreshold(),
+                                                trainingConfiguration.getThresholdStep(),
+                                                trainingConfiguration.getStepTrigger(),
+                                                trainingConfiguration.getStepDelay(),
+                                                trainingConfiguration.getShakeFrequency());
 
                 // this accumulator will provide sharing gradients over network, via WiredEncodedHandler. But we create it only once
                 if (accumulator == null) {
@@ -262,12 +266,15 @@ public class SharedTrainingWrapper {
                      *  The worst case for us is bitmap encoding, that takes 2 bits to encode each gradient value
                      *
                      *  so, for float in worst case we'll have (100m / 16) int elements. So, our buffer size will be 6.25m * queueSize * 4 bytes per int
+                     *
+                     *  Other codecs might produce bigger messages (i.e. 8-bit quantization takes params / 4), so we ask handler for that
                      */
 
                     int queueSize = numWorkers * 2;
 
                     val bufferSize = trainingConfiguration.getBufferSize() > 0 ? trainingConfiguration.getBufferSize()
-                                    : EncodedGradientsAccumulator.getOptimalBufferSize(model, numWorkers, 2);
+                                    : EncodedGradientsAccumulator.getOptimalBufferSize(model.params().length(),
+                                                    numWorkers, 2, handler);
 
                     accumulator = new EncodedGradientsAccumulator.Builder(numWorkers).messageHandler(handler)
                                     .encodingThreshold(trainingConfiguration.getThreshold())
@@ -107,6 +107,8 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
     protected double stepTrigger = 0.05;
     protected int stepDelay = 50;
     protected int shakeFrequency;
+    protected String codec;
+    protected Double codecParam;
 
     protected Repartition repartition;
     protected RepartitionStrategy repartitionStrategy;
@@ -246,7 +248,8 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
         SharedTrainingConfiguration configuration = SharedTrainingConfiguration.builder().threshold(threshold)
                         .minThreshold(minThreshold).shakeFrequency(shakeFrequency).thresholdStep(thresholdStep)
                         .stepTrigger(stepTrigger).stepDelay(stepDelay).voidConfiguration(voidConfiguration)
-                        .debugLongerIterations(debugLongerIterations).numberOfWorkersPerNode(numWorkersPerNode).build();
+                        .debugLongerIterations(debugLongerIterations).numberOfWorkersPerNode(numWorkersPerNode)
+                        .codec(codec).codecParam(codecParam).build();
 
         if (collectTrainingStats)
             stats.logBroadcastStart();
@@ -275,6 +278,7 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
                         .voidConfiguration(voidConfiguration).debugLongerIterations(debugLongerIterations)
                         .numberOfWorkersPerNode(numWorkersPerNode)
                         .prefetchSize(workerPrefetchBatches)
+                        .codec(codec).codecParam(codecParam)
                 .build();
 
         if (collectTrainingStats)
@@ -827,6 +831,8 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
         protected double stepTrigger = 0.05;
         protected int stepDelay = 50;
         protected int shakeFrequency = 0;
+        protected String codec;
+        protected Double codecParam;
         @Deprecated
         protected Repartition repartition = Repartition.Always;
         @Deprecated
@@ -1058,6 +1064,34 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
             return this;
         }
 
+        /**
+         * This method allows to use one of ErrorFeedbackCompressor implementations instead of threshold encoding:
+         * "TOPK" (top-k sparsification), "STOCHASTIC_INT8" (8-bit stochastic quantization) or "SIGN" (1-bit sign encoding).
+         * Threshold-related options are ignored if codec is set.
+         *
+         * Default value: null (threshold encoding)
+         * @param codec
+         * @return
+         */
+        public Builder encodingCodec(String codec) {
+            this.codec = codec;
+            return this;
+        }
+
+        /**
+         * This method allows to use one of ErrorFeedbackCompressor implementations instead of threshold encoding,
+         * with given configuration value, i.e. fraction of elements to be sent for "TOPK"
+         *
+         * @param codec
+         * @param codecParam
+         * @return
+         */
+        public Builder encodingCodec(@NonNull String codec, double codecParam) {
+            this.codec = codec;
+            this.codecParam = codecParam;
+            return this;
+        }
+
         /**
          * Batch size value,  used for repartition purposes
          *
@@ -1144,6 +1178,9 @@ public class SharedTrainingMaster extends BaseTrainingMaster<SharedTrainingResul
             if (transport != null)
                 master.transport = this.transport;
 
+            master.codec = this.codec;
+            master.codecParam = this.codecParam;
+
             return master;
         }
     }
@@ -72,10 +72,16 @@ class ExecuteWorkerMultiDataSetFlatMapAdapter<R extends TrainingResult>
             s.logMethodStartTime();
 
         if (!dataSetIterator.hasNext()) {
-            if (stats)
+            //Sometimes: no data. Worker still has to report, as it may take part in allreduce
+            if (stats) {
                 s.logReturnTime();
-            //TODO return the results...
-            return Collections.emptyList(); //Sometimes: no data
+
+                Pair<R, SparkTrainingStats> pair = worker.getFinalResultNoDataWithStats();
+                pair.getFirst().setStats(s.build(pair.getSecond()));
+                return Collections.singletonList(pair.getFirst());
+            } else {
+                return Collections.singletonList(worker.getFinalResultNoData());
+            }
         }
 
         int batchSize = dataConfig.getBatchSizePerWorker();
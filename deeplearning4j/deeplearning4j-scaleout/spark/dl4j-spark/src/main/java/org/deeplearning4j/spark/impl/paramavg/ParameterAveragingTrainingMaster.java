@@ -22,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaRDDLike;
+import org.apache.spark.api.java.JavaSparkContext;
 import org.apache.spark.api.java.function.FlatMapFunction;
 import org.apache.spark.broadcast.Broadcast;
 import org.apache.spark.input.PortableDataStream;
@@ -49,6 +50,9 @@ import org.deeplearning4j.spark.impl.multilayer.SparkDl4jMultiLayer;
 import org.deeplearning4j.spark.impl.paramavg.aggregator.ParameterAveragingAggregationTuple;
 import org.deeplearning4j.spark.impl.paramavg.aggregator.ParameterAveragingElementAddFunction;
 import org.deeplearning4j.spark.impl.paramavg.aggregator.ParameterAveragingElementCombineFunction;
+import org.deeplearning4j.spark.impl.paramavg.allreduce.AllReduceCoordinator;
+import org.deeplearning4j.spark.impl.paramavg.allreduce.AllReduceRound;
+import org.deeplearning4j.spark.impl.paramavg.allreduce.RingAllReduce;
 import org.deeplearning4j.spark.impl.paramavg.stats.ParameterAveragingTrainingMasterStats;
 import org.deeplearning4j.spark.util.SparkUtils;
 import org.deeplearning4j.util.UIDProvider;
@@ -62,6 +66,7 @@ import org.nd4j.shade.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
 import java.util.*;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -71,14 +76,18 @@ import static com.google.common.base.Preconditions.checkArgument;
  * implementation for training networks on Spark.
  * This is standard parameter averaging with a
  * configurable averaging period.
+ * <br>
+ * By default, parameters are averaged via Spark treeAggregate, i.e., full parameter vectors of all workers are
+ * sent to the driver. With {@link Builder#allReduce(boolean)} enabled, workers average parameters between themselves
+ * via {@link RingAllReduce} instead, and Spark is used only to coordinate the rounds.
  *
  * @author Alex Black
  */
 @Data
 @JsonIgnoreProperties({"stats", "listeners", "iterationCount", "rng", "lastExportedRDDId", "lastRDDExportPath",
-                "trainingMasterUID"})
+                "trainingMasterUID", "allReduceCoordinator", "allReduceRound"})
 @EqualsAndHashCode(exclude = {"stats", "listeners", "iterationCount", "rng", "lastExportedRDDId", "lastRDDExportPath",
-                "trainingMasterUID"})
+                "trainingMasterUID", "allReduceCoordinator", "allReduceRound"})
 @Slf4j
 public class ParameterAveragingTrainingMaster
                 extends BaseTrainingMaster<ParameterAveragingTrainingResult, ParameterAveragingTrainingWorker>
@@ -95,6 +104,11 @@ public class ParameterAveragingTrainingMaster
     protected int aggregationDepth;
     protected int prefetchNumBatches;
     protected int iterationCount = 0;
+    protected boolean allReduce;
+    protected int allReduceChunkSize = RingAllReduce.DEFAULT_CHUNK_SIZE;
+    protected long allReduceTimeoutMs = Builder.DEFAULT_ALLREDUCE_TIMEOUT_MS;
+    protected transient AllReduceCoordinator allReduceCoordinator;
+    protected transient AllReduceRound allReduceRound;
 
     protected Collection<TrainingHook> trainingHookList;
 
@@ -123,6 +137,9 @@ public class ParameterAveragingTrainingMaster
         this.exportDirectory = builder.exportDirectory;
         this.trainingHookList = builder.trainingHooks;
         this.collectTrainingStats = builder.collectTrainingStats;
+        this.allReduce = builder.allReduce;
+        this.allReduceChunkSize = builder.allReduceChunkSize;
+        this.allReduceTimeoutMs = builder.allReduceTimeoutMs;
         if (collectTrainingStats)
             stats = new ParameterAveragingTrainingMasterStats.ParameterAveragingTrainingMasterStatsHelper();
 
@@ -288,7 +305,7 @@ public class ParameterAveragingTrainingMaster
         WorkerConfiguration configuration = new WorkerConfiguration(false, rddDataSetNumExamples, batchSizePerWorker,
                         averagingFrequency, prefetchNumBatches, collectTrainingStats);
         return new ParameterAveragingTrainingWorker(broadcast, saveUpdater, configuration, trainingHookList, listeners,
-                        getRouterProvider());
+                        getRouterProvider(), allReduceRound);
     }
 
     @Override
@@ -305,7 +322,43 @@ public class ParameterAveragingTrainingMaster
         WorkerConfiguration configuration = new WorkerConfiguration(true, rddDataSetNumExamples, batchSizePerWorker,
                         averagingFrequency, prefetchNumBatches, collectTrainingStats);
         return new ParameterAveragingTrainingWorker(broadcast, saveUpdater, configuration, trainingHookList, listeners,
-                        getRouterProvider());
+                        getRouterProvider(), allReduceRound);
+    }
+
+    /**
+     * Start the allreduce coordinator for the next averaging round, if allreduce is enabled.
+     * Coordinator is closed at the end of {@link #processResults(SparkDl4jMultiLayer, SparkComputationGraph, JavaRDD, int, int)}
+     *
+     * @param sc          Spark context
+     * @param nPartitions number of partitions (ranks) in this round
+     */
+    protected void beginAllReduceRound(JavaSparkContext sc, int nPartitions) {
+        endAllReduceRound();
+        if (!allReduce || nPartitions <= 1)
+            return;
+
+        if (nPartitions > sc.defaultParallelism()) {
+            //Ring requires all partitions to run at the same time
+            log.warn("Number of partitions ({}) is larger than default parallelism ({}): using regular parameter averaging for this round",
+                            nPartitions, sc.defaultParallelism());
+            return;
+        }
+
+        try {
+            String host = sc.getConf().get("spark.driver.host", InetAddress.getLocalHost().getHostAddress());
+            allReduceCoordinator = new AllReduceCoordinator(nPartitions, allReduceTimeoutMs);
+            allReduceRound = allReduceCoordinator.getRound(host, allReduceChunkSize);
+        } catch (IOException e) {
+            log.warn("Failed to start allreduce coordinator: using regular parameter averaging for this round", e);
+        }
+    }
+
+    protected void endAllReduceRound() {
+        if (allReduceCoordinator != null) {
+            allReduceCoordinator.close();
+            allReduceCoordinator = null;
+            allReduceRound = null;
+        }
     }
 
     protected int numObjectsEachWorker(int numExamplesEachRddObject) {
@@ -527,6 +580,7 @@ public class ParameterAveragingTrainingMaster
             stats.logRepartitionEnd();
 
 
+        beginAllReduceRound(network.getSparkContext(), nPartitions);
         FlatMapFunction<Iterator<DataSet>, ParameterAveragingTrainingResult> function =
                         new ExecuteWorkerFlatMap<>(getWorkerInstance(network));
         JavaRDD<ParameterAveragingTrainingResult> result = splitData.mapPartitions(function);
@@ -553,6 +607,7 @@ public class ParameterAveragingTrainingMaster
         if (collectTrainingStats && repartition != Repartition.Never)
             stats.logRepartitionEnd();
 
+        beginAllReduceRound(network != null ? network.getSparkContext() : graph.getSparkContext(), nPartitions);
         FlatMapFunction<Iterator<PortableDataStream>, ParameterAveragingTrainingResult> function;
         if (network != null)
             function = new ExecuteWorkerPDSFlatMap<>(getWorkerInstance(network));
@@ -582,6 +637,7 @@ public class ParameterAveragingTrainingMaster
         if (collectTrainingStats && repartition != Repartition.Never)
             stats.logRepartitionEnd();
 
+        beginAllReduceRound(network != null ? network.getSparkContext() : graph.getSparkContext(), nPartitions);
         FlatMapFunction<Iterator<String>, ParameterAveragingTrainingResult> function;
         if (network != null) {
             if(dsLoader != null){
@@ -614,8 +670,9 @@ public class ParameterAveragingTrainingMaster
 
         splitData = SparkUtils.repartition(splitData, repartition, repartitionStrategy,
                         numObjectsEachWorker(rddDataSetNumExamples), numWorkers);
-        int nPartitions = split.partitions().size();
+        int nPartitions = splitData.partitions().size();
 
+        beginAllReduceRound(graph.getSparkContext(), nPartitions);
         FlatMapFunction<Iterator<MultiDataSet>, ParameterAveragingTrainingResult> function =
                         new ExecuteWorkerMultiDataSetFlatMap<>(getWorkerInstance(graph));
         JavaRDD<ParameterAveragingTrainingResult> result = splitData.mapPartitions(function);
@@ -641,6 +698,7 @@ public class ParameterAveragingTrainingMaster
         if (collectTrainingStats && repartition != Repartition.Never)
             stats.logRepartitionEnd();
 
+        beginAllReduceRound(graph.getSparkContext(), nPartitions);
         FlatMapFunction<Iterator<PortableDataStream>, ParameterAveragingTrainingResult> function =
                         new ExecuteWorkerPDSMDSFlatMap<>(getWorkerInstance(graph));
 
@@ -659,9 +717,16 @@ public class ParameterAveragingTrainingMaster
 
         if (collectTrainingStats)
             stats.logAggregateStartTime();
-        ParameterAveragingAggregationTuple tuple =
-                        results.treeAggregate(null, new ParameterAveragingElementAddFunction(),
-                                        new ParameterAveragingElementCombineFunction(), this.aggregationDepth);
+        //With allreduce, only one worker returns (already averaged) parameters, so aggregation is trivial here
+        ParameterAveragingAggregationTuple tuple;
+        boolean allReduceCompleted = false;
+        try {
+            tuple = results.treeAggregate(null, new ParameterAveragingElementAddFunction(),
+                            new ParameterAveragingElementCombineFunction(), this.aggregationDepth);
+        } finally {
+            allReduceCompleted = allReduceCoordinator != null && allReduceCoordinator.isCompleted();
+            endAllReduceRound();
+        }
         INDArray params = tuple.getParametersSum();
         int aggCount = tuple.getAggregationsCount();
         SparkTrainingStats aggregatedStats = tuple.getSparkTrainingStats();
@@ -692,6 +757,10 @@ public class ParameterAveragingTrainingMaster
 
                 graph.setScore(tuple.getScoreSum() / tuple.getAggregationsCount());
             }
+        } else if (allReduceCompleted) {
+            //i.e. rank 0 was retried after the round: averaged parameters are lost, and no one else may return any
+            log.warn("Allreduce round completed, but averaged parameters were not returned: skipping split {}",
+                            splitNum);
         } else {
             log.info("Skipping imbalanced split with no data for all executors");
         }
@@ -748,6 +817,8 @@ public class ParameterAveragingTrainingMaster
 
 
     public static class Builder {
+        public static final long DEFAULT_ALLREDUCE_TIMEOUT_MS = 60000L;
+
         protected boolean saveUpdater;
         protected Integer numWorkers;
         protected int rddDataSetNumExamples;
@@ -764,6 +835,9 @@ public class ParameterAveragingTrainingMaster
         protected Long rngSeed;
         protected Collection<TrainingHook> trainingHooks;
         protected boolean collectTrainingStats = false;
+        protected boolean allReduce = false;
+        protected int allReduceChunkSize = RingAllReduce.DEFAULT_CHUNK_SIZE;
+        protected long allReduceTimeoutMs = DEFAULT_ALLREDUCE_TIMEOUT_MS;
 
 
         /**
@@ -1002,6 +1076,45 @@ public class ParameterAveragingTrainingMaster
             return this;
         }
 
+        /**
+         * If enabled, parameters (and updater state) are averaged by the workers directly, via ring allreduce between
+         * executors, instead of sending all of them to the driver via treeAggregate. Spark is still used to coordinate
+         * rounds and to broadcast the averaged parameters for the next round.<br>
+         * <b>Note</b>: all partitions of a round have to run concurrently, and executors must be able to open TCP
+         * connections to each other and to the driver. If not all workers join a round within
+         * {@link #allReduceTimeout(long)}, that round falls back to regular averaging. (default: false)
+         *
+         * @param allReduce If true: use ring allreduce for parameter averaging
+         */
+        public Builder allReduce(boolean allReduce) {
+            this.allReduce = allReduce;
+            return this;
+        }
+
+        /**
+         * Number of vector elements per transfer in ring allreduce. See {@link #allReduce(boolean)}
+         * (default: 65536)
+         *
+         * @param allReduceChunkSize Chunk size, in elements
+         */
+        public Builder allReduceChunkSize(int allReduceChunkSize) {
+            checkArgument(allReduceChunkSize > 0, "Invalid input: allreduce chunk size must be >= 1");
+            this.allReduceChunkSize = allReduceChunkSize;
+            return this;
+        }
+
+        /**
+         * Maximal time to wait for all workers to join allreduce round, counted from the first worker, and also
+         * the network timeout for allreduce transfers. See {@link #allReduce(boolean)} (default: 60 seconds)
+         *
+         * @param allReduceTimeoutMs Timeout, in milliseconds
+         */
+        public Builder allReduceTimeout(long allReduceTimeoutMs) {
+            checkArgument(allReduceTimeoutMs > 0, "Invalid input: allreduce timeout must be > 0");
+            this.allReduceTimeoutMs = allReduceTimeoutMs;
+            return this;
+        }
+
         public ParameterAveragingTrainingMaster build() {
             return new ParameterAveragingTrainingMaster(this);
         }
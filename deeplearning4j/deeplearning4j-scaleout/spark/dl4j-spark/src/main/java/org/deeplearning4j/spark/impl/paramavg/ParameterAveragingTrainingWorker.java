@@ -16,6 +16,9 @@
 
 package org.deeplearning4j.spark.impl.paramavg;
 
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.TaskContext;
 import org.apache.spark.broadcast.Broadcast;
 import org.deeplearning4j.api.storage.Persistable;
 import org.deeplearning4j.api.storage.StatsStorageRouter;
@@ -35,15 +38,21 @@ import org.deeplearning4j.spark.api.WorkerConfiguration;
 import org.deeplearning4j.spark.api.stats.SparkTrainingStats;
 import org.deeplearning4j.spark.api.worker.NetBroadcastTuple;
 import org.deeplearning4j.spark.impl.listeners.VanillaStatsStorageRouter;
+import org.deeplearning4j.spark.impl.paramavg.allreduce.AllReduceRound;
+import org.deeplearning4j.spark.impl.paramavg.allreduce.RingAllReduce;
 import org.deeplearning4j.spark.impl.paramavg.stats.ParameterAveragingTrainingWorkerStats;
 import org.deeplearning4j.util.UIDProvider;
+import org.nd4j.linalg.api.buffer.DataBuffer;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.api.DataSet;
 import org.nd4j.linalg.dataset.api.MultiDataSet;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.primitives.Pair;
 
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
@@ -51,9 +60,13 @@ import java.util.List;
  * ParameterAveragingTrainingWorker
  * implements standard parameter
  * averaging every m iterations.
+ * <br>
+ * If an {@link AllReduceRound} is provided, parameters are averaged between workers directly via {@link RingAllReduce}
+ * at the end of the round: only the first rank then returns (already averaged) parameters to the master.
  *
  * @author Alex Black
  */
+@Slf4j
 public class ParameterAveragingTrainingWorker extends BaseTrainingWorker<ParameterAveragingTrainingResult> {
 
     private final Broadcast<NetBroadcastTuple> broadcast;
@@ -63,10 +76,21 @@ public class ParameterAveragingTrainingWorker extends BaseTrainingWorker<Paramet
     private ParameterAveragingTrainingWorkerStats.ParameterAveragingTrainingWorkerStatsHelper stats = null;
     private Collection<TrainingListener> trainingListeners;
     private StatsStorageRouterProvider listenerRouterProvider;
+    private final AllReduceRound allReduceRound;
 
     public ParameterAveragingTrainingWorker(Broadcast<NetBroadcastTuple> broadcast, boolean saveUpdater,
                     WorkerConfiguration configuration, Collection<TrainingHook> trainingHooks,
                     Collection<TrainingListener> listeners, StatsStorageRouterProvider routerProvider) {
+        this(broadcast, saveUpdater, configuration, trainingHooks, listeners, routerProvider, null);
+    }
+
+    /**
+     * @param allReduceRound If not null: average parameters between workers via ring allreduce in this round
+     */
+    public ParameterAveragingTrainingWorker(Broadcast<NetBroadcastTuple> broadcast, boolean saveUpdater,
+                    WorkerConfiguration configuration, Collection<TrainingHook> trainingHooks,
+                    Collection<TrainingListener> listeners, StatsStorageRouterProvider routerProvider,
+                    AllReduceRound allReduceRound) {
 
         this.broadcast = broadcast;
         this.saveUpdater = saveUpdater;
@@ -74,6 +98,7 @@ public class ParameterAveragingTrainingWorker extends BaseTrainingWorker<Paramet
         this.trainingHooks = trainingHooks;
         this.trainingListeners = listeners;
         this.listenerRouterProvider = routerProvider;
+        this.allReduceRound = allReduceRound;
     }
 
     /**
@@ -302,6 +327,13 @@ public class ParameterAveragingTrainingWorker extends BaseTrainingWorker<Paramet
                 listenerUpdates = ssr.getUpdates();
             }
         }
+        if (allReduceRound != null) {
+            ParameterAveragingTrainingResult result = allReduce(network.params(), updaterState, network.score(), true,
+                            storageMetaData, listenerStaticInfo, listenerUpdates);
+            if (result != null)
+                return result;
+        }
+
         return new ParameterAveragingTrainingResult(network.params(), updaterState, network.score(), storageMetaData,
                         listenerStaticInfo, listenerUpdates);
     }
@@ -330,15 +362,131 @@ public class ParameterAveragingTrainingWorker extends BaseTrainingWorker<Paramet
             }
         }
 
+        if (allReduceRound != null) {
+            ParameterAveragingTrainingResult result = allReduce(network.params(), updaterState, network.score(), true,
+                            storageMetaData, listenerStaticInfo, listenerUpdates);
+            if (result != null)
+                return result;
+        }
+
         return new ParameterAveragingTrainingResult(network.params(), updaterState, network.score(), storageMetaData,
                         listenerStaticInfo, listenerUpdates);
     }
 
     @Override
     public ParameterAveragingTrainingResult getFinalResultNoData() {
+        if (allReduceRound != null) {
+            //Other ranks are waiting for us in the ring, so we have to contribute anyway: zeros, with zero weight
+            NetBroadcastTuple tuple = broadcast.getValue();
+            INDArray updaterState = saveUpdater ? tuple.getUpdaterState() : null;
+            ParameterAveragingTrainingResult result =
+                            allReduce(tuple.getParameters(), updaterState, 0.0, false, null, null, null);
+            if (result != null)
+                return result;
+        }
+
         return new ParameterAveragingTrainingResult(null, null, 0.0, null, null, null);
     }
 
+    /**
+     * Average parameters, updater state and score over all workers of this round, as vector
+     * [parameters, updaterState, score, 1] summed over all ranks with data, and divided by its last element.
+     *
+     * @return result to return to the master, or null if the allreduce round was aborted, or failed before
+     * registration. If the round has completed without this worker, result without parameters is returned
+     */
+    protected ParameterAveragingTrainingResult allReduce(INDArray params, INDArray updaterState, double score,
+                    boolean hasData, Collection<StorageMetaData> storageMetaData,
+                    Collection<Persistable> listenerStaticInfo, Collection<Persistable> listenerUpdates) {
+        TaskContext context = TaskContext.get();
+        if (context == null) {
+            log.warn("No Spark TaskContext available, falling back to regular parameter averaging");
+            return null;
+        }
+
+        int rank = context.partitionId();
+        int nParams = (int) params.length();
+        int nUpdater = updaterState == null ? 0 : (int) updaterState.length();
+        int length = nParams + nUpdater + 2;
+
+        try {
+            RingAllReduce ring = new RingAllReduce(allReduceRound, rank, getHost());
+            boolean reduced;
+            double scoreSum;
+            double count;
+            float[] fVector = null;
+            double[] dVector = null;
+            if (Nd4j.dataType() == DataBuffer.Type.DOUBLE) {
+                dVector = new double[length];
+                if (hasData) {
+                    System.arraycopy(params.dup().data().asDouble(), 0, dVector, 0, nParams);
+                    if (nUpdater > 0)
+                        System.arraycopy(updaterState.dup().data().asDouble(), 0, dVector, nParams, nUpdater);
+                    dVector[length - 2] = score;
+                    dVector[length - 1] = 1.0;
+                }
+                reduced = ring.allReduce(dVector);
+                scoreSum = dVector[length - 2];
+                count = dVector[length - 1];
+            } else {
+                fVector = new float[length];
+                if (hasData) {
+                    System.arraycopy(params.dup().data().asFloat(), 0, fVector, 0, nParams);
+                    if (nUpdater > 0)
+                        System.arraycopy(updaterState.dup().data().asFloat(), 0, fVector, nParams, nUpdater);
+                    fVector[length - 2] = (float) score;
+                    fVector[length - 1] = 1.0f;
+                }
+                reduced = ring.allReduce(fVector);
+                scoreSum = fVector[length - 2];
+                count = fVector[length - 1];
+            }
+
+            if (!reduced)
+                return null;
+
+            if (rank != 0 || count == 0.0) {
+                //Averaged parameters are returned by rank 0 only: everyone else just returns listener info
+                return new ParameterAveragingTrainingResult(null, null, 0.0, storageMetaData, listenerStaticInfo,
+                                listenerUpdates);
+            }
+
+            INDArray avgParams;
+            INDArray avgUpdater = null;
+            if (dVector != null) {
+                avgParams = Nd4j.create(Arrays.copyOfRange(dVector, 0, nParams));
+                if (nUpdater > 0)
+                    avgUpdater = Nd4j.create(Arrays.copyOfRange(dVector, nParams, nParams + nUpdater));
+            } else {
+                avgParams = Nd4j.create(Arrays.copyOfRange(fVector, 0, nParams));
+                if (nUpdater > 0)
+                    avgUpdater = Nd4j.create(Arrays.copyOfRange(fVector, nParams, nParams + nUpdater));
+            }
+            avgParams.divi(count);
+            if (avgUpdater != null)
+                avgUpdater.divi(count);
+
+            return new ParameterAveragingTrainingResult(avgParams, avgUpdater, scoreSum / count, storageMetaData,
+                            listenerStaticInfo, listenerUpdates);
+        } catch (RingAllReduce.MissedRoundException e) {
+            //Round went on without us: other ranks may have averaged parameters already, so our own parameters must
+            //not be returned, otherwise they would be averaged with the result of the round
+            log.warn("Rank {} missed allreduce round, returning no parameters", rank, e);
+            return new ParameterAveragingTrainingResult(null, null, 0.0, storageMetaData, listenerStaticInfo,
+                            listenerUpdates);
+        } catch (IOException e) {
+            log.warn("Ring allreduce failed for rank {}, falling back to regular parameter averaging", rank, e);
+            return null;
+        }
+    }
+
+    private static String getHost() throws IOException {
+        SparkEnv env = SparkEnv.get();
+        if (env != null && env.blockManager() != null)
+            return env.blockManager().blockManagerId().host();
+        return InetAddress.getLocalHost().getHostAddress();
+    }
+
     @Override
     public Pair<ParameterAveragingTrainingResult, SparkTrainingStats> getFinalResultNoDataWithStats() {
         return new Pair<>(getFinalResultNoData(), null);
@@ -37,26 +37,34 @@ public class ParameterAveragingElementAddFunction implements
     @Override
     public ParameterAveragingAggregationTuple call(ParameterAveragingAggregationTuple tuple,
                     ParameterAveragingTrainingResult result) throws Exception {
+        //Results without parameters: empty partitions, or workers other than the first one when parameters
+        // were already averaged via allreduce. These contribute only stats and listener info
+        boolean hasParams = result.getParameters() != null;
         if (tuple == null) {
             return ParameterAveragingAggregationTuple.builder().parametersSum(result.getParameters())
-                            .updaterStateSum(result.getUpdaterState()).scoreSum(result.getScore()).aggregationsCount(1)
-                            .sparkTrainingStats(result.getSparkTrainingStats())
+                            .updaterStateSum(result.getUpdaterState()).scoreSum(hasParams ? result.getScore() : 0.0)
+                            .aggregationsCount(hasParams ? 1 : 0).sparkTrainingStats(result.getSparkTrainingStats())
                             .listenerMetaData(result.getListenerMetaData())
                             .listenerStaticInfo(result.getListenerStaticInfo())
                             .listenerUpdates(result.getListenerUpdates()).build();
         }
 
-        INDArray params = tuple.getParametersSum().addi(result.getParameters());
-        INDArray updaterStateSum;
-        if (tuple.getUpdaterStateSum() == null) {
-            updaterStateSum = result.getUpdaterState();
-        } else {
-            updaterStateSum = tuple.getUpdaterStateSum();
-            if (result.getUpdaterState() != null)
+        INDArray params = tuple.getParametersSum();
+        INDArray updaterStateSum = tuple.getUpdaterStateSum();
+        double scoreSum = tuple.getScoreSum();
+        int aggregationsCount = tuple.getAggregationsCount();
+        if (hasParams) {
+            params = params == null ? result.getParameters() : params.addi(result.getParameters());
+            if (updaterStateSum == null) {
+                updaterStateSum = result.getUpdaterState();
+            } else if (result.getUpdaterState() != null) {
                 updaterStateSum.addi(result.getUpdaterState());
+            }
+
+            scoreSum += result.getScore();
+            aggregationsCount++;
         }
 
-        double scoreSum = tuple.getScoreSum() + result.getScore();
         SparkTrainingStats stats = tuple.getSparkTrainingStats();
         if (result.getSparkTrainingStats() != null) {
             if (stats == null)
@@ -96,7 +104,7 @@ public class ParameterAveragingElementAddFunction implements
 
 
 
-        return new ParameterAveragingAggregationTuple(params, updaterStateSum, scoreSum,
-                        tuple.getAggregationsCount() + 1, stats, listenerMetaData, listenerStaticInfo, listenerUpdates);
+        return new ParameterAveragingAggregationTuple(params, updaterStateSum, scoreSum, aggregationsCount, stats,
+                        listenerMetaData, listenerStaticInfo, listenerUpdates);
     }
 }
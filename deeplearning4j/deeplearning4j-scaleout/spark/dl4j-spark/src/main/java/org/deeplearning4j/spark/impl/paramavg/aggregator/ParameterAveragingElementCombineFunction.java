@@ -40,23 +40,27 @@ public class ParameterAveragingElementCombineFunction implements
         else if (v2 == null)
             return v1;
 
-        //Handle edge case of less data than executors: in this case, one (or both) of v1 and v2 might not have any contents...
-        if (v1.getParametersSum() == null)
-            return v2;
-        else if (v2.getParametersSum() == null)
-            return v1;
-
-        INDArray newParams = v1.getParametersSum().addi(v2.getParametersSum());
+        //Handle edge case of less data than executors, or parameters averaged via allreduce: in this case, one (or both)
+        // of v1 and v2 might not have any parameters, but might still have stats and listener info
+        INDArray newParams;
         INDArray updaterStateSum;
-        if (v1.getUpdaterStateSum() == null) {
+        if (v1.getParametersSum() == null) {
+            newParams = v2.getParametersSum();
             updaterStateSum = v2.getUpdaterStateSum();
-        } else {
+        } else if (v2.getParametersSum() == null) {
+            newParams = v1.getParametersSum();
             updaterStateSum = v1.getUpdaterStateSum();
-            if (v2.getUpdaterStateSum() != null)
-                updaterStateSum.addi(v2.getUpdaterStateSum());
+        } else {
+            newParams = v1.getParametersSum().addi(v2.getParametersSum());
+            if (v1.getUpdaterStateSum() == null) {
+                updaterStateSum = v2.getUpdaterStateSum();
+            } else {
+                updaterStateSum = v1.getUpdaterStateSum();
+                if (v2.getUpdaterStateSum() != null)
+                    updaterStateSum.addi(v2.getUpdaterStateSum());
+            }
         }
 
-
         double scoreSum = v1.getScoreSum() + v2.getScoreSum();
         int aggregationCount = v1.getAggregationsCount() + v2.getAggregationsCount();
 
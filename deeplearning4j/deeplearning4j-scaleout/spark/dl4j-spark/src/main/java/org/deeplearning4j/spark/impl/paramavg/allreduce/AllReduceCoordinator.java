@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.spark.impl.paramavg.allreduce;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Random;
+
+/**
+ * Driver-side rendezvous point for a single {@link RingAllReduce} round.<br>
+ * <br>
+ * Every rank registers itself (rank, vector length, address of its ring socket). Once all ranks are registered,
+ * each of them receives the full list of peer addresses, and data is exchanged between ranks directly: the coordinator
+ * never sees any parameters.<br>
+ * If not all ranks register within the timeout (counted from the first registration), or if registrations are
+ * inconsistent (duplicate rank, different vector lengths), the round is aborted: all ranks, including the ones
+ * registering later, are told to fall back to regular parameter averaging.<br>
+ * Ranks registering after the round has completed (i.e. retried or speculative tasks) are told so: their
+ * parameters are already accounted for by the completed round, so they must not return any.
+ */
+@Slf4j
+public class AllReduceCoordinator implements Closeable {
+    private static final int POLL_INTERVAL_MS = 100;
+
+    // registration replies
+    protected static final byte STATUS_ABORTED = 0;
+    protected static final byte STATUS_OK = 1;
+    protected static final byte STATUS_COMPLETED = 2;
+
+    protected final int numRanks;
+    protected final long timeoutMs;
+    protected final long roundId;
+    protected final ServerSocket serverSocket;
+    protected final Thread thread;
+
+    protected final Socket[] registered;
+    protected final String[] hosts;
+    protected final int[] ports;
+    protected int numRegistered = 0;
+    protected long vectorLength = -1;
+    protected long firstRegistrationTime = -1;
+    protected volatile boolean completed = false;
+    protected volatile boolean aborted = false;
+    protected volatile boolean closed = false;
+
+    /**
+     * @param numRanks  number of ranks (Spark partitions) participating in this round
+     * @param timeoutMs maximal time to wait for all ranks, after the first one has registered
+     */
+    public AllReduceCoordinator(int numRanks, long timeoutMs) throws IOException {
+        if (numRanks < 1)
+            throw new IllegalArgumentException("Number of ranks should be positive value");
+
+        this.numRanks = numRanks;
+        this.timeoutMs = timeoutMs;
+        this.roundId = new Random().nextLong();
+        this.registered = new Socket[numRanks];
+        this.hosts = new String[numRanks];
+        this.ports = new int[numRanks];
+
+        this.serverSocket = new ServerSocket(0);
+        this.serverSocket.setSoTimeout(POLL_INTERVAL_MS);
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        });
+        this.thread.setDaemon(true);
+        this.thread.setName("AllReduceCoordinator thread, port " + serverSocket.getLocalPort());
+        this.thread.start();
+    }
+
+    /**
+     * This method returns the description of this round, to be passed to the workers
+     *
+     * @param host      address of this machine, reachable from the workers
+     * @param chunkSize number of vector elements per transfer
+     */
+    public AllReduceRound getRound(String host, int chunkSize) {
+        return new AllReduceRound(host, serverSocket.getLocalPort(), roundId, numRanks, chunkSize, timeoutMs);
+    }
+
+    /**
+     * @return true if all ranks have registered, and got their peers
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return true if this round was aborted, and ranks were told to fall back to regular averaging
+     */
+    public boolean isAborted() {
+        return aborted;
+    }
+
+    protected void loop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketTimeoutException e) {
+                checkTimeout();
+                continue;
+            } catch (IOException e) {
+                if (!closed)
+                    log.error("AllReduce coordinator failed", e);
+                abort();
+                return;
+            }
+
+            try {
+                register(socket);
+            } catch (IOException e) {
+                log.warn("Failed to process allreduce registration from {}", socket.getRemoteSocketAddress(), e);
+                closeQuietly(socket);
+                abort();
+            }
+            checkTimeout();
+        }
+    }
+
+    protected void register(Socket socket) throws IOException {
+        socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, timeoutMs));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        long id = in.readLong();
+        int rank = in.readInt();
+        long length = in.readLong();
+        String host = in.readUTF();
+        int port = in.readInt();
+
+        if (completed || aborted) {
+            //Late registration: most likely, retried or speculative task. After completion its contribution is gone,
+            //after abort it has to fall back to regular averaging, same as everyone else
+            log.warn("Rank {} registered after allreduce round was {}", rank, completed ? "completed" : "aborted");
+            reply(socket, completed ? STATUS_COMPLETED : STATUS_ABORTED);
+            return;
+        }
+
+        if (id != roundId || rank < 0 || rank >= numRanks || registered[rank] != null
+                        || (vectorLength >= 0 && vectorLength != length)) {
+            log.warn("Invalid allreduce registration: rank {} of {}, vector length {} vs. {}, aborting round", rank,
+                            numRanks, length, vectorLength);
+            reply(socket, STATUS_ABORTED);
+            abort();
+            return;
+        }
+
+        if (firstRegistrationTime < 0)
+            firstRegistrationTime = System.currentTimeMillis();
+
+        vectorLength = length;
+        registered[rank] = socket;
+        hosts[rank] = host;
+        ports[rank] = port;
+        numRegistered++;
+
+        if (numRegistered == numRanks) {
+            for (Socket s : registered) {
+                try {
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    out.writeByte(STATUS_OK);
+                    for (int i = 0; i < numRanks; i++) {
+                        out.writeUTF(hosts[i]);
+                        out.writeInt(ports[i]);
+                    }
+                    out.flush();
+                } catch (IOException e) {
+                    //Peer will fail to connect to this rank, and ring will fail, which is reported by Spark task
+                    log.warn("Failed to send peers list to {}", s.getRemoteSocketAddress(), e);
+                } finally {
+                    closeQuietly(s);
+                }
+            }
+            completed = true;
+            log.debug("AllReduce round {} started with {} ranks", roundId, numRanks);
+        }
+    }
+
+    protected void checkTimeout() {
+        if (completed || aborted || firstRegistrationTime < 0)
+            return;
+
+        if (System.currentTimeMillis() - firstRegistrationTime > timeoutMs) {
+            log.warn("Only {} of {} ranks registered for allreduce within {} ms, falling back to regular averaging",
+                            numRegistered, numRanks, timeoutMs);
+            abort();
+        }
+    }
+
+    protected void abort() {
+        if (completed || aborted)
+            return;
+
+        aborted = true;
+        for (int i = 0; i < numRanks; i++) {
+            if (registered[i] != null) {
+                try {
+                    reply(registered[i], STATUS_ABORTED);
+                } catch (IOException e) {
+                    //Nothing to do here: that rank is gone anyway
+                }
+                registered[i] = null;
+            }
+        }
+    }
+
+    protected static void reply(Socket socket, byte status) throws IOException {
+        try {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeByte(status);
+            out.flush();
+        } finally {
+            closeQuietly(socket);
+        }
+    }
+
+    protected static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //No op
+        }
+    }
+
+    /**
+     * Stop accepting registrations. Ranks still waiting are told to fall back to regular averaging.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        closeQuietly(serverSocket);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        abort();
+    }
+}
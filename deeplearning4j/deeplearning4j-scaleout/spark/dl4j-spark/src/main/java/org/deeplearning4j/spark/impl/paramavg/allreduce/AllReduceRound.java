@@ -0,0 +1,39 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.spark.impl.paramavg.allreduce;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.io.Serializable;
+
+/**
+ * Description of a single allreduce round, as passed from the driver to the workers:
+ * where the {@link AllReduceCoordinator} for this round listens, and how transfers should be done.
+ */
+@AllArgsConstructor
+@Data
+public class AllReduceRound implements Serializable {
+
+    protected final String coordinatorHost;
+    protected final int coordinatorPort;
+    protected final long roundId;
+    protected final int numRanks;
+    protected final int chunkSize; //Number of vector elements per transfer
+    protected final long timeoutMs;
+
+}
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.spark.impl.paramavg.allreduce;
+
+import lombok.NonNull;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.*;
+
+/**
+ * Ring allreduce over plain TCP sockets.<br>
+ * <br>
+ * The vector is split into N segments, one per rank. During N-1 reduce-scatter steps each rank sends one segment to
+ * the next rank in the ring while receiving (and adding) another segment from the previous rank, so that afterwards
+ * every rank holds one fully reduced segment. N-1 allgather steps then circulate the reduced segments. Each rank thus
+ * sends and receives 2 * (N-1)/N times the vector size, regardless of N, and no single node (like the Spark driver
+ * in treeAggregate) has to receive all vectors.<br>
+ * Segments are streamed in chunks of {@link AllReduceRound#getChunkSize()} elements, and sending is done in a separate
+ * thread, so that receiving and summation overlap with sending.<br>
+ * <br>
+ * Ranks find each other via {@link AllReduceCoordinator}. If the coordinator aborts the round, the vector is left
+ * unchanged and false is returned, so that the caller can fall back to regular averaging. If the round went on without
+ * this rank (late registration, or failure once the ring was set up), {@link MissedRoundException} is thrown: other
+ * ranks may have averaged parameters already, so the caller must not fall back to its own parameters.
+ */
+public class RingAllReduce {
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    protected final AllReduceRound round;
+    protected final int rank;
+    protected final String host;
+
+    /**
+     * @param round round description, as provided by the coordinator
+     * @param rank  rank of this worker, in range [0, numRanks)
+     * @param host  address of this machine, reachable from the other ranks
+     */
+    public RingAllReduce(@NonNull AllReduceRound round, int rank, @NonNull String host) {
+        if (rank < 0 || rank >= round.getNumRanks())
+            throw new IllegalArgumentException("Rank should be in range [0, " + round.getNumRanks() + "), got " + rank);
+
+        this.round = round;
+        this.rank = rank;
+        this.host = host;
+    }
+
+    /**
+     * Sum the vector elementwise over all ranks, in place
+     *
+     * @return true if vector now holds the sum, false if the round was aborted and vector was left unchanged
+     * @throws MissedRoundException if the round has completed without this rank
+     */
+    public boolean allReduce(@NonNull float[] vector) throws IOException {
+        return allReduce(new FloatVector(vector));
+    }
+
+    /**
+     * Sum the vector elementwise over all ranks, in place
+     *
+     * @return true if vector now holds the sum, false if the round was aborted and vector was left unchanged
+     * @throws MissedRoundException if the round has completed without this rank
+     */
+    public boolean allReduce(@NonNull double[] vector) throws IOException {
+        return allReduce(new DoubleVector(vector));
+    }
+
+    protected boolean allReduce(Vector vector) throws IOException {
+        int soTimeout = (int) Math.min(Integer.MAX_VALUE, round.getTimeoutMs());
+        int n = round.getNumRanks();
+
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            serverSocket.setSoTimeout(soTimeout);
+
+            InetSocketAddress[] peers = register(vector.length(), serverSocket.getLocalPort());
+            if (peers == null)
+                return false;
+
+            if (n == 1)
+                return true;
+
+            try {
+                connectRing(vector, peers, serverSocket, soTimeout);
+            } catch (IOException e) {
+                throw new MissedRoundException("Ring allreduce failed for rank " + rank, e);
+            }
+        }
+
+        return true;
+    }
+
+    protected void connectRing(Vector vector, InetSocketAddress[] peers, ServerSocket serverSocket, int soTimeout)
+                    throws IOException {
+        int n = round.getNumRanks();
+
+        //Connections are established before accepting: pending connection waits in the backlog, so no deadlock here
+        try (Socket next = new Socket()) {
+            next.connect(peers[(rank + 1) % n], soTimeout);
+            next.setSoTimeout(soTimeout);
+            next.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(next.getOutputStream(),
+                            vector.bytesPerElement() * round.getChunkSize()));
+            out.writeLong(round.getRoundId());
+            out.writeInt(rank);
+            out.flush();
+
+            try (Socket previous = serverSocket.accept()) {
+                previous.setSoTimeout(soTimeout);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(previous.getInputStream()));
+                long id = in.readLong();
+                int from = in.readInt();
+                if (id != round.getRoundId() || from != (rank - 1 + n) % n)
+                    throw new IOException("Unexpected ring connection: round " + id + ", rank " + from);
+
+                ring(vector, in, out);
+            }
+        }
+    }
+
+    protected InetSocketAddress[] register(long length, int port) throws IOException {
+        try (Socket socket = new Socket()) {
+            int soTimeout = (int) Math.min(Integer.MAX_VALUE, 2 * round.getTimeoutMs());
+            socket.connect(new InetSocketAddress(round.getCoordinatorHost(), round.getCoordinatorPort()), soTimeout);
+            socket.setSoTimeout(soTimeout);
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeLong(round.getRoundId());
+            out.writeInt(rank);
+            out.writeLong(length);
+            out.writeUTF(host);
+            out.writeInt(port);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte status = in.readByte();
+            if (status == AllReduceCoordinator.STATUS_ABORTED)
+                return null;
+            if (status == AllReduceCoordinator.STATUS_COMPLETED)
+                throw new MissedRoundException("Allreduce round was completed before rank " + rank + " registered");
+
+            //Round is completed at this point, so any failure below means it goes on without us
+            try {
+                InetSocketAddress[] peers = new InetSocketAddress[round.getNumRanks()];
+                for (int i = 0; i < peers.length; i++) {
+                    String h = in.readUTF();
+                    peers[i] = new InetSocketAddress(h, in.readInt());
+                }
+                return peers;
+            } catch (IOException e) {
+                throw new MissedRoundException("Failed to receive peers for rank " + rank, e);
+            }
+        }
+    }
+
+    protected void ring(final Vector vector, DataInputStream in, final DataOutputStream out) throws IOException {
+        final int n = round.getNumRanks();
+        ExecutorService sender = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "RingAllReduce sender, rank " + rank);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        try {
+            byte[] receiveBuffer = new byte[vector.bytesPerElement() * round.getChunkSize()];
+
+            //Reduce-scatter: after step s, segment (rank - s - 1) holds the sum over s + 2 ranks
+            for (int s = 0; s < n - 1; s++) {
+                Future<?> f = send(sender, vector, out, segment(rank - s, vector.length()));
+                receive(vector, in, segment(rank - s - 1, vector.length()), receiveBuffer, true);
+                await(f);
+            }
+
+            //Allgather: segment (rank + 1) is fully reduced at this point, pass reduced segments around the ring
+            for (int s = 0; s < n - 1; s++) {
+                Future<?> f = send(sender, vector, out, segment(rank + 1 - s, vector.length()));
+                receive(vector, in, segment(rank - s, vector.length()), receiveBuffer, false);
+                await(f);
+            }
+        } finally {
+            sender.shutdownNow();
+        }
+    }
+
+    /**
+     * @return [from, to) element range of the given segment
+     */
+    protected long[] segment(int index, int length) {
+        int n = round.getNumRanks();
+        long idx = ((index % n) + n) % n;
+        return new long[] {length * idx / n, length * (idx + 1) / n};
+    }
+
+    private Future<?> send(ExecutorService sender, final Vector vector, final DataOutputStream out,
+                    final long[] range) {
+        return sender.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                ByteBuffer buffer = ByteBuffer.allocate(vector.bytesPerElement() * round.getChunkSize());
+                for (long from = range[0]; from < range[1]; from += round.getChunkSize()) {
+                    int len = (int) Math.min(round.getChunkSize(), range[1] - from);
+                    buffer.clear();
+                    vector.get((int) from, len, buffer);
+                    out.write(buffer.array(), 0, len * vector.bytesPerElement());
+                }
+                out.flush();
+                return null;
+            }
+        });
+    }
+
+    private void receive(Vector vector, DataInputStream in, long[] range, byte[] buffer, boolean add)
+                    throws IOException {
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        for (long from = range[0]; from < range[1]; from += round.getChunkSize()) {
+            int len = (int) Math.min(round.getChunkSize(), range[1] - from);
+            in.readFully(buffer, 0, len * vector.bytesPerElement());
+            wrapped.clear();
+            if (add)
+                vector.add((int) from, len, wrapped);
+            else
+                vector.set((int) from, len, wrapped);
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending data", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException("Failed to send data", e.getCause());
+        }
+    }
+
+    protected interface Vector {
+        int length();
+
+        int bytesPerElement();
+
+        void get(int offset, int length, ByteBuffer target);
+
+        void add(int offset, int length, ByteBuffer source);
+
+        void set(int offset, int length, ByteBuffer source);
+    }
+
+    protected static class FloatVector implements Vector {
+        private final float[] data;
+
+        protected FloatVector(float[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public int bytesPerElement() {
+            return 4;
+        }
+
+        @Override
+        public void get(int offset, int length, ByteBuffer target) {
+            target.asFloatBuffer().put(data, offset, length);
+        }
+
+        @Override
+        public void add(int offset, int length, ByteBuffer source) {
+            for (int i = 0; i < length; i++)
+                data[offset + i] += source.getFloat(4 * i);
+        }
+
+        @Override
+        public void set(int offset, int length, ByteBuffer source) {
+            source.asFloatBuffer().get(data, offset, length);
+        }
+    }
+
+    protected static class DoubleVector implements Vector {
+        private final double[] data;
+
+        protected DoubleVector(double[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int length() {
+            return data.length;
+        }
+
+        @Override
+        public int bytesPerElement() {
+            return 8;
+        }
+
+        @Override
+        public void get(int offset, int length, ByteBuffer target) {
+            target.asDoubleBuffer().put(data, offset, length);
+        }
+
+        @Override
+        public void add(int offset, int length, ByteBuffer source) {
+            for (int i = 0; i < length; i++)
+                data[offset + i] += source.getDouble(8 * i);
+        }
+
+        @Override
+        public void set(int offset, int length, ByteBuffer source) {
+            source.asDoubleBuffer().get(data, offset, length);
+        }
+    }
+
+    /**
+     * Thrown when the round went on without this rank. Parameters of this rank must not be used in any way: they are
+     * either accounted for by the round already (retried or speculative task), or the ring is broken.
+     */
+    public static class MissedRoundException extends IOException {
+        public MissedRoundException(String message) {
+            super(message);
+        }
+
+        public MissedRoundException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.deeplearning4j.spark.impl.paramavg.allreduce;
+
+import org.deeplearning4j.spark.BaseSparkTest;
+import org.deeplearning4j.spark.api.RDDTrainingApproach;
+import org.deeplearning4j.spark.api.Repartition;
+import org.deeplearning4j.spark.impl.multilayer.SparkDl4jMultiLayer;
+import org.deeplearning4j.spark.impl.paramavg.ParameterAveragingTrainingMaster;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TestRingAllReduce extends BaseSparkTest {
+
+    /**
+     * Runs allreduce for all ranks in separate threads, over loopback
+     *
+     * @return per-rank results of RingAllReduce.allReduce()
+     */
+    private static boolean[] runRanks(AllReduceRound round, final Object[] vectors, int numRanks) throws Exception {
+        final boolean[] results = new boolean[numRanks];
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[numRanks];
+        for (int r = 0; r < numRanks; r++) {
+            final int rank = r;
+            final RingAllReduce ring = new RingAllReduce(round, rank, "localhost");
+            threads[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (vectors[rank] instanceof float[])
+                            results[rank] = ring.allReduce((float[]) vectors[rank]);
+                        else
+                            results[rank] = ring.allReduce((double[]) vectors[rank]);
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                }
+            });
+            threads[r].start();
+        }
+
+        for (Thread t : threads)
+            t.join();
+
+        if (failure.get() != null)
+            throw new RuntimeException(failure.get());
+
+        return results;
+    }
+
+    @Test
+    public void testAllReduceSum() throws Exception {
+        Random r = new Random(12345);
+        for (int numRanks : new int[] {1, 2, 3, 5}) {
+            for (int length : new int[] {2, 7, 1000}) {
+                float[][] floats = new float[numRanks][length];
+                double[][] doubles = new double[numRanks][length];
+                double[] expected = new double[length];
+                for (int i = 0; i < numRanks; i++) {
+                    for (int j = 0; j < length; j++) {
+                        doubles[i][j] = r.nextGaussian();
+                        floats[i][j] = (float) doubles[i][j];
+                        expected[j] += doubles[i][j];
+                    }
+                }
+
+                for (Object[] vectors : new Object[][] {floats, doubles}) {
+                    try (AllReduceCoordinator coordinator = new AllReduceCoordinator(numRanks, 10000)) {
+                        //Small chunks, to test chunked transfers
+                        boolean[] results = runRanks(coordinator.getRound("localhost", 7), vectors, numRanks);
+                        assertTrue(coordinator.isCompleted());
+
+                        for (int i = 0; i < numRanks; i++) {
+                            assertTrue(results[i]);
+                            for (int j = 0; j < length; j++) {
+                                double actual = vectors == floats ? floats[i][j] : doubles[i][j];
+                                assertEquals("Ranks: " + numRanks + ", length: " + length, expected[j], actual,
+                                                1e-4);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAbortOnTimeout() throws Exception {
+        try (AllReduceCoordinator coordinator = new AllReduceCoordinator(3, 500)) {
+            AllReduceRound round = coordinator.getRound("localhost", RingAllReduce.DEFAULT_CHUNK_SIZE);
+
+            //Only 2 of 3 ranks show up: round is aborted, and vectors are left as is
+            double[][] vectors = {{1, 2, 3}, {4, 5, 6}};
+            boolean[] results = runRanks(round, vectors, 2);
+            assertFalse(results[0]);
+            assertFalse(results[1]);
+            assertTrue(coordinator.isAborted());
+            assertArrayEquals(new double[] {1, 2, 3}, vectors[0], 0.0);
+            assertArrayEquals(new double[] {4, 5, 6}, vectors[1], 0.0);
+
+            //Late rank is told to fall back immediately
+            assertFalse(new RingAllReduce(round, 2, "localhost").allReduce(new double[] {7, 8, 9}));
+        }
+    }
+
+    @Test
+    public void testLateRankAfterCompletion() throws Exception {
+        try (AllReduceCoordinator coordinator = new AllReduceCoordinator(2, 10000)) {
+            AllReduceRound round = coordinator.getRound("localhost", RingAllReduce.DEFAULT_CHUNK_SIZE);
+
+            double[][] vectors = {{1, 2, 3}, {4, 5, 6}};
+            boolean[] results = runRanks(round, vectors, 2);
+            assertTrue(results[0]);
+            assertTrue(coordinator.isCompleted());
+
+            //Retried task: its parameters are accounted for already, so it must not fall back to them
+            try {
+                new RingAllReduce(round, 0, "localhost").allReduce(new double[] {1, 2, 3});
+                fail("Expected exception");
+            } catch (RingAllReduce.MissedRoundException e) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testCompareToTreeAggregate() {
+        INDArray initialParams = getBasicNetwork().getNetwork().params().dup();
+
+        INDArray[] params = new INDArray[2];
+        for (int i = 0; i < 2; i++) {
+            boolean allReduce = i == 1;
+            ParameterAveragingTrainingMaster tm = new ParameterAveragingTrainingMaster.Builder(numExecutors(), 1)
+                            .batchSizePerWorker(10).averagingFrequency(1).saveUpdater(true)
+                            .repartionData(Repartition.Never).rddTrainingApproach(RDDTrainingApproach.Direct)
+                            .rngSeed(12345).allReduce(allReduce).allReduceChunkSize(16).build();
+            assertEquals(allReduce, tm.isAllReduce());
+
+            SparkDl4jMultiLayer sparkNet = new SparkDl4jMultiLayer(sc, getBasicConf(), tm);
+            sparkNet.getNetwork().setParams(initialParams.dup());
+            sparkNet.fit(sparkData);
+            params[i] = sparkNet.getNetwork().params().dup();
+        }
+
+        assertNotEquals(initialParams, params[0]);
+        assertTrue(Arrays.toString(params[0].data().asFloat()), params[0].equalsWithEps(params[1], 1e-5));
+    }
+}
@@ -2405,6 +2405,96 @@ void NativeOps::shuffleHalf(Nd4jPointer *extras,
     // no-op
 }
 
+/**
+ * Number of elements processed by both ops of a MetaOp at once: tile is small enough to stay in cache between ops,
+ * so fused op makes a single pass over memory instead of two
+ */
+#define META_TILE_LENGTH 2048
+
+template <typename T>
+static void execMetaStep(const int opType, const int opNum, T *dx, Nd4jLong xStride, T *dy, Nd4jLong yStride, T *dz, Nd4jLong zStride, T *extras, T scalar, Nd4jLong N) {
+    switch (opType) {
+        case 0:
+            NativeOpExcutioner<T>::execScalar(opNum, dx, xStride, dz, zStride, scalar, extras, N);
+            break;
+        case 1:
+            NativeOpExcutioner<T>::execTransform(opNum, dx, xStride, dz, zStride, extras, N);
+            break;
+        case 2:
+            NativeOpExcutioner<T>::execPairwiseTransform(opNum, dx, xStride, dy, yStride, dz, zStride, extras, N);
+            break;
+        default:
+            nd4j_printf("Unsupported opType for MetaOp: [%i]\n", opType);
+    }
+}
+
+template <typename T>
+static void execMetaStep(const int opType, const int opNum, T *dx, Nd4jLong *xShapeInfo, T *dy, Nd4jLong *yShapeInfo, T *dz, Nd4jLong *zShapeInfo, T *extras, T scalar) {
+    switch (opType) {
+        case 0:
+            NativeOpExcutioner<T>::execScalar(opNum, dx, xShapeInfo, dz, zShapeInfo, scalar, extras);
+            break;
+        case 1:
+            NativeOpExcutioner<T>::execTransform(opNum, dx, xShapeInfo, dz, zShapeInfo, extras, nullptr, nullptr);
+            break;
+        case 2:
+            NativeOpExcutioner<T>::execPairwiseTransform(opNum, dx, xShapeInfo, dy, yShapeInfo, dz, zShapeInfo, extras);
+            break;
+        default:
+            nd4j_printf("Unsupported opType for MetaOp: [%i]\n", opType);
+    }
+}
+
+/**
+ * PredicateMetaOp: z = opB(opA(x), y), InvertedPredicateMetaOp (opA is pairwise): z = opB(opA(x, y))
+ *
+ * Both ops are applied tile by tile, tiles are processed in parallel
+ */
+template <typename T>
+static void execMetaPredicateStridedGeneric(const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, T *dx, Nd4jLong xStride, T *dy, Nd4jLong yStride, T *dz, Nd4jLong zStride, T *extraA, T *extraB, T scalarA, T scalarB) {
+    Nd4jLong numTiles = (N + META_TILE_LENGTH - 1) / META_TILE_LENGTH;
+
+#pragma omp parallel for schedule(guided) if (N > ELEMENT_THRESHOLD) default(shared)
+    for (Nd4jLong e = 0; e < numTiles; e++) {
+        Nd4jLong start = e * META_TILE_LENGTH;
+        Nd4jLong length = nd4j::math::nd4j_min<Nd4jLong>(META_TILE_LENGTH, N - start);
+
+        T *x = dx + start * xStride;
+        T *y = dy == nullptr ? nullptr : dy + start * yStride;
+        T *z = dz + start * zStride;
+
+        if (opTypeA == 2) {
+            execMetaStep<T>(opTypeA, opNumA, x, xStride, y, yStride, z, zStride, extraA, scalarA, length);
+            execMetaStep<T>(opTypeB, opNumB, z, zStride, nullptr, 0, z, zStride, extraB, scalarB, length);
+        } else {
+            execMetaStep<T>(opTypeA, opNumA, x, xStride, nullptr, 0, z, zStride, extraA, scalarA, length);
+            execMetaStep<T>(opTypeB, opNumB, z, zStride, y, yStride, z, zStride, extraB, scalarB, length);
+        }
+    }
+}
+
+template <typename T>
+static void execMetaPredicateShapeGeneric(const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, T *dx, Nd4jLong *xShapeInfo, T *dy, Nd4jLong *yShapeInfo, T *dz, Nd4jLong *zShapeInfo, T *extraA, T *extraB, T scalarA, T scalarB) {
+    auto xEws = shape::elementWiseStride(xShapeInfo);
+    auto zEws = shape::elementWiseStride(zShapeInfo);
+    auto yEws = dy == nullptr ? xEws : shape::elementWiseStride(yShapeInfo);
+    bool sameOrder = shape::order(xShapeInfo) == shape::order(zShapeInfo) && (dy == nullptr || shape::order(xShapeInfo) == shape::order(yShapeInfo));
+
+    if (xEws >= 1 && yEws >= 1 && zEws >= 1 && sameOrder) {
+        execMetaPredicateStridedGeneric<T>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xEws, dy, yEws, dz, zEws, extraA, extraB, scalarA, scalarB);
+        return;
+    }
+
+    // no way to tile arbitrary strides here, so ops are just applied one after another
+    if (opTypeA == 2) {
+        execMetaStep<T>(opTypeA, opNumA, dx, xShapeInfo, dy, yShapeInfo, dz, zShapeInfo, extraA, scalarA);
+        execMetaStep<T>(opTypeB, opNumB, dz, zShapeInfo, nullptr, nullptr, dz, zShapeInfo, extraB, scalarB);
+    } else {
+        execMetaStep<T>(opTypeA, opNumA, dx, xShapeInfo, nullptr, nullptr, dz, zShapeInfo, extraA, scalarA);
+        execMetaStep<T>(opTypeB, opNumB, dz, zShapeInfo, dy, yShapeInfo, dz, zShapeInfo, extraB, scalarB);
+    }
+}
+
 void NativeOps::execMetaPredicateReduceFloat(Nd4jPointer *extras,
                                              const int opTypeA,
                                              const int opNumA,
@@ -2433,7 +2523,7 @@ bool NativeOps::isExperimentalEnabled() {
 }
 
 void NativeOps::execMetaPredicateShapeFloat(Nd4jPointer *extras, const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, float *dx, Nd4jLong *xShapeInfo, float *dy, Nd4jLong *yShapeInfo, float *dz, Nd4jLong *zShapeInfo, float *extraA, float *extraB, float scalarA, float scalarB) {
-    // no-op;
+    execMetaPredicateShapeGeneric<float>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xShapeInfo, dy, yShapeInfo, dz, zShapeInfo, extraA, extraB, scalarA, scalarB);
 }
 
 void NativeOps::setOmpMinThreads(int threads) {
@@ -2441,23 +2531,23 @@ void NativeOps::setOmpMinThreads(int threads) {
 }
 
 void NativeOps::execMetaPredicateStridedFloat(Nd4jPointer *extras, const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, float *dx, Nd4jLong xStride, float *dy, Nd4jLong yStride, float *dz, Nd4jLong zStride, float *extraA, float *extraB, float scalarA, float scalarB) {
-    // no-op
+    execMetaPredicateStridedGeneric<float>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xStride, dy, yStride, dz, zStride, extraA, extraB, scalarA, scalarB);
 }
 
 void NativeOps::execMetaPredicateShapeDouble(Nd4jPointer *extras, const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, double *dx, Nd4jLong *xShapeInfo, double *dy, Nd4jLong *yShapeInfo, double *dz, Nd4jLong *zShapeInfo, double *extraA, double *extraB, double scalarA, double scalarB) {
-    // no-op;
+    execMetaPredicateShapeGeneric<double>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xShapeInfo, dy, yShapeInfo, dz, zShapeInfo, extraA, extraB, scalarA, scalarB);
 }
 
 void NativeOps::execMetaPredicateStridedDouble(Nd4jPointer *extras, const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, double *dx, Nd4jLong xStride, double *dy, Nd4jLong yStride, double *dz, Nd4jLong zStride, double *extraA, double *extraB, double scalarA, double scalarB) {
-    // no-op
+    execMetaPredicateStridedGeneric<double>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xStride, dy, yStride, dz, zStride, extraA, extraB, scalarA, scalarB);
 }
 
 void NativeOps::execMetaPredicateShapeHalf(Nd4jPointer *extras, const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, float16 *dx, Nd4jLong *xShapeInfo, float16 *dy, Nd4jLong *yShapeInfo, float16 *dz, Nd4jLong *zShapeInfo, float16 *extraA, float16 *extraB, float scalarA, float scalarB) {
-    // no-op;
+    execMetaPredicateShapeGeneric<float16>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xShapeInfo, dy, yShapeInfo, dz, zShapeInfo, extraA, extraB, (float16) scalarA, (float16) scalarB);
 }
 
 void NativeOps::execMetaPredicateStridedHalf(Nd4jPointer *extras, const int opTypeA, const int opNumA, const int opTypeB, const int opNumB, Nd4jLong N, float16 *dx, Nd4jLong xStride, float16 *dy, Nd4jLong yStride, float16 *dz, Nd4jLong zStride, float16 *extraA, float16 *extraB, float scalarA, float scalarB) {
-    // no-op
+    execMetaPredicateStridedGeneric<float16>(opTypeA, opNumA, opTypeB, opNumB, N, dx, xStride, dy, yStride, dz, zStride, extraA, extraB, (float16) scalarA, (float16) scalarB);
 }
 
 int NativeOps::getDevice() {
@@ -0,0 +1,581 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.autodiff.samediff;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.autodiff.functions.DifferentialFunction;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.*;
+import org.nd4j.linalg.api.ops.impl.controlflow.If;
+import org.nd4j.linalg.api.ops.impl.controlflow.While;
+import org.nd4j.linalg.api.ops.impl.controlflow.compat.*;
+import org.nd4j.linalg.api.ops.impl.shape.tensorops.BaseTensorOp;
+import org.nd4j.linalg.api.ops.impl.transforms.gradient.GradientBackwardsMarker;
+import org.nd4j.linalg.api.ops.impl.transforms.temp.ExternalErrorsFunction;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.util.ArrayUtil;
+
+import java.util.*;
+
+/**
+ * Ahead-of-time compiled execution plan for a {@link SameDiff} graph, created via {@link SameDiff#compile(Map, String...)}.<br>
+ * <br>
+ * At compile time placeholder shapes are fixed, and everything that doesn't depend on actual input values is resolved once:
+ * <ul>
+ *     <li>ops required for the requested outputs are topologically sorted, everything else is pruned</li>
+ *     <li>shapes of all intermediate variables are resolved</li>
+ *     <li>intermediate arrays get static slots within single arena, and slots are reused once their
+ *     previous tenant isn't live anymore</li>
+ * </ul>
+ * So {@link #exec(Map)} doesn't walk the graph, doesn't infer shapes and doesn't allocate arrays.<br>
+ * <br>
+ * PLEASE NOTE:
+ * <ul>
+ *     <li>Only inference graphs without control flow (Switch/Merge/Enter/Exit, If/While, TensorArrays) are supported</li>
+ *     <li>Output shapes are assumed to depend on placeholder shapes only, not on their values</li>
+ *     <li>Arrays returned by {@link #exec(Map)} are owned by the plan, and will be overwritten on next call</li>
+ *     <li>Op instances are shared with the parent SameDiff instance, so plan execution is synchronized</li>
+ * </ul>
+ */
+@Slf4j
+public class ExecutionPlan {
+    // slot offsets are aligned to this number of elements
+    private static final long ALIGNMENT = 8;
+
+    private final SameDiff sameDiff;
+    private final Step[] steps;
+
+    @Getter
+    private final List<String> placeholders;
+    @Getter
+    private final List<String> outputs;
+    private final Map<String, long[]> placeholderShapes;
+    private final Map<String, long[]> shapes;
+
+    // binding of each output variable: slot index, or -1 for alias of placeholder
+    private final int[] outputPlaceholders;
+    private final INDArray[] outputArrays;
+
+    /**
+     * Size of the arena holding all intermediate arrays, in bytes
+     */
+    @Getter
+    private final long arenaBytes;
+
+    /**
+     * Total size of all intermediate arrays without buffer reuse, in bytes
+     */
+    @Getter
+    private final long naiveBytes;
+
+    /**
+     * Number of distinct buffer slots within arena
+     */
+    @Getter
+    private final int numSlots;
+
+    private final INDArray arena;
+
+    protected ExecutionPlan(@NonNull SameDiff sameDiff, @NonNull Map<String, long[]> placeholderShapes, String... requestedOutputs) {
+        this.sameDiff = sameDiff;
+        this.placeholderShapes = new LinkedHashMap<>(placeholderShapes);
+        this.placeholders = Collections.unmodifiableList(new ArrayList<>(placeholderShapes.keySet()));
+
+        for (val name : placeholders) {
+            if (!sameDiff.isPlaceHolder(name))
+                throw new ND4JIllegalStateException("Variable [" + name + "] is not a place holder");
+
+            val shape = placeholderShapes.get(name);
+            if (shape == null)
+                throw new ND4JIllegalStateException("No shape specified for place holder [" + name + "]");
+
+            for (long d : shape)
+                if (d < 1)
+                    throw new ND4JIllegalStateException("Place holder shapes should be fully defined, but got " + Arrays.toString(shape) + " for [" + name + "]");
+        }
+
+        // which variable is produced by which op
+        val producers = new HashMap<String, DifferentialFunction>();
+        val list = new ArrayList<DifferentialFunction>();
+        for (val df : sameDiff.functions())
+            if (!(df instanceof SDVariable))
+                list.add(df);
+
+        val functions = list.toArray(new DifferentialFunction[list.size()]);
+        for (val df : functions) {
+            validate(df);
+            val outs = sameDiff.getOutputsForFunction(df);
+            if (outs != null)
+                for (val out : outs)
+                    producers.put(out, df);
+        }
+
+        for (val variable : sameDiff.variables()) {
+            val name = variable.getVarName();
+            if (sameDiff.isPlaceHolder(name) && !placeholderShapes.containsKey(name) && isConsumed(name))
+                throw new ND4JIllegalStateException("No shape specified for place holder [" + name + "]");
+        }
+
+        // outputs: either explicitly requested, or all variables that aren't consumed by any op
+        val outs = new ArrayList<String>();
+        if (requestedOutputs != null && requestedOutputs.length > 0) {
+            for (val name : requestedOutputs) {
+                if (sameDiff.getVariable(name) == null)
+                    throw new ND4JIllegalStateException("No variable found for requested output [" + name + "]");
+                outs.add(name);
+            }
+        } else {
+            val consumed = new HashSet<String>();
+            for (val df : functions)
+                Collections.addAll(consumed, sameDiff.getInputsForFunction(df));
+
+            for (val df : functions) {
+                val names = sameDiff.getOutputsForFunction(df);
+                if (names != null)
+                    for (val name : names)
+                        if (!consumed.contains(name))
+                            outs.add(name);
+            }
+        }
+        this.outputs = Collections.unmodifiableList(outs);
+
+        val order = topologicalSort(functions, producers, outs);
+
+        // single warm-up pass with dummy place holders resolves output shapes and custom op arguments
+        val dummies = new LinkedHashMap<String, INDArray>();
+        for (val name : placeholders)
+            dummies.put(name, Nd4j.zeros(placeholderShapes.get(name)));
+        sameDiff.execWithPlaceHolder(dummies);
+
+        this.shapes = new HashMap<>();
+        for (val df : order) {
+            for (val name : sameDiff.getOutputsForFunction(df)) {
+                val arr = sameDiff.getArrForVarName(name);
+                if (arr == null)
+                    throw new ND4JIllegalStateException("Unable to resolve shape for variable [" + name + "]");
+                shapes.put(name, arr.shape());
+            }
+        }
+
+        // in-place ops write into one of their inputs, so their outputs share the buffer of that input.
+        // views (reshape, permute etc) share the buffer as well, but with different layout, so they get their own slots
+        val alias = new HashMap<String, String>();
+        for (val df : order) {
+            val ins = sameDiff.getInputsForFunction(df);
+            for (val out : sameDiff.getOutputsForFunction(df)) {
+                val outArr = sameDiff.getArrForVarName(out);
+                for (val in : ins) {
+                    val inArr = sameDiff.getArrForVarName(in);
+                    if (inArr != null && isSameView(inArr, outArr)) {
+                        alias.put(out, root(in, alias));
+                        break;
+                    }
+                }
+            }
+        }
+
+        // liveness analysis: last step that reads each buffer
+        val lastUse = new HashMap<String, Integer>();
+        for (int i = 0; i < order.size(); i++) {
+            for (val in : sameDiff.getInputsForFunction(order.get(i)))
+                lastUse.put(root(in, alias), i);
+            for (val out : sameDiff.getOutputsForFunction(order.get(i))) {
+                val r = root(out, alias);
+                if (!lastUse.containsKey(r) || lastUse.get(r) < i)
+                    lastUse.put(r, i);
+            }
+        }
+        for (val out : outs)
+            lastUse.put(root(out, alias), Integer.MAX_VALUE);
+
+        // greedy best-fit slot assignment, done in execution order
+        val slotSizes = new ArrayList<Long>();
+        val freeSlots = new ArrayList<Integer>();
+        val slotOf = new HashMap<String, Integer>();
+        long naive = 0;
+        for (int i = 0; i < order.size(); i++) {
+            val df = order.get(i);
+            for (val out : sameDiff.getOutputsForFunction(df)) {
+                if (alias.containsKey(out))
+                    continue;
+
+                long length = align(ArrayUtil.prodLong(shapes.get(out)));
+                naive += length;
+
+                int best = -1;
+                for (int f = 0; f < freeSlots.size(); f++) {
+                    long size = slotSizes.get(freeSlots.get(f));
+                    if (best < 0) {
+                        best = f;
+                        continue;
+                    }
+
+                    long bestSize = slotSizes.get(freeSlots.get(best));
+                    if ((size >= length && (bestSize < length || size < bestSize)) || (bestSize < length && size > bestSize))
+                        best = f;
+                }
+
+                int slot;
+                if (best >= 0) {
+                    // slot can grow, since arena isn't allocated yet
+                    slot = freeSlots.remove(best);
+                    slotSizes.set(slot, Math.max(slotSizes.get(slot), length));
+                } else {
+                    slot = slotSizes.size();
+                    slotSizes.add(length);
+                }
+                slotOf.put(out, slot);
+            }
+
+            // buffers are released only after outputs were assigned, so op never writes into its own input
+            val released = new HashSet<String>();
+            for (val in : sameDiff.getInputsForFunction(df))
+                released.add(root(in, alias));
+            for (val out : sameDiff.getOutputsForFunction(df))
+                released.add(root(out, alias));
+
+            for (val r : released)
+                if (slotOf.containsKey(r) && lastUse.get(r) == i)
+                    freeSlots.add(slotOf.get(r));
+        }
+
+        val offsets = new long[slotSizes.size()];
+        long total = 0;
+        for (int s = 0; s < offsets.length; s++) {
+            offsets[s] = total;
+            total += slotSizes.get(s);
+        }
+
+        val elementSize = Nd4j.sizeOfDataType();
+        this.numSlots = offsets.length;
+        this.arenaBytes = total * elementSize;
+        this.naiveBytes = naive * elementSize;
+        this.arena = total > 0 ? Nd4j.createUninitializedDetached(new long[] {1, total}) : null;
+
+        // binding all variables to their final arrays
+        val bound = new HashMap<String, INDArray>();
+        for (val df : order) {
+            for (val out : sameDiff.getOutputsForFunction(df)) {
+                if (alias.containsKey(out))
+                    continue;
+
+                val template = sameDiff.getArrForVarName(out);
+                val shape = shapes.get(out);
+                if (template.data().dataType() != Nd4j.dataType()) {
+                    bound.put(out, Nd4j.createUninitializedDetached(shape, template.ordering()));
+                } else {
+                    bound.put(out, Nd4j.create(arena.data(), shape, Nd4j.getStrides(shape, template.ordering()),
+                                    offsets[slotOf.get(out)], template.ordering()));
+                }
+            }
+        }
+
+        this.steps = new Step[order.size()];
+        for (int i = 0; i < steps.length; i++)
+            steps[i] = new Step(order.get(i), alias, bound);
+
+        this.outputPlaceholders = new int[outs.size()];
+        this.outputArrays = new INDArray[outs.size()];
+        for (int i = 0; i < outs.size(); i++) {
+            val r = root(outs.get(i), alias);
+            outputPlaceholders[i] = placeholders.indexOf(r);
+            outputArrays[i] = bound.containsKey(r) ? bound.get(r) : sameDiff.getArrForVarName(r);
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("Compiled plan: {} of {} ops, {} slots, arena: {} bytes, without reuse: {} bytes",
+                            steps.length, functions.length, numSlots, arenaBytes, naiveBytes);
+    }
+
+    /**
+     * This method executes the plan for given place holder arrays
+     *
+     * @param inputs place holder arrays, shapes must match shapes the plan was compiled for
+     * @return map of output variable names to output arrays. These arrays are owned by the plan, and will be overwritten on next call
+     */
+    public synchronized Map<String, INDArray> exec(@NonNull Map<String, INDArray> inputs) {
+        val phs = new INDArray[placeholders.size()];
+        for (int i = 0; i < phs.length; i++) {
+            val name = placeholders.get(i);
+            val arr = inputs.get(name);
+            if (arr == null)
+                throw new ND4JIllegalStateException("No array was provided for place holder [" + name + "]");
+
+            if (!Arrays.equals(arr.shape(), placeholderShapes.get(name)))
+                throw new ND4JIllegalStateException("Place holder [" + name + "] was compiled for shape " + Arrays.toString(placeholderShapes.get(name))
+                                + " but array shape was " + Arrays.toString(arr.shape()));
+            phs[i] = arr;
+        }
+
+        try {
+            for (val step : steps)
+                step.exec(phs);
+        } finally {
+            // op instances are shared with SameDiff, so we're giving them back their own arrays
+            for (val step : steps)
+                step.restore();
+        }
+
+        val result = new LinkedHashMap<String, INDArray>();
+        for (int i = 0; i < outputArrays.length; i++)
+            result.put(outputs.get(i), outputPlaceholders[i] >= 0 ? phs[outputPlaceholders[i]] : outputArrays[i]);
+
+        return result;
+    }
+
+    /**
+     * This method returns number of ops within this plan
+     *
+     * @return
+     */
+    public int numOps() {
+        return steps.length;
+    }
+
+    /**
+     * This method returns resolved shape for given variable
+     *
+     * @param varName name of the variable, must be produced by one of the ops in this plan
+     * @return
+     */
+    public long[] getShape(@NonNull String varName) {
+        val shape = shapes.get(varName);
+        return shape == null ? null : shape.clone();
+    }
+
+    protected static void validate(DifferentialFunction df) {
+        if (df instanceof GradientBackwardsMarker || df instanceof ExternalErrorsFunction)
+            throw new ND4JIllegalStateException("Compiled plans support inference graphs only, but op [" + df.getOwnName() + "] was found");
+
+        if (df instanceof Enter || df instanceof Exit || df instanceof Merge || df instanceof Switch || df instanceof NextIteration
+                        || df instanceof LoopCond || df instanceof If || df instanceof While || df instanceof BaseTensorOp)
+            throw new ND4JIllegalStateException("Control flow op [" + df.getOwnName() + "] of type " + df.getClass().getSimpleName()
+                            + " can't be compiled, use SameDiff.exec() instead");
+    }
+
+    protected boolean isConsumed(String varName) {
+        val consumers = sameDiff.getVariableArgOfFunctions(varName);
+        return consumers != null && !consumers.isEmpty();
+    }
+
+    protected List<DifferentialFunction> topologicalSort(DifferentialFunction[] functions, Map<String, DifferentialFunction> producers, List<String> outs) {
+        // only ops required for requested outputs are kept
+        val required = new HashSet<String>();
+        val stack = new ArrayDeque<String>(outs);
+        while (!stack.isEmpty()) {
+            val df = producers.get(stack.pop());
+            if (df == null || !required.add(df.getOwnName()))
+                continue;
+
+            Collections.addAll(stack, sameDiff.getInputsForFunction(df));
+        }
+
+        // Kahn's algorithm, original declaration order is used to break ties
+        val indegree = new HashMap<String, Integer>();
+        val dependants = new HashMap<String, List<DifferentialFunction>>();
+        for (val df : functions) {
+            if (!required.contains(df.getOwnName()))
+                continue;
+
+            int cnt = 0;
+            for (val in : sameDiff.getInputsForFunction(df)) {
+                val producer = producers.get(in);
+                if (producer == null || producer == df)
+                    continue;
+
+                cnt++;
+                List<DifferentialFunction> list = dependants.get(producer.getOwnName());
+                if (list == null) {
+                    list = new ArrayList<>();
+                    dependants.put(producer.getOwnName(), list);
+                }
+                list.add(df);
+            }
+            indegree.put(df.getOwnName(), cnt);
+        }
+
+        val position = new HashMap<String, Integer>();
+        for (int i = 0; i < functions.length; i++)
+            position.put(functions[i].getOwnName(), i);
+
+        val ready = new PriorityQueue<DifferentialFunction>(Math.max(1, required.size()), new Comparator<DifferentialFunction>() {
+            @Override
+            public int compare(DifferentialFunction o1, DifferentialFunction o2) {
+                return Integer.compare(position.get(o1.getOwnName()), position.get(o2.getOwnName()));
+            }
+        });
+
+        for (val df : functions)
+            if (required.contains(df.getOwnName()) && indegree.get(df.getOwnName()) == 0)
+                ready.add(df);
+
+        val result = new ArrayList<DifferentialFunction>(required.size());
+        while (!ready.isEmpty()) {
+            val df = ready.poll();
+            result.add(df);
+
+            val list = dependants.get(df.getOwnName());
+            if (list == null)
+                continue;
+
+            for (val d : list) {
+                int cnt = indegree.get(d.getOwnName()) - 1;
+                indegree.put(d.getOwnName(), cnt);
+                if (cnt == 0)
+                    ready.add(d);
+            }
+        }
+
+        if (result.size() != required.size())
+            throw new ND4JIllegalStateException("Graph contains cycles, and can't be compiled");
+
+        return result;
+    }
+
+    private static String root(String varName, Map<String, String> alias) {
+        String r = varName;
+        while (alias.containsKey(r))
+            r = alias.get(r);
+        return r;
+    }
+
+    private static boolean isSameView(INDArray a, INDArray b) {
+        return a.data() == b.data() && a.offset() == b.offset() && a.ordering() == b.ordering()
+                        && Arrays.equals(a.shape(), b.shape()) && Arrays.equals(a.stride(), b.stride());
+    }
+
+    private static long align(long length) {
+        return ((length + ALIGNMENT - 1) / ALIGNMENT) * ALIGNMENT;
+    }
+
+    /**
+     * Single op invocation with pre-bound arrays
+     */
+    private class Step {
+        private final DifferentialFunction function;
+        private final int[] dimensions;
+
+        // pre-bound arrays, null entries are resolved from place holders
+        private final INDArray[] inputs;
+        private final INDArray[] outputs;
+        private final int[] inputPlaceholders;
+        private final int[] outputPlaceholders;
+
+        // arrays held by SameDiff, restored after execution
+        private final INDArray[] originalInputs;
+        private final INDArray[] originalOutputs;
+
+        private Step(DifferentialFunction function, Map<String, String> alias, Map<String, INDArray> bound) {
+            this.function = function;
+            this.dimensions = function.getDimensions();
+
+            val ins = sameDiff.getInputsForFunction(function);
+            val outs = sameDiff.getOutputsForFunction(function);
+
+            inputs = new INDArray[ins.length];
+            inputPlaceholders = new int[ins.length];
+            originalInputs = new INDArray[ins.length];
+            for (int i = 0; i < ins.length; i++) {
+                val r = root(ins[i], alias);
+                inputPlaceholders[i] = placeholders.indexOf(r);
+                inputs[i] = bound.containsKey(r) ? bound.get(r) : sameDiff.getArrForVarName(r);
+                originalInputs[i] = sameDiff.getArrForVarName(ins[i]);
+            }
+
+            outputs = new INDArray[outs.length];
+            outputPlaceholders = new int[outs.length];
+            originalOutputs = new INDArray[outs.length];
+            for (int i = 0; i < outs.length; i++) {
+                val r = root(outs[i], alias);
+                outputPlaceholders[i] = placeholders.indexOf(r);
+                outputs[i] = bound.containsKey(r) ? bound.get(r) : sameDiff.getArrForVarName(r);
+                originalOutputs[i] = sameDiff.getArrForVarName(outs[i]);
+            }
+        }
+
+        private INDArray input(int i, INDArray[] phs) {
+            return inputPlaceholders[i] >= 0 ? phs[inputPlaceholders[i]] : inputs[i];
+        }
+
+        private INDArray output(int i, INDArray[] phs) {
+            return outputPlaceholders[i] >= 0 ? phs[outputPlaceholders[i]] : outputs[i];
+        }
+
+        private void exec(INDArray[] phs) {
+            if (function instanceof CustomOp) {
+                val op = (DynamicCustomOp) function;
+                for (int i = 0; i < inputs.length; i++)
+                    op.setInputArgument(i, input(i, phs));
+                for (int i = 0; i < outputs.length; i++)
+                    op.setOutputArgument(i, output(i, phs));
+
+                Nd4j.getExecutioner().exec(op);
+            } else if (function instanceof Op) {
+                val op = (Op) function;
+                if (inputs.length > 0)
+                    op.setX(input(0, phs));
+                if (inputs.length == 2)
+                    op.setY(input(1, phs));
+
+                val z = output(0, phs);
+                op.setZ(z);
+
+                if (dimensions == null)
+                    Nd4j.getExecutioner().exec(op);
+                else if (op.isExecSpecial())
+                    op.exec();
+                else if (function instanceof Accumulation)
+                    Nd4j.getExecutioner().exec((Accumulation) op, dimensions);
+                else if (function instanceof BroadcastOp)
+                    Nd4j.getExecutioner().exec((BroadcastOp) op, dimensions);
+                else if (function instanceof IndexAccumulation)
+                    Nd4j.getExecutioner().exec((IndexAccumulation) op, dimensions);
+                else if (function instanceof TransformOp)
+                    Nd4j.getExecutioner().exec((TransformOp) op, dimensions);
+                else
+                    Nd4j.getExecutioner().exec(op);
+
+                // some executioner paths may replace result array
+                if (op.z() != z)
+                    z.assign(op.z());
+            } else {
+                throw new ND4JIllegalStateException("Unknown function type: " + function.getClass().getName());
+            }
+        }
+
+        private void restore() {
+            if (function instanceof CustomOp) {
+                val op = (DynamicCustomOp) function;
+                for (int i = 0; i < originalInputs.length; i++)
+                    op.setInputArgument(i, originalInputs[i]);
+                for (int i = 0; i < originalOutputs.length; i++)
+                    op.setOutputArgument(i, originalOutputs[i]);
+            } else if (function instanceof Op) {
+                val op = (Op) function;
+                if (originalInputs.length > 0)
+                    op.setX(originalInputs[0]);
+                if (originalInputs.length == 2)
+                    op.setY(originalInputs[1]);
+                op.setZ(originalOutputs[0]);
+            }
+        }
+    }
+}
@@ -9799,6 +9799,21 @@ public class SameDiff {
         return exec();
     }
 
+
+    /**
+     * Compiles this graph into {@link ExecutionPlan} for the given place holder shapes.<br>
+     * Ops are topologically sorted, shapes are resolved and intermediate buffers are assigned within single arena once,
+     * so repeated {@link ExecutionPlan#exec(Map)} calls don't walk the graph and don't allocate arrays.<br>
+     * Recompile if place holder shapes change.
+     *
+     * @param placeholderShapes fully defined shapes for all place holders used by the graph
+     * @param outputs           names of the variables to return. If none specified, all variables not consumed by any op are returned
+     * @return compiled execution plan
+     */
+    public ExecutionPlan compile(@NonNull Map<String, long[]> placeholderShapes, String... outputs) {
+        return new ExecutionPlan(this, placeholderShapes, outputs);
+    }
+
     /**
      * Get the {@link SDVariable} associated with each function based on the
      * {@link DifferentialFunction#outputVariables()} ()}
@@ -22,7 +22,7 @@ package org.nd4j.linalg.compression;
  * @author Adam Gibson
  */
 public enum CompressionAlgorithm {
-    FLOAT8, FLOAT16, GZIP, INT8, INT16, NOOP, UNIT8, CUSTOM;
+    FLOAT8, FLOAT16, GZIP, INT8, INT16, NOOP, UNIT8, CUSTOM, TOPK, STOCHASTIC_INT8, SIGN;
 
     /**
      * Return the appropriate compression algorithm
@@ -53,6 +53,12 @@ public enum CompressionAlgorithm {
                 return UNIT8;
             case "CUSTOM":
                 return CUSTOM;
+            case "TOPK":
+                return TOPK;
+            case "STOCHASTIC_INT8":
+                return STOCHASTIC_INT8;
+            case "SIGN":
+                return SIGN;
             default:
                 throw new IllegalArgumentException("Wrong algorithm " + algorithm);
         }
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.linalg.compression;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * This interface describes lossy compressors suited for gradients sharing, similar to threshold encoding:
+ * encoding is applied to residual array, and whatever was encoded is subtracted from it in place.
+ * So, information lost during encoding isn't really lost: it stays in residual, and will be sent later (aka error feedback).
+ *
+ * Encoded messages are INT arrays, with the same 4-element header as threshold encoding uses:
+ * [0] - format-specific length, [1] - original length, [2] - format-specific float value, [3] - format id, as defined in {@link ThresholdCompression}
+ */
+public interface ErrorFeedbackCompressor extends NDArrayCompressor {
+
+    /**
+     * This method returns format id, stored at header position 3 of encoded messages
+     *
+     * @return
+     */
+    int getEncodingId();
+
+    /**
+     * This method returns max length of encoded message (in INT elements, header included) for array of given length
+     *
+     * @param length
+     * @return
+     */
+    long getMaxEncodedLength(long length);
+
+    /**
+     * This method encodes given residual array, and subtracts encoded values from it
+     *
+     * @param residual
+     * @return encoded message, or null if there's nothing to send
+     */
+    INDArray encode(INDArray residual);
+
+    /**
+     * This method decodes given message, and adds decoded values to target array
+     *
+     * @param encoded
+     * @param target
+     */
+    void decode(INDArray encoded, INDArray target);
+}
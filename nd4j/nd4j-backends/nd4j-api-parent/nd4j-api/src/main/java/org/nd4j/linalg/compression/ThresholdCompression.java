@@ -19,4 +19,9 @@ package org.nd4j.linalg.compression;
 public class ThresholdCompression {
     public static final int FLEXIBLE_ENCODING = 0;
     public static final int BITMAP_ENCODING = 1;
+
+    // format ids used by ErrorFeedbackCompressor implementations
+    public static final int TOPK_ENCODING = 2;
+    public static final int STOCHASTIC_INT8_ENCODING = 3;
+    public static final int SIGN_ENCODING = 4;
 }
@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.dataset;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.util.ArrayUtil;
+
+import java.io.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Memory mapped, columnar shard of many examples, as written by {@link DataSetShardWriter}.<br>
+ * <br>
+ * File layout:
+ * <pre>
+ *     header: magic, version, byte order, data type, number of examples, column descriptors
+ *     column 0: [numExamples, exampleShape...] values, c order, 64 bytes aligned
+ *     column 1: ...
+ * </pre>
+ * Each column holds one of the features/labels/mask arrays of all examples. Columns are memory mapped on open, so
+ * the shard doesn't consume heap or off-heap memory beyond the OS page cache.<br>
+ * <br>
+ * Contiguous ranges of examples are returned as views of the mapping, without any copy. Arbitrary sets of examples
+ * (i.e. shuffled minibatches) are gathered into new arrays.<br>
+ * <br>
+ * PLEASE NOTE: mapping is private, so in-place modification of returned views won't be written back to the file,
+ * but will be visible to subsequent reads from the same shard instance. Use {@link DataSet#copy()} if you're going
+ * to modify returned arrays in place.
+ */
+@Slf4j
+public class DataSetShard implements Closeable {
+    protected static final byte[] MAGIC = "ND4JSHRD".getBytes();
+    protected static final int VERSION = 1;
+    protected static final int ALIGNMENT = 64;
+
+    public enum Role {
+        FEATURES, LABELS, FEATURES_MASK, LABELS_MASK
+    }
+
+    /**
+     * Shuffling modes supported by the shard iterators
+     */
+    public enum ShuffleMode {
+        /**
+         * Sequential order. All minibatches are views of the mapped file
+         */
+        NONE,
+        /**
+         * Order of minibatches is shuffled every epoch, but examples within each minibatch stay the same.
+         * All minibatches are still views of the mapped file
+         */
+        BATCHES,
+        /**
+         * Order of examples is shuffled every epoch. Each minibatch is gathered into a new array
+         */
+        EXAMPLES
+    }
+
+    /**
+     * Descriptor of the single column within the shard
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class Column {
+        private final Role role;
+        private final int index;
+        private final long[] exampleShape;
+        private final long offset;
+
+        public long exampleLength() {
+            return ArrayUtil.prodLong(exampleShape);
+        }
+    }
+
+    @Getter
+    private final File file;
+    @Getter
+    private final DataBuffer.Type dataType;
+    @Getter
+    private final int numExamples;
+    @Getter
+    private final List<Column> columns;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+
+    // column -> mapped segments, each segment holds whole examples only
+    private final DataBuffer[][] segments;
+    private final int[] examplesPerSegment;
+
+    protected DataSetShard(@NonNull File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "r");
+        this.channel = raf.getChannel();
+
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+            byte[] magic = new byte[MAGIC.length];
+            dis.readFully(magic);
+            if (!Arrays.equals(MAGIC, magic))
+                throw new ND4JIllegalStateException("File [" + file + "] is not a DataSet shard");
+
+            int version = dis.readInt();
+            if (version != VERSION)
+                throw new ND4JIllegalStateException("Unsupported shard version: " + version);
+
+            ByteOrder order = dis.readBoolean() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            if (order != ByteOrder.nativeOrder())
+                throw new ND4JIllegalStateException("Shard was written with " + order + " byte order, but native byte order is "
+                                + ByteOrder.nativeOrder());
+
+            dataType = DataBuffer.Type.valueOf(dis.readUTF());
+            if (dataType != Nd4j.dataType())
+                throw new ND4JIllegalStateException("Shard was written with data type " + dataType
+                                + ", but current data type is " + Nd4j.dataType());
+
+            long examples = dis.readLong();
+            if (examples > Integer.MAX_VALUE)
+                throw new ND4JIllegalStateException("Shards with more than Integer.MAX_VALUE examples aren't supported");
+            numExamples = (int) examples;
+
+            int numColumns = dis.readInt();
+            List<Column> list = new ArrayList<>(numColumns);
+            for (int i = 0; i < numColumns; i++) {
+                Role role = Role.values()[dis.readInt()];
+                int index = dis.readInt();
+                long[] shape = new long[dis.readInt()];
+                for (int e = 0; e < shape.length; e++)
+                    shape[e] = dis.readLong();
+                list.add(new Column(role, index, shape, dis.readLong()));
+            }
+            columns = Collections.unmodifiableList(list);
+        } catch (EOFException e) {
+            raf.close();
+            throw new ND4JIllegalStateException("Shard file [" + file + "] is truncated");
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+
+        int elementSize = Nd4j.sizeOfDataType(dataType);
+        segments = new DataBuffer[columns.size()][];
+        examplesPerSegment = new int[columns.size()];
+        for (int c = 0; c < columns.size(); c++) {
+            Column column = columns.get(c);
+            long exampleBytes = column.exampleLength() * elementSize;
+            if (exampleBytes > Integer.MAX_VALUE) {
+                raf.close();
+                throw new ND4JIllegalStateException("Single example can't be larger than 2GB");
+            }
+
+            if (column.getOffset() + exampleBytes * numExamples > channel.size()) {
+                raf.close();
+                throw new ND4JIllegalStateException("Shard file [" + file + "] is truncated");
+            }
+
+            // single mapping can't exceed 2GB, so large columns are split into multiple segments
+            int perSegment = (int) Math.max(1, Math.min(numExamples, Integer.MAX_VALUE / exampleBytes));
+            int numSegments = numExamples == 0 ? 0 : (numExamples + perSegment - 1) / perSegment;
+            examplesPerSegment[c] = perSegment;
+            segments[c] = new DataBuffer[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                long first = (long) s * perSegment;
+                long count = Math.min(perSegment, numExamples - first);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.PRIVATE,
+                                column.getOffset() + first * exampleBytes, count * exampleBytes);
+                mapped.order(ByteOrder.nativeOrder());
+                segments[c][s] = Nd4j.createBuffer(mapped, dataType, (int) (count * column.exampleLength()));
+            }
+        }
+    }
+
+    /**
+     * This method opens existing shard file
+     *
+     * @param file shard file
+     * @return opened shard
+     * @throws IOException
+     */
+    public static DataSetShard open(@NonNull File file) throws IOException {
+        return new DataSetShard(file);
+    }
+
+    /**
+     * This method returns number of columns with the given role
+     *
+     * @param role column role
+     * @return
+     */
+    public int numColumns(@NonNull Role role) {
+        int cnt = 0;
+        for (Column c : columns)
+            if (c.getRole() == role)
+                cnt++;
+        return cnt;
+    }
+
+    /**
+     * This method returns descriptor of the column with given role and index, or null if there's no such column
+     *
+     * @param role  column role
+     * @param index index of the array, i.e. 0 for DataSet features
+     * @return column descriptor or null
+     */
+    public Column getColumn(@NonNull Role role, int index) {
+        for (Column c : columns)
+            if (c.getRole() == role && c.getIndex() == index)
+                return c;
+        return null;
+    }
+
+    /**
+     * This method returns examples [from, to) as DataSet. Returned arrays are views of the mapped file.
+     * Applicable only for shards written from DataSets
+     *
+     * @param from first example, inclusive
+     * @param to   last example, exclusive
+     * @return
+     */
+    public DataSet getDataSet(int from, int to) {
+        checkRange(from, to);
+        return new DataSet(range(Role.FEATURES, 0, from, to), range(Role.LABELS, 0, from, to),
+                        range(Role.FEATURES_MASK, 0, from, to), range(Role.LABELS_MASK, 0, from, to));
+    }
+
+    /**
+     * This method returns given examples as DataSet. Examples are gathered into new arrays.
+     * Applicable only for shards written from DataSets
+     *
+     * @param indices indices of the examples
+     * @return
+     */
+    public DataSet getDataSet(@NonNull int[] indices) {
+        checkIndices(indices);
+        return new DataSet(gather(Role.FEATURES, 0, indices), gather(Role.LABELS, 0, indices),
+                        gather(Role.FEATURES_MASK, 0, indices), gather(Role.LABELS_MASK, 0, indices));
+    }
+
+    /**
+     * This method returns examples [from, to) as MultiDataSet. Returned arrays are views of the mapped file.
+     *
+     * @param from first example, inclusive
+     * @param to   last example, exclusive
+     * @return
+     */
+    public MultiDataSet getMultiDataSet(int from, int to) {
+        checkRange(from, to);
+        return new MultiDataSet(ranges(Role.FEATURES, from, to), ranges(Role.LABELS, from, to),
+                        ranges(Role.FEATURES_MASK, from, to), ranges(Role.LABELS_MASK, from, to));
+    }
+
+    /**
+     * This method returns given examples as MultiDataSet. Examples are gathered into new arrays.
+     *
+     * @param indices indices of the examples
+     * @return
+     */
+    public MultiDataSet getMultiDataSet(@NonNull int[] indices) {
+        checkIndices(indices);
+        return new MultiDataSet(gathers(Role.FEATURES, indices), gathers(Role.LABELS, indices),
+                        gathers(Role.FEATURES_MASK, indices), gathers(Role.LABELS_MASK, indices));
+    }
+
+    protected INDArray[] ranges(Role role, int from, int to) {
+        int num = numArrays(role);
+        if (num == 0)
+            return null;
+
+        INDArray[] result = new INDArray[num];
+        for (int i = 0; i < num; i++)
+            result[i] = range(role, i, from, to);
+        return result;
+    }
+
+    protected INDArray[] gathers(Role role, int[] indices) {
+        int num = numArrays(role);
+        if (num == 0)
+            return null;
+
+        INDArray[] result = new INDArray[num];
+        for (int i = 0; i < num; i++)
+            result[i] = gather(role, i, indices);
+        return result;
+    }
+
+    /**
+     * Number of arrays with given role, including missing ones (i.e. if only the 2nd features mask is present).
+     * Mask arrays always match number of features/labels arrays, unless there are no masks at all
+     */
+    protected int numArrays(Role role) {
+        int num = 0;
+        for (Column c : columns)
+            if (c.getRole() == role)
+                num = Math.max(num, c.getIndex() + 1);
+
+        if (num > 0 && role == Role.FEATURES_MASK)
+            return numArrays(Role.FEATURES);
+        else if (num > 0 && role == Role.LABELS_MASK)
+            return numArrays(Role.LABELS);
+
+        return num;
+    }
+
+    protected INDArray range(Role role, int index, int from, int to) {
+        int c = columnIndex(role, index);
+        if (c < 0)
+            return null;
+
+        Column column = columns.get(c);
+        int perSegment = examplesPerSegment[c];
+        int first = from / perSegment;
+        int last = (to - 1) / perSegment;
+
+        if (first == last)
+            return view(c, first, from - first * perSegment, to - from);
+
+        // range spans multiple mappings, so we have to copy
+        INDArray[] parts = new INDArray[last - first + 1];
+        for (int s = first; s <= last; s++) {
+            int start = Math.max(from, s * perSegment) - s * perSegment;
+            int end = Math.min(to, (s + 1) * perSegment) - s * perSegment;
+            parts[s - first] = view(c, s, start, end - start);
+        }
+        log.debug("Range [{}, {}) of column {} spans {} mapped segments", from, to, column.getRole(), parts.length);
+        return Nd4j.concat(0, parts);
+    }
+
+    protected INDArray gather(Role role, int index, int[] indices) {
+        int c = columnIndex(role, index);
+        if (c < 0)
+            return null;
+
+        Column column = columns.get(c);
+        long length = column.exampleLength();
+        int perSegment = examplesPerSegment[c];
+
+        INDArray result = Nd4j.createUninitialized(new long[] {indices.length, length}, 'c');
+        if (segments[c].length == 1) {
+            INDArray source = Nd4j.create(segments[c][0], new long[] {numExamples, length}, new long[] {length, 1}, 0, 'c');
+            Nd4j.pullRows(source, result, 1, indices);
+        } else {
+            for (int i = 0; i < indices.length; i++) {
+                int s = indices[i] / perSegment;
+                result.getRow(i).assign(view(c, s, indices[i] - s * perSegment, 1).reshape('c', 1, length));
+            }
+        }
+
+        return result.reshape('c', withMinibatch(indices.length, column.getExampleShape()));
+    }
+
+    protected INDArray view(int c, int segment, int first, int count) {
+        Column column = columns.get(c);
+        long[] shape = withMinibatch(count, column.getExampleShape());
+        return Nd4j.create(segments[c][segment], shape, Nd4j.getStrides(shape, 'c'), first * column.exampleLength(), 'c');
+    }
+
+    protected int columnIndex(Role role, int index) {
+        for (int c = 0; c < columns.size(); c++)
+            if (columns.get(c).getRole() == role && columns.get(c).getIndex() == index)
+                return c;
+        return -1;
+    }
+
+    protected static long[] withMinibatch(long minibatch, long[] exampleShape) {
+        long[] shape = new long[exampleShape.length + 1];
+        shape[0] = minibatch;
+        System.arraycopy(exampleShape, 0, shape, 1, exampleShape.length);
+        return shape;
+    }
+
+    protected void checkRange(int from, int to) {
+        if (from < 0 || to > numExamples || from >= to)
+            throw new ND4JIllegalStateException("Invalid range [" + from + ", " + to + ") for shard with " + numExamples
+                            + " examples");
+    }
+
+    protected void checkIndices(int[] indices) {
+        if (indices.length == 0)
+            throw new ND4JIllegalStateException("Indices can't be empty");
+
+        for (int idx : indices)
+            if (idx < 0 || idx >= numExamples)
+                throw new ND4JIllegalStateException("Example index " + idx + " is out of bounds: shard has "
+                                + numExamples + " examples");
+    }
+
+    @Override
+    public void close() throws IOException {
+        // mapped segments stay valid until they're garbage collected
+        raf.close();
+    }
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.dataset;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSetShard.Role;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writer for {@link DataSetShard} files.<br>
+ * DataSets (or MultiDataSets) are appended one by one, and all of them must have the same set of arrays, with the same
+ * shapes except for the minibatch dimension. Time series of variable length should be padded and masked first.<br>
+ * <br>
+ * Each column is buffered in a temporary file next to the target file, and the shard itself is assembled on
+ * {@link #close()}.
+ */
+@Slf4j
+public class DataSetShardWriter implements Closeable {
+    private final File file;
+    private final DataBuffer.Type dataType;
+
+    private List<Role> roles;
+    private List<Integer> indices;
+    private List<long[]> shapes;
+    private List<File> tempFiles;
+    private List<FileChannel> tempChannels;
+
+    private long numExamples;
+    private boolean closed;
+
+    public DataSetShardWriter(@NonNull File file) {
+        this.file = file;
+        this.dataType = Nd4j.dataType();
+
+        if (dataType != DataBuffer.Type.FLOAT && dataType != DataBuffer.Type.DOUBLE)
+            throw new ND4JIllegalStateException("Data type not supported: " + dataType);
+    }
+
+    /**
+     * This method writes all DataSets from the iterator into the shard file
+     *
+     * @param file     target file
+     * @param iterator source of the examples
+     * @return number of examples written
+     * @throws IOException
+     */
+    public static long write(@NonNull File file, @NonNull Iterator<DataSet> iterator) throws IOException {
+        try (DataSetShardWriter writer = new DataSetShardWriter(file)) {
+            while (iterator.hasNext())
+                writer.write(iterator.next());
+
+            return writer.numExamples;
+        }
+    }
+
+    /**
+     * This method appends all examples of the given DataSet to the shard
+     *
+     * @param dataSet examples to write
+     * @throws IOException
+     */
+    public void write(@NonNull DataSet dataSet) throws IOException {
+        append(new INDArray[] {dataSet.getFeatures()}, new INDArray[] {dataSet.getLabels()},
+                        new INDArray[] {dataSet.getFeaturesMaskArray()}, new INDArray[] {dataSet.getLabelsMaskArray()});
+    }
+
+    /**
+     * This method appends all examples of the given MultiDataSet to the shard
+     *
+     * @param dataSet examples to write
+     * @throws IOException
+     */
+    public void write(@NonNull org.nd4j.linalg.dataset.api.MultiDataSet dataSet) throws IOException {
+        append(dataSet.getFeatures(), dataSet.getLabels(), dataSet.getFeaturesMaskArrays(),
+                        dataSet.getLabelsMaskArrays());
+    }
+
+    protected void append(INDArray[] features, INDArray[] labels, INDArray[] featuresMasks, INDArray[] labelsMasks)
+                    throws IOException {
+        if (closed)
+            throw new ND4JIllegalStateException("Writer is already closed");
+
+        if (features == null || features.length == 0 || features[0] == null)
+            throw new ND4JIllegalStateException("Features can't be null");
+
+        List<Role> r = new ArrayList<>();
+        List<Integer> idx = new ArrayList<>();
+        List<INDArray> arrays = new ArrayList<>();
+        collect(Role.FEATURES, features, r, idx, arrays);
+        collect(Role.LABELS, labels, r, idx, arrays);
+        collect(Role.FEATURES_MASK, featuresMasks, r, idx, arrays);
+        collect(Role.LABELS_MASK, labelsMasks, r, idx, arrays);
+
+        long minibatch = features[0].size(0);
+        if (roles == null)
+            initColumns(r, idx, arrays);
+
+        if (!roles.equals(r) || !indices.equals(idx))
+            throw new ND4JIllegalStateException("All DataSets in the shard must have the same arrays: expected " + roles
+                            + " " + indices + ", got " + r + " " + idx);
+
+        for (int c = 0; c < arrays.size(); c++) {
+            INDArray array = arrays.get(c);
+            long[] exampleShape = Arrays.copyOfRange(array.shape(), 1, array.rank());
+            if (array.size(0) != minibatch)
+                throw new ND4JIllegalStateException("Minibatch size mismatch for " + roles.get(c) + " "
+                                + indices.get(c) + ": expected " + minibatch + ", got " + array.size(0));
+
+            if (!Arrays.equals(shapes.get(c), exampleShape))
+                throw new ND4JIllegalStateException("Example shape mismatch for " + roles.get(c) + " " + indices.get(c)
+                                + ": expected " + Arrays.toString(shapes.get(c)) + ", got "
+                                + Arrays.toString(exampleShape));
+        }
+
+        for (int c = 0; c < arrays.size(); c++)
+            writeArray(tempChannels.get(c), arrays.get(c));
+
+        numExamples += minibatch;
+    }
+
+    private static void collect(Role role, INDArray[] source, List<Role> roles, List<Integer> indices,
+                    List<INDArray> arrays) {
+        if (source == null)
+            return;
+
+        for (int i = 0; i < source.length; i++) {
+            if (source[i] == null)
+                continue;
+
+            roles.add(role);
+            indices.add(i);
+            arrays.add(source[i]);
+        }
+    }
+
+    private void initColumns(List<Role> r, List<Integer> idx, List<INDArray> arrays) throws IOException {
+        roles = r;
+        indices = idx;
+        shapes = new ArrayList<>();
+        tempFiles = new ArrayList<>();
+        tempChannels = new ArrayList<>();
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        for (int c = 0; c < arrays.size(); c++) {
+            shapes.add(Arrays.copyOfRange(arrays.get(c).shape(), 1, arrays.get(c).rank()));
+
+            File temp = File.createTempFile(file.getName() + "_", ".col" + c, parent);
+            temp.deleteOnExit();
+            tempFiles.add(temp);
+            tempChannels.add(new RandomAccessFile(temp, "rw").getChannel());
+        }
+    }
+
+    private void writeArray(FileChannel channel, INDArray array) throws IOException {
+        INDArray dup = array.dup('c');
+        long bytes = dup.length() * Nd4j.sizeOfDataType(dataType);
+        if (bytes > Integer.MAX_VALUE)
+            throw new ND4JIllegalStateException("Single array can't be larger than 2GB, split it into smaller minibatches");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) bytes).order(ByteOrder.nativeOrder());
+        if (dataType == DataBuffer.Type.DOUBLE)
+            buffer.asDoubleBuffer().put(dup.data().asDouble());
+        else
+            buffer.asFloatBuffer().put(dup.data().asFloat());
+
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * This method assembles the shard file, and removes all temporary files
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        int numColumns = roles == null ? 0 : roles.size();
+
+        // offsets don't change header size, so we can calculate them in advance
+        long headerBytes = header(new long[numColumns]).length;
+        long[] offsets = new long[numColumns];
+        long position = align(headerBytes);
+        for (int c = 0; c < numColumns; c++) {
+            offsets[c] = position;
+            position = align(position + tempChannels.get(c).size());
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel target = raf.getChannel()) {
+            target.truncate(0);
+            ByteBuffer header = ByteBuffer.wrap(header(offsets));
+            while (header.hasRemaining())
+                target.write(header);
+
+            for (int c = 0; c < numColumns; c++) {
+                FileChannel source = tempChannels.get(c);
+                long size = source.size();
+                for (long done = 0; done < size;)
+                    done += source.transferTo(done, size - done, target.position(offsets[c] + done));
+            }
+
+            // make sure the last column is padded as well
+            if (position > target.size())
+                target.write(ByteBuffer.wrap(new byte[(int) (position - target.size())]), target.size());
+        } finally {
+            if (tempChannels != null) {
+                for (int c = 0; c < numColumns; c++) {
+                    tempChannels.get(c).close();
+                    if (!tempFiles.get(c).delete())
+                        log.warn("Unable to delete temporary file [{}]", tempFiles.get(c));
+                }
+            }
+        }
+    }
+
+    private byte[] header(long[] offsets) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.write(DataSetShard.MAGIC);
+            dos.writeInt(DataSetShard.VERSION);
+            dos.writeBoolean(ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN);
+            dos.writeUTF(dataType.name());
+            dos.writeLong(numExamples);
+            dos.writeInt(offsets.length);
+            for (int c = 0; c < offsets.length; c++) {
+                dos.writeInt(roles.get(c).ordinal());
+                dos.writeInt(indices.get(c));
+                dos.writeInt(shapes.get(c).length);
+                for (long dim : shapes.get(c))
+                    dos.writeLong(dim);
+                dos.writeLong(offsets[c]);
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private static long align(long position) {
+        return ((position + DataSetShard.ALIGNMENT - 1) / DataSetShard.ALIGNMENT) * DataSetShard.ALIGNMENT;
+    }
+}
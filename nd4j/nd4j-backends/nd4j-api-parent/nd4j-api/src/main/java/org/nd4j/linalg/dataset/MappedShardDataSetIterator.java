@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.dataset;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.linalg.dataset.DataSetShard.Column;
+import org.nd4j.linalg.dataset.DataSetShard.Role;
+import org.nd4j.linalg.dataset.DataSetShard.ShuffleMode;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * DataSetIterator over the memory mapped {@link DataSetShard}.<br>
+ * Unlike {@link ExistingMiniBatchDataSetIterator}, minibatch size isn't fixed at export time: any batch size can be
+ * used, and {@link #next(int)} is supported.<br>
+ * <br>
+ * With {@link ShuffleMode#NONE} and {@link ShuffleMode#BATCHES} minibatches are views of the mapped file, so there's
+ * no deserialization or copy involved. With {@link ShuffleMode#EXAMPLES} each minibatch is gathered into new arrays.<br>
+ * If pre-processor is set, minibatches are copied before pre-processing, so the shard contents are never modified.
+ */
+public class MappedShardDataSetIterator implements DataSetIterator {
+    @Getter
+    private final DataSetShard shard;
+    private final int batchSize;
+    private final ShardCursor cursor;
+    private DataSetPreProcessor preProcessor;
+
+    @Getter
+    private List<String> labels;
+
+    /**
+     * @param file      shard file
+     * @param batchSize minibatch size
+     * @throws IOException
+     */
+    public MappedShardDataSetIterator(@NonNull File file, int batchSize) throws IOException {
+        this(DataSetShard.open(file), batchSize, ShuffleMode.NONE, 0);
+    }
+
+    /**
+     * @param shard       opened shard
+     * @param batchSize   minibatch size
+     * @param shuffleMode shuffling applied on every epoch
+     * @param seed        seed for shuffling
+     */
+    public MappedShardDataSetIterator(@NonNull DataSetShard shard, int batchSize, @NonNull ShuffleMode shuffleMode,
+                    long seed) {
+        if (shard.numColumns(Role.FEATURES) != 1 || shard.numColumns(Role.LABELS) > 1)
+            throw new IllegalArgumentException("Shard doesn't contain DataSets: use MappedShardMultiDataSetIterator instead");
+
+        this.shard = shard;
+        this.batchSize = batchSize;
+        this.cursor = new ShardCursor(shard.getNumExamples(), batchSize, shuffleMode, seed);
+    }
+
+    public void setLabels(List<String> labels) {
+        this.labels = labels;
+    }
+
+    @Override
+    public DataSet next(int num) {
+        DataSet ds;
+        if (cursor.isGathered()) {
+            ds = shard.getDataSet(cursor.nextIndices(num));
+        } else {
+            int[] range = cursor.nextRange(num);
+            ds = shard.getDataSet(range[0], range[1]);
+            if (preProcessor != null)
+                ds = ds.copy();
+        }
+
+        if (preProcessor != null)
+            preProcessor.preProcess(ds);
+
+        return ds;
+    }
+
+    @Override
+    public int inputColumns() {
+        return (int) shard.getColumn(Role.FEATURES, 0).exampleLength();
+    }
+
+    @Override
+    public int totalOutcomes() {
+        Column column = shard.getColumn(Role.LABELS, 0);
+        if (column == null)
+            return 0;
+
+        return column.getExampleShape().length == 0 ? 1 : (int) column.getExampleShape()[0];
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        // reads might hit page faults, so prefetch is still helpful
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        cursor.reset();
+    }
+
+    @Override
+    public int batch() {
+        return batchSize;
+    }
+
+    @Override
+    public void setPreProcessor(DataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public DataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    @Override
+    public DataSet next() {
+        return next(batchSize);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.dataset;
+
+import lombok.Getter;
+import lombok.NonNull;
+import org.nd4j.linalg.dataset.DataSetShard.ShuffleMode;
+import org.nd4j.linalg.dataset.api.MultiDataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.MultiDataSetIterator;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * MultiDataSetIterator over the memory mapped {@link DataSetShard}.<br>
+ * See {@link MappedShardDataSetIterator} for details.
+ */
+public class MappedShardMultiDataSetIterator implements MultiDataSetIterator {
+    @Getter
+    private final DataSetShard shard;
+    private final int batchSize;
+    private final ShardCursor cursor;
+    private MultiDataSetPreProcessor preProcessor;
+
+    /**
+     * @param file      shard file
+     * @param batchSize minibatch size
+     * @throws IOException
+     */
+    public MappedShardMultiDataSetIterator(@NonNull File file, int batchSize) throws IOException {
+        this(DataSetShard.open(file), batchSize, ShuffleMode.NONE, 0);
+    }
+
+    /**
+     * @param shard       opened shard
+     * @param batchSize   minibatch size
+     * @param shuffleMode shuffling applied on every epoch
+     * @param seed        seed for shuffling
+     */
+    public MappedShardMultiDataSetIterator(@NonNull DataSetShard shard, int batchSize,
+                    @NonNull ShuffleMode shuffleMode, long seed) {
+        this.shard = shard;
+        this.batchSize = batchSize;
+        this.cursor = new ShardCursor(shard.getNumExamples(), batchSize, shuffleMode, seed);
+    }
+
+    @Override
+    public MultiDataSet next(int num) {
+        MultiDataSet mds;
+        if (cursor.isGathered()) {
+            mds = shard.getMultiDataSet(cursor.nextIndices(num));
+        } else {
+            int[] range = cursor.nextRange(num);
+            mds = shard.getMultiDataSet(range[0], range[1]);
+            if (preProcessor != null)
+                mds = mds.copy();
+        }
+
+        if (preProcessor != null)
+            preProcessor.preProcess(mds);
+
+        return mds;
+    }
+
+    @Override
+    public void setPreProcessor(MultiDataSetPreProcessor preProcessor) {
+        this.preProcessor = preProcessor;
+    }
+
+    @Override
+    public MultiDataSetPreProcessor getPreProcessor() {
+        return preProcessor;
+    }
+
+    @Override
+    public boolean resetSupported() {
+        return true;
+    }
+
+    @Override
+    public boolean asyncSupported() {
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        cursor.reset();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    @Override
+    public MultiDataSet next() {
+        return next(batchSize);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.dataset;
+
+import org.nd4j.linalg.dataset.DataSetShard.ShuffleMode;
+import org.nd4j.linalg.util.MathUtils;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Epoch cursor over the shard examples, shared by {@link MappedShardDataSetIterator} and
+ * {@link MappedShardMultiDataSetIterator}
+ */
+class ShardCursor {
+    private final int numExamples;
+    private final int batchSize;
+    private final ShuffleMode shuffleMode;
+    private final Random random;
+
+    // batch indices for BATCHES mode, example indices for EXAMPLES mode
+    private int[] order;
+    private int position;
+    private int batchPosition;
+
+    ShardCursor(int numExamples, int batchSize, ShuffleMode shuffleMode, long seed) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size should be positive, got " + batchSize);
+
+        this.numExamples = numExamples;
+        this.batchSize = batchSize;
+        this.shuffleMode = shuffleMode;
+        this.random = new Random(seed);
+        reset();
+    }
+
+    void reset() {
+        position = 0;
+        batchPosition = 0;
+
+        int length;
+        switch (shuffleMode) {
+            case BATCHES:
+                length = (numExamples + batchSize - 1) / batchSize;
+                break;
+            case EXAMPLES:
+                length = numExamples;
+                break;
+            default:
+                order = null;
+                return;
+        }
+
+        if (order == null) {
+            order = new int[length];
+            for (int i = 0; i < length; i++)
+                order[i] = i;
+        }
+        MathUtils.shuffleArray(order, random);
+    }
+
+    boolean hasNext() {
+        return position < numExamples;
+    }
+
+    boolean isGathered() {
+        return shuffleMode == ShuffleMode.EXAMPLES;
+    }
+
+    /**
+     * Returns [from, to) range of the next minibatch. Not applicable to EXAMPLES mode
+     */
+    int[] nextRange(int num) {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        int from;
+        int to;
+        if (shuffleMode == ShuffleMode.BATCHES) {
+            if (num != batchSize)
+                throw new UnsupportedOperationException("Custom number of examples isn't supported when batches are shuffled");
+
+            from = order[batchPosition++] * batchSize;
+            to = Math.min(numExamples, from + batchSize);
+        } else {
+            from = position;
+            to = Math.min(numExamples, from + num);
+        }
+
+        position += to - from;
+        return new int[] {from, to};
+    }
+
+    /**
+     * Returns indices of the examples for the next minibatch. Applicable to EXAMPLES mode only
+     */
+    int[] nextIndices(int num) {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        int to = Math.min(numExamples, position + num);
+        int[] result = Arrays.copyOfRange(order, position, to);
+        position = to;
+        return result;
+    }
+}
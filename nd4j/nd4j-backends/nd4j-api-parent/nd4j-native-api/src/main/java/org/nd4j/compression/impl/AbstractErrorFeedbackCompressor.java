@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.compression.impl;
+
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.CompressedDataBuffer;
+import org.nd4j.linalg.compression.CompressionDescriptor;
+import org.nd4j.linalg.compression.CompressionType;
+import org.nd4j.linalg.compression.ErrorFeedbackCompressor;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Basic implementation for ErrorFeedbackCompressor implementations: encoding & decoding is done on host side,
+ * and generic NDArrayCompressor methods are built on top of encode/decode methods.
+ *
+ * PLEASE NOTE: generic compress() methods don't have residual to keep, so whatever isn't encoded - is lost there.
+ */
+public abstract class AbstractErrorFeedbackCompressor extends AbstractCompressor implements ErrorFeedbackCompressor {
+
+    @Override
+    public CompressionType getCompressionType() {
+        return CompressionType.LOSSY;
+    }
+
+    @Override
+    public DataBuffer compress(DataBuffer buffer) {
+        INDArray residual = Nd4j.createArrayFromShapeBuffer(buffer,
+                        Nd4j.getShapeInfoProvider().createShapeInformation(new int[] {1, (int) buffer.length()})
+                                        .getFirst()).dup();
+
+        INDArray encoded = encode(residual);
+        int[] words = encoded == null ? new int[] {0, (int) buffer.length(), 0, getEncodingId()}
+                        : encoded.data().asInt();
+
+        CompressionDescriptor descriptor = new CompressionDescriptor();
+        descriptor.setCompressedLength(words.length * 4); // sizeOf(INT)
+        descriptor.setOriginalLength(buffer.length() * Nd4j.sizeOfDataType(buffer.dataType()));
+        descriptor.setOriginalElementSize(Nd4j.sizeOfDataType(buffer.dataType()));
+        descriptor.setNumberOfElements(buffer.length());
+
+        descriptor.setCompressionAlgorithm(getDescriptor());
+        descriptor.setCompressionType(getCompressionType());
+
+        return new CompressedDataBuffer(new IntPointer(words), descriptor);
+    }
+
+    @Override
+    public DataBuffer decompress(DataBuffer buffer) {
+        CompressionDescriptor descriptor = ((CompressedDataBuffer) buffer).getCompressionDescriptor();
+
+        int[] words = new int[(int) (descriptor.getCompressedLength() / 4)];
+        new IntPointer(buffer.addressPointer()).get(words);
+
+        INDArray target = Nd4j.create(1, (int) descriptor.getNumberOfElements());
+        if (words[0] > 0)
+            decode(createMessage(words), target);
+
+        return target.data();
+    }
+
+    @Override
+    protected CompressedDataBuffer compressPointer(DataBuffer.TypeEx srcType, Pointer srcPointer, int length,
+                    int elementSize) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * This method returns values of given array as float array
+     */
+    protected static float[] getValues(INDArray array) {
+        return (array.isView() ? array.dup() : array).data().asFloat();
+    }
+
+    /**
+     * This method returns encoded message contents, after basic validation against target array
+     */
+    protected int[] getWords(INDArray encoded, INDArray target) {
+        int[] words = encoded.data().asInt();
+
+        if (words[3] != getEncodingId())
+            throw new ND4JIllegalStateException("Encoded message has format [" + words[3] + "], but ["
+                            + getEncodingId() + "] was expected");
+
+        if (words[1] != target.lengthLong())
+            throw new ND4JIllegalStateException("originalLength [" + words[1]
+                            + "] stored in encoded array doesn't match target length [" + target.lengthLong() + "]");
+
+        return words;
+    }
+
+    /**
+     * This method wraps encoded words into INT array, detached from workspaces
+     */
+    protected static INDArray createMessage(int[] words) {
+        DataBuffer buffer = Nd4j.getDataBufferFactory().createInt(words);
+        return Nd4j.createArrayFromShapeBuffer(buffer,
+                        Nd4j.getShapeInfoProvider().createShapeInformation(new int[] {1, words.length}).getFirst());
+    }
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.compression.impl;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.ThresholdCompression;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * 1-bit sign encoding for gradients sharing (aka signSGD with error feedback): only signs of residual elements are encoded,
+ * and all of them are decoded with the same magnitude, equal to mean absolute value of residual. Difference stays in residual.
+ *
+ * Message layout: [length, length, scale, format id], 32 signs per INT element, bit set for non-negative values
+ */
+public class Sign extends AbstractErrorFeedbackCompressor {
+
+    @Override
+    public String getDescriptor() {
+        return "SIGN";
+    }
+
+    @Override
+    public int getEncodingId() {
+        return ThresholdCompression.SIGN_ENCODING;
+    }
+
+    @Override
+    public long getMaxEncodedLength(long length) {
+        return 4 + (length + 31) / 32;
+    }
+
+    @Override
+    public INDArray encode(INDArray residual) {
+        float[] values = getValues(residual);
+
+        double sum = 0.0;
+        for (float v : values)
+            sum += Math.abs(v);
+
+        float scale = (float) (sum / values.length);
+        if (scale == 0.0f)
+            return null;
+
+        int[] words = new int[(int) getMaxEncodedLength(values.length)];
+        words[0] = values.length;
+        words[1] = values.length;
+        words[2] = Float.floatToIntBits(scale);
+        words[3] = getEncodingId();
+
+        // we reuse values array for decoded values
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] >= 0.0f) {
+                words[4 + i / 32] |= 1 << (i % 32);
+                values[i] = scale;
+            } else
+                values[i] = -scale;
+        }
+
+        residual.subi(Nd4j.create(values, residual.shape()));
+
+        return createMessage(words);
+    }
+
+    @Override
+    public void decode(INDArray encoded, INDArray target) {
+        int[] words = getWords(encoded, target);
+        float scale = Float.intBitsToFloat(words[2]);
+
+        float[] values = new float[words[0]];
+        for (int i = 0; i < values.length; i++)
+            values[i] = (words[4 + i / 32] & (1 << (i % 32))) != 0 ? scale : -scale;
+
+        target.addi(Nd4j.create(values, target.shape()));
+    }
+}
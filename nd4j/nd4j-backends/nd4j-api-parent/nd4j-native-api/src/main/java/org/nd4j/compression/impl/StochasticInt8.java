@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.compression.impl;
+
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.ThresholdCompression;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 8-bit stochastic quantization for gradients sharing: each element of residual is scaled to -127..127 range
+ * (using max magnitude of residual), and rounded up or down at random, with probability proportional to distance,
+ * so quantization is unbiased. Quantization error stays in residual.
+ *
+ * Message layout: [length, length, scale, format id], 4 signed bytes per INT element
+ */
+public class StochasticInt8 extends AbstractErrorFeedbackCompressor {
+
+    @Override
+    public String getDescriptor() {
+        return "STOCHASTIC_INT8";
+    }
+
+    @Override
+    public int getEncodingId() {
+        return ThresholdCompression.STOCHASTIC_INT8_ENCODING;
+    }
+
+    @Override
+    public long getMaxEncodedLength(long length) {
+        return 4 + (length + 3) / 4;
+    }
+
+    protected Random getRandom() {
+        return ThreadLocalRandom.current();
+    }
+
+    @Override
+    public INDArray encode(INDArray residual) {
+        float[] values = getValues(residual);
+
+        float max = 0.0f;
+        for (float v : values)
+            max = Math.max(max, Math.abs(v));
+
+        if (max == 0.0f)
+            return null;
+
+        float scale = max / 127.0f;
+        Random random = getRandom();
+
+        int[] words = new int[(int) getMaxEncodedLength(values.length)];
+        words[0] = values.length;
+        words[1] = values.length;
+        words[2] = Float.floatToIntBits(scale);
+        words[3] = getEncodingId();
+
+        // we reuse values array for decoded values
+        for (int i = 0; i < values.length; i++) {
+            int q = (int) Math.floor(values[i] / scale + random.nextFloat());
+            q = Math.max(-127, Math.min(127, q));
+
+            words[4 + i / 4] |= (q & 0xFF) << (8 * (i % 4));
+            values[i] = q * scale;
+        }
+
+        residual.subi(Nd4j.create(values, residual.shape()));
+
+        return createMessage(words);
+    }
+
+    @Override
+    public void decode(INDArray encoded, INDArray target) {
+        int[] words = getWords(encoded, target);
+        float scale = Float.intBitsToFloat(words[2]);
+
+        float[] values = new float[words[0]];
+        for (int i = 0; i < values.length; i++)
+            values[i] = ((byte) (words[4 + i / 4] >>> (8 * (i % 4)))) * scale;
+
+        target.addi(Nd4j.create(values, target.shape()));
+    }
+}
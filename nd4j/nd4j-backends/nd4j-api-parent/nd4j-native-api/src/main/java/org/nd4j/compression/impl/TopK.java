@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.compression.impl;
+
+import lombok.Getter;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.compression.ThresholdCompression;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+
+/**
+ * Top-k sparsification for gradients sharing: only k largest (by magnitude) elements of residual are encoded,
+ * as index & exact value pairs. Everything else stays in residual.
+ *
+ * Message layout: [count, length, k-th magnitude, format id], count indices, count values
+ */
+public class TopK extends AbstractErrorFeedbackCompressor {
+    @Getter
+    protected double ratio = 1e-3;
+
+    @Override
+    public String getDescriptor() {
+        return "TOPK";
+    }
+
+    /**
+     * This method allows you to configure fraction of elements to be encoded. Pass it as float/double value, in range (0, 1]
+     *
+     * Default value: 1e-3
+     * @param vars
+     */
+    @Override
+    public void configure(Object... vars) {
+        if (vars[0] instanceof Number) {
+            double r = ((Number) vars[0]).doubleValue();
+            if (r <= 0.0 || r > 1.0)
+                throw new ND4JIllegalStateException("Top-k ratio should be in range (0, 1], got [" + r + "]");
+
+            ratio = r;
+        } else {
+            throw new ND4JIllegalStateException("Top-k ratio should be Number");
+        }
+    }
+
+    @Override
+    public int getEncodingId() {
+        return ThresholdCompression.TOPK_ENCODING;
+    }
+
+    @Override
+    public long getMaxEncodedLength(long length) {
+        return 4 + 2 * getK(length);
+    }
+
+    protected int getK(long length) {
+        return (int) Math.max(1, Math.min(length, Math.ceil(length * ratio)));
+    }
+
+    @Override
+    public INDArray encode(INDArray residual) {
+        float[] values = getValues(residual);
+        int k = getK(values.length);
+
+        float[] abs = new float[values.length];
+        for (int i = 0; i < values.length; i++)
+            abs[i] = Math.abs(values[i]);
+
+        float kth = select(abs, values.length - k);
+
+        int[] indices = new int[k];
+        int[] encoded = new int[k];
+        int cnt = 0;
+        for (int i = 0; i < values.length && cnt < k; i++) {
+            if (values[i] != 0.0f && Math.abs(values[i]) >= kth) {
+                indices[cnt] = i;
+                encoded[cnt] = Float.floatToIntBits(values[i]);
+                cnt++;
+            }
+        }
+
+        if (cnt == 0)
+            return null;
+
+        int[] words = new int[4 + 2 * cnt];
+        words[0] = cnt;
+        words[1] = values.length;
+        words[2] = Float.floatToIntBits(kth);
+        words[3] = getEncodingId();
+        System.arraycopy(indices, 0, words, 4, cnt);
+        System.arraycopy(encoded, 0, words, 4 + cnt, cnt);
+
+        // sent values are removed from residual
+        for (int i = 0; i < cnt; i++)
+            residual.putScalar(indices[i], residual.getDouble(indices[i]) - values[indices[i]]);
+
+        return createMessage(words);
+    }
+
+    @Override
+    public void decode(INDArray encoded, INDArray target) {
+        int[] words = getWords(encoded, target);
+        int cnt = words[0];
+        for (int i = 0; i < cnt; i++) {
+            int idx = words[4 + i];
+            target.putScalar(idx, target.getDouble(idx) + Float.intBitsToFloat(words[4 + cnt + i]));
+        }
+    }
+
+    /**
+     * This method returns element that would be at given position in sorted array. Array is reordered in process.
+     */
+    protected static float select(float[] array, int position) {
+        int left = 0;
+        int right = array.length - 1;
+        while (left < right) {
+            float pivot = array[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (array[i] < pivot)
+                    i++;
+                while (array[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    float tmp = array[i];
+                    array[i] = array[j];
+                    array[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (position <= j)
+                right = j;
+            else if (position >= i)
+                left = i;
+            else
+                return array[position];
+        }
+
+        return array[position];
+    }
+}
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.cpu.nativecpu.ops;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.*;
+import org.nd4j.linalg.api.ops.aggregates.Aggregate;
+import org.nd4j.linalg.api.ops.executioner.GridExecutioner;
+import org.nd4j.linalg.api.ops.grid.OpDescriptor;
+import org.nd4j.linalg.api.ops.impl.meta.PredicateMetaOp;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.nativeblas.NativeOps;
+import org.nd4j.nativeblas.NativeOpsHolder;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GridExecutioner implementation for CPU backend.<br>
+ * <br>
+ * All ops are executed immediately, there's no deferred queue. Pairs of elementwise ops (Scalar, Transform,
+ * PairwiseTransform) can be fused by passing them as explicitly built {@link PredicateMetaOp}: the second op should
+ * work in-place on output of the first one. MetaOp is executed tile by tile, so the intermediate result never leaves
+ * the cache, and memory is traversed once instead of twice. I.e. activation followed by dropout mask multiplication,
+ * or pairwise op followed by scalar op. If ops can't be fused, they are executed one by one.<br>
+ * <br>
+ * PLEASE NOTE: To use this executioner, set opexec=org.nd4j.linalg.cpu.nativecpu.ops.CpuGridExecutioner in backend
+ * properties.
+ */
+@Slf4j
+public class CpuGridExecutioner extends NativeOpExecutioner implements GridExecutioner {
+    private NativeOps nativeOps = NativeOpsHolder.getInstance().getDeviceNativeOps();
+
+    private AtomicLong metaCounter = new AtomicLong(0);
+    private AtomicLong execCounter = new AtomicLong(0);
+
+    public CpuGridExecutioner() {
+        super();
+    }
+
+    @Override
+    public Op exec(Op op) {
+        if (op instanceof PredicateMetaOp) {
+            exec((PredicateMetaOp) op);
+            return op;
+        }
+
+        execCounter.incrementAndGet();
+        return super.exec(op);
+    }
+
+    /**
+     * This method executes both ops of the given MetaOp, as single native call if they can be fused
+     *
+     * @param op
+     */
+    protected void exec(PredicateMetaOp op) {
+        Op opA = op.getFirstOp();
+        Op opB = op.getSecondOp();
+        checkForCompression(opA);
+        checkForCompression(opB);
+
+        if (op.getFirstOpDescriptor().getDimensions() == null && op.getSecondOpDescriptor().getDimensions() == null
+                        && isFusable(opA) && isFusable(opB) && isMatchingOps(opA, opB)) {
+            execMeta(opA, opB);
+        } else {
+            exec(op.getFirstOpDescriptor());
+            exec(op.getSecondOpDescriptor());
+        }
+    }
+
+    protected void exec(OpDescriptor descriptor) {
+        if (descriptor.getDimensions() == null)
+            exec(descriptor.getOp());
+        else
+            exec(descriptor.getOp(), descriptor.getDimensions());
+    }
+
+    /**
+     * This method checks, if op can be a part of MetaOp: it should be elementwise, non-special op over arrays with
+     * element-wise stride, in the same order
+     *
+     * @param op
+     * @return
+     */
+    protected boolean isFusable(Op op) {
+        if (executionMode() == ExecutionMode.JAVA)
+            return false;
+
+        if (!(op instanceof ScalarOp || op instanceof TransformOp) || op.isExecSpecial() || op.isPassThrough())
+            return false;
+
+        if (op instanceof ScalarOp && ((ScalarOp) op).getDimension() != null)
+            return false;
+
+        // Pow and IsMax have special handling in NativeOpExecutioner
+        if (op instanceof TransformOp && (op.opNum() == 7 || op.opNum() == 41))
+            return false;
+
+        INDArray x = op.x();
+        INDArray z = op.z();
+        if (x == null || z == null || !isSupportedArray(x, x) || !isSupportedArray(x, z))
+            return false;
+
+        if (op.y() != null && !isSupportedArray(x, op.y()))
+            return false;
+
+        return true;
+    }
+
+    protected boolean isSupportedArray(INDArray x, INDArray array) {
+        DataBuffer.Type dataType = array.data().dataType();
+        if (dataType != DataBuffer.Type.FLOAT && dataType != DataBuffer.Type.DOUBLE
+                        && dataType != DataBuffer.Type.HALF)
+            return false;
+
+        return array.elementWiseStride() >= 1 && array.lengthLong() == x.lengthLong()
+                        && array.ordering() == x.ordering() && dataType == x.data().dataType();
+    }
+
+    /**
+     * This method checks, if opB can be fused with opA: opB should work in-place on opA output, and only one of them
+     * can be pairwise op
+     *
+     * @param opA
+     * @param opB
+     * @return
+     */
+    protected boolean isMatchingOps(Op opA, Op opB) {
+        if (!isSameArray(opA.z(), opB.x()) || !isSameArray(opA.z(), opB.z()))
+            return false;
+
+        if (opA.y() != null && opB.y() != null)
+            return false;
+
+        // if opB.y() is a different view of the same memory, tiles of opA output and opB.y() may overlap
+        if (opB.y() != null && opB.y().data() == opA.z().data() && !isSameArray(opB.y(), opA.z()))
+            return false;
+
+        return true;
+    }
+
+    protected boolean isSameArray(INDArray a, INDArray b) {
+        if (a == b)
+            return true;
+
+        return a.data() == b.data() && a.offset() == b.offset() && Arrays.equals(a.shape(), b.shape())
+                        && Arrays.equals(a.stride(), b.stride());
+    }
+
+    /**
+     * This method executes opA and opB as single MetaOp
+     *
+     * @param opA
+     * @param opB
+     */
+    protected void execMeta(Op opA, Op opB) {
+        validateDataType(Nd4j.dataType(), opA);
+        validateDataType(Nd4j.dataType(), opB);
+
+        long st = profilingHookIn(opA);
+
+        int typeA = BaseOp.getOpType(opA).ordinal();
+        int typeB = BaseOp.getOpType(opB).ordinal();
+
+        double scalarA = opA instanceof ScalarOp ? ((ScalarOp) opA).scalar().doubleValue() : 0.0;
+        double scalarB = opB instanceof ScalarOp ? ((ScalarOp) opB).scalar().doubleValue() : 0.0;
+
+        INDArray x = opA.x();
+        INDArray y = opA.y() != null ? opA.y() : opB.y();
+        INDArray z = opB.z();
+
+        Pointer yPointer = y == null ? null : y.data().addressPointer();
+        long yStride = y == null ? 0 : y.elementWiseStride();
+
+        DataBuffer.Type dataType = x.data().dataType();
+        if (dataType == DataBuffer.Type.DOUBLE) {
+            nativeOps.execMetaPredicateStridedDouble(null, typeA, opA.opNum(), typeB, opB.opNum(), x.lengthLong(),
+                            (DoublePointer) x.data().addressPointer(), x.elementWiseStride(),
+                            (DoublePointer) yPointer, yStride, (DoublePointer) z.data().addressPointer(),
+                            z.elementWiseStride(), (DoublePointer) getPointerForExtraArgs(opA),
+                            (DoublePointer) getPointerForExtraArgs(opB), scalarA, scalarB);
+        } else if (dataType == DataBuffer.Type.FLOAT) {
+            nativeOps.execMetaPredicateStridedFloat(null, typeA, opA.opNum(), typeB, opB.opNum(), x.lengthLong(),
+                            (FloatPointer) x.data().addressPointer(), x.elementWiseStride(),
+                            (FloatPointer) yPointer, yStride, (FloatPointer) z.data().addressPointer(),
+                            z.elementWiseStride(), (FloatPointer) getPointerForExtraArgs(opA),
+                            (FloatPointer) getPointerForExtraArgs(opB), (float) scalarA, (float) scalarB);
+        } else {
+            nativeOps.execMetaPredicateStridedHalf(null, typeA, opA.opNum(), typeB, opB.opNum(), x.lengthLong(),
+                            (ShortPointer) x.data().addressPointer(), x.elementWiseStride(),
+                            (ShortPointer) yPointer, yStride, (ShortPointer) z.data().addressPointer(),
+                            z.elementWiseStride(), (ShortPointer) getPointerForExtraArgs(opA),
+                            (ShortPointer) getPointerForExtraArgs(opB), (float) scalarA, (float) scalarB);
+        }
+
+        metaCounter.incrementAndGet();
+        execCounter.incrementAndGet();
+
+        profilingHookOut(opA, st);
+    }
+
+    protected Pointer getPointerForExtraArgs(Op op) {
+        if (op.extraArgs() != null)
+            return op.extraArgsDataBuff().addressPointer();
+        return null;
+    }
+
+    /**
+     * @return Number of MetaOps executed so far
+     */
+    public long getMetaCounter() {
+        return metaCounter.get();
+    }
+
+    /**
+     * @return Number of native calls issued so far, MetaOp counts as one call
+     */
+    public long getExecutionCounter() {
+        return execCounter.get();
+    }
+
+    @Override
+    public void flushQueue() {
+        // ops are never deferred
+    }
+
+    @Override
+    public void flushQueueBlocking() {
+        // ops are never deferred
+    }
+
+    @Override
+    public int getQueueLength() {
+        return 0;
+    }
+
+    @Override
+    public void aggregate(Aggregate op) {
+        exec(op);
+    }
+
+    @Override
+    public void aggregate(Aggregate op, long key) {
+        exec(op);
+    }
+}
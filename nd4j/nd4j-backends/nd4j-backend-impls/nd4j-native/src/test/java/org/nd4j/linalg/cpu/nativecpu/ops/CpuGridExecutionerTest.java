@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.cpu.nativecpu.ops;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.api.ops.impl.meta.PredicateMetaOp;
+import org.nd4j.linalg.api.ops.impl.scalar.ScalarAdd;
+import org.nd4j.linalg.api.ops.impl.scalar.ScalarMultiplication;
+import org.nd4j.linalg.api.ops.impl.transforms.Sigmoid;
+import org.nd4j.linalg.api.ops.impl.transforms.Tanh;
+import org.nd4j.linalg.api.ops.impl.transforms.arithmetic.OldMulOp;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class CpuGridExecutionerTest {
+
+    @Test
+    public void testTransformPairwiseMeta() {
+        CpuGridExecutioner executioner = new CpuGridExecutioner();
+
+        INDArray x = Nd4j.rand(128, 300);
+        INDArray mask = Nd4j.rand(128, 300);
+
+        INDArray exp = Nd4j.getExecutioner().execAndReturn(new Tanh(x.dup())).muli(mask);
+
+        INDArray z = x.dup();
+        executioner.exec(new PredicateMetaOp(new Tanh(z), new OldMulOp(z, mask, z)));
+        assertEquals(1, executioner.getMetaCounter());
+        assertEquals(1, executioner.getExecutionCounter());
+
+        assertEquals(exp, z);
+    }
+
+    @Test
+    public void testOutOfPlaceScalarTransformMeta() {
+        CpuGridExecutioner executioner = new CpuGridExecutioner();
+
+        INDArray x = Nd4j.rand(64, 1000);
+        INDArray exp = Nd4j.getExecutioner().execAndReturn(new Sigmoid(x.add(1.0)));
+
+        INDArray z = Nd4j.create(64, 1000);
+        executioner.exec(new PredicateMetaOp(new ScalarAdd(x, null, z, x.lengthLong(), 1.0), new Sigmoid(z)));
+
+        assertEquals(1, executioner.getMetaCounter());
+        assertEquals(exp, z);
+
+        // source array isn't modified
+        assertEquals(exp, Nd4j.getExecutioner().execAndReturn(new Sigmoid(x.add(1.0))));
+    }
+
+    @Test
+    public void testNoMetaForUnrelatedOps() {
+        CpuGridExecutioner executioner = new CpuGridExecutioner();
+
+        INDArray a = Nd4j.linspace(1, 10, 10);
+        INDArray b = Nd4j.linspace(1, 10, 10);
+
+        // second op doesn't work on output of the first one, so they are executed one by one
+        executioner.exec(new PredicateMetaOp(new ScalarAdd(a, 1.0), new ScalarAdd(b, 2.0)));
+
+        assertEquals(0, executioner.getMetaCounter());
+        assertEquals(2, executioner.getExecutionCounter());
+        assertEquals(Nd4j.linspace(2, 11, 10), a);
+        assertEquals(Nd4j.linspace(3, 12, 10), b);
+    }
+
+    @Test
+    public void testStridedView() {
+        CpuGridExecutioner executioner = new CpuGridExecutioner();
+
+        INDArray x = Nd4j.linspace(1, 20, 20).reshape(4, 5);
+        INDArray column = x.get(NDArrayIndex.all(), NDArrayIndex.point(1));
+        INDArray exp = column.mul(3.0).add(1.0);
+
+        executioner.exec(new PredicateMetaOp(new ScalarMultiplication(column, 3.0), new ScalarAdd(column, 1.0)));
+
+        assertEquals(exp, column);
+    }
+
+    @Test
+    public void testNoDeferredOps() {
+        CpuGridExecutioner executioner = new CpuGridExecutioner();
+
+        // plain ops are executed right away, so direct buffer reads and writes never see stale values
+        INDArray x = Nd4j.linspace(1, 10, 10);
+        executioner.exec(new ScalarMultiplication(x, 2.0));
+        assertEquals(0, executioner.getQueueLength());
+        assertEquals(0, executioner.getMetaCounter());
+        assertEquals(4.0, x.data().getDouble(1), 1e-5);
+
+        x.putScalar(0, 100.0);
+        executioner.exec(new ScalarAdd(x, 1.0));
+        assertEquals(101.0, x.getDouble(0), 1e-5);
+        assertEquals(5.0, x.data().getDouble(1), 1e-5);
+    }
+
+    @Test
+    public void testResultVisibleToOtherThread() throws Exception {
+        final CpuGridExecutioner executioner = new CpuGridExecutioner();
+        final INDArray x = Nd4j.linspace(1, 10, 10);
+        final INDArray exp = x.mul(2.0).add(1.0);
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                executioner.exec(new PredicateMetaOp(new ScalarMultiplication(x, 2.0), new ScalarAdd(x, 1.0)));
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertEquals(1, executioner.getMetaCounter());
+        for (int i = 0; i < exp.length(); i++)
+            assertEquals(exp.getDouble(i), x.data().getDouble(i), 1e-5);
+    }
+}
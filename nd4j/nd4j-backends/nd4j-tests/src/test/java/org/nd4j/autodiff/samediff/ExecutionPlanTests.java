@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.autodiff.samediff;
+
+import lombok.extern.slf4j.Slf4j;
+import lombok.val;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nd4j.linalg.api.buffer.DataBuffer;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.ops.transforms.Transforms;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@Slf4j
+public class ExecutionPlanTests {
+    private DataBuffer.Type initialType;
+
+    @Before
+    public void before() {
+        Nd4j.create(1);
+        initialType = Nd4j.dataType();
+
+        Nd4j.setDataType(DataBuffer.Type.DOUBLE);
+        Nd4j.getRandom().setSeed(123);
+    }
+
+    @After
+    public void after() {
+        Nd4j.setDataType(initialType);
+    }
+
+    private SameDiff mlp(INDArray w1, INDArray b1, INDArray w2) {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.var("in", new long[]{-1, 4});
+        sd.addAsPlaceHolder("in");
+
+        SDVariable l1 = sd.tanh("l1", sd.mmul("mmul1", in, sd.var("W1", w1)).add("z1", sd.var("b1", b1)));
+        sd.sigmoid("out", sd.mmul("mmul2", l1, sd.var("W2", w2)));
+        return sd;
+    }
+
+    @Test
+    public void testCompiledMlp() {
+        val w1 = Nd4j.rand(4, 8);
+        val b1 = Nd4j.rand(1, 8);
+        val w2 = Nd4j.rand(8, 3);
+
+        SameDiff sd = mlp(w1, b1, w2);
+        ExecutionPlan plan = sd.compile(Collections.singletonMap("in", new long[]{5, 4}), "out");
+
+        assertEquals(Collections.singletonList("out"), plan.getOutputs());
+        assertArrayEquals(new long[]{5, 3}, plan.getShape("out"));
+
+        for (int e = 0; e < 3; e++) {
+            INDArray in = Nd4j.rand(5, 4);
+            INDArray exp = Transforms.sigmoid(Transforms.tanh(in.mmul(w1).addRowVector(b1)).mmul(w2));
+
+            Map<String, INDArray> result = plan.exec(Collections.singletonMap("in", in));
+            assertEquals(exp, result.get("out"));
+        }
+    }
+
+    @Test
+    public void testBufferReuse() {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.var("in", new long[]{-1, 100});
+        sd.addAsPlaceHolder("in");
+
+        SDVariable current = in;
+        for (int i = 0; i < 6; i++)
+            current = sd.tanh("tanh_" + i, current);
+
+        ExecutionPlan plan = sd.compile(Collections.singletonMap("in", new long[]{10, 100}), current.getVarName());
+        assertEquals(6, plan.numOps());
+
+        // chain only needs two buffers at any time, plus the pinned output
+        assertTrue(plan.getNumSlots() <= 3);
+        assertTrue(plan.getArenaBytes() < plan.getNaiveBytes());
+
+        INDArray input = Nd4j.rand(10, 100);
+        INDArray exp = input.dup();
+        for (int i = 0; i < 6; i++)
+            exp = Transforms.tanh(exp);
+
+        assertEquals(exp, plan.exec(Collections.singletonMap("in", input)).get(current.getVarName()));
+
+        // input array should be left intact
+        assertNotEquals(exp, input);
+    }
+
+    @Test
+    public void testPruning() {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.var("in", new long[]{-1, 4});
+        sd.addAsPlaceHolder("in");
+
+        sd.sigmoid("a", in);
+        sd.tanh("b", sd.exp("c", in));
+
+        ExecutionPlan plan = sd.compile(Collections.singletonMap("in", new long[]{2, 4}), "a");
+        assertEquals(1, plan.numOps());
+
+        INDArray input = Nd4j.rand(2, 4);
+        assertEquals(Transforms.sigmoid(input), plan.exec(Collections.singletonMap("in", input)).get("a"));
+    }
+
+    @Test
+    public void testViewOps() {
+        SameDiff sd = SameDiff.create();
+        SDVariable in = sd.var("in", new long[]{-1, 6});
+        sd.addAsPlaceHolder("in");
+
+        // reshape and permute outputs share buffer with their inputs, but not their shapes
+        SDVariable r = sd.reshape("r", sd.tanh("t", in), 3, 4);
+        SDVariable p = sd.permute("p", r, 1, 0);
+        sd.sigmoid("out", p);
+
+        ExecutionPlan plan = sd.compile(Collections.singletonMap("in", new long[]{2, 6}), "out");
+        assertArrayEquals(new long[]{4, 3}, plan.getShape("out"));
+
+        for (int e = 0; e < 2; e++) {
+            INDArray input = Nd4j.rand(2, 6);
+            INDArray exp = Transforms.sigmoid(Transforms.tanh(input).reshape(3, 4).permute(1, 0));
+
+            INDArray out = plan.exec(Collections.singletonMap("in", input)).get("out");
+            assertArrayEquals(new long[]{4, 3}, out.shape());
+            assertEquals(exp, out);
+        }
+    }
+
+    @Test(expected = ND4JIllegalStateException.class)
+    public void testShapeMismatch() {
+        SameDiff sd = mlp(Nd4j.rand(4, 8), Nd4j.rand(1, 8), Nd4j.rand(8, 3));
+        ExecutionPlan plan = sd.compile(Collections.singletonMap("in", new long[]{5, 4}), "out");
+
+        plan.exec(Collections.singletonMap("in", Nd4j.rand(6, 4)));
+    }
+
+    @Test(expected = ND4JIllegalStateException.class)
+    public void testUndefinedPlaceholderShape() {
+        SameDiff sd = mlp(Nd4j.rand(4, 8), Nd4j.rand(1, 8), Nd4j.rand(8, 3));
+        sd.compile(Collections.singletonMap("in", new long[]{-1, 4}), "out");
+    }
+}
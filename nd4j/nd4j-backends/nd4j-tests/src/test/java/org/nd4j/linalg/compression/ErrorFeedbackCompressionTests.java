@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+
+package org.nd4j.linalg.compression;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.nd4j.compression.impl.Sign;
+import org.nd4j.compression.impl.StochasticInt8;
+import org.nd4j.compression.impl.TopK;
+import org.nd4j.linalg.BaseNd4jTest;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for ErrorFeedbackCompressor implementations
+ */
+@Slf4j
+@RunWith(Parameterized.class)
+public class ErrorFeedbackCompressionTests extends BaseNd4jTest {
+
+    public ErrorFeedbackCompressionTests(Nd4jBackend backend) {
+        super(backend);
+    }
+
+    protected INDArray getResidual(int length, long seed) {
+        Random rng = new Random(seed);
+        INDArray residual = Nd4j.create(1, length);
+        for (int i = 0; i < length; i++)
+            residual.putScalar(i, rng.nextGaussian() * 1e-3);
+
+        return residual;
+    }
+
+    @Test
+    public void testCompressorsRegistered() {
+        for (String name : new String[] {"TOPK", "STOCHASTIC_INT8", "SIGN"}) {
+            NDArrayCompressor compressor = Nd4j.getCompressor().getCompressor(name);
+            assertTrue(name, compressor instanceof ErrorFeedbackCompressor);
+        }
+    }
+
+    @Test
+    public void testErrorFeedback() {
+        ErrorFeedbackCompressor topK = new TopK();
+        topK.configure(0.05);
+
+        for (ErrorFeedbackCompressor compressor : new ErrorFeedbackCompressor[] {topK, new StochasticInt8(), new Sign()}) {
+            INDArray original = getResidual(1000, 12345);
+            INDArray residual = original.dup();
+
+            INDArray encoded = compressor.encode(residual);
+            assertNotNull(encoded);
+            assertEquals(compressor.getEncodingId(), encoded.data().getInt(3));
+            assertEquals(1000, encoded.data().getInt(1));
+            assertTrue(encoded.data().length() <= compressor.getMaxEncodedLength(1000));
+
+            INDArray decoded = Nd4j.create(1, 1000);
+            compressor.decode(encoded, decoded);
+
+            // nothing is lost: whatever wasn't sent, stays in residual
+            assertEquals(compressor.getDescriptor(), original, decoded.add(residual));
+        }
+    }
+
+    @Test
+    public void testTopK() {
+        TopK compressor = new TopK();
+        compressor.configure(0.01);
+
+        INDArray residual = Nd4j.create(1, 1000);
+        double[] values = new double[] {5e-3, -7e-3, 2e-3, -1e-3, 3e-3, -4e-3, 6e-3, -8e-3, 9e-3, -1e-2};
+        for (int i = 0; i < values.length; i++)
+            residual.putScalar(i * 97, values[i]);
+
+        // 10 largest values are sent as is, everything else is zero
+        INDArray expected = residual.dup();
+        residual.addi(1e-4);
+        INDArray encoded = compressor.encode(residual);
+        assertEquals(10, encoded.data().getInt(0));
+
+        INDArray decoded = Nd4j.create(1, 1000);
+        compressor.decode(encoded, decoded);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(expected.getDouble(i * 97) + 1e-4, decoded.getDouble(i * 97), 1e-6);
+            assertEquals(0.0, residual.getDouble(i * 97), 1e-6);
+        }
+        assertEquals(10, decoded.neq(0.0).sumNumber().intValue());
+    }
+
+    @Test
+    public void testStochasticInt8() {
+        INDArray original = getResidual(1003, 119);
+        INDArray residual = original.dup();
+
+        StochasticInt8 compressor = new StochasticInt8();
+        INDArray encoded = compressor.encode(residual);
+        assertEquals(4 + 251, encoded.data().length());
+
+        float scale = Float.intBitsToFloat(encoded.data().getInt(2));
+        assertEquals(original.amaxNumber().doubleValue() / 127, scale, 1e-7);
+
+        // quantization error is below one step, and decoded values are within -127..127 steps
+        INDArray decoded = Nd4j.create(1, 1003);
+        compressor.decode(encoded, decoded);
+        assertTrue(residual.amaxNumber().doubleValue() <= scale * 1.0001);
+        assertTrue(decoded.amaxNumber().doubleValue() <= scale * 127.0001);
+    }
+
+    @Test
+    public void testSign() {
+        INDArray original = Nd4j.create(new double[] {1, -2, 3, -4, 0, 6, -7, 8, 9, -10, 11, -12, 13, -14, 15, -16, 17,
+                        -18, 19, -20, 21, -22, 23, -24, 25, -26, 27, -28, 29, -30, 31, -32, 33, -34}, new int[] {1, 34});
+        INDArray residual = original.dup();
+
+        Sign compressor = new Sign();
+        INDArray encoded = compressor.encode(residual);
+        assertEquals(4 + 2, encoded.data().length());
+
+        double scale = original.norm1Number().doubleValue() / 34;
+        INDArray decoded = Nd4j.create(1, 34);
+        compressor.decode(encoded, decoded);
+        for (int i = 0; i < 34; i++)
+            assertEquals(original.getDouble(i) >= 0 ? scale : -scale, decoded.getDouble(i), 1e-4);
+
+        // all-zero residual has nothing to send
+        assertNull(compressor.encode(Nd4j.create(1, 34)));
+    }
+
+    @Test
+    public void testGenericCompression() {
+        INDArray array = Nd4j.create(new double[] {1, -1, 3, -3}, new int[] {1, 4});
+
+        INDArray compressed = Nd4j.getCompressor().compress(array, "SIGN");
+        assertTrue(compressed.isCompressed());
+
+        INDArray decompressed = Nd4j.getCompressor().decompress(compressed);
+        assertEquals(Nd4j.create(new double[] {2, -2, 2, -2}, new int[] {1, 4}), decompressed);
+    }
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+}
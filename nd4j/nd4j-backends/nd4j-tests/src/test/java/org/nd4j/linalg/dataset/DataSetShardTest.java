@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2015-2018 Skymind, Inc.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Apache License, Version 2.0 which is available at
+ * https://www.apache.org/licenses/LICENSE-2.0.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ ******************************************************************************/
+
+package org.nd4j.linalg.dataset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.nd4j.linalg.BaseNd4jTest;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSetShard.ShuffleMode;
+import org.nd4j.linalg.dataset.api.preprocessor.NormalizerMinMaxScaler;
+import org.nd4j.linalg.exception.ND4JIllegalStateException;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.factory.Nd4jBackend;
+import org.nd4j.linalg.indexing.NDArrayIndex;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@RunWith(Parameterized.class)
+public class DataSetShardTest extends BaseNd4jTest {
+
+    @Rule
+    public TemporaryFolder testDir = new TemporaryFolder();
+
+    public DataSetShardTest(Nd4jBackend backend) {
+        super(backend);
+    }
+
+    private File writeIris() throws Exception {
+        File file = new File(testDir.getRoot(), "iris.shard");
+        assertEquals(150, DataSetShardWriter.write(file, new IrisDataSetIterator(32, 150)));
+        return file;
+    }
+
+    @Test
+    public void testSequentialViews() throws Exception {
+        DataSet all = new IrisDataSetIterator(150, 150).next();
+        File file = writeIris();
+
+        MappedShardDataSetIterator iter = new MappedShardDataSetIterator(file, 40);
+        assertEquals(4, iter.inputColumns());
+        assertEquals(3, iter.totalOutcomes());
+
+        for (int e = 0; e < 2; e++) {
+            int cnt = 0;
+            while (iter.hasNext()) {
+                DataSet ds = iter.next();
+                int end = Math.min(150, cnt + 40);
+                assertEquals(end - cnt, ds.numExamples());
+                assertEquals(all.getFeatures().get(NDArrayIndex.interval(cnt, end), NDArrayIndex.all()), ds.getFeatures());
+                assertEquals(all.getLabels().get(NDArrayIndex.interval(cnt, end), NDArrayIndex.all()), ds.getLabels());
+                cnt = end;
+            }
+            assertEquals(150, cnt);
+            iter.reset();
+        }
+
+        // custom batch size
+        assertEquals(7, iter.next(7).numExamples());
+        assertEquals(all.getFeatures().get(NDArrayIndex.interval(7, 20), NDArrayIndex.all()), iter.next(13).getFeatures());
+        iter.getShard().close();
+    }
+
+    @Test
+    public void testShuffledExamples() throws Exception {
+        DataSet all = new IrisDataSetIterator(150, 150).next();
+        DataSetShard shard = DataSetShard.open(writeIris());
+        MappedShardDataSetIterator iter = new MappedShardDataSetIterator(shard, 32, ShuffleMode.EXAMPLES, 12345);
+
+        INDArray firstEpoch = null;
+        for (int e = 0; e < 2; e++) {
+            Set<INDArray> seen = new HashSet<>();
+            INDArray first = null;
+            while (iter.hasNext()) {
+                DataSet ds = iter.next();
+                if (first == null)
+                    first = ds.getFeatures().dup();
+                for (int i = 0; i < ds.numExamples(); i++)
+                    seen.add(ds.getFeatures().getRow(i).dup());
+            }
+
+            // all examples are still there, each of them exactly once
+            Set<INDArray> exp = new HashSet<>();
+            for (int i = 0; i < 150; i++)
+                exp.add(all.getFeatures().getRow(i).dup());
+            assertEquals(exp, seen);
+
+            if (firstEpoch == null)
+                firstEpoch = first;
+            else
+                assertNotEquals(firstEpoch, first);
+            iter.reset();
+        }
+        shard.close();
+    }
+
+    @Test
+    public void testShuffledBatches() throws Exception {
+        DataSet all = new IrisDataSetIterator(150, 150).next();
+        DataSetShard shard = DataSetShard.open(writeIris());
+        MappedShardDataSetIterator iter = new MappedShardDataSetIterator(shard, 50, ShuffleMode.BATCHES, 12345);
+
+        int total = 0;
+        while (iter.hasNext()) {
+            DataSet ds = iter.next();
+            assertEquals(50, ds.numExamples());
+
+            boolean found = false;
+            for (int b = 0; b < 3; b++)
+                found |= all.getFeatures().get(NDArrayIndex.interval(b * 50, (b + 1) * 50), NDArrayIndex.all())
+                                .equals(ds.getFeatures());
+            assertTrue(found);
+            total += ds.numExamples();
+        }
+        assertEquals(150, total);
+        shard.close();
+    }
+
+    @Test
+    public void testPreProcessorDoesNotModifyShard() throws Exception {
+        DataSet all = new IrisDataSetIterator(150, 150).next();
+        File file = writeIris();
+
+        NormalizerMinMaxScaler scaler = new NormalizerMinMaxScaler();
+        scaler.fit(all);
+
+        MappedShardDataSetIterator iter = new MappedShardDataSetIterator(file, 150);
+        iter.setPreProcessor(scaler);
+        DataSet first = iter.next();
+        iter.reset();
+        assertEquals(first.getFeatures(), iter.next().getFeatures());
+
+        iter.setPreProcessor(null);
+        iter.reset();
+        assertEquals(all.getFeatures(), iter.next().getFeatures());
+        iter.getShard().close();
+    }
+
+    @Test
+    public void testMultiDataSetWithMasks() throws Exception {
+        File file = new File(testDir.getRoot(), "mds.shard");
+        List<MultiDataSet> source = new ArrayList<>();
+        try (DataSetShardWriter writer = new DataSetShardWriter(file)) {
+            for (int i = 0; i < 3; i++) {
+                MultiDataSet mds = new MultiDataSet(new INDArray[] {Nd4j.rand(new int[] {4, 3, 5}), Nd4j.rand(4, 2)},
+                                new INDArray[] {Nd4j.rand(4, 6)}, new INDArray[] {Nd4j.ones(4, 5), null}, null);
+                writer.write(mds);
+                source.add(mds);
+            }
+        }
+
+        MappedShardMultiDataSetIterator iter = new MappedShardMultiDataSetIterator(file, 6);
+        MultiDataSet first = (MultiDataSet) iter.next();
+        MultiDataSet second = (MultiDataSet) iter.next();
+        assertFalse(iter.hasNext());
+
+        INDArray exp = Nd4j.concat(0, source.get(0).getFeatures(0), source.get(1).getFeatures(0));
+        assertEquals(exp.get(NDArrayIndex.interval(0, 6), NDArrayIndex.all(), NDArrayIndex.all()), first.getFeatures(0));
+        assertEquals(source.get(2).getLabels(0), second.getLabels(0).get(NDArrayIndex.interval(2, 6), NDArrayIndex.all()));
+        assertArrayEquals(new long[] {6, 5}, first.getFeaturesMaskArray(0).shape());
+        assertNull(first.getFeaturesMaskArray(1));
+        assertNull(first.getLabelsMaskArrays());
+        iter.getShard().close();
+    }
+
+    @Test(expected = ND4JIllegalStateException.class)
+    public void testShapeMismatch() throws Exception {
+        try (DataSetShardWriter writer = new DataSetShardWriter(new File(testDir.getRoot(), "bad.shard"))) {
+            writer.write(new DataSet(Nd4j.rand(4, 3), Nd4j.rand(4, 2)));
+            writer.write(new DataSet(Nd4j.rand(4, 5), Nd4j.rand(4, 2)));
+        }
+    }
+
+    @Override
+    public char ordering() {
+        return 'c';
+    }
+}